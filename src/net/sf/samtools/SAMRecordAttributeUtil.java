@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.sf.samtools;
+
+/**
+ * Bulk operations on the binary attribute list of a SAMRecord.
+ *
+ * Picard keeps record attributes as a linked list of SAMBinaryTagAndValue
+ * sorted by binary tag, but only exposes it to this package. Working on the
+ * list directly lets us touch all the tags of a record in one pass instead of
+ * one linear lookup and one list insertion per tag.
+ *
+ * @author agent@local
+ */
+public final class SAMRecordAttributeUtil {
+
+    private SAMRecordAttributeUtil(){
+    }
+
+    /**
+     * Add all the attributes in source record to target record if not already in target,
+     * merging both sorted attribute lists in a single pass.
+     *
+     * The attribute list of the source record is not changed.
+     *
+     * @param target
+     * @param source
+     * @return number of attributes added to target record
+     */
+    public static int mergeMissingAttributes(SAMRecord target, SAMRecord source){
+
+        SAMBinaryTagAndValue sourceAttr = source.getBinaryAttributes();
+        if( sourceAttr == null ){
+            return 0;
+        }
+        SAMBinaryTagAndValue targetAttr = target.getBinaryAttributes();
+
+        SAMBinaryTagAndValue head = null;
+        SAMBinaryTagAndValue tail = null;
+        int added = 0;
+
+        while( sourceAttr != null ){
+
+            SAMBinaryTagAndValue next;
+            if( targetAttr != null && targetAttr.tag <= sourceAttr.tag ){
+                if( targetAttr.tag == sourceAttr.tag ){
+                    sourceAttr = sourceAttr.next;
+                }
+                next = targetAttr;
+                targetAttr = targetAttr.next;
+            }else{
+                next = copyNode(sourceAttr);
+                sourceAttr = sourceAttr.next;
+                added++;
+            }
+
+            if( head == null ){
+                head = next;
+            }else{
+                tail.next = next;
+            }
+            tail = next;
+        }
+
+        if( added == 0 ){
+            return 0;
+        }
+        tail.next = targetAttr;
+
+        // clearAttributes marks the binary representation of a BAMRecord as stale
+        target.clearAttributes();
+        target.setAttributes(head);
+
+        return added;
+    }
+
+    /**
+     * Remove all the attributes whose tag is set in a table, unlinking them
+     * from the attribute list in a single pass.
+     *
+     * @param record
+     * @param tagsToRemove table indexed by binary tag as given by SAMTagUtil.makeBinaryTag, masked to 16 bits
+     * @param removedTags if not null, the entries of the removed tags are set to true
+     * @return number of attributes removed
+     */
+    public static int removeAttributes(SAMRecord record, boolean [] tagsToRemove, boolean [] removedTags){
+
+        SAMBinaryTagAndValue attr = record.getBinaryAttributes();
+
+        SAMBinaryTagAndValue head = null;
+        SAMBinaryTagAndValue tail = null;
+        int removed = 0;
+
+        while( attr != null ){
+            int index = attr.tag & 0xFFFF;
+            if( tagsToRemove[index] ){
+                if( removedTags != null ){
+                    removedTags[index] = true;
+                }
+                removed++;
+            }else{
+                if( head == null ){
+                    head = attr;
+                }else{
+                    tail.next = attr;
+                }
+                tail = attr;
+            }
+            attr = attr.next;
+        }
+
+        if( removed == 0 ){
+            return 0;
+        }
+        if( tail != null ){
+            tail.next = null;
+        }
+
+        // clearAttributes marks the binary representation of a BAMRecord as stale
+        record.clearAttributes();
+        record.setAttributes(head);
+
+        return removed;
+    }
+
+    private static SAMBinaryTagAndValue copyNode(SAMBinaryTagAndValue attr){
+        if( attr.isUnsignedArray() ){
+            return new SAMBinaryTagAndUnsignedArrayValue(attr.tag, attr.value);
+        }
+        return new SAMBinaryTagAndValue(attr.tag, attr.value);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package uk.ac.sanger.npg.bam.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import net.sf.picard.util.Log;
+import net.sf.samtools.SAMRecord;
+
+/**
+ * Iterate an aligned bam file in groups of alignment records of the same read,
+ * i.e. with the same read name and the same paired, first and second of pair flags.
+ *
+ * Each group has one primary alignment, plus any secondary or supplementary alignments
+ * just before or after the primary one.
+ *
+ * The same group object is refilled by each call to next(),
+ * so a group is only valid until the next call.
+ *
+ * @author agent@local
+ */
+public class AlignmentGroupIterator implements Iterator<AlignmentGroupIterator.AlignmentGroup> {
+
+    private final Log log = Log.getInstance(AlignmentGroupIterator.class);
+
+    private final Iterator<SAMRecord> iterator;
+
+    private final AlignmentGroup group = new AlignmentGroup();
+
+    private SAMRecord nextRecord = null;
+
+    /**
+     *
+     * @param iterator aligned records, all alignments of a read next to each other
+     */
+    public AlignmentGroupIterator(Iterator<SAMRecord> iterator){
+        this.iterator = iterator;
+        if( iterator.hasNext() ){
+            this.nextRecord = iterator.next();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return this.nextRecord != null;
+    }
+
+    @Override
+    public AlignmentGroup next() {
+
+        if( this.nextRecord == null ){
+            throw new NoSuchElementException();
+        }
+
+        group.clear();
+        SAMRecord first = this.nextRecord;
+
+        SAMRecord record = first;
+        while ( record != null
+                && (record.isSecondaryOrSupplementary() || group.primary == null)
+                && (record == first || isSameRead(first, record)) ){
+
+            if( record.isSecondaryOrSupplementary() ){
+                group.secondaryAlignments.add(record);
+            }else{
+                group.primary = record;
+            }
+            record = this.iterator.hasNext() ? this.iterator.next() : null;
+        }
+        this.nextRecord = record;
+
+        if( group.primary == null ){
+            log.error( first.getReadName() );
+            throw new RuntimeException("The mapped bam file has a read where there's a supplementary/secondary but no primary.");
+        }
+
+        return group;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Not supported.");
+    }
+
+    /**
+     *
+     * @param record1
+     * @param record2
+     * @return true if both records have the same read name, paired, first and second of pair flags
+     */
+    public static boolean isSameRead(SAMRecord record1, SAMRecord record2){
+
+        boolean paired = record1.getReadPairedFlag();
+        if( paired != record2.getReadPairedFlag() ){
+            return false;
+        }
+        if( paired
+                && ( record1.getFirstOfPairFlag() != record2.getFirstOfPairFlag()
+                  || record1.getSecondOfPairFlag() != record2.getSecondOfPairFlag() ) ){
+            return false;
+        }
+        return record1.getReadName().equals(record2.getReadName());
+    }
+
+    /**
+     * Primary alignment of a read with its secondary and supplementary alignments in input order
+     */
+    public static class AlignmentGroup {
+
+        private SAMRecord primary;
+
+        private final List<SAMRecord> secondaryAlignments = new ArrayList<SAMRecord>();
+
+        private void clear(){
+            this.primary = null;
+            this.secondaryAlignments.clear();
+        }
+
+        /**
+         * @return the primary alignment
+         */
+        public SAMRecord getPrimary() {
+            return primary;
+        }
+
+        /**
+         * @return the secondary and supplementary alignments
+         */
+        public List<SAMRecord> getSecondaryAlignments() {
+            return secondaryAlignments;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package uk.ac.sanger.npg.bam.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.util.BlockCompressedInputStream;
+import net.sf.samtools.util.BlockCompressedOutputStream;
+import net.sf.samtools.util.Md5CalculatingOutputStream;
+import net.sf.samtools.util.RuntimeIOException;
+
+/**
+ * Write a BAM file with a new header and the records of another BAM file,
+ * without decompressing the records.
+ *
+ * The new header is compressed into new BGZF blocks. The records sharing
+ * the last header block of the input are decompressed and compressed again
+ * into one block, all the following blocks are copied byte for byte,
+ * including the end of file marker block if there is one.
+ *
+ * @author agent@local
+ */
+public class BamHeaderRewriter {
+
+    private static final int BGZF_HEADER_LENGTH = 18;
+    private static final int BLOCK_SIZE_OFFSET = 16;
+
+    private static final int COPY_BUFFER_SIZE = 1 << 20;
+
+    private BamHeaderRewriter() {
+    }
+
+    /**
+     *
+     * @param input BAM file
+     * @param output BAM file
+     * @param header new header
+     * @param createMd5File
+     * @return number of compressed bytes copied from the input without decompressing them
+     */
+    public static long rewriteHeader(File input, File output, SAMFileHeader header, boolean createMd5File) {
+
+        // virtual file offset of the first record
+        final long recordsStart;
+        try {
+            BlockCompressedInputStream in = new BlockCompressedInputStream(input);
+            new RawBamReader(in, input.getPath());
+            recordsStart = in.getFilePointer();
+            in.close();
+        } catch (IOException ex) {
+            throw new RuntimeIOException("Cannot read bam file " + input, ex);
+        }
+        final long blockAddress = recordsStart >>> 16;
+        final int offsetInBlock = (int) (recordsStart & 0xFFFF);
+
+        OutputStream fileStream = null;
+        BgzfOutputStream out = null;
+        RandomAccessFile raf = null;
+        try {
+            fileStream = new FileOutputStream(output, false);
+            if( createMd5File ){
+                fileStream = new Md5CalculatingOutputStream(fileStream, new File(output.getAbsolutePath() + ".md5"));
+            }
+
+            raf = new RandomAccessFile(input, "r");
+            final long inputLength = raf.length();
+
+            out = new BgzfOutputStream(fileStream, BlockCompressedOutputStream.getDefaultCompressionLevel(), false);
+            RawBamWriter.writeHeader(out, header);
+
+            long copyFrom = blockAddress;
+            if( offsetInBlock != 0 ){
+                // the rest of the block where the header ends
+                byte [] records = readBlockFrom(input, recordsStart, getUncompressedBlockSize(raf, blockAddress) - offsetInBlock);
+                out.write(records);
+                copyFrom += getBlockSize(raf, blockAddress);
+            }
+            // compress the pending bytes so the copied blocks start at a block boundary,
+            // without an end of file marker block, and release the deflaters
+            out.finish();
+            out = null;
+
+            byte [] buffer = new byte[COPY_BUFFER_SIZE];
+            raf.seek(copyFrom);
+            long remaining = inputLength - copyFrom;
+            while( remaining > 0 ){
+                int count = raf.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if( count < 0 ){
+                    throw new RuntimeIOException("Premature end of bam file " + input);
+                }
+                fileStream.write(buffer, 0, count);
+                remaining -= count;
+            }
+            raf.close();
+            raf = null;
+            fileStream.close();
+            fileStream = null;
+            return inputLength - copyFrom;
+        } catch (IOException ex) {
+            throw new RuntimeIOException("Cannot write bam file " + output, ex);
+        } finally {
+            closeQuietly(raf, out != null ? out : fileStream);
+        }
+    }
+
+    private static int getBlockSize(RandomAccessFile raf, long blockAddress) throws IOException {
+        byte [] blockHeader = new byte[BGZF_HEADER_LENGTH];
+        raf.seek(blockAddress);
+        raf.readFully(blockHeader);
+        if( blockHeader[0] != 31 || (blockHeader[1] & 0xFF) != 139 ){
+            throw new RuntimeException("Not a BGZF block at " + blockAddress);
+        }
+        return ((blockHeader[BLOCK_SIZE_OFFSET] & 0xFF) | (blockHeader[BLOCK_SIZE_OFFSET + 1] & 0xFF) << 8) + 1;
+    }
+
+    private static int getUncompressedBlockSize(RandomAccessFile raf, long blockAddress) throws IOException {
+        byte [] size = new byte[4];
+        raf.seek(blockAddress + getBlockSize(raf, blockAddress) - 4);
+        raf.readFully(size);
+        return (size[0] & 0xFF) | (size[1] & 0xFF) << 8 | (size[2] & 0xFF) << 16 | (size[3] & 0xFF) << 24;
+    }
+
+    private static byte [] readBlockFrom(File input, long virtualOffset, int length) throws IOException {
+        byte [] data = new byte[length];
+        BlockCompressedInputStream in = new BlockCompressedInputStream(input);
+        in.seek(virtualOffset);
+        int total = 0;
+        while( total < length ){
+            int count = in.read(data, total, length - total);
+            if( count < 0 ){
+                throw new RuntimeIOException("Premature end of bam file " + input);
+            }
+            total += count;
+        }
+        in.close();
+        return data;
+    }
+
+    private static void closeQuietly(RandomAccessFile raf, OutputStream out) {
+        try {
+            if( raf != null ){
+                raf.close();
+            }
+            if( out != null ){
+                out.close();
+            }
+        } catch (IOException ex) {
+            // already failed
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package uk.ac.sanger.npg.bam.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import net.sf.samtools.BAMRecordCodec;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMFileWriterFactory;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.util.BlockCompressedInputStream;
+import net.sf.samtools.util.BlockCompressedOutputStream;
+import net.sf.samtools.util.BlockCompressedStreamConstants;
+import net.sf.samtools.util.Md5CalculatingOutputStream;
+import net.sf.samtools.util.RuntimeIOException;
+
+/**
+ * Write a SAM or BAM file from a header and a list of segments written by BamSegmentWriter.
+ *
+ * For a BAM output the header is compressed into its own blocks and the compressed bytes
+ * of each segment are copied behind it, followed by the end of file marker block.
+ * For a SAM output the records of the segments are decoded and written one by one.
+ * A shard output has neither header nor end of file marker block, only the copied segments,
+ * so that shards of a lane written on different machines can be joined behind the lane header later.
+ *
+ * @author agent@local
+ */
+public class BamSegmentConcatenator {
+
+    private static final int COPY_BUFFER_SIZE = 1 << 20;
+
+    private final File output;
+    private final SAMFileHeader header;
+    private final boolean shard;
+
+    // BAM output
+    private final OutputStream fileStream;
+    private final byte [] buffer;
+
+    // SAM output
+    private final SAMFileWriter writer;
+
+    private long recordCount = 0;
+
+    /**
+     *
+     * @param output SAM or BAM file, BAM if the name ends with .bam
+     * @param header
+     * @param createMd5File
+     */
+    public BamSegmentConcatenator(File output, SAMFileHeader header, boolean createMd5File) {
+        this(output, header, createMd5File, false);
+    }
+
+    /**
+     *
+     * @param output SAM or BAM file, BAM if the name ends with .bam or if a shard
+     * @param header
+     * @param createMd5File
+     * @param shard write a headerless shard without end of file marker block
+     */
+    public BamSegmentConcatenator(File output, SAMFileHeader header, boolean createMd5File, boolean shard) {
+
+        this.output = output;
+        this.header = header;
+        this.shard = shard;
+
+        if( !shard && !output.getName().endsWith(".bam") ){
+            SAMFileWriterFactory factory = new SAMFileWriterFactory();
+            factory.setCreateMd5File(createMd5File);
+            this.writer = factory.makeSAMOrBAMWriter(header, true, output);
+            this.fileStream = null;
+            this.buffer = null;
+            return;
+        }
+
+        this.writer = null;
+        this.buffer = new byte[COPY_BUFFER_SIZE];
+        try {
+            OutputStream stream = new FileOutputStream(output, false);
+            if( createMd5File ){
+                stream = new Md5CalculatingOutputStream(stream, new File(output.getAbsolutePath() + ".md5"));
+            }
+            this.fileStream = stream;
+        } catch (IOException ex) {
+            throw new RuntimeIOException("Cannot write bam file " + output, ex);
+        }
+        if( shard ){
+            return;
+        }
+
+        // header blocks without end of file marker block, the file stream is kept open for the segments
+        BgzfOutputStream out = new BgzfOutputStream(this.fileStream, BlockCompressedOutputStream.getDefaultCompressionLevel(), false);
+        try {
+            RawBamWriter.writeHeader(out, header);
+            out.finish();
+        } catch (IOException ex) {
+            closeQuietly(out);
+            throw new RuntimeIOException("Cannot write bam file " + output, ex);
+        }
+    }
+
+    /**
+     * Append all records of a segment
+     *
+     * @param segmentFile
+     * @param segmentRecordCount number of records in the segment
+     */
+    public void appendSegment(File segmentFile, long segmentRecordCount) {
+
+        if( this.writer != null ){
+            this.copyRecords(segmentFile);
+        }else{
+            this.copyBlocks(segmentFile);
+        }
+        this.recordCount += segmentRecordCount;
+    }
+
+    private void copyBlocks(File segmentFile) {
+
+        InputStream in = null;
+        try {
+            in = new FileInputStream(segmentFile);
+            int count;
+            while( (count = in.read(this.buffer)) > 0 ){
+                this.fileStream.write(this.buffer, 0, count);
+            }
+            in.close();
+            in = null;
+        } catch (IOException ex) {
+            throw new RuntimeIOException("Cannot copy segment " + segmentFile + " to " + this.output, ex);
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void copyRecords(File segmentFile) {
+
+        BlockCompressedInputStream in = null;
+        try {
+            in = new BlockCompressedInputStream(segmentFile);
+            BAMRecordCodec codec = new BAMRecordCodec(this.header);
+            codec.setInputStream(in, segmentFile.getPath());
+            SAMRecord record;
+            while( (record = codec.decode()) != null ){
+                this.writer.addAlignment(record);
+            }
+            in.close();
+            in = null;
+        } catch (IOException ex) {
+            throw new RuntimeIOException("Cannot read segment " + segmentFile, ex);
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * write the end of file marker block unless a shard and close the output
+     */
+    public void close() {
+
+        if( this.writer != null ){
+            this.writer.close();
+            return;
+        }
+        try {
+            if( !this.shard ){
+                this.fileStream.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+            }
+            this.fileStream.close();
+        } catch (IOException ex) {
+            throw new RuntimeIOException("Cannot close bam file " + this.output, ex);
+        }
+    }
+
+    /**
+     * close the output after a failure and delete it, so a partial output is not taken for a complete one
+     */
+    public void abort() {
+
+        if( this.writer != null ){
+            try {
+                this.writer.close();
+            } catch (RuntimeException ex) {
+                // already failed
+            }
+        }else{
+            closeQuietly(this.fileStream);
+        }
+        this.output.delete();
+        new File(this.output.getAbsolutePath() + ".md5").delete();
+    }
+
+    /**
+     * @return the output
+     */
+    public File getOutput() {
+        return output;
+    }
+
+    /**
+     * @return the number of records appended
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    private static void closeQuietly(Closeable stream) {
+        try {
+            if( stream != null ){
+                stream.close();
+            }
+        } catch (IOException ex) {
+            // already failed
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package uk.ac.sanger.npg.bam.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import net.sf.samtools.BAMRecordCodec;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.util.BlockCompressedOutputStream;
+import net.sf.samtools.util.RuntimeIOException;
+
+/**
+ * Write BAM records into a BGZF segment file, without the BAM header
+ * and without the end of file marker block.
+ *
+ * Segments can be appended one after another behind a BAM header
+ * by copying their compressed bytes, see BamSegmentConcatenator.
+ *
+ * @author agent@local
+ */
+public class BamSegmentWriter implements SAMFileWriter {
+
+    private final File segmentFile;
+    private final SAMFileHeader header;
+
+    private final BgzfOutputStream out;
+    private final BAMRecordCodec codec;
+
+    private long recordCount = 0;
+
+    /**
+     *
+     * @param segmentFile
+     * @param header header of the BAM file the segment will be appended to
+     */
+    public BamSegmentWriter(File segmentFile, SAMFileHeader header) {
+
+        this.segmentFile = segmentFile;
+        this.header = header;
+        OutputStream fileStream;
+        try {
+            fileStream = new FileOutputStream(segmentFile, false);
+        } catch (IOException ex) {
+            throw new RuntimeIOException("Cannot open segment file to write " + segmentFile, ex);
+        }
+        this.out = new BgzfOutputStream(fileStream, BlockCompressedOutputStream.getDefaultCompressionLevel(), false);
+        this.codec = new BAMRecordCodec(header);
+        this.codec.setOutputStream(this.out, segmentFile.getPath());
+    }
+
+    @Override
+    public void addAlignment(SAMRecord record) {
+        this.codec.encode(record);
+        this.recordCount++;
+    }
+
+    @Override
+    public SAMFileHeader getFileHeader() {
+        return this.header;
+    }
+
+    /**
+     * compress the pending records and close the file without the end of file marker block
+     */
+    @Override
+    public void close() {
+        try {
+            this.out.close();
+        } catch (IOException ex) {
+            throw new RuntimeIOException("Cannot close segment file " + this.segmentFile, ex);
+        }
+    }
+
+    /**
+     * @return the segmentFile
+     */
+    public File getSegmentFile() {
+        return segmentFile;
+    }
+
+    /**
+     * @return the number of records written
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+}
@@ -26,7 +26,31 @@ package uk.ac.sanger.npg.bam.util;
  * @author gq1@sanger.ac.uk
  */
 public final class BamUtils {
-    
+
+    /**
+     * Message for a CRAM output, sam-jdk 1.96 has no CRAM writer and any name not ending with .bam gives a SAM file
+     */
+    public static final String CRAM_NOT_SUPPORTED = "CRAM output is not supported, write BAM and convert it to CRAM"
+            + " with samtools or cramtools, no reference needed for unaligned data";
+
+    /**
+     *
+     * @param fileName
+     * @return true if the output file name has the .cram extension, which sam-jdk can not write
+     */
+    public static boolean isCramFile(String fileName){
+        return fileName != null && fileName.toLowerCase().endsWith(".cram");
+    }
+
+    /**
+     *
+     * @param format
+     * @return true if the output format is cram, which sam-jdk can not write
+     */
+    public static boolean isCramFormat(String format){
+        return "cram".equalsIgnoreCase(format);
+    }
+
      /**
      *
      * @param array
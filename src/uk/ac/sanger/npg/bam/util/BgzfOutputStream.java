@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package uk.ac.sanger.npg.bam.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import net.sf.samtools.util.BlockCompressedStreamConstants;
+
+/**
+ * Write BGZF blocks to a stream, with or without the end of file marker block.
+ *
+ * BlockCompressedOutputStream always writes the end of file marker block when closed
+ * and never releases its deflaters, so a stream written in pieces to be joined later
+ * could only be flushed and left to finalization. This stream ends its deflaters when finished or closed.
+ *
+ * @author agent@local
+ */
+public class BgzfOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final boolean terminate;
+
+    private final Deflater deflater;
+    private final Deflater noCompressionDeflater = new Deflater(Deflater.NO_COMPRESSION, true);
+    private final CRC32 crc32 = new CRC32();
+
+    private final byte [] uncompressedBuffer = new byte[BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE];
+    private final byte [] compressedBuffer = new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE
+            - BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
+    private final byte [] blockHeader = new byte[BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
+    private final byte [] blockFooter = new byte[BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH];
+    private final byte [] singleByte = new byte[1];
+
+    private int numUncompressedBytes = 0;
+    private boolean finished = false;
+
+    /**
+     *
+     * @param out stream to write the blocks to, closed when this stream is closed
+     * @param compressionLevel
+     * @param terminate write the end of file marker block when closed
+     */
+    public BgzfOutputStream(OutputStream out, int compressionLevel, boolean terminate) {
+        this.out = out;
+        this.terminate = terminate;
+        this.deflater = new Deflater(compressionLevel, true);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.singleByte[0] = (byte) b;
+        this.write(this.singleByte, 0, 1);
+    }
+
+    @Override
+    public void write(byte [] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            int count = Math.min(length, this.uncompressedBuffer.length - this.numUncompressedBytes);
+            System.arraycopy(bytes, offset, this.uncompressedBuffer, this.numUncompressedBytes, count);
+            this.numUncompressedBytes += count;
+            offset += count;
+            length -= count;
+            if (this.numUncompressedBytes == this.uncompressedBuffer.length) {
+                this.writeBlock();
+            }
+        }
+    }
+
+    /**
+     * compress the pending bytes into a block and flush the underlying stream
+     *
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        if (this.numUncompressedBytes > 0) {
+            this.writeBlock();
+        }
+        this.out.flush();
+    }
+
+    /**
+     * compress the pending bytes, write the end of file marker block if asked
+     * and release the deflaters, the underlying stream is left open for more bytes
+     *
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        if (this.finished) {
+            return;
+        }
+        this.finished = true;
+        try {
+            this.flush();
+            if (this.terminate) {
+                this.out.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+            }
+        } finally {
+            this.deflater.end();
+            this.noCompressionDeflater.end();
+        }
+    }
+
+    /**
+     * finish this stream and close the underlying stream
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            this.finish();
+        } finally {
+            this.out.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+
+        this.crc32.reset();
+        this.crc32.update(this.uncompressedBuffer, 0, this.numUncompressedBytes);
+
+        int compressedSize = deflate(this.deflater);
+        if (compressedSize < 0) {
+            // not compressible into one block, stored as it is
+            compressedSize = deflate(this.noCompressionDeflater);
+            if (compressedSize < 0) {
+                throw new IllegalStateException("Block of " + this.numUncompressedBytes + " bytes too big to store");
+            }
+        }
+
+        int blockSize = BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH + compressedSize
+                + BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+        this.blockHeader[0] = BlockCompressedStreamConstants.GZIP_ID1;
+        this.blockHeader[1] = (byte) BlockCompressedStreamConstants.GZIP_ID2;
+        this.blockHeader[2] = BlockCompressedStreamConstants.GZIP_CM_DEFLATE;
+        this.blockHeader[3] = BlockCompressedStreamConstants.GZIP_FLG;
+        // modification time 4 to 7 left as 0
+        this.blockHeader[8] = BlockCompressedStreamConstants.GZIP_XFL;
+        this.blockHeader[9] = (byte) BlockCompressedStreamConstants.GZIP_OS_UNKNOWN;
+        putShort(this.blockHeader, 10, BlockCompressedStreamConstants.GZIP_XLEN);
+        this.blockHeader[12] = BlockCompressedStreamConstants.BGZF_ID1;
+        this.blockHeader[13] = BlockCompressedStreamConstants.BGZF_ID2;
+        putShort(this.blockHeader, 14, BlockCompressedStreamConstants.BGZF_LEN);
+        putShort(this.blockHeader, BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET, blockSize - 1);
+        putInt(this.blockFooter, 0, (int) this.crc32.getValue());
+        putInt(this.blockFooter, 4, this.numUncompressedBytes);
+
+        this.out.write(this.blockHeader);
+        this.out.write(this.compressedBuffer, 0, compressedSize);
+        this.out.write(this.blockFooter);
+        this.numUncompressedBytes = 0;
+    }
+
+    /**
+     * @return compressed size, -1 if not fitting into one block
+     */
+    private int deflate(Deflater blockDeflater) {
+        blockDeflater.reset();
+        blockDeflater.setInput(this.uncompressedBuffer, 0, this.numUncompressedBytes);
+        blockDeflater.finish();
+        int size = blockDeflater.deflate(this.compressedBuffer, 0, this.compressedBuffer.length
+                - BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH);
+        return blockDeflater.finished() ? size : -1;
+    }
+
+    private static void putShort(byte [] buffer, int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >> 8);
+    }
+
+    private static void putInt(byte [] buffer, int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >> 8);
+        buffer[offset + 2] = (byte) (value >> 16);
+        buffer[offset + 3] = (byte) (value >> 24);
+    }
+}
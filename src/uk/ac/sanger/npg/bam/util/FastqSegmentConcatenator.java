@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package uk.ac.sanger.npg.bam.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import net.sf.samtools.util.BlockCompressedStreamConstants;
+import net.sf.samtools.util.Md5CalculatingOutputStream;
+import net.sf.samtools.util.RuntimeIOException;
+
+/**
+ * Write one or two FASTQ files from segments written by FastqSegmentWriter,
+ * copying the bytes of each segment, followed by the end of file marker block if compressed.
+ *
+ * @author agent@local
+ */
+public class FastqSegmentConcatenator {
+
+    private static final int COPY_BUFFER_SIZE = 1 << 20;
+
+    private final File [] outputs;
+    private final OutputStream [] fileStreams;
+    private final boolean compress;
+    private final byte [] buffer = new byte[COPY_BUFFER_SIZE];
+
+    private long recordCount = 0;
+
+    /**
+     *
+     * @param read1Output FASTQ file for read 1, for both reads if read2Output not given
+     * @param read2Output FASTQ file for read 2, could be null
+     * @param compress segments are BGZF compressed
+     * @param createMd5File
+     */
+    public FastqSegmentConcatenator(File read1Output, File read2Output, boolean compress, boolean createMd5File) {
+
+        this.outputs = read2Output == null ? new File[]{read1Output} : new File[]{read1Output, read2Output};
+        this.compress = compress;
+        this.fileStreams = new OutputStream[this.outputs.length];
+        for (int i = 0; i < this.outputs.length; i++) {
+            try {
+                OutputStream stream = new FileOutputStream(this.outputs[i], false);
+                if( createMd5File ){
+                    stream = new Md5CalculatingOutputStream(stream, new File(this.outputs[i].getAbsolutePath() + ".md5"));
+                }
+                this.fileStreams[i] = stream;
+            } catch (IOException ex) {
+                this.abort();
+                throw new RuntimeIOException("Cannot write fastq file " + this.outputs[i], ex);
+            }
+        }
+    }
+
+    /**
+     * Append the segments of one tile
+     *
+     * @param read1Segment
+     * @param read2Segment could be null if only one output
+     * @param segmentRecordCount number of records in the segments
+     */
+    public void appendSegments(File read1Segment, File read2Segment, long segmentRecordCount) {
+
+        this.copyBytes(read1Segment, 0);
+        if( this.outputs.length > 1 ){
+            this.copyBytes(read2Segment, 1);
+        }
+        this.recordCount += segmentRecordCount;
+    }
+
+    private void copyBytes(File segmentFile, int outputIndex) {
+
+        InputStream in = null;
+        try {
+            in = new FileInputStream(segmentFile);
+            int count;
+            while( (count = in.read(this.buffer)) > 0 ){
+                this.fileStreams[outputIndex].write(this.buffer, 0, count);
+            }
+            in.close();
+            in = null;
+        } catch (IOException ex) {
+            throw new RuntimeIOException("Cannot copy segment " + segmentFile + " to " + this.outputs[outputIndex], ex);
+        } finally {
+            try {
+                if( in != null ){
+                    in.close();
+                }
+            } catch (IOException ex) {
+                // already failed
+            }
+        }
+    }
+
+    /**
+     * write the end of file marker block if compressed and close the outputs
+     */
+    public void close() {
+
+        for (int i = 0; i < this.outputs.length; i++) {
+            try {
+                if( this.compress ){
+                    this.fileStreams[i].write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+                }
+                this.fileStreams[i].close();
+            } catch (IOException ex) {
+                throw new RuntimeIOException("Cannot close fastq file " + this.outputs[i], ex);
+            }
+        }
+    }
+
+    /**
+     * close the outputs after a failure and delete them with their md5 files
+     */
+    public void abort() {
+
+        for (int i = 0; i < this.outputs.length; i++) {
+            try {
+                if( this.fileStreams[i] != null ){
+                    this.fileStreams[i].close();
+                }
+            } catch (IOException ex) {
+                // already failed
+            }
+            this.outputs[i].delete();
+            new File(this.outputs[i].getAbsolutePath() + ".md5").delete();
+        }
+    }
+
+    /**
+     * @param output FASTQ file name for both reads
+     * @return true if the name ends with .fastq, .fq, .fastq.gz or .fq.gz
+     */
+    public static boolean isFastq(File output) {
+        String name = output.getName();
+        return name.endsWith(".fastq") || name.endsWith(".fq") || name.endsWith(".fastq.gz") || name.endsWith(".fq.gz");
+    }
+
+    /**
+     * @param output FASTQ file name for both reads
+     * @return true if the name ends with .gz
+     */
+    public static boolean isCompressed(File output) {
+        return output.getName().endsWith(".gz");
+    }
+
+    /**
+     * @param output FASTQ file name for both reads, such as lane.fastq.gz
+     * @param read 1 or 2
+     * @return FASTQ file name for one read, such as lane_1.fastq.gz
+     */
+    public static File getReadFile(File output, int read) {
+        String name = output.getName();
+        int extension = name.indexOf(".fastq");
+        if( extension < 0 ){
+            extension = name.indexOf(".fq");
+        }
+        return new File(output.getParentFile(), name.substring(0, extension) + "_" + read + name.substring(extension));
+    }
+
+    /**
+     * @return the first output
+     */
+    public File getOutput() {
+        return outputs[0];
+    }
+
+    /**
+     * @return the number of records appended
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package uk.ac.sanger.npg.bam.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import net.sf.samtools.util.BlockCompressedOutputStream;
+import net.sf.samtools.util.RuntimeIOException;
+
+/**
+ * Write FASTQ records of a tile into one segment file, with read 2 interleaved,
+ * or into two segment files, one for each read of a pair.
+ *
+ * A compressed segment is written in BGZF blocks without the end of file marker block,
+ * so segments can be appended one after another by copying their bytes, see FastqSegmentConcatenator.
+ * BGZF is gzip, a compressed output can be read by any gzip reader.
+ *
+ * @author agent@local
+ */
+public class FastqSegmentWriter {
+
+    private static final int PHRED_OFFSET = 33;
+
+    private final File [] segmentFiles;
+    private final OutputStream [] outs;
+
+    // one record at a time
+    private byte [] buffer = new byte[1024];
+
+    private long recordCount = 0;
+
+    /**
+     *
+     * @param read1File segment file for read 1, for both reads if read2File not given
+     * @param read2File segment file for read 2, could be null
+     * @param compress write BGZF blocks
+     */
+    public FastqSegmentWriter(File read1File, File read2File, boolean compress) {
+
+        this.segmentFiles = read2File == null ? new File[]{read1File} : new File[]{read1File, read2File};
+        this.outs = new OutputStream[this.segmentFiles.length];
+        for (int i = 0; i < this.segmentFiles.length; i++) {
+            OutputStream fileStream;
+            try {
+                fileStream = new FileOutputStream(this.segmentFiles[i], false);
+            } catch (IOException ex) {
+                this.close();
+                throw new RuntimeIOException("Cannot open segment file to write " + this.segmentFiles[i], ex);
+            }
+            this.outs[i] = compress ? new BgzfOutputStream(fileStream, BlockCompressedOutputStream.getDefaultCompressionLevel(), false)
+                                    : new BufferedOutputStream(fileStream, 1 << 16);
+        }
+    }
+
+    /**
+     * write one read as a FASTQ record
+     *
+     * @param readName read name without pair suffix
+     * @param firstRead true for read 1, false for read 2
+     * @param paired add /1 or /2 to the read name
+     * @param bases bases in ASCII
+     * @param quals phred qualities
+     * @param comment written after the read name with a tab, could be null
+     */
+    public void write(String readName, boolean firstRead, boolean paired, byte [] bases, byte [] quals, String comment) {
+
+        int length = readName.length() + bases.length * 2 + 8 + (comment == null ? 0 : comment.length() + 1);
+        if (length > this.buffer.length) {
+            this.buffer = new byte[length * 2];
+        }
+
+        int pos = 0;
+        this.buffer[pos++] = '@';
+        pos = putString(readName, pos);
+        if (paired) {
+            this.buffer[pos++] = '/';
+            this.buffer[pos++] = (byte) (firstRead ? '1' : '2');
+        }
+        if (comment != null) {
+            this.buffer[pos++] = '\t';
+            pos = putString(comment, pos);
+        }
+        this.buffer[pos++] = '\n';
+        System.arraycopy(bases, 0, this.buffer, pos, bases.length);
+        pos += bases.length;
+        this.buffer[pos++] = '\n';
+        this.buffer[pos++] = '+';
+        this.buffer[pos++] = '\n';
+        for (byte qual : quals) {
+            this.buffer[pos++] = (byte) (qual + PHRED_OFFSET);
+        }
+        this.buffer[pos++] = '\n';
+
+        OutputStream out = firstRead || this.outs.length == 1 ? this.outs[0] : this.outs[1];
+        try {
+            out.write(this.buffer, 0, pos);
+        } catch (IOException ex) {
+            throw new RuntimeIOException("Cannot write FASTQ record " + readName, ex);
+        }
+        this.recordCount++;
+    }
+
+    private int putString(String value, int pos) {
+        for (int i = 0; i < value.length(); i++) {
+            this.buffer[pos++] = (byte) value.charAt(i);
+        }
+        return pos;
+    }
+
+    /**
+     * compress the pending records and close the files without the end of file marker block
+     */
+    public void close() {
+        for (int i = 0; i < this.outs.length; i++) {
+            if (this.outs[i] == null) {
+                continue;
+            }
+            try {
+                this.outs[i].close();
+            } catch (IOException ex) {
+                throw new RuntimeIOException("Cannot close segment file " + this.segmentFiles[i], ex);
+            } finally {
+                this.outs[i] = null;
+            }
+        }
+    }
+
+    /**
+     * @return the number of records written to all files
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+}
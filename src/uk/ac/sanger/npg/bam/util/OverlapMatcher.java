@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package uk.ac.sanger.npg.bam.util;
+
+import java.util.Arrays;
+
+/**
+ * Find the smallest offset at which the end of one sequence overlaps the start of another one
+ * with a limited number of mismatches.
+ *
+ * Each distinct base of the first sequence is turned into a bit vector of its positions in both sequences,
+ * so the number of matches at an offset is counted 64 positions at a time by shifting, and-ing
+ * and counting bits, instead of comparing base by base. Bases are compared as bytes, so N matches N.
+ *
+ * Bit vector buffers are reused between calls, one object should be used by one thread only.
+ *
+ * @author agent@local
+ */
+public class OverlapMatcher {
+
+    /**
+     * returned if no overlap found
+     */
+    public static final int NONE_FOUND = -1;
+
+    // index of each byte value in the bit vector arrays, -1 if not in the first sequence
+    private final int [] symbolIndex = new int[256];
+    private final byte [] symbols = new byte[256];
+
+    private long [][] bits1 = new long[0][];
+    private long [][] bits2 = new long[0][];
+
+    /**
+     *
+     */
+    public OverlapMatcher() {
+        Arrays.fill(this.symbolIndex, -1);
+    }
+
+    /**
+     * Slide bases2 against bases1, for each offset from 1 compare bases1[i] with bases2[offset + i]
+     * over the overlap of length - offset bases, and return the first offset with no more mismatches
+     * than allowed.
+     *
+     * @param bases1
+     * @param bases2 at least length long
+     * @param length number of bases to use from both sequences
+     * @param minOverlap minimum overlap length
+     * @param pctMismatches maximum percentage of mismatches in the overlap
+     * @return offset of the overlap or NONE_FOUND
+     */
+    public int findOverlap(byte [] bases1, byte [] bases2, int length, int minOverlap, double pctMismatches) {
+
+        if( bases1.length < length || bases2.length < length ){
+            throw new IllegalArgumentException("Sequences shorter than length " + length);
+        }
+        if( length - minOverlap < 1 ){
+            return NONE_FOUND;
+        }
+
+        final int words = (length + 63) >>> 6;
+        final int symbolCount = this.setBits(bases1, bases2, length, words);
+        final long [][] vectors1 = this.bits1;
+        final long [][] vectors2 = this.bits2;
+
+        int ret = NONE_FOUND;
+        for (int offset = 1; offset <= length - minOverlap; offset++) {
+
+            final int overlapSize = length - offset;
+            final int allowedMismatches = (int)((double)overlapSize*pctMismatches/100.0);
+            final int minMatches = overlapSize - allowedMismatches;
+            final int wordShift = offset >>> 6;
+            final int bitShift = offset & 63;
+            final int overlapWords = (overlapSize + 63) >>> 6;
+
+            int matches = 0;
+            for (int s = 0; s < symbolCount; s++) {
+                final long [] v1 = vectors1[s];
+                final long [] v2 = vectors2[s];
+                for (int w = 0; w < overlapWords; w++) {
+                    int w2 = w + wordShift;
+                    long shifted = v2[w2] >>> bitShift;
+                    if( bitShift != 0 && w2 + 1 < words ){
+                        shifted |= v2[w2 + 1] << (64 - bitShift);
+                    }
+                    matches += Long.bitCount(v1[w] & shifted);
+                }
+            }
+
+            if( matches >= minMatches ){
+                ret = offset;
+                break;
+            }
+        }
+
+        this.clearSymbols(symbolCount);
+        return ret;
+    }
+
+    /**
+     * set bit vectors of the positions of each base of bases1 in both sequences
+     * @return number of distinct bases
+     */
+    private int setBits(byte [] bases1, byte [] bases2, int length, int words) {
+
+        int symbolCount = 0;
+        for (int i = 0; i < length; i++) {
+            int b = bases1[i] & 0xFF;
+            if( this.symbolIndex[b] < 0 ){
+                this.symbolIndex[b] = symbolCount;
+                this.symbols[symbolCount] = bases1[i];
+                symbolCount++;
+            }
+        }
+
+        this.ensureCapacity(symbolCount, words);
+        for (int s = 0; s < symbolCount; s++) {
+            Arrays.fill(this.bits1[s], 0, words, 0L);
+            Arrays.fill(this.bits2[s], 0, words, 0L);
+        }
+
+        for (int i = 0; i < length; i++) {
+            this.bits1[this.symbolIndex[bases1[i] & 0xFF]][i >>> 6] |= 1L << (i & 63);
+            int s = this.symbolIndex[bases2[i] & 0xFF];
+            if( s >= 0 ){
+                this.bits2[s][i >>> 6] |= 1L << (i & 63);
+            }
+        }
+        return symbolCount;
+    }
+
+    private void clearSymbols(int symbolCount) {
+        for (int s = 0; s < symbolCount; s++) {
+            this.symbolIndex[this.symbols[s] & 0xFF] = -1;
+        }
+    }
+
+    private void ensureCapacity(int symbolCount, int words) {
+        if( this.bits1.length < symbolCount ){
+            long [][] newBits1 = new long[symbolCount][];
+            long [][] newBits2 = new long[symbolCount][];
+            System.arraycopy(this.bits1, 0, newBits1, 0, this.bits1.length);
+            System.arraycopy(this.bits2, 0, newBits2, 0, this.bits2.length);
+            this.bits1 = newBits1;
+            this.bits2 = newBits2;
+        }
+        for (int s = 0; s < symbolCount; s++) {
+            if( this.bits1[s] == null || this.bits1[s].length < words ){
+                this.bits1[s] = new long[words];
+                this.bits2[s] = new long[words];
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package uk.ac.sanger.npg.bam.util;
+
+import java.io.File;
+import java.util.Arrays;
+import net.sf.picard.io.IoUtil;
+
+/**
+ * A quality binning scheme, a lookup table from each quality score to its quantised score.
+ *
+ * Bins are given as a list of ranges like 1->9=6,10->19=15, separated by commas or new lines,
+ * lines starting with # are ignored. Scores not in any range are invalid.
+ *
+ * @author agent@local
+ */
+public class QualityBinning {
+
+    /**
+     * the highest quality score which can be binned
+     */
+    public static final int MAX_QUALITY = 63;
+
+    /**
+     * bins used for the original Illumina canned qualities
+     */
+    public static final String SANGER_BINS = "0->0=0,1->9=6,10->19=15,20->24=22,25->29=27,30->34=33,35->39=37,40->59=41";
+
+    /**
+     * Illumina 8 level bins
+     */
+    public static final String ILLUMINA_8_LEVEL_BINS = "0->1=0,2->9=6,10->19=15,20->24=22,25->29=27,30->34=33,35->39=37,40->63=40";
+
+    /**
+     * Illumina 4 level bins, as used by RTA3 on NovaSeq
+     */
+    public static final String ILLUMINA_4_LEVEL_BINS = "0->1=0,2->2=2,3->14=12,15->30=23,31->63=37";
+
+    /**
+     * Named binning schemes
+     */
+    public enum Scheme {
+        SANGER(SANGER_BINS),
+        ILLUMINA_8_LEVEL(ILLUMINA_8_LEVEL_BINS),
+        ILLUMINA_4_LEVEL(ILLUMINA_4_LEVEL_BINS);
+
+        private final String bins;
+
+        private Scheme(String bins) {
+            this.bins = bins;
+        }
+
+        /**
+         * @return binning for this scheme
+         */
+        public QualityBinning getBinning() {
+            return new QualityBinning(this.bins);
+        }
+    }
+
+    private static final byte INVALID = -1;
+
+    private final byte [] table = new byte[MAX_QUALITY + 1];
+
+    private final String bins;
+
+    /**
+     *
+     * @param bins list of ranges like 1->9=6,10->19=15
+     */
+    public QualityBinning(String bins) {
+
+        Arrays.fill(this.table, INVALID);
+
+        StringBuilder binList = new StringBuilder();
+        for (String line : bins.split("\n")) {
+            line = line.trim();
+            if( line.startsWith("#") ){
+                continue;
+            }
+            for (String bin : line.split(",")) {
+                bin = bin.trim();
+                if( bin.isEmpty() ){
+                    continue;
+                }
+                this.addBin(bin);
+                if( binList.length() > 0 ){
+                    binList.append(',');
+                }
+                binList.append(bin);
+            }
+        }
+        if( binList.length() == 0 ){
+            throw new IllegalArgumentException("No quality bins given");
+        }
+        this.bins = binList.toString();
+    }
+
+    /**
+     *
+     * @param binsFile file with a list of ranges like 1->9=6,10->19=15
+     * @return binning scheme
+     */
+    public static QualityBinning fromFile(File binsFile) {
+        IoUtil.assertFileIsReadable(binsFile);
+        return new QualityBinning(IoUtil.readFully(IoUtil.openFileForReading(binsFile)));
+    }
+
+    private void addBin(String bin) {
+        int arrow = bin.indexOf("->");
+        int equals = bin.indexOf('=', arrow + 2);
+        if( arrow < 0 || equals < 0 ){
+            throw new IllegalArgumentException("Invalid quality bin, expecting low->high=score: " + bin);
+        }
+        int low, high, score;
+        try {
+            low = Integer.parseInt(bin.substring(0, arrow).trim());
+            high = Integer.parseInt(bin.substring(arrow + 2, equals).trim());
+            score = Integer.parseInt(bin.substring(equals + 1).trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid quality bin, expecting low->high=score: " + bin, ex);
+        }
+        if( low < 0 || low > high || high > MAX_QUALITY || score < 0 || score > MAX_QUALITY ){
+            throw new IllegalArgumentException("Invalid quality bin, scores must be between 0 and " + MAX_QUALITY + ": " + bin);
+        }
+        for(int i = low; i <= high; i++){
+            this.table[i] = (byte) score;
+        }
+    }
+
+    /**
+     *
+     * @param score
+     * @return quantised score
+     */
+    public byte getQuantisedScore(byte score) {
+        byte newScore = score >= 0 && score <= MAX_QUALITY ? this.table[score] : INVALID;
+        if( newScore == INVALID ){
+            throw new IllegalArgumentException("Invalid quality score: " + score);
+        }
+        return newScore;
+    }
+
+    /**
+     * Quantise quality scores in place
+     *
+     * @param quals quality scores to quantise
+     * @return the same array
+     */
+    public byte [] quantise(byte [] quals) {
+        final byte [] lookup = this.table;
+        for(int i = 0; i < quals.length; i++){
+            int score = quals[i];
+            byte newScore = score >= 0 && score <= MAX_QUALITY ? lookup[score] : INVALID;
+            if( newScore == INVALID ){
+                throw new IllegalArgumentException("Invalid quality score: " + score);
+            }
+            quals[i] = newScore;
+        }
+        return quals;
+    }
+
+    /**
+     * Quantise quality scores given as a fastq string into an existing array
+     *
+     * @param quals quality scores in fastq string
+     * @param newQuals array to put the quantised scores into, at least as long as the string
+     * @return newQuals
+     */
+    public byte [] quantise(String quals, byte [] newQuals) {
+        final byte [] lookup = this.table;
+        final int length = quals.length();
+        for(int i = 0; i < length; i++){
+            int score = quals.charAt(i) - 33;
+            byte newScore = score >= 0 && score <= MAX_QUALITY ? lookup[score] : INVALID;
+            if( newScore == INVALID ){
+                throw new IllegalArgumentException("Invalid quality score: " + score);
+            }
+            newQuals[i] = newScore;
+        }
+        return newQuals;
+    }
+
+    /**
+     * @return list of bins
+     */
+    @Override
+    public String toString() {
+        return this.bins;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package uk.ac.sanger.npg.bam.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import net.sf.samtools.util.BlockCompressedInputStream;
+import net.sf.samtools.util.RuntimeIOException;
+
+/**
+ * Read the records of a BAM file in their binary form, without decoding them into SAMRecords.
+ *
+ * The header is skipped, use SAMFileReader to get the file header.
+ *
+ * @author agent@local
+ */
+public class RawBamReader implements Closeable {
+
+    private final InputStream in;
+
+    private final byte [] intBuffer = new byte[4];
+
+    /**
+     *
+     * @param bamFile
+     */
+    public RawBamReader(File bamFile) {
+        this(openInputStream(bamFile), bamFile.getPath());
+    }
+
+    /**
+     *
+     * @param in uncompressed BAM stream positioned at the start of the header
+     * @param name file or stream name for error messages
+     */
+    public RawBamReader(InputStream in, String name) {
+        this.in = in;
+        this.skipHeader(name);
+    }
+
+    private static InputStream openInputStream(File bamFile) {
+        try {
+            return new BlockCompressedInputStream(bamFile);
+        } catch (IOException ex) {
+            throw new RuntimeIOException("Cannot open bam file " + bamFile, ex);
+        }
+    }
+
+    private void skipHeader(String name) {
+        byte [] magic = new byte[4];
+        this.readFully(magic, 0, 4);
+        if( magic[0] != 'B' || magic[1] != 'A' || magic[2] != 'M' || magic[3] != 1 ){
+            throw new RuntimeException("Not a bam file: " + name);
+        }
+        this.skip(this.readInt());
+        int numberOfReferences = this.readInt();
+        for(int i = 0; i < numberOfReferences; i++){
+            this.skip(this.readInt() + 4);
+        }
+    }
+
+    /**
+     * Read next record into the given record object
+     *
+     * @param record
+     * @return false if no more records
+     */
+    public boolean next(RawBamRecord record) {
+        if( !this.readFully(this.intBuffer, 0, 4, true) ){
+            return false;
+        }
+        int blockSize = toInt(this.intBuffer);
+        record.setLength(blockSize);
+        this.readFully(record.getData(), 0, blockSize);
+        return true;
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.in.close();
+        } catch (IOException ex) {
+            throw new RuntimeIOException(ex);
+        }
+    }
+
+    private int readInt() {
+        this.readFully(this.intBuffer, 0, 4);
+        return toInt(this.intBuffer);
+    }
+
+    private static int toInt(byte [] bytes) {
+        return (bytes[0] & 0xFF) | (bytes[1] & 0xFF) << 8 | (bytes[2] & 0xFF) << 16 | (bytes[3] & 0xFF) << 24;
+    }
+
+    private void skip(int length) {
+        byte [] buffer = new byte[Math.min(length, 65536)];
+        while( length > 0 ){
+            int count = Math.min(length, buffer.length);
+            this.readFully(buffer, 0, count);
+            length -= count;
+        }
+    }
+
+    private void readFully(byte [] buffer, int offset, int length) {
+        this.readFully(buffer, offset, length, false);
+    }
+
+    /**
+     * @return false if at the end of the stream before reading anything and eofAllowed
+     */
+    private boolean readFully(byte [] buffer, int offset, int length, boolean eofAllowed) {
+        int total = 0;
+        try {
+            while( total < length ){
+                int count = this.in.read(buffer, offset + total, length - total);
+                if( count < 0 ){
+                    if( total == 0 && eofAllowed ){
+                        return false;
+                    }
+                    throw new RuntimeIOException("Premature end of bam file");
+                }
+                total += count;
+            }
+        } catch (IOException ex) {
+            throw new RuntimeIOException(ex);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package uk.ac.sanger.npg.bam.util;
+
+import net.sf.samtools.SAMTagUtil;
+
+/**
+ * A BAM record kept in its binary form, as read from or written to a BGZF stream.
+ *
+ * Only the fields needed to route or lightly modify a record are decoded on demand,
+ * bases, qualities, cigar and tags are never decoded into a SAMRecord.
+ * The same object can be refilled for each record to avoid allocation.
+ *
+ * The layout follows the SAM/BAM specification, the block size is not included in the data.
+ *
+ * @author agent@local
+ */
+public class RawBamRecord {
+
+    private static final int READ_NAME_LENGTH_OFFSET = 8;
+    private static final int CIGAR_LENGTH_OFFSET = 12;
+    private static final int FLAG_OFFSET = 14;
+    private static final int READ_LENGTH_OFFSET = 16;
+    private static final int MATE_REFERENCE_INDEX_OFFSET = 20;
+    private static final int READ_NAME_OFFSET = 32;
+
+    private byte [] data = new byte[1024];
+    private int length = 0;
+
+    /**
+     * @return the binary record, only the first getLength() bytes are valid
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return the length of the binary record
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Set the length of the binary record, growing its buffer if necessary
+     * @param length
+     */
+    public void setLength(int length) {
+        if( length > this.data.length ){
+            byte [] newData = new byte[Math.max(length, this.data.length * 2)];
+            System.arraycopy(this.data, 0, newData, 0, this.length);
+            this.data = newData;
+        }
+        this.length = length;
+    }
+
+    /**
+     * @return reference index, -1 if not set
+     */
+    public int getReferenceIndex() {
+        return this.readInt(0);
+    }
+
+    /**
+     * @return mate reference index, -1 if not set
+     */
+    public int getMateReferenceIndex() {
+        return this.readInt(MATE_REFERENCE_INDEX_OFFSET);
+    }
+
+    /**
+     * @return the flag field
+     */
+    public int getFlags() {
+        return this.readUnsignedShort(FLAG_OFFSET);
+    }
+
+    public boolean getReadPairedFlag() {
+        return (this.getFlags() & 0x1) != 0;
+    }
+
+    public boolean getReadUnmappedFlag() {
+        return (this.getFlags() & 0x4) != 0;
+    }
+
+    public boolean getFirstOfPairFlag() {
+        return (this.getFlags() & 0x40) != 0;
+    }
+
+    public boolean getSecondOfPairFlag() {
+        return (this.getFlags() & 0x80) != 0;
+    }
+
+    public boolean getReadFailsVendorQualityCheckFlag() {
+        return (this.getFlags() & 0x200) != 0;
+    }
+
+    /**
+     * @return read length
+     */
+    public int getReadLength() {
+        return this.readInt(READ_LENGTH_OFFSET);
+    }
+
+    /**
+     * @return read name
+     */
+    public String getReadName() {
+        return new String(this.data, READ_NAME_OFFSET, this.getReadNameLength() - 1);
+    }
+
+    /**
+     *
+     * @param other
+     * @return true if both records have the same read name
+     */
+    public boolean readNameEquals(RawBamRecord other) {
+        int readNameLength = this.getReadNameLength();
+        if( readNameLength != other.getReadNameLength() ){
+            return false;
+        }
+        for(int i = READ_NAME_OFFSET + readNameLength - 2; i >= READ_NAME_OFFSET; i--){
+            if( this.data[i] != other.data[i] ){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Change the read name, the record length changes
+     * @param readName
+     */
+    public void setReadName(String readName) {
+        byte [] newName = readName.getBytes();
+        if( newName.length > 254 ){
+            throw new IllegalArgumentException("Read name too long: " + readName);
+        }
+        int oldLength = this.getReadNameLength();
+        this.resize(READ_NAME_OFFSET + oldLength, newName.length + 1 - oldLength);
+        System.arraycopy(newName, 0, this.data, READ_NAME_OFFSET, newName.length);
+        this.data[READ_NAME_OFFSET + newName.length] = 0;
+        this.data[READ_NAME_LENGTH_OFFSET] = (byte) (newName.length + 1);
+    }
+
+    /**
+     *
+     * @param tag two character tag name
+     * @return the string value of a Z or A type attribute, null if not available
+     */
+    public String getStringAttribute(String tag) {
+        int offset = this.findAttribute(SAMTagUtil.getSingleton().makeBinaryTag(tag));
+        if( offset < 0 ){
+            return null;
+        }
+        byte type = this.data[offset + 2];
+        if( type == 'A' ){
+            return String.valueOf((char) this.data[offset + 3]);
+        }
+        if( type != 'Z' ){
+            throw new RuntimeException("Attribute " + tag + " is not a string in record " + this.getReadName());
+        }
+        int start = offset + 3;
+        return new String(this.data, start, this.findNull(start) - start);
+    }
+
+    /**
+     * Set a Z type attribute, replacing its value if already there, otherwise appending it at the end
+     * @param tag two character tag name
+     * @param value
+     */
+    public void setStringAttribute(String tag, String value) {
+        byte [] valueBytes = value.getBytes();
+        int offset = this.findAttribute(SAMTagUtil.getSingleton().makeBinaryTag(tag));
+        if( offset < 0 ){
+            offset = this.length;
+            this.setLength(this.length + 4 + valueBytes.length);
+            this.data[offset] = (byte) tag.charAt(0);
+            this.data[offset + 1] = (byte) tag.charAt(1);
+        }else{
+            int oldSize = this.getAttributeSize(offset);
+            this.resize(offset + oldSize, 4 + valueBytes.length - oldSize);
+        }
+        this.data[offset + 2] = 'Z';
+        System.arraycopy(valueBytes, 0, this.data, offset + 3, valueBytes.length);
+        this.data[offset + 3 + valueBytes.length] = 0;
+    }
+
+    /**
+     * @return offset of the first attribute
+     */
+    public int getAttributesOffset() {
+        int readLength = this.getReadLength();
+        return READ_NAME_OFFSET + this.getReadNameLength()
+                + 4 * this.readUnsignedShort(CIGAR_LENGTH_OFFSET)
+                + (readLength + 1) / 2 + readLength;
+    }
+
+    /**
+     *
+     * @param binaryTag tag as given by SAMTagUtil.makeBinaryTag
+     * @return offset of the attribute, -1 if not available
+     */
+    public int findAttribute(short binaryTag) {
+        int offset = this.getAttributesOffset();
+        while( offset < this.length ){
+            if( this.readUnsignedShort(offset) == (binaryTag & 0xFFFF) ){
+                return offset;
+            }
+            offset += this.getAttributeSize(offset);
+        }
+        return -1;
+    }
+
+    /**
+     * Remove all the attributes whose tag is set in a table, compacting the attributes in a single pass
+     *
+     * @param tagsToRemove table indexed by binary tag as given by SAMTagUtil.makeBinaryTag, masked to 16 bits
+     * @param removedTags if not null, the entries of the removed tags are set to true
+     * @return number of attributes removed
+     */
+    public int removeAttributes(boolean [] tagsToRemove, boolean [] removedTags) {
+        int offset = this.getAttributesOffset();
+        int kept = offset;
+        int removed = 0;
+        while( offset < this.length ){
+            int size = this.getAttributeSize(offset);
+            int index = this.readUnsignedShort(offset);
+            if( tagsToRemove[index] ){
+                if( removedTags != null ){
+                    removedTags[index] = true;
+                }
+                removed++;
+            }else{
+                if( kept != offset ){
+                    System.arraycopy(this.data, offset, this.data, kept, size);
+                }
+                kept += size;
+            }
+            offset += size;
+        }
+        this.length = kept;
+        return removed;
+    }
+
+    /**
+     *
+     * @param offset offset of an attribute
+     * @return the size of the attribute including tag and type
+     */
+    public int getAttributeSize(int offset) {
+        byte type = this.data[offset + 2];
+        switch (type) {
+            case 'Z':
+            case 'H':
+                return this.findNull(offset + 3) - offset + 1;
+            case 'B':
+                return 8 + this.readInt(offset + 4) * getTypeSize(this.data[offset + 3]);
+            default:
+                return 3 + getTypeSize(type);
+        }
+    }
+
+    private static int getTypeSize(byte type) {
+        switch (type) {
+            case 'A':
+            case 'c':
+            case 'C':
+                return 1;
+            case 's':
+            case 'S':
+                return 2;
+            case 'i':
+            case 'I':
+            case 'f':
+                return 4;
+            default:
+                throw new RuntimeException("Unknown attribute type: " + (char) type);
+        }
+    }
+
+    private int getReadNameLength() {
+        return this.data[READ_NAME_LENGTH_OFFSET] & 0xFF;
+    }
+
+    private int findNull(int offset) {
+        while( this.data[offset] != 0 ){
+            offset++;
+        }
+        return offset;
+    }
+
+    /**
+     * grow or shrink the record by moving the bytes from offset onwards
+     */
+    private void resize(int offset, int change) {
+        if( change == 0 ){
+            return;
+        }
+        int oldLength = this.length;
+        this.setLength(oldLength + change);
+        System.arraycopy(this.data, offset, this.data, offset + change, oldLength - offset);
+    }
+
+    private int readInt(int offset) {
+        return (this.data[offset] & 0xFF)
+                | (this.data[offset + 1] & 0xFF) << 8
+                | (this.data[offset + 2] & 0xFF) << 16
+                | (this.data[offset + 3] & 0xFF) << 24;
+    }
+
+    private int readUnsignedShort(int offset) {
+        return (this.data[offset] & 0xFF) | (this.data[offset + 1] & 0xFF) << 8;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package uk.ac.sanger.npg.bam.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMSequenceRecord;
+import net.sf.samtools.SAMTextHeaderCodec;
+import net.sf.samtools.util.AbstractAsyncWriter;
+import net.sf.samtools.util.BinaryCodec;
+import net.sf.samtools.util.BlockCompressedOutputStream;
+import net.sf.samtools.util.Md5CalculatingOutputStream;
+import net.sf.samtools.util.RuntimeIOException;
+
+/**
+ * Write binary BAM records to a BAM file, copying their bytes without encoding them again.
+ *
+ * The header is written the same way as the sam-jdk BAM writer does,
+ * using the default compression level.
+ *
+ * @author agent@local
+ */
+public class RawBamWriter {
+
+    private final BlockCompressedOutputStream out;
+
+    private final byte [] intBuffer = new byte[4];
+
+    private final AsyncWriter asyncWriter;
+
+    /**
+     *
+     * @param bamFile
+     * @param header
+     * @param createMd5File
+     * @param async compress and write records in a separate thread if true
+     */
+    public RawBamWriter(File bamFile, SAMFileHeader header, boolean createMd5File, boolean async) {
+
+        try {
+            if( createMd5File ){
+                OutputStream md5Stream = new Md5CalculatingOutputStream(new FileOutputStream(bamFile, false),
+                        new File(bamFile.getAbsolutePath() + ".md5"));
+                this.out = new BlockCompressedOutputStream(md5Stream, bamFile);
+            }else{
+                this.out = new BlockCompressedOutputStream(bamFile);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeIOException("Cannot open bam file to write " + bamFile, ex);
+        }
+
+        writeHeader(this.out, header);
+
+        this.asyncWriter = async ? new AsyncWriter() : null;
+    }
+
+    /**
+     * Write the BAM magic number, header text and sequence dictionary to a stream
+     *
+     * @param out uncompressed BAM stream
+     * @param header
+     */
+    public static void writeHeader(OutputStream out, SAMFileHeader header) {
+
+        // the sam-jdk writer always puts the sort order into the header
+        header.setSortOrder(header.getSortOrder());
+
+        StringWriter headerTextBuffer = new StringWriter();
+        new SAMTextHeaderCodec().encode(headerTextBuffer, header);
+
+        BinaryCodec codec = new BinaryCodec(out);
+        codec.writeBytes(new byte[]{'B', 'A', 'M', 1});
+        codec.writeString(headerTextBuffer.toString(), true, false);
+        codec.writeInt(header.getSequenceDictionary().size());
+        for (SAMSequenceRecord sequenceRecord : header.getSequenceDictionary().getSequences()) {
+            codec.writeString(sequenceRecord.getSequenceName(), true, true);
+            codec.writeInt(sequenceRecord.getSequenceLength());
+        }
+    }
+
+    /**
+     *
+     * @param record
+     */
+    public void write(RawBamRecord record) {
+        if( this.asyncWriter != null ){
+            byte [] copy = new byte[record.getLength()];
+            System.arraycopy(record.getData(), 0, copy, 0, copy.length);
+            this.asyncWriter.write(copy);
+        }else{
+            this.write(record.getData(), record.getLength());
+        }
+    }
+
+    private void write(byte [] data, int length) {
+        this.intBuffer[0] = (byte) length;
+        this.intBuffer[1] = (byte) (length >> 8);
+        this.intBuffer[2] = (byte) (length >> 16);
+        this.intBuffer[3] = (byte) (length >> 24);
+        try {
+            this.out.write(this.intBuffer);
+            this.out.write(data, 0, length);
+        } catch (IOException ex) {
+            throw new RuntimeIOException(ex);
+        }
+    }
+
+    /**
+     * close the output file, waiting for all the records to be written
+     */
+    public void close() {
+        if( this.asyncWriter != null ){
+            this.asyncWriter.close();
+        }else{
+            this.closeStream();
+        }
+    }
+
+    private void closeStream() {
+        try {
+            this.out.close();
+        } catch (IOException ex) {
+            throw new RuntimeIOException(ex);
+        }
+    }
+
+    /**
+     * queue records to be written by a separate thread
+     */
+    private class AsyncWriter extends AbstractAsyncWriter<byte []> {
+
+        AsyncWriter() {
+            super(DEFAULT_QUEUE_SIZE);
+        }
+
+        @Override
+        protected String getThreadNamePrefix() {
+            return "RawBamWriterThread-";
+        }
+
+        @Override
+        protected void synchronouslyWrite(byte [] data) {
+            RawBamWriter.this.write(data, data.length);
+        }
+
+        @Override
+        protected void synchronouslyClose() {
+            RawBamWriter.this.closeStream();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package uk.ac.sanger.npg.bam.util;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMRecord;
+
+/**
+ * Change records in batches with a pool of threads, writing them out in input order.
+ *
+ * Records are read in the calling thread and each batch is changed by a thread of the pool,
+ * no more than twice as many batches as threads are waiting to be written.
+ * Without a pool, each batch is changed in the calling thread.
+ *
+ * @author agent@local
+ */
+public class RecordBatchPipeline {
+
+    /**
+     * Change a record in place, called from several threads at once
+     */
+    public interface RecordProcessor {
+
+        /**
+         * @param record
+         */
+        void processRecord(SAMRecord record);
+    }
+
+    private static final int BATCH_SIZE = 1000;   // records processed together by one thread
+
+    private final int numThreads;
+
+    private final RecordProcessor processor;
+
+    /**
+     *
+     * @param numThreads number of threads to change records
+     * @param processor thread safe change of each record
+     */
+    public RecordBatchPipeline(int numThreads, RecordProcessor processor) {
+        this.numThreads = numThreads;
+        this.processor = processor;
+    }
+
+    /**
+     * change all records from the input and write them out in the same order
+     *
+     * @param in
+     * @param out
+     * @return number of records written
+     */
+    public long processRecords(Iterator<SAMRecord> in, SAMFileWriter out) {
+
+        // batches in input order, waiting to be written
+        final ExecutorService executor = this.numThreads > 1 ? Executors.newFixedThreadPool(this.numThreads) : null;
+        final LinkedList<Future<RecordBatch>> pending = new LinkedList<Future<RecordBatch>>();
+
+        long count = 0;
+        try {
+            RecordBatch batch = new RecordBatch();
+            while (in.hasNext()) {
+                batch.add(in.next());
+                if (batch.size == BATCH_SIZE) {
+                    pending.add(submit(executor, batch));
+                    batch = new RecordBatch();
+                    while (pending.size() > 2 * this.numThreads) {
+                        count += writeBatch(getBatch(pending.removeFirst()), out);
+                    }
+                }
+            }
+            pending.add(submit(executor, batch));
+            while (!pending.isEmpty()) {
+                count += writeBatch(getBatch(pending.removeFirst()), out);
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+        return count;
+    }
+
+    private Future<RecordBatch> submit(ExecutorService executor, RecordBatch batch) {
+        if (executor != null) {
+            return executor.submit(batch);
+        }
+        // no thread pool, process in this thread
+        FutureTask<RecordBatch> done = new FutureTask<RecordBatch>(batch);
+        done.run();
+        return done;
+    }
+
+    private RecordBatch getBatch(Future<RecordBatch> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException("Interrupted while processing records", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    private static int writeBatch(RecordBatch batch, SAMFileWriter out) {
+        for (int i = 0; i < batch.size; i++) {
+            out.addAlignment(batch.records[i]);
+        }
+        return batch.size;
+    }
+
+    /**
+     * A batch of records, changed by the thread which processes it
+     */
+    private class RecordBatch implements Callable<RecordBatch> {
+
+        private final SAMRecord[] records = new SAMRecord[BATCH_SIZE];
+        private int size = 0;
+
+        void add(SAMRecord record) {
+            records[size++] = record;
+        }
+
+        @Override
+        public RecordBatch call() {
+            for (int i = 0; i < size; i++) {
+                processor.processRecord(records[i]);
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package uk.ac.sanger.npg.illumina;
+
+import java.util.HashMap;
+import java.util.Map;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMReadGroupRecord;
+import net.sf.samtools.SAMRecord;
+
+/**
+ * Compact read names of an Illumina lane.
+ *
+ * A full read name is run id:lane:tile:x:y, with the same run id and lane for all records of a lane.
+ * A compact read name is lane:tile:cluster index, unique in a run, with the x and y of the cluster
+ * as integers in an array tag, and the run id and lane only once in the read group header record
+ * of the lane, so files of several lanes or runs merged together can still be restored.
+ *
+ * @author agent@local
+ */
+public final class CompactReadName {
+
+    /**
+     * tag name of the x and y of the cluster
+     */
+    public static final String COORDINATES_TAG = "cc";
+
+    /**
+     * read group header tag of the full read name prefix
+     */
+    public static final String READ_GROUP_PREFIX_TAG = "np";
+
+    private static final int MAX_UNSIGNED_SHORT = 0xFFFF;
+
+    private CompactReadName() {
+    }
+
+    /**
+     * @param laneNumber
+     * @param tileNumber
+     * @param clusterIndex cluster index in the tile
+     * @return compact read name, unique in a run
+     */
+    public static String getName(int laneNumber, int tileNumber, int clusterIndex) {
+        return laneNumber + ":" + tileNumber + ":" + clusterIndex;
+    }
+
+    /**
+     * set the x and y of the cluster into a record, as unsigned shorts if they fit
+     *
+     * @param record
+     * @param x
+     * @param y
+     */
+    public static void setCoordinates(SAMRecord record, int x, int y) {
+        if (x <= MAX_UNSIGNED_SHORT && y <= MAX_UNSIGNED_SHORT) {
+            record.setUnsignedArrayAttribute(COORDINATES_TAG, new short [] {(short) x, (short) y});
+        } else {
+            record.setAttribute(COORDINATES_TAG, new int [] {x, y});
+        }
+    }
+
+    /**
+     * @param record
+     * @return x and y of the cluster, null if the record has no coordinates tag
+     */
+    public static int [] getCoordinates(SAMRecord record) {
+        Object coordinates = record.getAttribute(COORDINATES_TAG);
+        if (coordinates instanceof short[] && ((short []) coordinates).length == 2) {
+            short [] shorts = (short []) coordinates;
+            return new int [] {shorts[0] & MAX_UNSIGNED_SHORT, shorts[1] & MAX_UNSIGNED_SHORT};
+        }
+        if (coordinates instanceof int[] && ((int []) coordinates).length == 2) {
+            return (int []) coordinates;
+        }
+        return null;
+    }
+
+    /**
+     * @param prefix run id and lane number, or lane number only
+     * @param tileNumber
+     * @param coordinates x and y
+     * @return full read name
+     */
+    public static String getFullName(String prefix, int tileNumber, int [] coordinates) {
+        return prefix + ":" + tileNumber + ":" + coordinates[0] + ":" + coordinates[1];
+    }
+
+    /**
+     * add the read name prefix into a read group header record
+     *
+     * @param readGroup
+     * @param prefix
+     */
+    public static void setPrefix(SAMReadGroupRecord readGroup, String prefix) {
+        readGroup.setAttribute(READ_GROUP_PREFIX_TAG, prefix);
+    }
+
+    /**
+     * @param header
+     * @return the read name prefix of each read group with one, empty if not a header of compact read names
+     */
+    public static Map<String, String> getPrefixes(SAMFileHeader header) {
+        Map<String, String> prefixes = new HashMap<String, String>();
+        for (SAMReadGroupRecord readGroup : header.getReadGroups()) {
+            String prefix = readGroup.getAttribute(READ_GROUP_PREFIX_TAG);
+            if (prefix != null) {
+                prefixes.put(readGroup.getId(), prefix);
+            }
+        }
+        return prefixes;
+    }
+
+    /**
+     * replace the compact read name of a record with the full read name and remove the coordinates tag
+     *
+     * @param record
+     * @param prefix read name prefix of the read group of the record
+     * @return false if the record has no coordinates tag or no compact read name
+     */
+    public static boolean restoreFullName(SAMRecord record, String prefix) {
+        int [] coordinates = getCoordinates(record);
+        String name = record.getReadName();
+        int laneEnd = name.indexOf(':');
+        int tileEnd = name.indexOf(':', laneEnd + 1);
+        if (coordinates == null || laneEnd < 0 || tileEnd < 0) {
+            return false;
+        }
+        String lane = name.substring(0, laneEnd);
+        if (!prefix.equals(lane) && !prefix.endsWith(":" + lane)) {
+            throw new RuntimeException("Lane " + lane + " of read " + name + " does not match the read name prefix " + prefix);
+        }
+        record.setReadName(getFullName(prefix, Integer.parseInt(name.substring(laneEnd + 1, tileEnd)), coordinates));
+        record.setAttribute(COORDINATES_TAG, null);
+        return true;
+    }
+}
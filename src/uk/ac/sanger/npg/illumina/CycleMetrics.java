@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package uk.ac.sanger.npg.illumina;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.sf.picard.metrics.MetricBase;
+
+/**
+ * Base composition and quality counts for each cycle of a tile or a lane.
+ *
+ * Counts are kept in long arrays indexed by cycle, with a histogram of the qualities of each cycle
+ * from which the mean, median and Q30 percentage are worked out. A tile is processed by one thread,
+ * which has the counts of the tile to itself, the counts of all tiles are merged
+ * into the lane counts once the tiles are converted.
+ *
+ * @author agent@local
+ */
+public class CycleMetrics {
+
+    // A, C, G, T and N
+    private static final int NUM_BASE_TYPES = 5;
+
+    // phred qualities 0 to 63 in the histogram of each cycle
+    private static final int NUM_QUALITIES = 64;
+
+    private static final int Q30 = 30;
+
+    private final int numCycles;
+
+    private final long [] baseCounts;
+    private final long [] qualityCounts;
+
+    /**
+     *
+     * @param numCycles the last cycle of all reads
+     */
+    public CycleMetrics(int numCycles) {
+        this.numCycles = numCycles;
+        this.baseCounts = new long[numCycles * NUM_BASE_TYPES];
+        this.qualityCounts = new long[numCycles * NUM_QUALITIES];
+    }
+
+    /**
+     * count the bases and qualities of one read
+     *
+     * @param firstCycle the cycle of the first base, starting from 1
+     * @param bases bases in ASCII
+     * @param quals phred qualities, 0 to 63
+     */
+    public void addRead(int firstCycle, byte [] bases, byte [] quals) {
+
+        int cycle = firstCycle - 1;
+        for (int i = 0; i < bases.length; i++, cycle++) {
+            this.baseCounts[cycle * NUM_BASE_TYPES + getBaseIndex(bases[i])]++;
+            this.qualityCounts[cycle * NUM_QUALITIES + quals[i]]++;
+        }
+    }
+
+    private static int getBaseIndex(byte base) {
+        switch (base) {
+            case 'A': return 0;
+            case 'C': return 1;
+            case 'G': return 2;
+            case 'T': return 3;
+            default: return 4;
+        }
+    }
+
+    /**
+     * add the counts of another tile
+     *
+     * @param other
+     */
+    public void merge(CycleMetrics other) {
+
+        if (other.numCycles != this.numCycles) {
+            throw new RuntimeException("Can not merge cycle metrics of " + other.numCycles + " cycles into " + this.numCycles + " cycles");
+        }
+        for (int i = 0; i < this.baseCounts.length; i++) {
+            this.baseCounts[i] += other.baseCounts[i];
+        }
+        for (int i = 0; i < this.qualityCounts.length; i++) {
+            this.qualityCounts[i] += other.qualityCounts[i];
+        }
+    }
+
+    /**
+     *
+     * @param cycle cycle number, starting from 1
+     * @param quality phred quality
+     * @return number of bases of the cycle with the quality
+     */
+    public long getQualityCount(int cycle, int quality) {
+        return this.qualityCounts[(cycle - 1) * NUM_QUALITIES + quality];
+    }
+
+    /**
+     *
+     * @param lane
+     * @param tile null for the whole lane
+     * @return one metric for each cycle with bases counted
+     */
+    public List<CycleMetric> getMetrics(int lane, Integer tile) {
+
+        List<CycleMetric> metrics = new ArrayList<CycleMetric>();
+        for (int cycle = 0; cycle < this.numCycles; cycle++) {
+            int offset = cycle * NUM_BASE_TYPES;
+            CycleMetric metric = new CycleMetric();
+            metric.LANE = lane;
+            metric.TILE = tile;
+            metric.CYCLE = cycle + 1;
+            metric.A = this.baseCounts[offset];
+            metric.C = this.baseCounts[offset + 1];
+            metric.G = this.baseCounts[offset + 2];
+            metric.T = this.baseCounts[offset + 3];
+            metric.N = this.baseCounts[offset + 4];
+            metric.BASES = metric.A + metric.C + metric.G + metric.T + metric.N;
+            if (metric.BASES == 0) {
+                continue;
+            }
+            metric.PCT_N = (double) metric.N / (double) metric.BASES * 100.0;
+            this.setQualityMetrics(metric, cycle * NUM_QUALITIES);
+            metrics.add(metric);
+        }
+        return metrics;
+    }
+
+    /**
+     * set mean, median and Q30 percentage from the quality histogram of a cycle
+     *
+     * @param metric metric with the number of bases set
+     * @param offset first quality count of the cycle
+     */
+    private void setQualityMetrics(CycleMetric metric, int offset) {
+
+        long qualitySum = 0;
+        long q30Count = 0;
+        long count = 0;
+        boolean medianFound = false;
+        for (int quality = 0; quality < NUM_QUALITIES; quality++) {
+            long qualityCount = this.qualityCounts[offset + quality];
+            qualitySum += quality * qualityCount;
+            if (quality >= Q30) {
+                q30Count += qualityCount;
+            }
+            count += qualityCount;
+            if (!medianFound && count * 2 >= metric.BASES) {
+                metric.MEDIAN_QUALITY = quality;
+                medianFound = true;
+            }
+        }
+        metric.MEAN_QUALITY = (double) qualitySum / (double) metric.BASES;
+        metric.PCT_Q30 = (double) q30Count / (double) metric.BASES * 100.0;
+    }
+
+    /**
+     * Base composition and quality of one cycle of a tile, or of a lane if the tile not given
+     */
+    public static class CycleMetric extends MetricBase {
+        /** The lane number. */
+        public int LANE;
+        /** The tile number, empty for the whole lane. */
+        public Integer TILE;
+        /** The cycle number. */
+        public int CYCLE;
+        /** The number of bases in the cycle. */
+        public long BASES = 0;
+        /** The number of A bases. */
+        public long A = 0;
+        /** The number of C bases. */
+        public long C = 0;
+        /** The number of G bases. */
+        public long G = 0;
+        /** The number of T bases. */
+        public long T = 0;
+        /** The number of no calls. */
+        public long N = 0;
+        /** The percentage of no calls. */
+        public double PCT_N = 0d;
+        /** The mean base quality. */
+        public double MEAN_QUALITY = 0d;
+        /** The median base quality, the lower one for an even number of bases. */
+        public int MEDIAN_QUALITY = 0;
+        /** The percentage of bases with quality 30 or above. */
+        public double PCT_Q30 = 0d;
+    }
+}
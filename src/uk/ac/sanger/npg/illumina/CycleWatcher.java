@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package uk.ac.sanger.npg.illumina;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import net.sf.picard.util.Log;
+
+/**
+ * Watch the basecalls directory of a run which is still sequencing.
+ *
+ * A tile is handed out for processing as soon as the last cycle of the tile lands.
+ * While waiting, each read which is complete for a tile, like read 1 or an index read
+ * when read 2 is still sequencing, is taken out of the bcl files of its cycles into a
+ * spill file, so only the last read is left to read from bcl files when the tile is complete.
+ *
+ * @author agent@local
+ */
+public class CycleWatcher {
+
+    private final Log log = Log.getInstance(CycleWatcher.class);
+
+    private final List<Lane> lanes;
+
+    private final long pollInterval;
+    private final long maxWait;
+
+    // tiles not handed out yet, some with reads already spilled
+    private final Map<String, Tile> waitingTiles = new LinkedHashMap<String, Tile>();
+    private final Set<String> handedOutTiles = new HashSet<String>();
+
+    /**
+     *
+     * @param lanes all lanes to process
+     * @param pollInterval seconds to wait before checking the basecalls directory again
+     * @param maxWait minutes to wait without any new cycle landing before giving up
+     */
+    public CycleWatcher(List<Lane> lanes, int pollInterval, int maxWait) {
+        this.lanes = lanes;
+        this.pollInterval = pollInterval * 1000L;
+        this.maxWait = maxWait * 60000L;
+    }
+
+    /**
+     * wait until all cycles of a tile land, spilling the complete reads of other tiles meanwhile
+     *
+     * @param lane
+     * @param tileNumber
+     * @return the complete tile ready to be processed, with its spilled reads
+     */
+    public Tile waitForTile(Lane lane, int tileNumber) {
+
+        final String key = getKey(lane, tileNumber);
+        final Tile tile = this.getTile(lane, tileNumber);
+
+        long lastProgress = System.currentTimeMillis();
+        int completeCycles = -1;
+        while (!tile.isComplete()) {
+
+            int cycles = tile.countCompleteCycles();
+            if (cycles != completeCycles) {
+                log.info(cycles + " cycles complete for tile " + tileNumber + " in lane " + lane.getLaneNumber());
+                completeCycles = cycles;
+                lastProgress = System.currentTimeMillis();
+            }
+            if (System.currentTimeMillis() - lastProgress > this.maxWait) {
+                throw new RuntimeException("No new cycle for tile " + tileNumber + " in lane " + lane.getLaneNumber()
+                        + " in the last " + (this.maxWait / 60000L) + " minutes");
+            }
+
+            if (this.spillCompleteReads() > 0) {
+                lastProgress = System.currentTimeMillis();
+            } else {
+                try {
+                    Thread.sleep(this.pollInterval);
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException("Interrupted while waiting for tile " + tileNumber, ex);
+                }
+            }
+        }
+
+        this.waitingTiles.remove(key);
+        this.handedOutTiles.add(key);
+        return tile;
+    }
+
+    /**
+     * do not wait for a tile or spill its reads, the tile was converted before
+     *
+     * @param lane
+     * @param tileNumber
+     */
+    public void skipTile(Lane lane, int tileNumber) {
+        String key = getKey(lane, tileNumber);
+        Tile tile = this.waitingTiles.remove(key);
+        if (tile != null) {
+            tile.deleteSpillFiles();
+        }
+        this.handedOutTiles.add(key);
+    }
+
+    /**
+     * delete the spill files of the tiles not handed out
+     */
+    public void deleteSpillFiles() {
+        for (Tile tile : this.waitingTiles.values()) {
+            tile.deleteSpillFiles();
+        }
+        this.waitingTiles.clear();
+    }
+
+    private int spillCompleteReads() {
+
+        int count = 0;
+        for (Lane lane : this.lanes) {
+            for (int tileNumber : lane.getTileList()) {
+                if (this.handedOutTiles.contains(getKey(lane, tileNumber))) {
+                    continue;
+                }
+                Tile tile = this.getTile(lane, tileNumber);
+                try {
+                    count += tile.spillCompleteReads();
+                } catch (Exception ex) {
+                    throw new RuntimeException("Problems to spill reads of tile " + tileNumber + " in lane " + lane.getLaneNumber(), ex);
+                }
+            }
+        }
+        return count;
+    }
+
+    private Tile getTile(Lane lane, int tileNumber) {
+        String key = getKey(lane, tileNumber);
+        Tile tile = this.waitingTiles.get(key);
+        if (tile == null) {
+            tile = lane.createTile(tileNumber);
+            this.waitingTiles.put(key, tile);
+        }
+        return tile;
+    }
+
+    private static String getKey(Lane lane, int tileNumber) {
+        return lane.getLaneNumber() + ":" + tileNumber;
+    }
+}
@@ -21,15 +21,23 @@ package uk.ac.sanger.npg.illumina;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import net.sf.picard.cmdline.Option;
 import net.sf.picard.cmdline.Usage;
 import net.sf.picard.io.IoUtil;
+import net.sf.picard.metrics.MetricsFile;
 import net.sf.picard.util.Log;
 import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMFileWriterFactory;
 import net.sf.samtools.SAMReadGroupRecord;
 import net.sf.samtools.util.Iso8601Date;
+import uk.ac.sanger.npg.bam.util.BamUtils;
+import uk.ac.sanger.npg.bam.util.FastqSegmentConcatenator;
 import uk.ac.sanger.npg.picard.PicardCommandLine;
 
 /**
@@ -57,12 +65,46 @@ public class Illumina2bam extends PicardCommandLine {
     @Option(shortName="B", doc="Illumina basecalls directory including config xml file, and filter files, bcl, maybe scl files under lane cycle directory, using BaseCalls directory under intensities if not given. ", optional=true)
     public File BASECALLS_DIR;
     
-    @Option(shortName="L", doc="Lane number.")
+    @Option(shortName="L", doc="Lane number.", mutex = {"LANES"})
     public Integer LANE;
 
-    @Option(shortName="O", doc="Output file name.")
+    @Option(doc="Lane numbers to convert in one run, each lane to its own output file under OUTPUT_DIR.", mutex = {"LANE"})
+    public List<Integer> LANES = new ArrayList<Integer>();
+
+    @Option(shortName="O", doc="Output file name, FASTQ if ending with .fastq, .fq, .fastq.gz or .fq.gz. "
+            + "FASTQ records only keep the barcode tags in the read name comment, so FASTQ output can not be used "
+            + "with PF_FILTER false, GENERATE_SECONDARY_BASE_CALLS or ADD_CLUSTER_INDEX_TAG.", mutex = {"OUTPUT_DIR"})
     public File OUTPUT;
 
+    @Option(doc="The output directory for the bam or sam file of each lane, named with OUTPUT_PREFIX and lane number.", mutex = {"OUTPUT"})
+    public File OUTPUT_DIR;
+
+    @Option(doc="The prefix for the output file of each lane under OUTPUT_DIR, the file is named by lane number only if not given.", optional=true)
+    public String OUTPUT_PREFIX;
+
+    @Option(doc="The extension name for the output file of each lane under OUTPUT_DIR: bam, sam, fastq or fastq.gz.", optional=true)
+    public String OUTPUT_FORMAT = "bam";
+
+    @Option(doc="Write FASTQ read 1 and read 2 into two files, named with _1 and _2 before the extension, "
+            + "instead of read 2 interleaved with read 1 in one file.", optional=true)
+    public boolean SPLIT_FASTQ = false;
+
+    @Option(shortName="T", doc="Number of threads to convert tiles, shared by all lanes.", optional=true)
+    public int NUM_THREADS = 1;
+
+    @Option(doc="Convert the run while it is still sequencing, each tile as soon as all its cycles land.", optional=true)
+    public boolean INCREMENTAL = false;
+
+    @Option(doc="Seconds to wait before checking the basecalls directory again for new cycles with INCREMENTAL.", optional=true)
+    public int POLL_INTERVAL = 60;
+
+    @Option(doc="Minutes to wait without any new cycle landing before giving up with INCREMENTAL.", optional=true)
+    public int MAX_WAIT = 120;
+
+    @Option(doc="Keep the converted tiles of each lane in this directory until the lane is complete, "
+            + "so that a conversion stopped before the end can be run again without converting these tiles again.", optional=true)
+    public File CHECKPOINT_DIR;
+
     @Option(shortName="E2", doc="Including second base call or not, default false.", optional=true)
     public boolean GENERATE_SECONDARY_BASE_CALLS = false;
 
@@ -100,6 +142,14 @@ public class Illumina2bam extends PicardCommandLine {
     @Option(doc="If set, process no more than this many tiles (for debugging).", optional=true)
     public Integer TILE_LIMIT;
 
+    @Option(doc="Tile numbers to convert, all tiles of the lane if not given.", optional=true)
+    public List<Integer> TILES = new ArrayList<Integer>();
+
+    @Option(doc="Write the converted tiles as a headerless BGZF shard without end of file marker block, "
+            + "with the lane header in a SAM file named after the output plus .header.sam, "
+            + "to be joined with the other shards of the lane by ConcatenateBamShards.", optional=true)
+    public boolean SHARD = false;
+
     @Option(shortName="BC_SEQ", doc="Tag name for barcode sequence.")
     public String BARCODE_SEQUENCE_TAG_NAME = "BC";
 
@@ -139,12 +189,45 @@ public class Illumina2bam extends PicardCommandLine {
     @Option(shortName="CI", doc="Add cluster index tag, default false.", optional=true)
     public boolean ADD_CLUSTER_INDEX_TAG = false;
 
+    @Option(doc="Name reads by lane, tile and cluster index only, with the x and y of the cluster in the array tag "
+            + CompactReadName.COORDINATES_TAG + " and the run id and lane in the read group header tag "
+            + CompactReadName.READ_GROUP_PREFIX_TAG + ", see RestoreReadNames for full read names.", optional=true)
+    public boolean COMPACT_READ_NAME = false;
+
+    @Option(doc="Per-cycle base composition, no-call rate and mean quality of the clusters written, "
+            + "for each tile and each lane, counted during conversion and written to this file.", optional=true)
+    public File CYCLE_METRICS_FILE;
+
 
     @Override
     protected int doWork() {
 
-        IoUtil.assertFileIsWritable(OUTPUT);
+        List<Integer> laneNumbers = new ArrayList<Integer>();
+        List<File> outputs = new ArrayList<File>();
+        if( this.LANE != null ){
+            laneNumbers.add(this.LANE);
+        }else{
+            laneNumbers.addAll(this.LANES);
+        }
+        for (int laneNumber : laneNumbers) {
+            File output = this.OUTPUT;
+            if( output == null ){
+                String prefix = this.OUTPUT_PREFIX == null ? "" : this.OUTPUT_PREFIX + "_";
+                output = new File(this.OUTPUT_DIR, prefix + laneNumber + "." + this.OUTPUT_FORMAT);
+            }
+            if( FastqSegmentConcatenator.isFastq(output) && this.SPLIT_FASTQ ){
+                IoUtil.assertFileIsWritable(FastqSegmentConcatenator.getReadFile(output, 1));
+                IoUtil.assertFileIsWritable(FastqSegmentConcatenator.getReadFile(output, 2));
+            }else{
+                IoUtil.assertFileIsWritable(output);
+            }
+            outputs.add(output);
+        }
         
+        if( this.CYCLE_METRICS_FILE != null ){
+            IoUtil.assertFileIsWritable(this.CYCLE_METRICS_FILE);
+        }
+
         IoUtil.assertDirectoryIsReadable(this.INTENSITY_DIR);
         
         if(this.BASECALLS_DIR == null){
@@ -174,18 +257,117 @@ public class Illumina2bam extends PicardCommandLine {
             log.warn("Both SECOND_BARCODE_SEQUENCE_TAG_NAME and SECOND_BARCODE_QUALITY_TAG_NAME need to be given togeter or both missing");
         }
 
-        Lane lane = new Lane(this.INTENSITY_DIR.getAbsolutePath(),
-                this.BASECALLS_DIR.getAbsolutePath(),
-                runfolderPath,
-                this.LANE,
-                this.GENERATE_SECONDARY_BASE_CALLS,
-                this.PF_FILTER,
-                this.ADD_CLUSTER_INDEX_TAG,
-                this.OUTPUT,
-                this.BARCODE_SEQUENCE_TAG_NAME,
-                this.BARCODE_QUALITY_TAG_NAME,
-                this.SECOND_BARCODE_SEQUENCE_TAG_NAME,
-                this.SECOND_BARCODE_QUALITY_TAG_NAME);
+        if (this.BC_READ == null) {
+            this.BC_READ = 1;
+        }
+
+        if (this.SEC_BC_READ == null) {
+            this.SEC_BC_READ = this.BC_READ;
+        }
+
+        if (this.BC_READ != 1 && this.BC_READ != 2) {
+            log.error("BC_READ must be 1 or 2");
+            return 1;
+        }
+
+        if (this.SEC_BC_READ != 1 && this.SEC_BC_READ != 2) {
+            log.error("SEC_BC_READ must be 1 or 2");
+            return 1;
+        }
+
+        // config files are parsed once for the first lane and shared by the other lanes
+        List<Lane> lanes = new ArrayList<Lane>(laneNumbers.size());
+        for (int i = 0; i < laneNumbers.size(); i++) {
+            Lane lane;
+            if( i == 0 ){
+                lane = new Lane(this.INTENSITY_DIR.getAbsolutePath(),
+                    this.BASECALLS_DIR.getAbsolutePath(),
+                    runfolderPath,
+                    laneNumbers.get(i),
+                    this.GENERATE_SECONDARY_BASE_CALLS,
+                    this.PF_FILTER,
+                    this.ADD_CLUSTER_INDEX_TAG,
+                    outputs.get(i),
+                    this.BARCODE_SEQUENCE_TAG_NAME,
+                    this.BARCODE_QUALITY_TAG_NAME,
+                    this.SECOND_BARCODE_SEQUENCE_TAG_NAME,
+                    this.SECOND_BARCODE_QUALITY_TAG_NAME);
+            }else{
+                lane = new Lane(lanes.get(0), laneNumbers.get(i), outputs.get(i));
+            }
+
+            int status = this.setUpLane(lane);
+            if (status != 0) {
+                return status;
+            }
+            lanes.add(lane);
+        }
+
+        boolean fastq = FastqSegmentConcatenator.isFastq(outputs.get(0));
+        if( lanes.size() > 1 || this.NUM_THREADS > 1 || this.INCREMENTAL || this.CHECKPOINT_DIR != null || this.SHARD || fastq ){
+
+            log.info("Writing Basecall files of " + lanes.size() + " lanes with " + this.NUM_THREADS + " threads");
+            try {
+                TileScheduler scheduler = new TileScheduler(this.NUM_THREADS, this.CREATE_MD5_FILE);
+                if( this.INCREMENTAL ){
+                    log.info("Waiting for cycles to land, checking every " + this.POLL_INTERVAL + " seconds");
+                    scheduler.setCycleWatcher(new CycleWatcher(lanes, this.POLL_INTERVAL, this.MAX_WAIT));
+                }
+                if( this.CHECKPOINT_DIR != null ){
+                    log.info("Keeping converted tiles in checkpoint directory " + this.CHECKPOINT_DIR);
+                    scheduler.setCheckpointDir(this.CHECKPOINT_DIR);
+                }
+                if( fastq ){
+                    log.info("Writing FASTQ records" + (this.SPLIT_FASTQ ? " of each read into its own file" : ""));
+                    scheduler.setFastqOutput(true, this.SPLIT_FASTQ);
+                }
+                if( this.SHARD ){
+                    scheduler.setShardOutput(true);
+                    for (Lane lane : lanes) {
+                        writeShardHeader(lane);
+                    }
+                }
+                scheduler.processLanes(lanes);
+            } catch (Exception ex) {
+                log.error(ex, "Problems to process tiles ");
+                return 1;
+            }
+            for (Lane lane : lanes) {
+                log.info("BAM, SAM or FASTQ file generated: " + lane.getOutput());
+            }
+            this.writeCycleMetrics(lanes);
+            return 0;
+        }
+
+        Lane lane = lanes.get(0);
+
+        log.info("Generating bam or sam file output stream with header");
+        SAMFileWriter outBam = lane.generateOutputSamStream();
+        
+        log.info("Writing Basecall files to bam");
+        try {
+            lane.processTiles(outBam);
+        } catch (Exception ex) {
+            log.error(ex, "Problems to process tiles ");
+            return 1;
+        }
+
+        outBam.close();
+        
+        log.info("BAM or SAM file generated: " + lane.getOutput());
+
+        this.writeCycleMetrics(lanes);
+
+        return 0;
+    }
+
+    /**
+     * Set command line options of a lane: cycle ranges, program and read group records, tiles and barcode reads
+     *
+     * @param lane
+     * @return 0 if successfully
+     */
+    private int setUpLane(Lane lane){
 
         // update cycle range with command line options (if appropriate)
         if (!FIRST_CYCLE.isEmpty()) {
@@ -208,7 +390,7 @@ public class Illumina2bam extends PicardCommandLine {
         String runfolderConfig = lane.getRunfolderConfig();
         String platformUnitConfig = null;
         if(runfolderConfig != null){
-            platformUnitConfig = runfolderConfig + "_" + this.LANE;
+            platformUnitConfig = runfolderConfig + "_" + lane.getLaneNumber();
         }        
         Date runDateConfig   = lane.getRunDateConfig();        
         lane.setReadGroup(this.generateSamReadGroupRecord(platformUnitConfig, runDateConfig));
@@ -223,45 +405,137 @@ public class Illumina2bam extends PicardCommandLine {
             lane.reduceTileList(this.FIRST_TILE, this.TILE_LIMIT);
         }
 
-        if (this.BC_READ == null) {
-            this.BC_READ = 1;
+        if( !this.TILES.isEmpty() ){
+            List<Integer> missingTiles = lane.getMissingTiles(this.TILES);
+            if( !missingTiles.isEmpty() ){
+                log.error("TILES " + missingTiles + " not found in lane " + lane.getLaneNumber()
+                        + ", tiles of the lane: " + Arrays.toString(lane.getTileList()));
+                return 1;
+            }
+            log.info("Only process tiles " + this.TILES);
+            lane.selectTiles(this.TILES);
         }
 
-        if (this.SEC_BC_READ == null) {
-            this.SEC_BC_READ = this.BC_READ;
-        }
+        lane.set_bc_read(this.BC_READ);
+        lane.set_sec_bc_read(this.SEC_BC_READ);
+        lane.setCompactReadName(this.COMPACT_READ_NAME);
+        lane.setCycleMetrics(this.CYCLE_METRICS_FILE != null);
 
-        if (this.BC_READ != 1 && this.BC_READ != 2) {
-            log.error("BC_READ must be 1 or 2");
-            return 1;
+        return 0;
+    }
+
+    /**
+     * Merge the cycle metrics of all tiles of each lane and write them with the metrics of each tile
+     *
+     * @param lanes
+     */
+    private void writeCycleMetrics(List<Lane> lanes){
+
+        if( this.CYCLE_METRICS_FILE == null ){
+            return;
         }
 
-        if (this.SEC_BC_READ != 1 && this.SEC_BC_READ != 2) {
-            log.error("SEC_BC_READ must be 1 or 2");
-            return 1;
+        final MetricsFile<CycleMetrics.CycleMetric, Integer> metrics = this.getMetricsFile();
+        for (Lane lane : lanes) {
+            CycleMetrics laneMetrics = new CycleMetrics(lane.getLastCycle());
+            for (Map.Entry<Integer, CycleMetrics> entry : lane.getCycleMetricsByTile().entrySet()) {
+                laneMetrics.merge(entry.getValue());
+                for (CycleMetrics.CycleMetric metric : entry.getValue().getMetrics(lane.getLaneNumber(), entry.getKey())) {
+                    metrics.addMetric(metric);
+                }
+            }
+            for (CycleMetrics.CycleMetric metric : laneMetrics.getMetrics(lane.getLaneNumber(), null)) {
+                metrics.addMetric(metric);
+            }
         }
 
-        lane.set_bc_read(this.BC_READ);
-        lane.set_sec_bc_read(this.SEC_BC_READ);
+        log.info("Writing cycle metrics file: " + this.CYCLE_METRICS_FILE);
+        metrics.write(this.CYCLE_METRICS_FILE);
+    }
 
-        log.info("Generating bam or sam file output stream with header");
-        SAMFileWriter outBam = lane.generateOutputSamStream();
-        
-        log.info("Writing Basecall files to bam");
-        try {
-            lane.processTiles(outBam);
-        } catch (Exception ex) {
-            log.error(ex, "Problems to process tiles ");
-            return 1;
-        }
+    /**
+     * Write the header of a lane to be put in front of its shards when they are joined
+     *
+     * @param lane
+     */
+    private void writeShardHeader(Lane lane){
 
-        outBam.close();
-        
-        log.info("BAM or SAM file generated: " + this.OUTPUT);
+        File headerFile = getShardHeaderFile(lane.getOutput());
+        IoUtil.assertFileIsWritable(headerFile);
+        log.info("Writing lane header for shard: " + headerFile);
+        new SAMFileWriterFactory().makeSAMWriter(lane.generateHeader(), true, headerFile).close();
+    }
 
-        return 0;
+    /**
+     * @param shard
+     * @return the SAM file with the lane header of a shard
+     */
+    public static File getShardHeaderFile(File shard){
+        return new File(shard.getPath() + ".header.sam");
     }
 
+    /**
+     * Check the lanes and their outputs
+     *
+     * @return null if command line is valid.  If command line is invalid, returns an array of error message
+     *         to be written to the appropriate place.
+     */
+    @Override
+    protected String[] customCommandLineValidation() {
+
+        final ArrayList<String> messages = new ArrayList<String>();
+
+        if( this.OUTPUT != null && this.LANE == null ){
+            messages.add("OUTPUT can only be given for one LANE, use OUTPUT_DIR for LANES");
+        }
+        if( new HashSet<Integer>(this.LANES).size() != this.LANES.size() ){
+            messages.add("LANES must not be given more than once: " + this.LANES);
+        }
+        if( this.PLATFORM_UNIT != null && this.LANES.size() > 1 ){
+            messages.add("PLATFORM_UNIT can only be given for one lane");
+        }
+        if( this.POLL_INTERVAL < 1 || this.MAX_WAIT < 1 ){
+            messages.add("POLL_INTERVAL and MAX_WAIT must be at least 1");
+        }
+        if( !this.TILES.isEmpty() && (this.FIRST_TILE != null || this.TILE_LIMIT != null) ){
+            messages.add("TILES can not be given with FIRST_TILE or TILE_LIMIT");
+        }
+        if( this.SHARD && this.OUTPUT_DIR != null && this.OUTPUT_FORMAT.equals("sam") ){
+            messages.add("A shard is always BGZF compressed, OUTPUT_FORMAT sam can not be used with SHARD");
+        }
+        boolean fastq = (this.OUTPUT != null && FastqSegmentConcatenator.isFastq(this.OUTPUT))
+                || (this.OUTPUT_DIR != null && FastqSegmentConcatenator.isFastq(new File("lane." + this.OUTPUT_FORMAT)));
+        if( fastq && (this.SHARD || this.CHECKPOINT_DIR != null) ){
+            messages.add("SHARD and CHECKPOINT_DIR can not be used with FASTQ output");
+        }
+        if( this.SPLIT_FASTQ && !fastq ){
+            messages.add("SPLIT_FASTQ can only be used with FASTQ output");
+        }
+        if( fastq && this.COMPACT_READ_NAME ){
+            messages.add("COMPACT_READ_NAME can not be used with FASTQ output, which has no header for the read name prefix");
+        }
+        if( fastq && !this.PF_FILTER ){
+            messages.add("PF_FILTER false can not be used with FASTQ output, which has no flag to mark clusters failing the filter");
+        }
+        if( fastq && (this.GENERATE_SECONDARY_BASE_CALLS || this.ADD_CLUSTER_INDEX_TAG) ){
+            messages.add("GENERATE_SECONDARY_BASE_CALLS and ADD_CLUSTER_INDEX_TAG can not be used with FASTQ output, "
+                    + "which only keeps the barcode tags");
+        }
+        if( (this.OUTPUT != null && BamUtils.isCramFile(this.OUTPUT.getName())) || (this.OUTPUT_DIR != null && BamUtils.isCramFormat(this.OUTPUT_FORMAT)) ){
+            messages.add(BamUtils.CRAM_NOT_SUPPORTED);
+        }
+        if( this.CYCLE_METRICS_FILE != null && this.CHECKPOINT_DIR != null ){
+            messages.add("CYCLE_METRICS_FILE can not be used with CHECKPOINT_DIR, tiles converted before a restart are not read again");
+        }
+        if( this.NUM_THREADS < 1 ){
+            messages.add("NUM_THREADS must be at least 1");
+        }
+
+        if (messages.isEmpty()) {
+            return null;
+        }
+        return messages.toArray(new String[messages.size()]);
+    }
 
     /**
      * Generate read group record
@@ -309,6 +583,9 @@ public class Illumina2bam extends PicardCommandLine {
     /**
      * 
      * @param args example INTENSITY_DIR=testdata/110323_HS13_06000_B_B039WABXX/Data/Intensities BASECALLS_DIR=testdata/110323_HS13_06000_B_B039WABXX/Data/Intensities/BaseCalls LANE=1 OUTPUT=testdata/6000_1.sam  VALIDATION_STRINGENCY=STRICT CREATE_INDEX=false CREATE_MD5_FILE=true FIRST_TILE=1101 COMPRESSION_LEVEL=1 TILE_LIMIT=1
+     * or to convert several lanes in one run, each lane to OUTPUT_DIR/OUTPUT_PREFIX_lane.bam:
+     * INTENSITY_DIR=testdata/110323_HS13_06000_B_B039WABXX/Data/Intensities LANES=1 LANES=2 OUTPUT_DIR=testdata OUTPUT_PREFIX=6000 NUM_THREADS=8
+     * with INCREMENTAL=true to start while the run is still sequencing
      */
     public static void main(final String[] args) {
         
@@ -24,6 +24,12 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Map.Entry;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -68,6 +74,11 @@ public class Lane {
 
     private int bc_read;
     private int sec_bc_read;
+
+    private boolean compactReadName = false;
+
+    private boolean cycleMetrics = false;
+    private final SortedMap<Integer, CycleMetrics> cycleMetricsByTile = new TreeMap<Integer, CycleMetrics>();
   
     //config xml file name and XML Documetns
     private final String baseCallsConfig;
@@ -208,6 +219,51 @@ public class Lane {
         this(intensityDir, baseCallDir, runFolder, laneNumber, secondCall, pfFilter, clusterIndex, output, barcodeSeqTagName, barcodeQualTagName, (String)null, (String)null);
     }
 
+    /**
+     * Another lane of the same run, sharing the config XML documents already parsed for a lane
+     * and reading the lane specific information from them again.
+     *
+     * @param runLane a lane of the run with all config XML files parsed
+     * @param laneNumber lane number
+     * @param output Output file
+     */
+    public Lane(Lane runLane, int laneNumber, File output){
+
+        this.intensityDir      = runLane.intensityDir;
+        this.baseCallDir       = runLane.baseCallDir;
+        this.runFolder         = runLane.runFolder;
+        this.laneNumber        = laneNumber;
+        this.includeSecondCall = runLane.includeSecondCall;
+        this.pfFilter          = runLane.pfFilter;
+        this.includeClusterIndex = runLane.includeClusterIndex;
+        this.output            = output;
+        this.barcodeSeqTagName  = runLane.barcodeSeqTagName;
+        this.barcodeQualTagName = runLane.barcodeQualTagName;
+        this.secondBarcodeSeqTagName  = runLane.secondBarcodeSeqTagName;
+        this.secondBarcodeQualTagName = runLane.secondBarcodeQualTagName;
+
+        this.baseCallsConfig   = runLane.baseCallsConfig;
+        this.intensityConfig   = runLane.intensityConfig;
+        this.runParametersFile = runLane.runParametersFile;
+        this.runInfoFile       = runLane.runInfoFile;
+
+        this.baseCallsConfigDoc = runLane.baseCallsConfigDoc;
+        this.intensityConfigDoc = runLane.intensityConfigDoc;
+        this.runParametersDoc   = runLane.runParametersDoc;
+        this.runInfoDoc         = runLane.runInfoDoc;
+        this.runConfigXmlNode   = runLane.runConfigXmlNode;
+
+        XPathFactory factory = XPathFactory.newInstance();
+        xpath = factory.newXPath();
+
+        try {
+            log.info("Reading config for lane " + laneNumber);
+            readConfigs();
+        } catch (Exception ex) {
+            throw new RuntimeException("Problem reading config files", ex);
+        }
+    }
+
     /**
      * Read both config XML files under BaseCalls and Intensities.
      * And RunInfo and runParameters xml under runfolder.
@@ -247,6 +303,10 @@ public class Lane {
 
     /**
      * write BCL file to output stream tile by tile
+     *
+     * The base call files of the next tile are opened by a background thread
+     * while the current tile is decoded, so the first blocks of hundreds of files
+     * are already read when the next tile starts.
      * 
      * @param outputSam
      * @return true if successfully
@@ -254,36 +314,121 @@ public class Lane {
      */
     public boolean processTiles(SAMFileWriter outputSam) throws Exception{
 
-        for(int tileNumber : this.tileList){
-            
-            log.info("Tile: " + tileNumber);
-            
-            Tile tile = new Tile(intensityDir, baseCallDir, id, laneNumber, tileNumber,
-                                 cycleRangeByRead,
-                                 this.includeSecondCall, this.pfFilter, this.includeClusterIndex,
-                                 this.barcodeSeqTagName, this.barcodeQualTagName);
-            
-            if(this.secondBarcodeSeqTagName != null && this.secondBarcodeQualTagName != null){
-                tile.setSecondBarcodeQualTagName(secondBarcodeQualTagName);
-                tile.setSecondBarcodeSeqTagName(secondBarcodeSeqTagName);
+        final ExecutorService prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "prefetch-lane-" + laneNumber);
+                thread.setDaemon(true);
+                return thread;
             }
-            
-            tile.set_bc_read(this.bc_read);
-            tile.set_sec_bc_read(this.sec_bc_read);
+        });
 
-            log.info("Opening all basecall files");
-            tile.openBaseCallFiles();
-            
-            log.info("Reading all base call files");
-            tile.processTile(outputSam);
-            
-            log.info("Closing base call files");
-            tile.closeBaseCallFiles();
+        Future<Tile> nextTile = null;
+        try {
+            for (int i = 0; i < this.tileList.length; i++) {
+
+                int tileNumber = this.tileList[i];
+                log.info("Tile: " + tileNumber);
+
+                Tile tile;
+                if (nextTile == null) {
+                    log.info("Opening all basecall files");
+                    tile = this.createTile(tileNumber);
+                    tile.openBaseCallFiles();
+                } else {
+                    tile = getPrefetchedTile(nextTile);
+                    nextTile = null;
+                }
+
+                if (i + 1 < this.tileList.length) {
+                    nextTile = prefetcher.submit(new TilePrefetcher(this.createTile(this.tileList[i + 1])));
+                }
+
+                try {
+                    log.info("Reading all base call files");
+                    tile.processTile(outputSam);
+                    this.addCycleMetrics(tileNumber, tile.getCycleMetrics());
+                } finally {
+                    log.info("Closing base call files");
+                    tile.closeBaseCallFiles();
+                }
+            }
+        } finally {
+            if (nextTile != null) {
+                // stopped by an error, close the files of the next tile once opened
+                try {
+                    getPrefetchedTile(nextTile).closeBaseCallFiles();
+                } catch (Exception ex) {
+                    log.warn("Problems to open base call files of the next tile: " + ex);
+                }
+            }
+            prefetcher.shutdown();
         }
 
         return true;
     }
 
+    static Tile getPrefetchedTile(Future<Tile> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw new RuntimeException("Problems to open base call files", ex.getCause());
+        }
+    }
+
+    /**
+     * open the base call files of a tile in the background
+     */
+    static class TilePrefetcher implements Callable<Tile> {
+
+        private final Tile tile;
+
+        TilePrefetcher(Tile tile) {
+            this.tile = tile;
+        }
+
+        @Override
+        public Tile call() throws Exception {
+            try {
+                this.tile.openBaseCallFiles();
+            } catch (Exception ex) {
+                this.tile.closeBaseCallFiles();
+                throw ex;
+            }
+            return this.tile;
+        }
+    }
+
+    /**
+     * 
+     * @param tileNumber
+     * @return a tile of this lane with all the options of the lane, base call files not opened yet
+     */
+    public Tile createTile(int tileNumber){
+
+        Tile tile = new Tile(intensityDir, baseCallDir, id, laneNumber, tileNumber,
+                             cycleRangeByRead,
+                             this.includeSecondCall, this.pfFilter, this.includeClusterIndex,
+                             this.barcodeSeqTagName, this.barcodeQualTagName);
+
+        if(this.secondBarcodeSeqTagName != null && this.secondBarcodeQualTagName != null){
+            tile.setSecondBarcodeQualTagName(secondBarcodeQualTagName);
+            tile.setSecondBarcodeSeqTagName(secondBarcodeSeqTagName);
+        }
+
+        tile.set_bc_read(this.bc_read);
+        tile.set_sec_bc_read(this.sec_bc_read);
+        tile.setCompactReadName(this.compactReadName);
+        if(this.cycleMetrics){
+            tile.setCycleMetrics(new CycleMetrics(this.getLastCycle()));
+        }
+
+        return tile;
+    }
+
     /**
      * initial XML document
      * 
@@ -1263,10 +1408,18 @@ public class Lane {
              header.addProgramRecord(this.illumina2bamProgram);
          }
 
+         if(this.compactReadName && this.readGroup == null){
+           throw new RuntimeException("Compact read names need a read group to keep the read name prefix");
+         }
+
          if(this.readGroup != null){
            if(this.readGroup.getAttribute("PG") == null){
              this.readGroup.setAttribute("PG", this.instrumentProgram.getId());
            }
+           if(this.compactReadName){
+             String prefix = (id == null || id.isEmpty()) ? "" + laneNumber : (id + ":" + laneNumber);
+             CompactReadName.setPrefix(this.readGroup, prefix);
+           }
            header.addReadGroup(readGroup);
          }
 
@@ -1310,6 +1463,67 @@ public class Lane {
         this.tileList = newTileList;
     }
 
+    /**
+     * keep only the given tiles, in the order of the tile list of the lane
+     *
+     * @param tileNumbers tile numbers to process
+     */
+    public void selectTiles(List<Integer> tileNumbers){
+
+        List<Integer> selectedTileList = new ArrayList<Integer>();
+        for (int tileNumber : this.tileList){
+            if( tileNumbers.contains(tileNumber) ){
+                selectedTileList.add(tileNumber);
+            }
+        }
+
+        List<Integer> missingTiles = this.getMissingTiles(tileNumbers);
+        if( !missingTiles.isEmpty() ){
+            throw new RuntimeException("Tiles " + missingTiles + " not found in lane " + this.laneNumber);
+        }
+
+        int [] newTileList = new int[selectedTileList.size()];
+        for(int i = 0; i < newTileList.length; i++){
+            newTileList[i] = selectedTileList.get(i);
+        }
+
+        this.tileList = newTileList;
+    }
+
+    /**
+     *
+     * @param tileNumbers
+     * @return the given tiles not in the tile list of the lane, in the given order
+     */
+    public List<Integer> getMissingTiles(List<Integer> tileNumbers){
+
+        Set<Integer> laneTiles = new HashSet<Integer>();
+        for (int tileNumber : this.tileList){
+            laneTiles.add(tileNumber);
+        }
+        List<Integer> missingTiles = new ArrayList<Integer>();
+        for (Integer tileNumber : tileNumbers){
+            if( !laneTiles.contains(tileNumber) && !missingTiles.contains(tileNumber) ){
+                missingTiles.add(tileNumber);
+            }
+        }
+        return missingTiles;
+    }
+
+    /**
+     * @return the laneNumber
+     */
+    public int getLaneNumber() {
+        return laneNumber;
+    }
+
+    /**
+     * @return the output
+     */
+    public File getOutput() {
+        return output;
+    }
+
     /**
      * @param id the id to set
      */
@@ -1415,6 +1629,55 @@ public class Lane {
         this.sec_bc_read = sec_bc_read;
     }
 
+    /**
+     * @param compactReadName name reads by lane, tile and cluster index, with the read name prefix in the read group
+     */
+    public void setCompactReadName(boolean compactReadName) {
+        this.compactReadName = compactReadName;
+    }
+
+    /**
+     * @param cycleMetrics count bases and qualities by cycle for each tile
+     */
+    public void setCycleMetrics(boolean cycleMetrics) {
+        this.cycleMetrics = cycleMetrics;
+    }
+
+    /**
+     * keep the cycle metrics of a converted tile, called by the thread which converted it
+     *
+     * @param tileNumber
+     * @param tileMetrics null if not counted
+     */
+    public void addCycleMetrics(int tileNumber, CycleMetrics tileMetrics) {
+        if (tileMetrics == null) {
+            return;
+        }
+        synchronized (this.cycleMetricsByTile) {
+            this.cycleMetricsByTile.put(tileNumber, tileMetrics);
+        }
+    }
+
+    /**
+     * @return the cycle metrics of each converted tile, in tile order
+     */
+    public SortedMap<Integer, CycleMetrics> getCycleMetricsByTile() {
+        synchronized (this.cycleMetricsByTile) {
+            return new TreeMap<Integer, CycleMetrics>(this.cycleMetricsByTile);
+        }
+    }
+
+    /**
+     * @return the last cycle of all reads
+     */
+    public int getLastCycle() {
+        int lastCycle = 0;
+        for (int [] cycleRange : this.cycleRangeByRead.values()) {
+            lastCycle = Math.max(lastCycle, cycleRange[1]);
+        }
+        return lastCycle;
+    }
+
     /**
      * @return the cycleRangeByRead
      */
@@ -26,6 +26,7 @@ import java.util.Map;
 import net.sf.picard.util.Log;
 import net.sf.samtools.*;
 import uk.ac.sanger.npg.bam.util.BamUtils;
+import uk.ac.sanger.npg.bam.util.FastqSegmentWriter;
 import uk.ac.sanger.npg.illumina.file.reader.*;
 
 /**
@@ -54,6 +55,10 @@ public class Tile {
     private int bc_read;
     private int sec_bc_read;
 
+    private boolean compactReadName = false;
+
+    private CycleMetrics cycleMetrics;
+
     private final HashMap<String, int[]> cycleRangeByRead;
 
     private final boolean includeSecondCall;
@@ -72,12 +77,16 @@ public class Tile {
     private final String cLocsFileName;
     private final String posFileName;
     private final String locsFileName;
-    private final String filterFileName;
+    private String filterFileName;
 
     //file reader list
     private final HashMap<String, BCLFileReader[]> bclFileReaderListByRead;
     private final HashMap<String, SCLFileReader[]> sclFileReaderListByRead;
 
+    //reads taken out of bcl files before the tile is complete
+    private final HashMap<String, File> spillFileByRead = new HashMap<String, File>();
+    private final HashMap<String, BCLSpillFileReader> spillFileReaderByRead = new HashMap<String, BCLSpillFileReader>();
+
     /**
      * 
      * @param intensityDir intensities directory
@@ -165,8 +174,6 @@ public class Tile {
           lfn                 = idir + "s.locs"; 
         }
         this.locsFileName     = lfn;
-
-        this.filterFileName = this.checkFilterFileName();
     }
 
     /**
@@ -175,6 +182,20 @@ public class Tile {
      * @throws Exception
      */
     public void processTile(SAMFileWriter outputSam) throws Exception {
+        this.processTile(outputSam, null);
+    }
+
+    /**
+     * read each cluster and write them as FASTQ records, without building any bam record,
+     * with barcode tags in the comment of the read they would be added to in bam
+     * @param outputFastq
+     * @throws Exception
+     */
+    public void processTile(FastqSegmentWriter outputFastq) throws Exception {
+        this.processTile(null, outputFastq);
+    }
+
+    private void processTile(SAMFileWriter outputSam, FastqSegmentWriter outputFastq) throws Exception {
         
         if(this.dualIndexed && (this.secondBarcodeQualTagName == null || this.secondBarcodeSeqTagName == null)){
             throw new RuntimeException("Dual index run but tag names for second barcode not given.");
@@ -210,7 +231,7 @@ public class Tile {
             throw new RuntimeException(errorMessage);
         }
 
-        SAMFileHeader samFileHeader = outputSam.getFileHeader();
+        SAMFileHeader samFileHeader = outputSam == null ? null : outputSam.getFileHeader();
 
         int totalClusterInTile = filterFileReader.getTotalClusters();
         //log.info("Total cluster from filter file: " + totalClusterInTile);
@@ -230,7 +251,12 @@ public class Tile {
             //position
             PositionFileReader.Position pos = positionReader.next();
 
-            String readName = this.getReadName(pos.toArray());
+            String readName;
+            if (this.compactReadName) {
+                readName = CompactReadName.getName(this.laneNumber, this.tileNumber, clusterIndex);
+            } else {
+                readName = this.getReadName(pos.toArray());
+            }
 
             //filtered
             int filtered = (Integer) filterFileReader.next();
@@ -280,10 +306,28 @@ public class Tile {
                 if (this.sec_bc_read == 1) { read1_qi2 = basesQualsIndex2; } 
                 else                       { read2_qi2 = basesQualsIndex2; }
 
+                if (this.cycleMetrics != null) {
+                    this.addCycleMetrics(basesQuals1, basesQuals2, basesQualsIndex, basesQualsIndex2);
+                }
+
+                if (outputFastq != null) {
+                    outputFastq.write(readName, true, pairedRead, basesQuals1[0], basesQuals1[1], this.getFastqComment(read1_qi1, read1_qi2));
+                    if(this.pairedRead){
+                        outputFastq.write(readName, false, pairedRead, basesQuals2[0], basesQuals2[1], this.getFastqComment(read2_qi1, read2_qi2));
+                    }
+                    continue;
+                }
+
                 SAMRecord recordRead1 = this.getSAMRecord(samFileHeader, readName, clusterIndex, basesQuals1, secondBases1, read1_qi1, read1_qi2, filtered, pairedRead, true);
+                if (this.compactReadName) {
+                    CompactReadName.setCoordinates(recordRead1, Integer.parseInt(pos.x), Integer.parseInt(pos.y));
+                }
                 this.writeToBam(outputSam, recordRead1);
                 if(this.pairedRead){
                     SAMRecord recordRead2 = this.getSAMRecord(samFileHeader, readName, clusterIndex, basesQuals2, secondBases2, read2_qi1, read2_qi2, filtered, pairedRead, false);
+                    if (this.compactReadName) {
+                        CompactReadName.setCoordinates(recordRead2, Integer.parseInt(pos.x), Integer.parseInt(pos.y));
+                    }
                     this.writeToBam(outputSam, recordRead2);
                 }
             }
@@ -352,6 +396,17 @@ public class Tile {
                   }
               }
         }
+        for (BCLSpillFileReader spillFileReader : this.spillFileReaderByRead.values()) {
+            if (spillFileReader.getTotalClusters() != expectedClusterNumber) {
+                throw new Exception("Number of Clusters in spill file "
+                        + spillFileReader.getFileName()
+                        + " "
+                        + spillFileReader.getTotalClusters()
+                        + " not as expected:"
+                        + expectedClusterNumber
+                        );
+            }
+        }
         return true;
     }
 
@@ -393,9 +448,15 @@ public class Tile {
             String read = entry.getKey();
             int[] cycleRange = entry.getValue();
 
-            log.info("Opening BCL Files for " + read );
-            BCLFileReader[] bclFileReaderListRead = this.openBCLFileByCycles(cycleRange);
-            this.getBclFileReaderListByRead().put(read, bclFileReaderListRead);
+            File spillFile = this.spillFileByRead.get(read);
+            if (spillFile != null) {
+                log.info("Opening spill file for " + read );
+                this.spillFileReaderByRead.put(read, new BCLSpillFileReader(spillFile.getPath()));
+            } else {
+                log.info("Opening BCL Files for " + read );
+                BCLFileReader[] bclFileReaderListRead = this.openBCLFileByCycles(cycleRange);
+                this.getBclFileReaderListByRead().put(read, bclFileReaderListRead);
+            }
 
             if (this.includeSecondCall) {
                 
@@ -466,6 +527,124 @@ public class Tile {
                 this.closeFileReaderList(list);
             }
         }
+
+        for (BCLSpillFileReader spillFileReader : this.spillFileReaderByRead.values()) {
+            spillFileReader.close();
+        }
+        this.spillFileReaderByRead.clear();
+    }
+
+    /**
+     * check all cycles of a read are available, with bcl files written completely
+     * and scl files present if second calls are included
+     * 
+     * @param read
+     * @return true if all cycles of the read are complete
+     */
+    public boolean isReadComplete(String read) {
+
+        int[] cycleRange = this.cycleRangeByRead.get(read);
+        // the last cycle first, no need to check the others before it lands
+        if (!BCLFileReader.isComplete(this.getBaseCallFileName(cycleRange[1], true))) {
+            return false;
+        }
+        for (int cycle = cycleRange[0]; cycle <= cycleRange[1]; cycle++) {
+            if (!BCLFileReader.isComplete(this.getBaseCallFileName(cycle, true))) {
+                return false;
+            }
+            if (this.includeSecondCall) {
+                String sclFileName = this.getBaseCallFileName(cycle, false);
+                if (!new File(sclFileName).exists() && !new File(sclFileName + ".gz").exists()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * check all reads and the filter file of this tile are available
+     * 
+     * @return true if the tile is ready to be processed
+     */
+    public boolean isComplete() {
+
+        for (String read : this.cycleRangeByRead.keySet()) {
+            if (!this.isReadComplete(read)) {
+                return false;
+            }
+        }
+        return this.getFilterFileCandidate() != null;
+    }
+
+    /**
+     * 
+     * @return number of cycles with complete bcl files for all reads
+     */
+    public int countCompleteCycles() {
+
+        int count = 0;
+        for (int[] cycleRange : this.cycleRangeByRead.values()) {
+            for (int cycle = cycleRange[0]; cycle <= cycleRange[1]; cycle++) {
+                if (BCLFileReader.isComplete(this.getBaseCallFileName(cycle, true))) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * take each complete read which is not in a spill file yet out of the bcl files of its cycles,
+     * into a temporary spill file which will be read instead of the bcl files.
+     * The read with the last cycle of the run is never spilled, the tile is complete when it lands.
+     * 
+     * @return number of reads spilled
+     * @throws Exception
+     */
+    public int spillCompleteReads() throws Exception {
+
+        String lastRead = null;
+        int lastCycle = 0;
+        for (Map.Entry<String, int[]> entry : this.cycleRangeByRead.entrySet()) {
+            if (entry.getValue()[1] > lastCycle) {
+                lastCycle = entry.getValue()[1];
+                lastRead = entry.getKey();
+            }
+        }
+
+        int count = 0;
+        for (Map.Entry<String, int[]> entry : this.cycleRangeByRead.entrySet()) {
+
+            String read = entry.getKey();
+            if (read.equals(lastRead) || this.spillFileByRead.containsKey(read) || !this.isReadComplete(read)) {
+                continue;
+            }
+
+            log.info("Spilling " + read + " of tile " + this.tileNumber + " in lane " + this.laneNumber);
+            File spillFile = File.createTempFile(this.tileName + "_" + read + "_", ".spill");
+            spillFile.deleteOnExit();
+            BCLFileReader[] bclFileReaderList = this.openBCLFileByCycles(entry.getValue());
+            try {
+                BCLSpillFileReader.writeSpillFile(bclFileReaderList, spillFile);
+            } finally {
+                this.closeFileReaderList(bclFileReaderList);
+            }
+            this.spillFileByRead.put(read, spillFile);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * delete all spill files of this tile
+     */
+    public void deleteSpillFiles() {
+
+        for (File spillFile : this.spillFileByRead.values()) {
+            spillFile.delete();
+        }
+        this.spillFileByRead.clear();
     }
 
     /**
@@ -485,6 +664,10 @@ public class Tile {
      * @throws Exception
      */
     public byte[][] getNextClusterBaseQuals(String read) throws Exception {
+       BCLSpillFileReader spillFileReader = this.spillFileReaderByRead.get(read);
+       if (spillFileReader != null) {
+           return spillFileReader.next();
+       }
        BCLFileReader[] bclFileList = this.getBclFileReaderListByRead().get(read);
        return this.getNextClusterBaseQuals(bclFileList);
     }
@@ -630,6 +813,50 @@ public class Tile {
         return samRecord;
     }
 
+    /**
+     * barcode tags of a read in SAM format separated by tab, as the comment of a FASTQ record
+     *
+     * @param baseQualsIndex
+     * @param baseQualsIndex2
+     * @return null if no barcode for this read
+     */
+    public String getFastqComment(byte [][] baseQualsIndex, byte [][] baseQualsIndex2) {
+
+        if (baseQualsIndex == null && baseQualsIndex2 == null) {
+            return null;
+        }
+        StringBuilder comment = new StringBuilder();
+        if (baseQualsIndex != null) {
+            comment.append(this.barcodeSeqTagName).append(":Z:").append(this.convertByteArrayToString(baseQualsIndex[0]))
+                   .append('\t').append(this.barcodeQualTagName).append(":Z:").append(this.convertPhredQualByteArrayToFastqString(baseQualsIndex[1]));
+        }
+        if (baseQualsIndex2 != null) {
+            if (comment.length() > 0) {
+                comment.append('\t');
+            }
+            comment.append(this.secondBarcodeSeqTagName).append(":Z:").append(this.convertByteArrayToString(baseQualsIndex2[0]))
+                   .append('\t').append(this.secondBarcodeQualTagName).append(":Z:").append(this.convertPhredQualByteArrayToFastqString(baseQualsIndex2[1]));
+        }
+        return comment.toString();
+    }
+
+    /**
+     * count bases and qualities of all reads of one cluster by cycle
+     */
+    private void addCycleMetrics(byte [][] basesQuals1, byte [][] basesQuals2, byte [][] basesQualsIndex, byte [][] basesQualsIndex2) {
+
+        this.cycleMetrics.addRead(this.cycleRangeByRead.get("read1")[0], basesQuals1[0], basesQuals1[1]);
+        if (basesQuals2 != null) {
+            this.cycleMetrics.addRead(this.cycleRangeByRead.get("read2")[0], basesQuals2[0], basesQuals2[1]);
+        }
+        if (basesQualsIndex != null) {
+            this.cycleMetrics.addRead(this.cycleRangeByRead.get("readIndex")[0], basesQualsIndex[0], basesQualsIndex[1]);
+        }
+        if (basesQualsIndex2 != null) {
+            this.cycleMetrics.addRead(this.cycleRangeByRead.get("readIndex2")[0], basesQualsIndex2[0], basesQualsIndex2[1]);
+        }
+    }
+
     /**
      * form read name for one cluster, read id is optional
      *
@@ -637,9 +864,17 @@ public class Tile {
      * @return whole read name
      */
     public String getReadName(String [] pos){
+        return (this.getReadNamePrefix() + ":" + this.tileNumber + ":" + pos[0] + ":" + pos[1]);
+    }
+
+    /**
+     * read name prefix shared by all clusters in the lane, read id is optional
+     *
+     * @return read id and lane number
+     */
+    public String getReadNamePrefix(){
         String readId = this.id;
-        String name = (readId == null || readId.isEmpty()) ? "" + this.laneNumber : (readId + ":" + this.laneNumber);
-        return (name + ":" + this.tileNumber + ":" + pos[0] + ":" + pos[1]);
+        return (readId == null || readId.isEmpty()) ? "" + this.laneNumber : (readId + ":" + this.laneNumber);
     }
 
     /**
@@ -663,6 +898,20 @@ public class Tile {
         return firstCall ? cycleDir + ".bcl" : cycleDir + ".scl";
     }
     
+    private String getFilterFileCandidate(){
+
+        String sep = File.separator;
+        String laneFilterFileName = this.baseCallDir + sep + this.laneSubDir + sep + this.tileNameInFour + ".filter";
+        if (new File(laneFilterFileName).exists()) {
+            return laneFilterFileName;
+        }
+        String runFilterFileName = this.baseCallDir + sep + this.tileNameInFour + ".filter";
+        if (new File(runFilterFileName).exists()) {
+            return runFilterFileName;
+        }
+        return null;
+    }
+
     private String checkFilterFileName(){
 
         String filterFileNameLocal = this.baseCallDir
@@ -716,6 +965,9 @@ public class Tile {
      * @return the filterFileNameLocal
      */
     public String getFilterFileName() {
+        if (filterFileName == null) {
+            filterFileName = this.checkFilterFileName();
+        }
         return filterFileName;
     }
 
@@ -835,4 +1087,25 @@ public class Tile {
         this.sec_bc_read = sec_bc_read;
     }
 
+    /**
+     * @param compactReadName name reads by lane, tile and cluster index, with the x and y of the cluster in an array tag
+     */
+    public void setCompactReadName(boolean compactReadName) {
+        this.compactReadName = compactReadName;
+    }
+
+    /**
+     * @param cycleMetrics count bases and qualities of the clusters written by cycle, only used by the thread processing this tile
+     */
+    public void setCycleMetrics(CycleMetrics cycleMetrics) {
+        this.cycleMetrics = cycleMetrics;
+    }
+
+    /**
+     * @return the cycleMetrics, null if not counted
+     */
+    public CycleMetrics getCycleMetrics() {
+        return cycleMetrics;
+    }
+
 }
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package uk.ac.sanger.npg.illumina;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import net.sf.picard.util.Log;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMTextHeaderCodec;
+import net.sf.samtools.util.RuntimeIOException;
+
+/**
+ * Keep the BAM segment of each converted tile of a lane in a checkpoint directory,
+ * with a manifest of the completed tiles and their record counts,
+ * so that a conversion can be resumed without converting these tiles again.
+ *
+ * The manifest starts with the md5 of the lane header, which includes the command line,
+ * the checkpoint is discarded if the header changes.
+ *
+ * @author agent@local
+ */
+public class TileCheckpoint {
+
+    private final Log log = Log.getInstance(TileCheckpoint.class);
+
+    private static final String MANIFEST_NAME = "manifest.txt";
+    private static final String HEADER_LINE_PREFIX = "#header_md5\t";
+
+    private final File directory;
+    private final File manifest;
+    private final String headerMd5;
+
+    // tile number to record count and segment size
+    private final Map<Integer, long[]> completedTiles = new HashMap<Integer, long[]>();
+
+    /**
+     * open the checkpoint of a lane, reading the completed tiles from the manifest if any
+     *
+     * @param checkpointDir directory for the checkpoints of all lanes
+     * @param output output file of the lane
+     * @param header header of the lane output
+     */
+    public TileCheckpoint(File checkpointDir, File output, SAMFileHeader header) {
+
+        this.directory = new File(checkpointDir, getDirectoryName(output));
+        this.manifest = new File(this.directory, MANIFEST_NAME);
+        this.headerMd5 = getHeaderMd5(header);
+
+        if (this.manifest.exists()) {
+            this.readManifest();
+        }
+        if (this.completedTiles.isEmpty()) {
+            if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+                throw new RuntimeIOException("Cannot create checkpoint directory " + this.directory);
+            }
+            this.writeLine(HEADER_LINE_PREFIX + this.headerMd5, false);
+        } else {
+            log.info(this.completedTiles.size() + " tiles already converted in checkpoint " + this.directory);
+        }
+    }
+
+    private void readManifest() {
+
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(this.manifest));
+            try {
+                String line = reader.readLine();
+                if (line == null || !line.equals(HEADER_LINE_PREFIX + this.headerMd5)) {
+                    log.warn("Header changed since checkpoint " + this.directory + ", converting all tiles again");
+                    return;
+                }
+                while ((line = reader.readLine()) != null) {
+                    String [] fields = line.split("\t");
+                    // the last line may be incomplete if the conversion stopped while writing it
+                    if (fields.length != 3) {
+                        continue;
+                    }
+                    int tileNumber = Integer.parseInt(fields[0]);
+                    long [] counts = {Long.parseLong(fields[1]), Long.parseLong(fields[2])};
+                    if (this.getSegmentFile(tileNumber).length() == counts[1]) {
+                        this.completedTiles.put(tileNumber, counts);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ex) {
+            throw new RuntimeIOException("Cannot read checkpoint manifest " + this.manifest, ex);
+        } catch (NumberFormatException ex) {
+            log.warn("Incomplete checkpoint manifest " + this.manifest);
+        }
+    }
+
+    /**
+     * @param tileNumber
+     * @return true if the tile was converted and its segment is complete
+     */
+    public synchronized boolean isDone(int tileNumber) {
+        return this.completedTiles.containsKey(tileNumber);
+    }
+
+    /**
+     * @param tileNumber
+     * @return number of records in the segment of a completed tile
+     */
+    public synchronized long getRecordCount(int tileNumber) {
+        return this.completedTiles.get(tileNumber)[0];
+    }
+
+    /**
+     * @param tileNumber
+     * @return the BAM segment file of a tile
+     */
+    public File getSegmentFile(int tileNumber) {
+        return new File(this.directory, "tile_" + tileNumber + ".bam.part");
+    }
+
+    /**
+     * record a tile as converted in the manifest, after its segment is closed
+     *
+     * @param tileNumber
+     * @param recordCount
+     */
+    public synchronized void tileDone(int tileNumber, long recordCount) {
+        long segmentSize = this.getSegmentFile(tileNumber).length();
+        this.writeLine(tileNumber + "\t" + recordCount + "\t" + segmentSize, true);
+        this.completedTiles.put(tileNumber, new long[]{recordCount, segmentSize});
+    }
+
+    /**
+     * delete all segments and the manifest when the lane output is complete
+     */
+    public synchronized void delete() {
+        File [] segmentFiles = this.directory.listFiles();
+        if (segmentFiles != null) {
+            for (File segmentFile : segmentFiles) {
+                if (segmentFile.getName().endsWith(".bam.part")) {
+                    segmentFile.delete();
+                }
+            }
+        }
+        this.completedTiles.clear();
+        this.manifest.delete();
+        this.directory.delete();
+    }
+
+    /**
+     * @return the directory
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    private void writeLine(String line, boolean append) {
+        try {
+            FileWriter writer = new FileWriter(this.manifest, append);
+            try {
+                writer.write(line + "\n");
+            } finally {
+                writer.close();
+            }
+        } catch (IOException ex) {
+            throw new RuntimeIOException("Cannot write checkpoint manifest " + this.manifest, ex);
+        }
+    }
+
+    /**
+     * the checkpoint directory of a lane is named by the output file name and the md5 of its canonical path,
+     * so outputs with the same name in different directories do not share a checkpoint
+     *
+     * @param output output file of the lane
+     * @return name of the checkpoint directory under the directory for all lanes
+     */
+    public static String getDirectoryName(File output) {
+        try {
+            return output.getName() + "." + getMd5(output.getCanonicalPath()) + ".tiles";
+        } catch (IOException ex) {
+            throw new RuntimeIOException("Cannot get canonical path of " + output, ex);
+        }
+    }
+
+    private static String getHeaderMd5(SAMFileHeader header) {
+        StringWriter headerText = new StringWriter();
+        new SAMTextHeaderCodec().encode(headerText, header);
+        return getMd5(headerText.toString());
+    }
+
+    private static String getMd5(String text) {
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            byte [] digest = md5.digest(text.getBytes("UTF-8"));
+            return String.format("%032x", new BigInteger(1, digest));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException("MD5 not available", ex);
+        } catch (UnsupportedEncodingException ex) {
+            throw new RuntimeException("UTF-8 not available", ex);
+        }
+    }
+}
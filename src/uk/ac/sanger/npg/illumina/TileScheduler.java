@@ -0,0 +1,505 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package uk.ac.sanger.npg.illumina;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import net.sf.picard.util.Log;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.util.RuntimeIOException;
+import uk.ac.sanger.npg.bam.util.BamSegmentConcatenator;
+import uk.ac.sanger.npg.bam.util.BamSegmentWriter;
+import uk.ac.sanger.npg.bam.util.FastqSegmentConcatenator;
+import uk.ac.sanger.npg.bam.util.FastqSegmentWriter;
+
+/**
+ * Convert the tiles of one or more lanes of a run with one pool of threads.
+ *
+ * Each tile is decoded and compressed by a thread of the pool into a temporary BAM segment,
+ * the segments are appended to the output of their lane in tile order as soon as they are ready.
+ * Tiles of all lanes are submitted in turn, so all the threads are kept busy until the last tile
+ * of the run, and no more than twice as many tiles as threads are waiting to be written.
+ * When a thread starts a tile, the base call files of the next tile not started yet are opened
+ * by a background thread, so no more than as many tiles as threads are opened ahead.
+ *
+ * With a cycle watcher, each tile is submitted as soon as all its cycles land, for a run still sequencing,
+ * and a tile is only opened ahead once its cycles landed.
+ * With a checkpoint directory, the segments are kept there until each lane output is complete,
+ * and tiles already converted by a previous run are not converted again.
+ * With shard output, each lane output is a headerless shard to be joined behind the lane header later.
+ * With FASTQ output, the reads of each tile are written into one or two FASTQ segments, compressed
+ * by the thread of the tile if the lane output ends with .gz, and no bam record is built.
+ *
+ * @author agent@local
+ */
+public class TileScheduler {
+
+    private final Log log = Log.getInstance(TileScheduler.class);
+
+    private final int numThreads;
+
+    private final boolean createMd5File;
+
+    private CycleWatcher cycleWatcher;
+
+    private File checkpointDir;
+
+    private boolean shardOutput = false;
+
+    private boolean fastqOutput = false;
+    private boolean splitFastq = false;
+
+    /**
+     *
+     * @param numThreads number of threads to process tiles
+     * @param createMd5File create md5 file for each lane output
+     */
+    public TileScheduler(int numThreads, boolean createMd5File) {
+        this.numThreads = numThreads;
+        this.createMd5File = createMd5File;
+    }
+
+    /**
+     * write all tiles of each lane to the output of the lane
+     *
+     * @param lanes lanes with their output, program and read group records set
+     */
+    public void processLanes(List<Lane> lanes) {
+
+        final List<SAMFileHeader> headers = new ArrayList<SAMFileHeader>(lanes.size());
+        final List<BamSegmentConcatenator> outputs = new ArrayList<BamSegmentConcatenator>(lanes.size());
+        final List<FastqSegmentConcatenator> fastqOutputs = new ArrayList<FastqSegmentConcatenator>(lanes.size());
+        boolean complete = false;
+        try {
+            this.writeLanes(lanes, headers, outputs, fastqOutputs);
+            complete = true;
+        } finally {
+            if (!complete) {
+                // partial outputs are closed and deleted
+                for (BamSegmentConcatenator output : outputs) {
+                    output.abort();
+                }
+                for (FastqSegmentConcatenator output : fastqOutputs) {
+                    output.abort();
+                }
+            }
+        }
+    }
+
+    private void writeLanes(List<Lane> lanes, List<SAMFileHeader> headers,
+            List<BamSegmentConcatenator> outputs, List<FastqSegmentConcatenator> fastqOutputs) {
+
+        for (Lane lane : lanes) {
+            SAMFileHeader header = lane.generateHeader();
+            headers.add(header);
+            if (this.fastqOutput) {
+                File output = lane.getOutput();
+                fastqOutputs.add(this.splitFastq
+                        ? new FastqSegmentConcatenator(FastqSegmentConcatenator.getReadFile(output, 1), FastqSegmentConcatenator.getReadFile(output, 2),
+                                FastqSegmentConcatenator.isCompressed(output), this.createMd5File)
+                        : new FastqSegmentConcatenator(output, null, FastqSegmentConcatenator.isCompressed(output), this.createMd5File));
+            } else {
+                outputs.add(new BamSegmentConcatenator(lane.getOutput(), header, this.createMd5File, this.shardOutput));
+            }
+        }
+
+        final List<TileCheckpoint> checkpoints = new ArrayList<TileCheckpoint>(lanes.size());
+        for (int laneIndex = 0; laneIndex < lanes.size(); laneIndex++) {
+            checkpoints.add(this.checkpointDir == null ? null
+                    : new TileCheckpoint(this.checkpointDir, lanes.get(laneIndex).getOutput(), headers.get(laneIndex)));
+        }
+
+        // tiles of all lanes in turn, so every lane output is written from the start
+        final List<TileTask> tasks = new ArrayList<TileTask>();
+        boolean added = true;
+        for (int i = 0; added; i++) {
+            added = false;
+            for (int laneIndex = 0; laneIndex < lanes.size(); laneIndex++) {
+                Lane lane = lanes.get(laneIndex);
+                if (i < lane.getTileList().length) {
+                    TileTask task = new TileTask(lane, laneIndex, lane.getTileList()[i], headers.get(laneIndex), checkpoints.get(laneIndex));
+                    if (this.fastqOutput) {
+                        task.setFastqOutput(FastqSegmentConcatenator.isCompressed(lane.getOutput()), this.splitFastq);
+                    }
+                    tasks.add(task);
+                    added = true;
+                }
+            }
+        }
+        for (int i = 1; i < tasks.size(); i++) {
+            tasks.get(i - 1).next = tasks.get(i);
+        }
+        log.info("Processing " + tasks.size() + " tiles of " + lanes.size() + " lanes with " + this.numThreads + " threads");
+
+        if (this.cycleWatcher != null) {
+            for (TileTask task : tasks) {
+                if (task.isCheckpointed()) {
+                    this.cycleWatcher.skipTile(task.lane, task.tileNumber);
+                } else {
+                    task.watched = true;
+                }
+            }
+        }
+
+        final ExecutorService prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "prefetch-tiles");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (TileTask task : tasks) {
+            task.prefetcher = prefetcher;
+        }
+
+        // tiles in submission order, waiting to be written
+        final ExecutorService executor = this.numThreads > 1 ? Executors.newFixedThreadPool(this.numThreads) : null;
+        final LinkedList<Future<TileTask>> pending = new LinkedList<Future<TileTask>>();
+        try {
+            for (TileTask task : tasks) {
+                if (this.cycleWatcher != null && !task.isCheckpointed()) {
+                    task.tile = this.cycleWatcher.waitForTile(task.lane, task.tileNumber);
+                }
+                pending.add(submit(executor, task));
+                while (pending.size() > 2 * this.numThreads) {
+                    this.writeTile(getTile(pending.removeFirst()), outputs, fastqOutputs);
+                }
+            }
+            while (!pending.isEmpty()) {
+                this.writeTile(getTile(pending.removeFirst()), outputs, fastqOutputs);
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            prefetcher.shutdown();
+            for (TileTask task : tasks) {
+                task.closePrefetchedTile();
+                task.deleteSegment();
+            }
+            if (this.cycleWatcher != null) {
+                this.cycleWatcher.deleteSpillFiles();
+            }
+        }
+
+        for (BamSegmentConcatenator output : outputs) {
+            output.close();
+            log.info(output.getRecordCount() + " records written to " + output.getOutput());
+        }
+        for (FastqSegmentConcatenator output : fastqOutputs) {
+            output.close();
+            log.info(output.getRecordCount() + " FASTQ records written to " + output.getOutput());
+        }
+        for (TileCheckpoint checkpoint : checkpoints) {
+            if (checkpoint != null) {
+                checkpoint.delete();
+            }
+        }
+    }
+
+    /**
+     * @param cycleWatcher wait for the cycles of each tile to land before processing it
+     */
+    public void setCycleWatcher(CycleWatcher cycleWatcher) {
+        this.cycleWatcher = cycleWatcher;
+    }
+
+    /**
+     * @param checkpointDir keep the segment of each tile in this directory until the lane output is complete
+     */
+    public void setCheckpointDir(File checkpointDir) {
+        this.checkpointDir = checkpointDir;
+    }
+
+    /**
+     * @param shardOutput write each lane output as a headerless shard without end of file marker block
+     */
+    public void setShardOutput(boolean shardOutput) {
+        this.shardOutput = shardOutput;
+    }
+
+    /**
+     * @param fastqOutput write FASTQ instead of bam records, compressed if the lane output name ends with .gz
+     * @param splitFastq write read 1 and read 2 into two files named with _1 and _2 before the extension,
+     * read 2 is interleaved with read 1 if false
+     */
+    public void setFastqOutput(boolean fastqOutput, boolean splitFastq) {
+        this.fastqOutput = fastqOutput;
+        this.splitFastq = splitFastq;
+    }
+
+    private void writeTile(TileTask task, List<BamSegmentConcatenator> outputs, List<FastqSegmentConcatenator> fastqOutputs) {
+        if (this.fastqOutput) {
+            fastqOutputs.get(task.laneIndex).appendSegments(task.segmentFile, task.segmentFile2, task.recordCount);
+        } else {
+            outputs.get(task.laneIndex).appendSegment(task.segmentFile, task.recordCount);
+        }
+        task.deleteSegment();
+    }
+
+    private Future<TileTask> submit(ExecutorService executor, TileTask task) {
+        if (executor != null) {
+            return executor.submit(task);
+        }
+        // no thread pool, process in this thread
+        FutureTask<TileTask> done = new FutureTask<TileTask>(task);
+        done.run();
+        return done;
+    }
+
+    private TileTask getTile(Future<TileTask> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException("Interrupted while processing tiles", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new RuntimeException("Problems to process tile", ex.getCause());
+        }
+    }
+
+    private static File createTempSegment(Lane lane, int tileNumber, String prefixEnd, String suffix) {
+        File segmentFile;
+        try {
+            segmentFile = File.createTempFile("tile_" + lane.getLaneNumber() + "_" + tileNumber + prefixEnd, suffix);
+        } catch (IOException ex) {
+            throw new RuntimeIOException("Cannot create temporary file for tile " + tileNumber, ex);
+        }
+        segmentFile.deleteOnExit();
+        return segmentFile;
+    }
+
+    /**
+     * decode one tile into a temporary segment file
+     */
+    private static class TileTask implements Callable<TileTask> {
+
+        private final Log log = Log.getInstance(TileTask.class);
+
+        private final Lane lane;
+        private final int laneIndex;
+        private final int tileNumber;
+        private final SAMFileHeader header;
+        private final TileCheckpoint checkpoint;
+
+        // tile from the cycle watcher, with its spilled reads
+        private volatile Tile tile;
+        // waiting for the cycle watcher, not to be opened ahead before its tile is set
+        private boolean watched = false;
+
+        // the task submitted after this one, and the thread to open its tile ahead
+        private TileTask next;
+        private ExecutorService prefetcher;
+        // guarded by this task
+        private boolean started = false;
+        private Future<Tile> prefetchedTile;
+
+        // FASTQ output
+        private boolean fastq = false;
+        private boolean compressFastq;
+        private boolean splitFastq;
+
+        private volatile File segmentFile;
+        private volatile File segmentFile2;
+        private long recordCount;
+
+        TileTask(Lane lane, int laneIndex, int tileNumber, SAMFileHeader header, TileCheckpoint checkpoint) {
+            this.lane = lane;
+            this.laneIndex = laneIndex;
+            this.tileNumber = tileNumber;
+            this.header = header;
+            this.checkpoint = checkpoint;
+        }
+
+        void setFastqOutput(boolean compress, boolean split) {
+            this.fastq = true;
+            this.compressFastq = compress;
+            this.splitFastq = split;
+        }
+
+        boolean isCheckpointed() {
+            return this.checkpoint != null && this.checkpoint.isDone(this.tileNumber);
+        }
+
+        @Override
+        public TileTask call() throws Exception {
+
+            if (this.isCheckpointed()) {
+                log.info("Lane " + lane.getLaneNumber() + " tile: " + tileNumber + " already converted");
+                this.segmentFile = this.checkpoint.getSegmentFile(tileNumber);
+                this.recordCount = this.checkpoint.getRecordCount(tileNumber);
+                return this;
+            }
+
+            log.info("Lane " + lane.getLaneNumber() + " tile: " + tileNumber);
+            if (this.checkpoint != null) {
+                this.segmentFile = this.checkpoint.getSegmentFile(tileNumber);
+            } else {
+                this.segmentFile = this.fastq ? createTempSegment(lane, tileNumber, "_", ".fastq.part")
+                                               : createTempSegment(lane, tileNumber, "_", ".bam.part");
+            }
+
+            Tile tile = this.openTile();
+            try {
+                this.prefetchNextTile();
+                if (this.fastq) {
+                    this.processFastq(tile);
+                } else {
+                    this.processBam(tile);
+                }
+            } finally {
+                tile.closeBaseCallFiles();
+                tile.deleteSpillFiles();
+            }
+
+            return this;
+        }
+
+        private void processBam(Tile tile) throws Exception {
+
+            BamSegmentWriter writer = new BamSegmentWriter(this.segmentFile, this.header);
+            try {
+                tile.processTile(writer);
+                lane.addCycleMetrics(tileNumber, tile.getCycleMetrics());
+            } finally {
+                writer.close();
+            }
+            this.recordCount = writer.getRecordCount();
+            if (this.checkpoint != null) {
+                this.checkpoint.tileDone(tileNumber, this.recordCount);
+            }
+        }
+
+        private void processFastq(Tile tile) throws Exception {
+
+            if (this.splitFastq) {
+                this.segmentFile2 = createTempSegment(lane, tileNumber, "_2_", ".fastq.part");
+            }
+            FastqSegmentWriter writer = new FastqSegmentWriter(this.segmentFile, this.segmentFile2, this.compressFastq);
+            try {
+                tile.processTile(writer);
+                lane.addCycleMetrics(tileNumber, tile.getCycleMetrics());
+            } finally {
+                writer.close();
+            }
+            this.recordCount = writer.getRecordCount();
+        }
+
+        private Tile createTile() {
+            Tile watchedTile = this.tile;
+            return watchedTile != null ? watchedTile : lane.createTile(tileNumber);
+        }
+
+        /**
+         * @return the tile with its base call files open, waiting for them if opened ahead
+         * @throws Exception
+         */
+        private Tile openTile() throws Exception {
+            Future<Tile> prefetched;
+            synchronized (this) {
+                this.started = true;
+                prefetched = this.prefetchedTile;
+            }
+            if (prefetched != null) {
+                return Lane.getPrefetchedTile(prefetched);
+            }
+            return new Lane.TilePrefetcher(this.createTile()).call();
+        }
+
+        /**
+         * open the base call files of the first tile after this one which is not started
+         * or opened yet, unless its cycles have not landed yet
+         */
+        private void prefetchNextTile() {
+            for (TileTask task = this.next; task != null; task = task.next) {
+                if (task.watched && task.tile == null) {
+                    return;
+                }
+                if (task.prefetch(this.prefetcher)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @param prefetcher thread to open the base call files
+         * @return true if the base call files of this tile are opened ahead by this call
+         */
+        private synchronized boolean prefetch(ExecutorService prefetcher) {
+            if (this.started || this.prefetchedTile != null || this.isCheckpointed()) {
+                return false;
+            }
+            try {
+                this.prefetchedTile = prefetcher.submit(new Lane.TilePrefetcher(this.createTile()));
+            } catch (RejectedExecutionException ex) {
+                // stopped by an error in another tile
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * close the base call files opened ahead if the tile was never started
+         */
+        void closePrefetchedTile() {
+            Future<Tile> prefetched;
+            synchronized (this) {
+                prefetched = this.started ? null : this.prefetchedTile;
+                this.started = true;
+            }
+            if (prefetched == null) {
+                return;
+            }
+            try {
+                Lane.getPrefetchedTile(prefetched).closeBaseCallFiles();
+            } catch (Exception ex) {
+                log.warn("Problems to open base call files of tile " + tileNumber + ": " + ex);
+            }
+        }
+
+        /**
+         * delete the temporary segments, segments in a checkpoint are kept until the lane is complete
+         */
+        void deleteSegment() {
+            File file = this.segmentFile;
+            if (file != null && this.checkpoint == null) {
+                file.delete();
+                this.segmentFile = null;
+            }
+            File file2 = this.segmentFile2;
+            if (file2 != null) {
+                file2.delete();
+                this.segmentFile2 = null;
+            }
+        }
+    }
+}
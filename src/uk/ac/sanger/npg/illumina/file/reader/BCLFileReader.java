@@ -18,8 +18,15 @@
  */
 package uk.ac.sanger.npg.illumina.file.reader;
 
+import java.io.DataInputStream;
 import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
 import net.sf.picard.util.Log;
 
 /**
@@ -31,14 +38,19 @@ public class BCLFileReader extends IlluminaFileReader {
     
     private final Log log = Log.getInstance(BCLFileReader.class);
     
-    private final byte[] BASE_ARRAY = {65, 67, 71, 84}; //A C G T
-    private final byte UNKNOWN_BASE = 78;
+    private static final byte[] BASE_ARRAY = {65, 67, 71, 84}; //A C G T
+    private static final byte UNKNOWN_BASE = 78;
     private int currentCluster = 0;
     private int totalClusters = 0;
 
     //define current illumina quality score range
-    private final byte MAX_QUALITY_SCORE = 60;
-    private final byte MIN_QUALITY_SCORE = 0;
+    private static final byte MAX_QUALITY_SCORE = 60;
+    private static final byte MIN_QUALITY_SCORE = 0;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    //bcl files found complete, with their size and modification time
+    private static final Map<String, String> COMPLETE_FILES = new ConcurrentHashMap<String, String>();
 
     /**
      * constructor to generate bcl file input stream
@@ -95,23 +107,9 @@ public class BCLFileReader extends IlluminaFileReader {
                 return null;
             }
 
-            //last two bits are base index
-            int baseIndex =  nextBase & 0x3;
-
-            //the rest base are quality
-            byte qul = ( byte) ( (nextBase & 0xFC) >> 2 ) ;
-            if(qul < this.MIN_QUALITY_SCORE || qul >this.MAX_QUALITY_SCORE ){
-               throw new IllegalArgumentException("Invalid quality score: "
-                       + qul + " in bcl file " + this.getFileName()
-                       + " in position " + this.getCurrentCluster());
-            }
-
-            //convert base to char or unknow
-            byte base = (qul != 0) ? this.BASE_ARRAY[baseIndex] : this.UNKNOWN_BASE;
-
             byte [] currentClusterPair = new byte[2];
-            currentClusterPair[0] = base;
-            currentClusterPair[1] = qul;
+            currentClusterPair[0] = getBase(nextBase);
+            currentClusterPair[1] = getQuality(nextBase, this.getFileName(), this.getCurrentCluster());
 
             this.currentCluster++;
             return currentClusterPair;
@@ -123,6 +121,113 @@ public class BCLFileReader extends IlluminaFileReader {
         return null;
     }
 
+    /**
+     * get the undecoded byte of next cluster, base and quality together as in the bcl file
+     * 
+     * @return next byte
+     * @throws IOException
+     */
+    public byte nextBclByte() throws IOException {
+
+        byte nextBase = this.inputStream.readByte();
+        this.currentCluster++;
+        return nextBase;
+    }
+
+    /**
+     * 
+     * @param bclByte a byte from bcl file
+     * @return base, N if quality is 0
+     */
+    public static byte getBase(byte bclByte) {
+
+        //last two bits are base index, no call if quality is 0
+        return ((bclByte & 0xFC) != 0) ? BASE_ARRAY[bclByte & 0x3] : UNKNOWN_BASE;
+    }
+
+    /**
+     * 
+     * @param bclByte a byte from bcl file
+     * @param fileName file name for the error message
+     * @param cluster cluster position for the error message
+     * @return quality
+     */
+    public static byte getQuality(byte bclByte, String fileName, int cluster) {
+
+        //the rest bits are quality
+        byte qul = ( byte) ( (bclByte & 0xFC) >> 2 ) ;
+        if(qul < MIN_QUALITY_SCORE || qul > MAX_QUALITY_SCORE ){
+           throw new IllegalArgumentException("Invalid quality score: "
+                   + qul + " in bcl file " + fileName
+                   + " in position " + cluster);
+        }
+        return qul;
+    }
+
+    /**
+     * Check a bcl file has been written completely, the file size or the size
+     * of the inflated gzip file must match the number of clusters in the header.
+     * 
+     * A gzip file is inflated to the end rather than trusting the size in the trailer,
+     * which only covers the last member of a multi-member or BGZF file.
+     * Files found complete are remembered with their size and modification time
+     * so that they are not inflated again in each poll.
+     * 
+     * @param bclFileName bcl file name, with or without .gz
+     * @return true if the file is complete
+     */
+    public static boolean isComplete(String bclFileName) {
+
+        File file = new File(bclFileName);
+        boolean gzip = bclFileName.endsWith(".gz");
+        if (!gzip && !file.exists()) {
+            file = new File(bclFileName + ".gz");
+            gzip = true;
+        }
+        if (!file.isFile() || file.length() < 4) {
+            return false;
+        }
+
+        String key = file.getAbsolutePath();
+        String state = file.length() + ":" + file.lastModified();
+        if (state.equals(COMPLETE_FILES.get(key))) {
+            return true;
+        }
+
+        try {
+            InputStream fileStream = new FileInputStream(file);
+            if (gzip) {
+                fileStream = new GZIPInputStream(fileStream, BUFFER_SIZE);
+            }
+            DataInputStream in = new DataInputStream(fileStream);
+            long totalClusters;
+            long fileSize = 4;
+            try {
+                totalClusters = Integer.reverseBytes(in.readInt()) & 0xFFFFFFFFL;
+                if (!gzip) {
+                    fileSize = file.length();
+                } else {
+                    byte [] buffer = new byte[BUFFER_SIZE];
+                    int count;
+                    while ((count = in.read(buffer)) != -1) {
+                        fileSize += count;
+                    }
+                }
+            } finally {
+                in.close();
+            }
+            if (fileSize != 4L + totalClusters) {
+                return false;
+            }
+        } catch (IOException ex) {
+            // still being written
+            return false;
+        }
+
+        COMPLETE_FILES.put(key, state);
+        return true;
+    }
+
     /**
      * @return the currentCluster
      */
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package uk.ac.sanger.npg.illumina.file.reader;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import net.sf.picard.util.Log;
+
+/**
+ * This class is a reader of a bcl spill file, which keeps all cycles of one read of a tile
+ * in one file cluster by cluster, so that a read can be taken out of the bcl files
+ * of each cycle as soon as all its cycles are available.
+ *
+ * The file has the number of clusters and the read length as unsigned 32bits little endian integers,
+ * followed by the bcl bytes of each cluster for all cycles of the read.
+ *
+ * @author agent@local
+ */
+public class BCLSpillFileReader extends IlluminaFileReader {
+
+    private final Log log = Log.getInstance(BCLSpillFileReader.class);
+
+    private int currentCluster = 0;
+    private final int totalClusters;
+    private final int readLength;
+
+    private final byte [] bclBytes;
+
+    /**
+     * constructor to generate spill file input stream
+     * and read the number of clusters and read length
+     *
+     * @param spillFileName spill file name
+     * @throws Exception
+     */
+    public BCLSpillFileReader(String spillFileName) throws Exception {
+
+        super(spillFileName);
+
+        this.totalClusters = this.readFourBytes();
+        this.readLength = this.readFourBytes();
+        this.bclBytes = new byte[this.readLength];
+        log.debug("The total number of clusters: " + this.totalClusters + " of length " + this.readLength + " in " + this.getFileName());
+    }
+
+    /**
+     * Write all cycles of a read into a spill file
+     *
+     * @param bclFileReaderList bcl file readers of each cycle of the read, all at the first cluster
+     * @param spillFile
+     * @throws IOException
+     */
+    public static void writeSpillFile(BCLFileReader [] bclFileReaderList, File spillFile) throws IOException {
+
+        int totalClusters = bclFileReaderList[0].getTotalClusters();
+        for (BCLFileReader bclFileReader : bclFileReaderList) {
+            if (bclFileReader.getTotalClusters() != totalClusters) {
+                throw new IOException("Number of Clusters in BCL file "
+                        + bclFileReader.getFileName()
+                        + " " + bclFileReader.getTotalClusters()
+                        + " not as expected:" + totalClusters);
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+        try {
+            out.writeInt(Integer.reverseBytes(totalClusters));
+            out.writeInt(Integer.reverseBytes(bclFileReaderList.length));
+            for (int cluster = 0; cluster < totalClusters; cluster++) {
+                for (BCLFileReader bclFileReader : bclFileReaderList) {
+                    out.writeByte(bclFileReader.nextBclByte());
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * check any more clusters in the file stream
+     * @return true if there is next cluster available
+     */
+    @Override
+    public boolean hasNext() {
+
+        return this.currentCluster < this.totalClusters;
+    }
+
+    /**
+     * get bases and qualities of all cycles for next cluster
+     * @return byte [][] bases as the first element and qualities as the second element
+     */
+    @Override
+    public byte [][] next() {
+
+        try {
+            this.inputStream.readFully(this.bclBytes);
+        } catch (EOFException ex) {
+            log.error(ex, "There is no more cluster in spill file after cluster " + this.currentCluster
+                    + " in file " + this.getFileName());
+            return null;
+        } catch (IOException ex) {
+            log.error(ex, "There is problems to read the file" + this.getFileName());
+            return null;
+        }
+
+        byte [][] clusterBaseQuals = new byte[2][this.readLength];
+        for (int i = 0; i < this.readLength; i++) {
+            clusterBaseQuals[0][i] = BCLFileReader.getBase(this.bclBytes[i]);
+            clusterBaseQuals[1][i] = BCLFileReader.getQuality(this.bclBytes[i], this.getFileName(), this.currentCluster);
+        }
+
+        this.currentCluster++;
+        return clusterBaseQuals;
+    }
+
+    /**
+     * @return the currentCluster
+     */
+    public int getCurrentCluster() {
+        return currentCluster;
+    }
+
+    /**
+     * @return the totalClusters
+     */
+    public int getTotalClusters() {
+        return totalClusters;
+    }
+
+    /**
+     * @return the readLength
+     */
+    public int getReadLength() {
+        return readLength;
+    }
+}
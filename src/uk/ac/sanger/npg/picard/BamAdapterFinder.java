@@ -18,10 +18,21 @@
 package uk.ac.sanger.npg.picard;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import net.sf.picard.cmdline.Option;
 import net.sf.picard.cmdline.StandardOptionDefinitions;
 import net.sf.picard.cmdline.Usage;
 import net.sf.picard.io.IoUtil;
+import net.sf.picard.metrics.MetricBase;
+import net.sf.picard.metrics.MetricsFile;
+import net.sf.picard.util.Histogram;
 import net.sf.picard.util.Log;
 import net.sf.samtools.SAMFileHeader;
 import net.sf.samtools.SAMFileReader;
@@ -29,6 +40,7 @@ import net.sf.samtools.SAMFileWriter;
 import net.sf.samtools.SAMFileWriterFactory;
 import net.sf.samtools.SAMRecord;
 import net.sf.samtools.util.SequenceUtil;
+import uk.ac.sanger.npg.bam.util.OverlapMatcher;
 
 /**
  * Class to read matching forward/reverse BAM records and identify
@@ -37,9 +49,16 @@ import net.sf.samtools.util.SequenceUtil;
  * with new tags in the output BAM file. The records for a given read
  * pair are expected to be consecutive in the BAM file.
  *
+ * Read pairs are processed in batches by a pool of threads, and written
+ * out in their input order.
+ *
+ * Optionally the adapter sequence found is clipped from the end of both reads
+ * in the same pass, keeping the clipped bases and qualities in tags, and the
+ * overlap and adapter histograms are written to a metrics file.
+ *
  * @author Tom Skelly
  */
-public class BamAdapterFinder extends PicardCommandLine {
+public class BamAdapterFinder extends PicardCommandLine implements RecordStage {
 
     private final Log log = Log.getInstance(BamAdapterFinder.class);
 
@@ -62,10 +81,36 @@ public class BamAdapterFinder extends PicardCommandLine {
     public double PCT_MISMATCHES = 10.0;
     @Option(shortName = "AM", doc = "Number of adapter bases that need to match.", optional = true)
     public int ADAPTER_MATCH = 12;
-
-    private static final int NONE_FOUND = -1;     // "no match found" return from matchSAMRecords
+    @Option(shortName = "T", doc = "Number of threads to look for overlaps and adapters.", optional = true)
+    public int NUM_THREADS = 1;
+    @Option(shortName = "CLIP", doc = "Clip the adapter sequence from both reads of a pair with an overlap found, only for unaligned reads.", optional = true)
+    public Boolean CLIP_ADAPTER = false;
+    @Option(shortName = "SAVE", doc = "Save the clipped adapter bases and qualities in tags.", optional = true)
+    public Boolean SAVE_CLIPPED = true;
+    @Option(shortName = "CB", doc = "Tag to be used for clipped adapter bases.", optional = true)
+    public String CLIPPED_BASE_TAG = "ar";
+    @Option(shortName = "CQ", doc = "Tag to be used for clipped adapter qualities.", optional = true)
+    public String CLIPPED_QUALITY_TAG = "aq";
+    @Option(shortName = "M", doc = "Metrics file name with the numbers of overlaps and adapters found.", optional = true)
+    public File METRICS_FILE;
+
+    private static final int NONE_FOUND = OverlapMatcher.NONE_FOUND;     // "no match found" return from matchSAMRecords
     private static final int ARRAY_SIZE = 10000;  // size of histogram array, much larger than needed
 
+    private static final int BATCH_SIZE = 1000;   // read pairs processed together by one thread
+
+    private long totPairs = 0;
+    private final long[] overlaps = new long[ARRAY_SIZE];    // indexed by offset, sized to be far larger
+    private final long[] adapters = new long[ARRAY_SIZE];
+
+    // reusable buffers for each thread
+    private final ThreadLocal<PairProcessor> processors = new ThreadLocal<PairProcessor>() {
+        @Override
+        protected PairProcessor initialValue() {
+            return new PairProcessor();
+        }
+    };
+
     @Override
     protected int doWork() {
 
@@ -78,59 +123,99 @@ public class BamAdapterFinder extends PicardCommandLine {
 
         final SAMFileHeader header = in.getFileHeader();
         final SAMFileHeader outputHeader = header.clone();
-        this.addProgramRecordToHead(outputHeader, this.getThisProgramRecord(programName, programDS));
+        this.startStage(outputHeader);
 
         this.log.info("Open output file with header: " + OUTPUT.getName());
-        final SAMFileWriter out = new SAMFileWriterFactory().makeSAMOrBAMWriter(outputHeader, true, OUTPUT);
+        // records are encoded and compressed in a separate thread
+        final SAMFileWriterFactory factory = new SAMFileWriterFactory();
+        factory.setUseAsyncIo(true);
+        final SAMFileWriter out = factory.makeSAMOrBAMWriter(outputHeader, true, OUTPUT);
 
-        long totPairs = 0;
-        long[] overlaps = new long[ARRAY_SIZE];    // indexed by offset, sized to be far larger
-        long[] adapters = new long[ARRAY_SIZE];
+        // batches in input order, waiting to be written
+        final ExecutorService executor = NUM_THREADS > 1 ? Executors.newFixedThreadPool(NUM_THREADS) : null;
+        final LinkedList<Future<PairBatch>> pending = new LinkedList<Future<PairBatch>>();
 
         boolean first = true;                      // first/second read flip-flop
         SAMRecord record_1 = null;
+        PairBatch batch = new PairBatch();
 
         this.log.info("Reading records in pairs");
-        for (SAMRecord record : in) {
+        try {
+            for (SAMRecord record : in) {
+
+                if (first) {
+                    ++totPairs;
+                    record_1 = record;                 // save to process with read 2
+                    first = false;
+                } else {
+
+                    batch.add(record_1, record);
+                    if (batch.size == BATCH_SIZE) {
+                        pending.add(submit(executor, batch));
+                        batch = new PairBatch();
+                        while (pending.size() > 2 * NUM_THREADS) {
+                            writeBatch(getBatch(pending.removeFirst()), out);
+                        }
+                    }
 
-            if (first) {
-                ++totPairs;
-                record_1 = record;                 // save to process with read 2
-                first = false;
-            } else {
-                
-                int offset = matchSAMRecords(record_1, record);
-                if (offset != NONE_FOUND) {
+                    first = true;                      // expect next record to be read 1
 
-                    ++overlaps[offset];            // histogram of overlaps
+                }
 
-                    record_1.setAttribute(ADAPTER_LENGTH_TAG, offset);      // add tag to both reads
-                    record.setAttribute(ADAPTER_LENGTH_TAG, offset);
+            }
+            pending.add(submit(executor, batch));
+            while (!pending.isEmpty()) {
+                writeBatch(getBatch(pending.removeFirst()), out);
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
 
-                    if (checkAdapter(record_1, record, offset)) {           // if the adapters match
-                        ++adapters[offset];                                 // histogram of matches
-                        record_1.setAttribute(ADAPTER_MATCH_TAG, 1);        // another tag, this one boolean
-                        record.setAttribute(ADAPTER_MATCH_TAG, 1);
-                    }
+        out.close();
+        this.log.info("Adapter processing finished, annotated file: " + this.OUTPUT);
 
-                }
+        this.finishStage();
+        
+        return 0;
 
-                out.addAlignment(record_1);        // write out both reads
-                out.addAlignment(record);
+    }
 
-                first = true;                      // expect next record to be read 1
+    @Override
+    public void startStage(SAMFileHeader outputHeader) {
+        if (METRICS_FILE != null) {
+            IoUtil.assertFileIsWritable(METRICS_FILE);
+        }
+        this.addProgramRecordToHead(outputHeader, this.getThisProgramRecord(programName, programDS));
+    }
 
-            }
+    @Override
+    public boolean needsReadPairs() {
+        // both reads of a pair are compared
+        return true;
+    }
 
+    @Override
+    public void processRecords(SAMRecord[] records) {
+        if (records.length != 2) {
+            throw new RuntimeException("Read " + records[0].getReadName() + " is not paired");
         }
+        ++totPairs;
+        PairProcessor processor = processors.get();
+        int offset = processor.tagPair(records[0], records[1]);
+        countPair(offset, processor.adapterMatched);
+    }
 
-        out.close();
+    /**
+     * write histogram info to the log and the metrics file
+     */
+    @Override
+    public void finishStage() {
 
         if (totPairs == 0) {                       // avoids zero-divide later on
             this.log.info("ERROR: input file was empty.");
         } else {
-        
-            this.log.info("Adapter processing finished, annotated file: " + this.OUTPUT);
 
             int totOverlaps = 0;
             int totAdapters = 0;
@@ -151,90 +236,304 @@ public class BamAdapterFinder extends PicardCommandLine {
             this.log.info(String.format("Found     %7d adapters (%.1f%%)", totAdapters, pctAdapters));
 
         }
-        
-        return 0;
 
+        if (METRICS_FILE != null) {
+            this.log.info("Writing metrics file: " + METRICS_FILE);
+            this.writeMetrics();
+        }
     }
 
-    public int matchSAMRecords(final SAMRecord record_1, final SAMRecord record_2) {
+    private void writeMetrics() {
 
-        /* Given a matching pair of reads, find cases where there is
-           an overlap of at least N bases between read 1 and the
-           reverse-complement of read 2. This indicates that a short
-           insert was completely sequenced in both directions, and
-           sequencing then continued into the adapter -- like so
-           (bottom line is r.c.read 2):
+        final AdapterMetric metric = new AdapterMetric();
+        metric.READ_PAIRS = totPairs;
+        final Histogram<Integer> overlapHistogram = new Histogram<Integer>("ADAPTER_LENGTH", "OVERLAPS");
+        final Histogram<Integer> adapterHistogram = new Histogram<Integer>("ADAPTER_LENGTH", "ADAPTERS");
 
-                                                                            offset=10
-                                                                            |
-                                                                            V
-           TTAATGTCTTATGATGTTGTGTGCCTGCTGGCATTTGTTAAACAAAATCATTGATTAACAATCATAGATCGGAAG
- CTTCCGATCTTTAATGTCTTATGATGTTGTGTGCCTGCTGGCATTTGTTAAACAAAATCATTGATTAACAATCAT
+        for (int ix=0; ix<ARRAY_SIZE; ++ix) {
+            if (overlaps[ix] > 0) {
+                overlapHistogram.increment(ix, overlaps[ix]);
+                adapterHistogram.increment(ix, adapters[ix]);
+                metric.OVERLAPS += overlaps[ix];
+                metric.ADAPTERS += adapters[ix];
+            }
+        }
+        if (CLIP_ADAPTER) {
+            metric.CLIPPED_PAIRS = metric.OVERLAPS;
+        }
+        if (totPairs > 0) {
+            metric.PCT_OVERLAPS = (double)metric.OVERLAPS/(double)totPairs*100.0;
+            metric.PCT_ADAPTERS = (double)metric.ADAPTERS/(double)totPairs*100.0;
+        }
 
-           Note that the returned offset is equivalent to the length
-           of the adapter sequence. I.e., it's counted backwards from
-           the end of the read.
+        final MetricsFile<AdapterMetric, Integer> metrics = this.getMetricsFile();
+        metrics.addMetric(metric);
+        metrics.addHistogram(overlapHistogram);
+        metrics.addHistogram(adapterHistogram);
+        metrics.write(METRICS_FILE);
+    }
 
-        */
+    /**
+     * Numbers of read pairs with an overlap and an adapter found, the histograms
+     * of both by adapter length are in the same metrics file
+     */
+    public static class AdapterMetric extends MetricBase {
+        /** The total number of read pairs. */
+        public long READ_PAIRS = 0;
+        /** The number of read pairs with an overlap between read 1 and the reverse-complement of read 2. */
+        public long OVERLAPS = 0;
+        /** The percentage of read pairs with an overlap. */
+        public double PCT_OVERLAPS = 0d;
+        /** The number of read pairs with an overlap where the start of both adapters match. */
+        public long ADAPTERS = 0;
+        /** The percentage of read pairs with matching adapters. */
+        public double PCT_ADAPTERS = 0d;
+        /** The number of read pairs with the adapter clipped. */
+        public long CLIPPED_PAIRS = 0;
+    }
 
-        String name_1 = record_1.getReadName();
-        String name_2 = record_2.getReadName();
+    private Future<PairBatch> submit(ExecutorService executor, PairBatch batch) {
+        if (executor != null) {
+            return executor.submit(batch);
+        }
+        // no thread pool, process in this thread
+        FutureTask<PairBatch> done = new FutureTask<PairBatch>(batch);
+        done.run();
+        return done;
+    }
 
-        if (name_1.compareTo(name_2) != 0) {
-            throw new RuntimeException("Read " + name_1 + " and " + name_2 + " do not match");
+    private PairBatch getBatch(Future<PairBatch> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException("Interrupted while finding adapters", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
         }
+    }
 
-        if ( ! record_1.getFirstOfPairFlag()) {            // method also checks that read is paired
-            throw new RuntimeException("Read " + name_1 + " is not first read of pair");
+    private void writeBatch(PairBatch batch, SAMFileWriter out) {
+        for (int i = 0; i < batch.size; i++) {
+            countPair(batch.offsets[i], batch.adapterMatched[i]);
+            out.addAlignment(batch.records_1[i]);  // write out both reads
+            out.addAlignment(batch.records_2[i]);
         }
-        if ( ! record_2.getSecondOfPairFlag()) {
-            throw new RuntimeException("Read " + name_2 + " is not second read of pair");
+    }
+
+    private void countPair(int offset, boolean adapterMatched) {
+        if (offset != NONE_FOUND) {
+            ++overlaps[offset];                // histogram of overlaps
+            if (adapterMatched) {
+                ++adapters[offset];            // histogram of matches
+            }
         }
+    }
 
-        /* We want to compare the forward sense of the forward read with the
-         * reverse-complement of the reverse read. Depending on how they are
-         * stored in the BAM, we may have to r.c. either, both, or neither of
-         * them.
-         */
+    /**
+     * A batch of read pairs, tagged by the thread which processes it
+     */
+    private class PairBatch implements Callable<PairBatch> {
+
+        private final SAMRecord[] records_1 = new SAMRecord[BATCH_SIZE];
+        private final SAMRecord[] records_2 = new SAMRecord[BATCH_SIZE];
+        private final int[] offsets = new int[BATCH_SIZE];
+        private final boolean[] adapterMatched = new boolean[BATCH_SIZE];
+        private int size = 0;
+
+        void add(SAMRecord record_1, SAMRecord record_2) {
+            records_1[size] = record_1;
+            records_2[size] = record_2;
+            size++;
+        }
 
-        byte[] bases_1 = (byte[])record_1.getReadBases().clone();    // clone to preserve original
-        if (record_1.getReadNegativeStrandFlag()) {
-            SequenceUtil.reverseComplement(bases_1);
+        @Override
+        public PairBatch call() {
+            PairProcessor processor = processors.get();
+            for (int i = 0; i < size; i++) {
+                offsets[i] = processor.tagPair(records_1[i], records_2[i]);
+                adapterMatched[i] = processor.adapterMatched;
+            }
+            return this;
         }
+    }
+
+    /**
+     * Forward sense of both reads of a pair and reverse-complement of read 2,
+     * in buffers reused for each pair
+     */
+    private class PairProcessor {
+
+        private final OverlapMatcher overlapMatcher = new OverlapMatcher();
+        private byte[] bases_1 = new byte[0];
+        private byte[] bases_2 = new byte[0];
+        private byte[] saseb_2 = new byte[0];    // 'saseb' == bases, backwards
+        private int length_1;
+        private int length_2;
+        private boolean adapterMatched;    // for the last pair tagged
+
+        /* Find the overlap of a pair and tag both reads with the offset,
+         * and whether the adapters match, clipping them if required.
+         */
+        int tagPair(final SAMRecord record_1, final SAMRecord record) {
+
+            checkPair(record_1, record);
+            setPair(record_1, record);
+            int offset = findOverlap();
+            adapterMatched = false;
+            if (offset != NONE_FOUND) {
+
+                record_1.setAttribute(ADAPTER_LENGTH_TAG, offset);      // add tag to both reads
+                record.setAttribute(ADAPTER_LENGTH_TAG, offset);
+
+                if (checkAdapter(offset)) {                             // if the adapters match
+                    adapterMatched = true;
+                    record_1.setAttribute(ADAPTER_MATCH_TAG, 1);        // another tag, this one boolean
+                    record.setAttribute(ADAPTER_MATCH_TAG, 1);
+                }
 
-        byte[] saseb_2 = (byte[])record_2.getReadBases().clone();    // 'saseb' == bases, backwards
-        if ( ! record_2.getReadNegativeStrandFlag()) {    // if it's already r.c., leave it alone
-            SequenceUtil.reverseComplement(saseb_2);
+                if (CLIP_ADAPTER) {
+                    clipAdapter(record_1, record, offset);
+                }
+
+            }
+            return offset;
         }
 
-        final int readLength = bases_1.length;
-        int ret = NONE_FOUND;
+        /* We want to compare the forward sense of the forward read with the
+         * reverse-complement of the reverse read, and the forward sense of
+         * both reads for the adapter. Depending on how they are stored in the
+         * BAM, we may have to r.c. either, both, or neither of them.
+         */
+        void setPair(final SAMRecord record_1, final SAMRecord record_2) {
+
+            byte[] stored_1 = record_1.getReadBases();
+            byte[] stored_2 = record_2.getReadBases();
+            length_1 = stored_1.length;
+            length_2 = stored_2.length;
+            if (bases_1.length < length_1) {
+                bases_1 = new byte[length_1];
+            }
+            if (bases_2.length < length_2) {
+                bases_2 = new byte[length_2];
+                saseb_2 = new byte[length_2];
+            }
 
-        for (int offset=1;              // slide the reads against each other
-             offset<=readLength-MIN_OVERLAP && ret==NONE_FOUND;
-             ++offset) {
+            copyForward(stored_1, record_1.getReadNegativeStrandFlag(), bases_1);
+            copyForward(stored_2, record_2.getReadNegativeStrandFlag(), bases_2);
+            for (int i = 0; i < length_2; i++) {
+                saseb_2[i] = SequenceUtil.complement(bases_2[length_2 - 1 - i]);
+            }
+        }
 
-            int overlapSize = readLength - offset;
-            int allowedMismatches = (int)((double)overlapSize*PCT_MISMATCHES/100.0);
-            int mismatches = 0;
+        private void copyForward(byte[] stored, boolean reversed, byte[] forward) {
+            final int length = stored.length;
+            if (reversed) {
+                for (int i = 0; i < length; i++) {
+                    forward[i] = SequenceUtil.complement(stored[length - 1 - i]);
+                }
+            } else {
+                System.arraycopy(stored, 0, forward, 0, length);
+            }
+        }
+
+        int findOverlap() {
+            if (length_2 < length_1) {
+                // no overlap over the whole of read 1, the pair is written without tags
+                return NONE_FOUND;
+            }
+            // compared 64 positions at a time, see OverlapMatcher
+            return overlapMatcher.findOverlap(bases_1, saseb_2, length_1, MIN_OVERLAP, PCT_MISMATCHES);
+        }
 
-            for (int ix=0;              // check each position for match
-                 ix<overlapSize && mismatches<=allowedMismatches;
-                 ++ix) {
+        boolean checkAdapter(final int offset) {
+            if (length_2 < length_1) {
+                return false;
+            }
+            // the adapter starts after the insert in both reads
+            final int start = length_2 - offset;
+            if (start >= length_1) {
+                return false;
+            }
+            final int stop = Math.min(length_1, start+ADAPTER_MATCH);
 
-                if (bases_1[ix] != saseb_2[offset+ix]) {
-                    ++mismatches;
+            for (int ix=start; ix<stop; ++ix) {
+                if (bases_1[ix] != bases_2[ix]) {
+                    return false;
                 }
+            }
+            return true;
+        }
 
+        /* The offset is the adapter length in read 2, the overlap is found by
+         * comparing bases_1[i] with saseb_2[i+offset]. Read 1 may be shorter,
+         * so it has fewer adapter bases after the insert, or none.
+         */
+        void clipAdapter(final SAMRecord record_1, final SAMRecord record_2, final int offset) {
+            final int insertLength = length_2 - offset;
+            if (length_1 > insertLength) {
+                clipRead(record_1, length_1 - insertLength);
             }
+            clipRead(record_2, offset);
+        }
 
-            if (mismatches <= allowedMismatches) {
-                ret = offset;          // breaks slider loop
+        private void clipRead(final SAMRecord record, final int clipLength) {
+            if ( ! record.getReadUnmappedFlag()) {
+                throw new RuntimeException("Cannot clip adapter from aligned read " + record.getReadName());
             }
+            // the trim window is in the forward sense, the far end of the read
+            final int readLength = record.getReadLength();
+            BamReadTrimmer.trimSAMRecord(record, Collections.singletonList(new BamReadTrimmer.TrimWindow(
+                    readLength - clipLength + 1, clipLength,
+                    SAVE_CLIPPED ? CLIPPED_BASE_TAG : null, SAVE_CLIPPED ? CLIPPED_QUALITY_TAG : null)));
+        }
+
+    }
 
+    private static void checkPair(final SAMRecord record_1, final SAMRecord record_2) {
+
+        String name_1 = record_1.getReadName();
+        String name_2 = record_2.getReadName();
+
+        if (name_1.compareTo(name_2) != 0) {
+            throw new RuntimeException("Read " + name_1 + " and " + name_2 + " do not match");
+        }
+
+        if ( ! record_1.getFirstOfPairFlag()) {            // method also checks that read is paired
+            throw new RuntimeException("Read " + name_1 + " is not first read of pair");
         }
+        if ( ! record_2.getSecondOfPairFlag()) {
+            throw new RuntimeException("Read " + name_2 + " is not second read of pair");
+        }
+    }
+
+    public int matchSAMRecords(final SAMRecord record_1, final SAMRecord record_2) {
+
+        /* Given a matching pair of reads, find cases where there is
+           an overlap of at least N bases between read 1 and the
+           reverse-complement of read 2. This indicates that a short
+           insert was completely sequenced in both directions, and
+           sequencing then continued into the adapter -- like so
+           (bottom line is r.c.read 2):
+
+                                                                            offset=10
+                                                                            |
+                                                                            V
+           TTAATGTCTTATGATGTTGTGTGCCTGCTGGCATTTGTTAAACAAAATCATTGATTAACAATCATAGATCGGAAG
+ CTTCCGATCTTTAATGTCTTATGATGTTGTGTGCCTGCTGGCATTTGTTAAACAAAATCATTGATTAACAATCAT
+
+           Note that the returned offset is equivalent to the length
+           of the adapter sequence. I.e., it's counted backwards from
+           the end of the read.
+
+        */
 
-       return ret;
+        checkPair(record_1, record_2);
+        PairProcessor processor = processors.get();
+        processor.setPair(record_1, record_2);
+        return processor.findOverlap();
 
     }
 
@@ -247,35 +546,13 @@ public class BamAdapterFinder extends PicardCommandLine {
          */
 
         /* Here it's different: We want to process the forward sense of both
-         * reads, so that the adapter is at the far end of the read. If either
-         * read has been stored reversed, un-reverse it.
+         * reads, so that the adapter is at the far end of the read. The pair
+         * is normalised to forward sense by the processor.
          */
 
-        byte[] bases_1 = (byte[])record_1.getReadBases().clone();    // clone to preserve original
-        if (record_1.getReadNegativeStrandFlag()) {
-            SequenceUtil.reverseComplement(bases_1);
-        }
-
-        byte[] bases_2 = (byte[])record_2.getReadBases().clone();
-        if (record_2.getReadNegativeStrandFlag()) {
-            SequenceUtil.reverseComplement(bases_2);
-        }
-
-        final int readLength = bases_1.length;
-        final int start = readLength - offset;
-        final int stop = Math.min(readLength, start+ADAPTER_MATCH);
-
-        boolean ret = true;
-
-        for (int ix=start; ix<stop; ++ix) {
-            if (bases_1[ix] != bases_2[ix]) {
-                ret = false;
-                break;
-            }
-
-        }
-
-        return ret;
+        PairProcessor processor = processors.get();
+        processor.setPair(record_1, record_2);
+        return processor.checkAdapter(offset);
 
     }
 
@@ -283,6 +560,7 @@ public class BamAdapterFinder extends PicardCommandLine {
      * example: INPUT=testdata/bam/6210_8.sam OUTPUT=testdata/6210_8_findadapters.bam
      * ADAPTER_LENGTH_TAG=ms ADAPTER_MATCH_TAG=xm MIN_OVERLAP=32 PCT_MISMATCHES=10.0
      * ADAPTER_MATCH=12
+     * CLIP_ADAPTER=true METRICS_FILE=testdata/6210_8_findadapters.metrics
      * VALIDATION_STRINGENCY=SILENT
      *
      * @param args
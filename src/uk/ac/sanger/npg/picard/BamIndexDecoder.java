@@ -29,6 +29,10 @@ import net.sf.picard.io.IoUtil;
 import net.sf.picard.metrics.MetricsFile;
 import net.sf.picard.util.Log;
 import net.sf.samtools.*;
+import uk.ac.sanger.npg.bam.util.BamUtils;
+import uk.ac.sanger.npg.bam.util.RawBamReader;
+import uk.ac.sanger.npg.bam.util.RawBamRecord;
+import uk.ac.sanger.npg.bam.util.RawBamWriter;
 
 /**
  * This class is used decode the multiplexed bam file.
@@ -46,7 +50,7 @@ import net.sf.samtools.*;
  * 
  */
 
-public class BamIndexDecoder extends PicardCommandLine {
+public class BamIndexDecoder extends PicardCommandLine implements RecordStage {
     
     private final Log log = Log.getInstance(BamIndexDecoder.class);
     
@@ -115,6 +119,13 @@ public class BamIndexDecoder extends PicardCommandLine {
     private HashMap<String, SAMFileWriter> outputList;
     private HashMap<String, String> barcodeNameList;
     
+    private boolean rawRecords = false;
+    private RawBamWriter rawOut;
+    private HashMap<String, RawBamWriter> rawOutputList;
+    
+    // the only read group id in the input header of the stage in a pipeline
+    private String stageReadGroupId;
+    
     public BamIndexDecoder() {
     }
 
@@ -135,132 +146,252 @@ public class BamIndexDecoder extends PicardCommandLine {
         final SAMFileReader in  = new SAMFileReader(INPUT);        
         final SAMFileHeader header = in.getFileHeader();
         
+        // bam to bam, records are decoded and written in their binary form
+        String outputFileName = OUTPUT != null ? OUTPUT.getName() : "." + OUTPUT_FORMAT;
+        this.rawRecords = in.isBinary() && !this.CREATE_INDEX && outputFileName.endsWith(".bam");
+        
         this.generateOutputFile(header);
+        String readGroupOnlyIdInHeader = getOnlyReadGroupId(header);
+                
+        log.info("Decoding records");
+        if( this.rawRecords ){
+            in.close();
+            this.decodeRawRecords(readGroupOnlyIdInHeader);
+        } else {
+            this.decodeRecords(in, readGroupOnlyIdInHeader);
+        }
+        
+        if(out != null){
+           out.close();
+        }
+        if(rawOut != null){
+           rawOut.close();
+        }
+        this.closeOutputList();
+        
+        log.info("Decoding finished");
+        
+        
+        log.info("Writing out metrhics file");        
+        final MetricsFile<IndexDecoder.BarcodeMetric, Integer> metrics = getMetricsFile();        
+        indexDecoder.writeMetrics(metrics, METRICS_FILE);
+        
+        log.info("All finished");
+
+        return 0;
+    }
+    
+    private static String getOnlyReadGroupId(SAMFileHeader header) {
         List<SAMReadGroupRecord> readGroupList = header.getReadGroups();
-        String readGroupOnlyIdInHeader = null;
         if(readGroupList.size() == 1){
-            readGroupOnlyIdInHeader = readGroupList.get(0).getId();
+            return readGroupList.get(0).getId();
         }
-                
-        log.info("Decoding records");        
+        return null;
+    }
+    
+    private void decodeRecords(SAMFileReader in, String readGroupOnlyIdInHeader) {
+        
         SAMRecordIterator inIterator = in.iterator();
         while(inIterator.hasNext()){
-            
-            String barcodeRead = null;
-            String barcodeQual = null;
 
-            SAMRecord record = inIterator.next();            
-            String readName = record.getReadName();
+            SAMRecord record = inIterator.next();
             boolean isPaired = record.getReadPairedFlag();
-            boolean isPf = ! record.getReadFailsVendorQualityCheckFlag();
+            SAMRecord pairedRecord = isPaired ? inIterator.next() : null;
+
+            String barcode = this.decodeTemplate(record, pairedRecord, readGroupOnlyIdInHeader);
+
+            if( OUTPUT != null ){
+                out.addAlignment(record);
+                if(isPaired){
+                    out.addAlignment(pairedRecord);
+                }
+            } else {
+                
+                SAMFileWriter outPerBarcode = this.outputList.get(barcode);
+                outPerBarcode.addAlignment(record);
+                if(isPaired){
+                    outPerBarcode.addAlignment(pairedRecord);
+                }                
+            }
+            
+        }
+    }
+
+    /**
+     * Decode the barcode of a read or a read pair and mark the records with it
+     * 
+     * @param record
+     * @param pairedRecord null if not paired
+     * @param readGroupOnlyIdInHeader
+     * @return the matched barcode in upper case, empty if no match
+     */
+    private String decodeTemplate(SAMRecord record, SAMRecord pairedRecord, String readGroupOnlyIdInHeader) {
+        
+        String barcodeRead = null;
+        String barcodeQual = null;
+
+        String readName = record.getReadName();
+        boolean isPaired = record.getReadPairedFlag();
+        boolean isPf = ! record.getReadFailsVendorQualityCheckFlag();
 
-            Object barcodeReadObject = record.getAttribute(this.BARCODE_TAG_NAME);
-            if(barcodeReadObject != null){
-                    barcodeRead = barcodeReadObject.toString();
+        Object barcodeReadObject = record.getAttribute(this.BARCODE_TAG_NAME);
+        if(barcodeReadObject != null){
+                barcodeRead = barcodeReadObject.toString();
+        }
+
+        if( this.CONVERT_LOW_QUALITY_TO_NO_CALL ){
+           Object barcodeQualObject = record.getAttribute( this.BARCODE_QUALITY_TAG_NAME );
+           if(barcodeQualObject != null){
+                barcodeQual = barcodeQualObject.toString();
+           }
+        }
+        
+        if(isPaired){
+            
+            String readName2 = pairedRecord.getReadName();
+            boolean isPaired2 = pairedRecord.getReadPairedFlag();
+            
+            if( !readName.equals(readName2) || !isPaired2 ){
+                throw new RuntimeException("The paired reads are not together: " + readName + " " + readName2);
             }
+            
+            Object barcodeReadObject2= pairedRecord.getAttribute(this.BARCODE_TAG_NAME);
+            if(barcodeReadObject != null
+                    && barcodeReadObject2 != null
+                    && ! barcodeReadObject.equals(barcodeReadObject2) ){
+                
+                throw new RuntimeException("barcode read bases are different in paired two reads: "
+                        + barcodeReadObject + " " + barcodeReadObject2);
+            } else if( barcodeRead == null && barcodeReadObject2 != null ){
+                
+                barcodeRead = barcodeReadObject2.toString();
+                
+                if (this.CONVERT_LOW_QUALITY_TO_NO_CALL) {
+                    Object barcodeQualObject2 = pairedRecord.getAttribute(this.BARCODE_QUALITY_TAG_NAME);
+                    if (barcodeQualObject2 != null) {
+                        barcodeQual = barcodeQualObject2.toString();
+                    }
+                }
+            }                
+        }
+        
+        String barcode = this.decodeBarcode(readName, barcodeRead, barcodeQual, isPf);
+        String barcodeName = this.barcodeNameList.get(barcode);
 
+        this.markBarcode(record, barcodeName, readGroupOnlyIdInHeader);
+        
+        if (isPaired) {
+            this.markBarcode(pairedRecord, barcodeName, readGroupOnlyIdInHeader);
+        }
+        
+        return barcode;
+    }
+    
+    /**
+     * Same as decodeRecords but reading and writing binary bam records,
+     * only the flag, read name and the tags needed are decoded.
+     * 
+     * @param readGroupOnlyIdInHeader 
+     */
+    private void decodeRawRecords(String readGroupOnlyIdInHeader) {
+        
+        final RawBamReader reader = new RawBamReader(INPUT);
+        final RawBamRecord record = new RawBamRecord();
+        final RawBamRecord pairedRecord = new RawBamRecord();
+        
+        while(reader.next(record)){
+            
+            String barcodeQual = null;
+            
+            boolean isPaired = record.getReadPairedFlag();
+            boolean isPf = ! record.getReadFailsVendorQualityCheckFlag();
+            
+            String barcodeRead = record.getStringAttribute(this.BARCODE_TAG_NAME);
+            
             if( this.CONVERT_LOW_QUALITY_TO_NO_CALL ){
-               Object barcodeQualObject = record.getAttribute( this.BARCODE_QUALITY_TAG_NAME );
-               if(barcodeQualObject != null){
-                    barcodeQual = barcodeQualObject.toString();
-               }
+               barcodeQual = record.getStringAttribute( this.BARCODE_QUALITY_TAG_NAME );
             }
             
-            SAMRecord pairedRecord = null;
-            
             if(isPaired){
                 
-                pairedRecord = inIterator.next();
-                String readName2 = pairedRecord.getReadName();
-                boolean isPaired2 = pairedRecord.getReadPairedFlag();
-                
-                if( !readName.equals(readName2) || !isPaired2 ){
-                    throw new RuntimeException("The paired reads are not together: " + readName + " " + readName2);
+                if( !reader.next(pairedRecord)
+                        || !record.readNameEquals(pairedRecord)
+                        || !pairedRecord.getReadPairedFlag() ){
+                    throw new RuntimeException("The paired reads are not together: " + record.getReadName());
                 }
                 
-                Object barcodeReadObject2= pairedRecord.getAttribute(this.BARCODE_TAG_NAME);
-                if(barcodeReadObject != null
-                        && barcodeReadObject2 != null
-                        && ! barcodeReadObject.equals(barcodeReadObject2) ){
+                String barcodeRead2 = pairedRecord.getStringAttribute(this.BARCODE_TAG_NAME);
+                if(barcodeRead != null
+                        && barcodeRead2 != null
+                        && ! barcodeRead.equals(barcodeRead2) ){
                     
                     throw new RuntimeException("barcode read bases are different in paired two reads: "
-                            + barcodeReadObject + " " + barcodeReadObject2);
-                } else if( barcodeRead == null && barcodeReadObject2 != null ){
+                            + barcodeRead + " " + barcodeRead2);
+                } else if( barcodeRead == null && barcodeRead2 != null ){
                     
-                    barcodeRead = barcodeReadObject2.toString();
+                    barcodeRead = barcodeRead2;
                     
                     if (this.CONVERT_LOW_QUALITY_TO_NO_CALL) {
-                        Object barcodeQualObject2 = pairedRecord.getAttribute(this.BARCODE_QUALITY_TAG_NAME);
-                        if (barcodeQualObject2 != null) {
-                            barcodeQual = barcodeQualObject2.toString();
+                        String barcodeQual2 = pairedRecord.getStringAttribute(this.BARCODE_QUALITY_TAG_NAME);
+                        if (barcodeQual2 != null) {
+                            barcodeQual = barcodeQual2;
                         }
                     }
-                }                
-            }
-            
-            if(barcodeRead == null ){
-                throw new RuntimeException("No barcode read found for record: " + readName );
-            }
-
-            if (this.CONVERT_LOW_QUALITY_TO_NO_CALL) {
-               
-               barcodeRead = this.checkBarcodeQuality(barcodeRead, barcodeQual);
-            }
-
-            if(barcodeRead.length() < this.barcodeLength){
-                throw new RuntimeException("The barcode read length is less than barcode lenght: " + readName );
-            }else{            
-                barcodeRead = barcodeRead.substring(0, this.barcodeLength);
-            }
-
-            IndexDecoder.BarcodeMatch match = this.indexDecoder.extractBarcode(barcodeRead, isPf);
-            String barcode = match.barcode;
-            
-            if( match.matched ) {
-               barcode = barcode.toUpperCase();
-            } else {
-               barcode = "";
+                }
             }
             
+            String barcode = this.decodeBarcode(record.getReadName(), barcodeRead, barcodeQual, isPf);
             String barcodeName = this.barcodeNameList.get(barcode);
-
+            
             this.markBarcode(record, barcodeName, readGroupOnlyIdInHeader);
             
             if (isPaired) {
                 this.markBarcode(pairedRecord, barcodeName, readGroupOnlyIdInHeader);
             }
-
-            if( OUTPUT != null ){
-                out.addAlignment(record);
-                if(isPaired){
-                    out.addAlignment(pairedRecord);
-                }
-            } else {
-                
-                SAMFileWriter outPerBarcode = this.outputList.get(barcode);
-                outPerBarcode.addAlignment(record);
-                if(isPaired){
-                    outPerBarcode.addAlignment(pairedRecord);
-                }                
-            }
             
+            RawBamWriter writer = rawOut != null ? rawOut : this.rawOutputList.get(barcode);
+            writer.write(record);
+            if(isPaired){
+                writer.write(pairedRecord);
+            }
         }
+        reader.close();
+    }
+    
+    /**
+     * 
+     * @param readName
+     * @param barcodeRead
+     * @param barcodeQual
+     * @param isPf
+     * @return the matched barcode in upper case, empty if no match
+     */
+    private String decodeBarcode(String readName, String barcodeRead, String barcodeQual, boolean isPf) {
         
-        if(out != null){
-           out.close();
+        if(barcodeRead == null ){
+            throw new RuntimeException("No barcode read found for record: " + readName );
         }
-        this.closeOutputList();
-        
-        log.info("Decoding finished");
-        
-        
-        log.info("Writing out metrhics file");        
-        final MetricsFile<IndexDecoder.BarcodeMetric, Integer> metrics = getMetricsFile();        
-        indexDecoder.writeMetrics(metrics, METRICS_FILE);
-        
-        log.info("All finished");
 
-        return 0;
+        if (this.CONVERT_LOW_QUALITY_TO_NO_CALL) {
+
+           barcodeRead = this.checkBarcodeQuality(barcodeRead, barcodeQual);
+        }
+
+        if(barcodeRead.length() < this.barcodeLength){
+            throw new RuntimeException("The barcode read length is less than barcode lenght: " + readName );
+        }else{            
+            barcodeRead = barcodeRead.substring(0, this.barcodeLength);
+        }
+
+        IndexDecoder.BarcodeMatch match = this.indexDecoder.extractBarcode(barcodeRead, isPf);
+        String barcode = match.barcode;
+
+        if( match.matched ) {
+           barcode = barcode.toUpperCase();
+        } else {
+           barcode = "";
+        }
+        return barcode;
     }
     
     private SAMRecord markBarcode(SAMRecord record, String barcodeName, String readGroupOnlyIdInHeader) {
@@ -281,24 +412,48 @@ public class BamIndexDecoder extends PicardCommandLine {
         return record;
     }
     
+    private void markBarcode(RawBamRecord record, String barcodeName, String readGroupOnlyIdInHeader) {
+
+        if (CHANGE_READ_NAME) {
+            record.setReadName(record.getReadName() + "#" + barcodeName);
+        }
+
+        String oldReadGroupId = record.getStringAttribute("RG");
+        if (oldReadGroupId == null && readGroupOnlyIdInHeader != null) {
+            oldReadGroupId = readGroupOnlyIdInHeader;
+        } else if( oldReadGroupId == null ) {
+            throw new RuntimeException("No read group id given for read " + record.getReadName() + " and more than one read group defined in header");
+        }
+        record.setStringAttribute("RG", oldReadGroupId + "#" + barcodeName);
+    }
+    
     /**
      * 
      * @param header
      */
     public void generateOutputFile(SAMFileHeader header) {
+        this.generateOutputFile(header.clone(), true);
+    }
+    
+    /**
+     * 
+     * @param outputHeader input header to change in place
+     * @param openOutput open the output files if true
+     */
+    private void generateOutputFile(SAMFileHeader outputHeader, boolean openOutput) {
         
         List<IndexDecoder.NamedBarcode> barcodeList = indexDecoder.getNamedBarcodes(); 
         
         this.barcodeNameList = new HashMap<String, String>();
         
-        List<SAMReadGroupRecord> oldReadGroupList = header.getReadGroups();        
+        List<SAMReadGroupRecord> oldReadGroupList = outputHeader.getReadGroups();        
         List<SAMReadGroupRecord> fullReadGroupList = new ArrayList<SAMReadGroupRecord>();
         
         if (OUTPUT_DIR != null) {
             log.info("Open a list of output bam/sam file per barcode");
             outputList = new HashMap<String, SAMFileWriter>();
+            rawOutputList = new HashMap<String, RawBamWriter>();
         }
-        final SAMFileHeader outputHeader = header.clone();
         final SAMProgramRecord programRecord = this.addProgramRecordToHead(outputHeader, this.getThisProgramRecord(programName, programDS));
 
         for (int count = 0; count <= barcodeList.size(); count++) {
@@ -359,14 +514,17 @@ public class BamIndexDecoder extends PicardCommandLine {
                 } catch(IllegalArgumentException e) {
                     perBarcodeOutputHeader.setSortOrder(SAMFileHeader.SortOrder.unsorted);
                 }
-                final SAMFileWriter outPerBarcode = new SAMFileWriterFactory().makeSAMOrBAMWriter(perBarcodeOutputHeader, true, new File(barcodeBamOutputName));
-                outputList.put(barcode, outPerBarcode);
+                if (this.rawRecords) {
+                    rawOutputList.put(barcode, new RawBamWriter(new File(barcodeBamOutputName), perBarcodeOutputHeader, CREATE_MD5_FILE, false));
+                } else {
+                    final SAMFileWriter outPerBarcode = new SAMFileWriterFactory().makeSAMOrBAMWriter(perBarcodeOutputHeader, true, new File(barcodeBamOutputName));
+                    outputList.put(barcode, outPerBarcode);
+                }
             }
             barcodeNameList.put(barcode, barcodeName);
         }
         
         if (OUTPUT != null) {
-            log.info("Open output file with header: " + OUTPUT.getName());
             outputHeader.setReadGroups(fullReadGroupList);
             try {
                 outputHeader.getSortOrder();
@@ -374,9 +532,47 @@ public class BamIndexDecoder extends PicardCommandLine {
                 outputHeader.setSortOrder(SAMFileHeader.SortOrder.unsorted);
             }
 
-            this.out = new SAMFileWriterFactory().makeSAMOrBAMWriter(outputHeader, true, OUTPUT);
+            if (!openOutput) {
+                return;
+            }
+            log.info("Open output file with header: " + OUTPUT.getName());
+            if (this.rawRecords) {
+                this.rawOut = new RawBamWriter(OUTPUT, outputHeader, CREATE_MD5_FILE, false);
+            } else {
+                this.out = new SAMFileWriterFactory().makeSAMOrBAMWriter(outputHeader, true, OUTPUT);
+            }
+        }
+
+    }
+    
+    @Override
+    public void startStage(SAMFileHeader outputHeader) {
+        if (OUTPUT_DIR != null) {
+            throw new RuntimeException("Output cannot be split by barcode in a pipeline");
         }
+        IoUtil.assertFileIsWritable(METRICS_FILE);
+        this.stageReadGroupId = getOnlyReadGroupId(outputHeader);
+        this.generateOutputFile(outputHeader, false);
+    }
+
+    @Override
+    public boolean needsReadPairs() {
+        // both reads of a pair get the same barcode
+        return true;
+    }
 
+    @Override
+    public void processRecords(SAMRecord [] records) {
+        this.decodeTemplate(records[0], records.length > 1 ? records[1] : null, this.stageReadGroupId);
+    }
+
+    /**
+     * write out metrics file
+     */
+    @Override
+    public void finishStage() {
+        final MetricsFile<IndexDecoder.BarcodeMetric, Integer> metrics = getMetricsFile();
+        indexDecoder.writeMetrics(metrics, METRICS_FILE);
     }
     
     /**
@@ -388,6 +584,11 @@ public class BamIndexDecoder extends PicardCommandLine {
                 writer.close();
             }
         }
+        if( this.rawOutputList != null ){
+            for(RawBamWriter writer: this.rawOutputList.values()){
+                writer.close();
+            }
+        }
     }
 
     /**
@@ -413,6 +614,10 @@ public class BamIndexDecoder extends PicardCommandLine {
         indexDecoder.prepareDecode(messages);
         this.barcodeLength = indexDecoder.getBarcodeLength();
 
+        if ((OUTPUT != null && BamUtils.isCramFile(OUTPUT.getName())) || BamUtils.isCramFormat(OUTPUT_FORMAT)) {
+            messages.add(BamUtils.CRAM_NOT_SUPPORTED);
+        }
+
         if (messages.isEmpty()) {
             return null;
         }
@@ -22,14 +22,14 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Stack;
 import net.sf.picard.cmdline.Option;
 import net.sf.picard.cmdline.StandardOptionDefinitions;
 import net.sf.picard.cmdline.Usage;
 import net.sf.picard.io.IoUtil;
 import net.sf.picard.util.Log;
-import net.sf.samtools.SAMRecord.SAMTagAndValue;
 import net.sf.samtools.*;
+import uk.ac.sanger.npg.bam.util.AlignmentGroupIterator;
+import uk.ac.sanger.npg.bam.util.AlignmentGroupIterator.AlignmentGroup;
 
 
 /**
@@ -89,14 +89,18 @@ public class BamMerger extends PicardCommandLine {
     @Option(shortName= "REPLACE_QUAL", doc="Replace base qualities in aligned bam wtih the ones in unaligned bam if true.")
     public Boolean REPLACE_ALIGNED_BASE_QUALITY = false;
     
-    private void mergealign_pairedsupp(SAMRecordIterator iteratorIn, SAMRecordIterator iteratorAlignments, SAMFileWriter out) {
-        // We are assuming the primary alignment record always comes first
-        SAMRecord alignment = null;
-        SAMRecord nextAlignment = null;
-        Stack<SAMRecord> secondary_supp = new Stack<SAMRecord>();
-        if(iteratorAlignments.hasNext()){
-            nextAlignment = iteratorAlignments.next();
-        }
+    /**
+     * Merge each alignment group with its unmapped record, both inputs in the same order.
+     * With KEEP_EXTRA_UNMAPPED_READS, each unmapped record without alignment is written once.
+     * 
+     * @param iteratorIn unmapped records
+     * @param iteratorAlignments alignments, all the alignments of a read next to each other
+     * @param out 
+     */
+    void mergealign_pairedsupp(SAMRecordIterator iteratorIn, SAMRecordIterator iteratorAlignments, SAMFileWriter out) {
+        // We are assuming all the alignments of a read are next to each other
+        AlignmentGroupIterator alignmentGroups = new AlignmentGroupIterator(iteratorAlignments);
+        AlignmentGroup group = null;
 
         while( iteratorIn.hasNext() ){
             SAMRecord record = iteratorIn.next();
@@ -104,92 +108,18 @@ public class BamMerger extends PicardCommandLine {
             if (record.isSecondaryOrSupplementary())
                 continue;
             // Check if we are out of alignments
-            if(alignment == null && nextAlignment != null) {
-                // Hunt for the primary
-                SAMRecord searchAlignment = nextAlignment;
-                while (alignment == null) {
-                    if (nextAlignment.getReadName().equals(searchAlignment.getReadName()) &&
-                        nextAlignment.getReadPairedFlag() == searchAlignment.getReadPairedFlag() &&
-                        (
-                         (
-                          nextAlignment.getReadPairedFlag() &&
-                          nextAlignment.getFirstOfPairFlag() == searchAlignment.getFirstOfPairFlag() &&
-                          nextAlignment.getSecondOfPairFlag() == searchAlignment.getSecondOfPairFlag()
-                          )
-                         ||
-                         !searchAlignment.getReadPairedFlag()
-                         )
-                        )
-                    {
-                        if (nextAlignment.isSecondaryOrSupplementary()) {
-                            secondary_supp.push(nextAlignment);
-                            if (iteratorAlignments.hasNext()) {
-                                nextAlignment = iteratorAlignments.next();
-                            } else {
-                                log.error( nextAlignment.getReadName() );
-                                throw new RuntimeException("The mapped bam file has a read where there's a supplementary/secondary but no primary.");
-                            }
-                        } else {
-                            alignment = nextAlignment;
-                            nextAlignment = null;
-                        }
-                    } else {
-                        log.error( searchAlignment.getReadName() );
-                        throw new RuntimeException("The mapped bam file has a read where there's a supplementary/secondary but no primary.");
-                    }
-                }
-                // Mop up any secondaries
-                while (iteratorAlignments.hasNext()) {
-                    nextAlignment = iteratorAlignments.next();
-                    // is it from the same mapping as the current alignment?
-                    if (nextAlignment.getReadName().equals(alignment.getReadName()) &&
-                        nextAlignment.isSecondaryOrSupplementary() &&
-                        nextAlignment.getReadPairedFlag() == alignment.getReadPairedFlag() &&
-                            (
-                             (
-                              nextAlignment.getReadPairedFlag() &&
-                              nextAlignment.getFirstOfPairFlag() == alignment.getFirstOfPairFlag() &&
-                              nextAlignment.getSecondOfPairFlag() == alignment.getSecondOfPairFlag()
-                             )
-                             ||
-                             !nextAlignment.getReadPairedFlag()
-                            )
-                        ) {
-                        // it is a secondary for current alignment
-                        secondary_supp.push(nextAlignment);
-                        nextAlignment = null;
-                    } else {
-                        // new record so we move on
-                        break;
-                    }
-                }
-                
+            if( alignmentGroups.hasNext() ){
+                group = alignmentGroups.next();
             } else if ( this.KEEP_EXTRA_UNMAPPED_READS ) { // no more piggies
                 out.addAlignment(record);
                 continue;
             } else {
                 break;
             }
-            String readName1 = record.getReadName();
-            String readName2 = alignment.getReadName();
-            
-            boolean pairedRead1 = record.getReadPairedFlag();
-            boolean pairedRead2 = alignment.getReadPairedFlag();
-            
-            boolean firstOfPair1 = false;
-            if(pairedRead1){
-                firstOfPair1 = record.getFirstOfPairFlag();
-            }
-            boolean firstOfPair2 = false;
-            if(pairedRead2){
-                firstOfPair2= alignment.getFirstOfPairFlag();
-            }
-            
+            SAMRecord alignment = group.getPrimary();
+
             // Try and read in from unaligned BAM until read name matches align'd bam's read
-            while( ( !readName1.equals(readName2)
-                    || pairedRead1 != pairedRead2
-                    || firstOfPair1 != firstOfPair2 )
-                  ){
+            while( !isSameUnmappedRead(record, alignment) ){
                 // Output
                 if( this.KEEP_EXTRA_UNMAPPED_READS ){
                     out.addAlignment(record);
@@ -197,43 +127,47 @@ public class BamMerger extends PicardCommandLine {
                 
                 if (iteratorIn.hasNext()) {
                     record = iteratorIn.next();
-                    readName1 = record.getReadName();
-                    pairedRead1 = record.getReadPairedFlag();
-                    firstOfPair1 = false;
-                    if (pairedRead1) {
-                        firstOfPair1 = record.getFirstOfPairFlag();
-                    }
                 }else{
+                    record = null;
                     break; // No more unaligned input data
                 }
-                
             }
             // If we've found a matching record merge them
-            if(  readName1.equals(readName2)
-               && pairedRead1 == pairedRead2
-               && firstOfPair1 == firstOfPair2
-               ){
+            if( record != null ){
                 this.mergeRecords(alignment, record);
                 out.addAlignment(alignment); // Write merged record
                 String parent_rg = (String) alignment.getAttribute("RG");
-                while ( !secondary_supp.empty() ) {
-                    SAMRecord s = secondary_supp.pop();
+                // Write secondary and supplementary records, last one first
+                List<SAMRecord> secondaryAlignments = group.getSecondaryAlignments();
+                for (int i = secondaryAlignments.size() - 1; i >= 0; i--) {
+                    SAMRecord s = secondaryAlignments.get(i);
                     s.setAttribute("RG", parent_rg);
                     out.addAlignment(s); // Write merged supp record
                 }
-                alignment = null;
-            } else if ( this.KEEP_EXTRA_UNMAPPED_READS ) {
-                out.addAlignment(record);
+                group = null;
             }
         }
         // If we have left over records in our aligned BAM something went wrong
-        if( alignment != null || nextAlignment != null || iteratorAlignments.hasNext() ){
-            SAMRecord firstRecordLeft = iteratorAlignments.next();
+        if( group != null || alignmentGroups.hasNext() ){
+            SAMRecord firstRecordLeft = group != null ? group.getPrimary() : alignmentGroups.next().getPrimary();
             log.error( firstRecordLeft.getReadName() + " " + firstRecordLeft.getFlags() );
             throw new RuntimeException("The mapped bam file has more reads than the unmapped"
                                        + " after reading their common reads in their begining.");
         }
     }
+
+    /**
+     * 
+     * @param record unmapped record
+     * @param alignment
+     * @return true if both records have the same read name, paired and first of pair flags
+     */
+    private boolean isSameUnmappedRead(SAMRecord record, SAMRecord alignment){
+        boolean paired = record.getReadPairedFlag();
+        return paired == alignment.getReadPairedFlag()
+                && ( !paired || record.getFirstOfPairFlag() == alignment.getFirstOfPairFlag() )
+                && record.getReadName().equals(alignment.getReadName());
+    }
     
     @Override
     protected int doWork() {
@@ -300,6 +234,8 @@ public class BamMerger extends PicardCommandLine {
     }
     
     /**
+     * Merge flags and attributes in the unmapped record into the alignment,
+     * attributes already in the alignment are kept.
      * 
      * @param alignment
      * @param record 
@@ -331,15 +267,7 @@ public class BamMerger extends PicardCommandLine {
             alignment.setSecondOfPairFlag(record.getSecondOfPairFlag());
         }
 
-        List<SAMTagAndValue> attributeList = record.getAttributes();
-        for(SAMTagAndValue attribute : attributeList){
-            
-            String tag = attribute.tag;
-            Object value = attribute.value;            
-            if( alignment.getAttribute(tag) == null && value != null ){
-               alignment.setAttribute(tag, value);
-            }
-        }
+        SAMRecordAttributeUtil.mergeMissingAttributes(alignment, record);
 
     }
     
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package uk.ac.sanger.npg.picard;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.sf.picard.cmdline.Option;
+import net.sf.picard.cmdline.StandardOptionDefinitions;
+import net.sf.picard.cmdline.Usage;
+import net.sf.picard.io.IoUtil;
+import net.sf.picard.util.Log;
+import net.sf.samtools.*;
+
+/**
+ * Chain the per record stages of several programs, reading the input file
+ * and writing the output file only once.
+ *
+ * Each stage is given as a program name followed by its options, the input
+ * and output options of the stages are set to the input and output of the pipeline.
+ * Each stage adds its own program record into the output header.
+ * Records are given to the stages in read pairs only if a stage needs them,
+ * so a coordinate sorted file can be used with stages working on each record.
+ *
+ * @author agent@local
+ */
+public class BamPipeline extends PicardCommandLine {
+
+    private final Log log = Log.getInstance(BamPipeline.class);
+
+    private final String programName = "BamPipeline";
+
+    private final String programDS = "Run a list of programs as stages of a pipeline, reading and writing records once. "
+            + "Stages available: " + STAGES.keySet();
+
+    @Usage(programVersion= version)
+    public final String USAGE = this.getStandardUsagePreamble() + this.programDS + ". ";
+
+    @Option(shortName=StandardOptionDefinitions.INPUT_SHORT_NAME, doc="The input SAM or BAM file. ")
+    public File INPUT;
+
+    @Option(shortName=StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc="The output SAM or BAM file. ")
+    public File OUTPUT;
+
+    @Option(doc="A program name followed by its options separated by spaces, like \"BamTagStripper KEEP=ci\", "
+            + "in the order to run them. Option values with spaces can be double quoted. "
+            + "INPUT and OUTPUT of the program must not be given. ", minElements=1)
+    public final List<String> STAGE = new ArrayList<String>();
+
+    private static final Map<String, Class<? extends PicardCommandLine>> STAGES = new LinkedHashMap<String, Class<? extends PicardCommandLine>>();
+    static {
+        STAGES.put("BamIndexDecoder", BamIndexDecoder.class);
+        STAGES.put("BamAdapterFinder", BamAdapterFinder.class);
+        STAGES.put("BamTagStripper", BamTagStripper.class);
+        STAGES.put("BamQualityQuantisation", BamQualityQuantisation.class);
+        STAGES.put("ChangeBamHeader", ChangeBamHeader.class);
+    }
+
+    private final List<RecordStage> stages = new ArrayList<RecordStage>();
+
+    @Override
+    protected int doWork() {
+
+        this.log.info("Checking input and output file");
+        IoUtil.assertFileIsReadable(INPUT);
+        IoUtil.assertFileIsWritable(OUTPUT);
+
+        log.info("Open input file: " + INPUT.getName());
+        final SAMFileReader in  = new SAMFileReader(INPUT);
+
+        final SAMFileHeader outputHeader = in.getFileHeader().clone();
+        for (RecordStage stage : this.stages) {
+            stage.startStage(outputHeader);
+        }
+
+        log.info("Open output file with header: " + OUTPUT.getName());
+        // records are encoded and compressed in a separate thread
+        final SAMFileWriterFactory factory = new SAMFileWriterFactory();
+        factory.setUseAsyncIo(true);
+        final SAMFileWriter out = factory.makeSAMOrBAMWriter(outputHeader, true, OUTPUT);
+
+        // records are only grouped into read pairs if a stage needs them,
+        // otherwise records of a coordinate sorted file are processed one by one
+        boolean pairs = false;
+        for (RecordStage stage : this.stages) {
+            pairs |= stage.needsReadPairs();
+        }
+
+        log.info("Processing records in " + this.stages.size() + " stages" + (pairs ? " by read pair" : ""));
+        long count = 0;
+        final SAMRecordIterator iterator = in.iterator();
+        while (iterator.hasNext()) {
+
+            final SAMRecord record = iterator.next();
+            SAMRecord [] records;
+            if (pairs && record.getReadPairedFlag()) {
+                SAMRecord pairedRecord = iterator.hasNext() ? iterator.next() : null;
+                if (pairedRecord == null
+                        || !record.getReadName().equals(pairedRecord.getReadName())
+                        || !pairedRecord.getReadPairedFlag()) {
+                    throw new RuntimeException("The paired reads are not together: " + record.getReadName());
+                }
+                records = new SAMRecord[]{record, pairedRecord};
+            } else {
+                records = new SAMRecord[]{record};
+            }
+
+            for (RecordStage stage : this.stages) {
+                stage.processRecords(records);
+            }
+            for (SAMRecord processed : records) {
+                out.addAlignment(processed);
+            }
+            count += records.length;
+        }
+
+        out.close();
+        in.close();
+
+        for (RecordStage stage : this.stages) {
+            stage.finishStage();
+        }
+        log.info("Pipeline finished, " + count + " records written to " + this.OUTPUT);
+
+        return 0;
+    }
+
+    /**
+     * Create the stages and parse their options
+     *
+     * @return null if command line is valid.  If command line is invalid, returns an array of error message
+     *         to be written to the appropriate place.
+     */
+    @Override
+    protected String[] customCommandLineValidation() {
+
+        final ArrayList<String> messages = new ArrayList<String>();
+
+        for (String stageOptions : this.STAGE) {
+            List<String> args = splitStageOptions(stageOptions);
+            if (args.isEmpty()) {
+                messages.add("Empty stage given");
+                continue;
+            }
+            Class<? extends PicardCommandLine> stageClass = STAGES.get(args.get(0));
+            if (stageClass == null) {
+                messages.add("Unknown stage " + args.get(0) + ", stages available: " + STAGES.keySet());
+                continue;
+            }
+
+            PicardCommandLine stage;
+            try {
+                stage = stageClass.getDeclaredConstructor().newInstance();
+            } catch (NoSuchMethodException ex) {
+                throw new RuntimeException("Cannot create stage " + args.get(0), ex);
+            } catch (InstantiationException ex) {
+                throw new RuntimeException("Cannot create stage " + args.get(0), ex);
+            } catch (IllegalAccessException ex) {
+                throw new RuntimeException("Cannot create stage " + args.get(0), ex);
+            } catch (InvocationTargetException ex) {
+                throw new RuntimeException("Cannot create stage " + args.get(0), ex.getCause());
+            }
+
+            args.remove(0);
+            args.add("INPUT=" + this.INPUT.getPath());
+            args.add("OUTPUT=" + this.OUTPUT.getPath());
+            args.add("VALIDATION_STRINGENCY=" + this.VALIDATION_STRINGENCY);
+            if (!stage.parseStageArgs(args.toArray(new String[args.size()]))) {
+                messages.add("Invalid options for stage: " + stageOptions);
+                continue;
+            }
+            this.stages.add((RecordStage) stage);
+        }
+
+        if (messages.isEmpty()) {
+            return null;
+        }
+        return messages.toArray(new String[messages.size()]);
+    }
+
+    /**
+     *
+     * @param stageOptions program name and options separated by spaces, values can be double quoted
+     * @return program name and options
+     */
+    public static List<String> splitStageOptions(String stageOptions) {
+
+        List<String> args = new ArrayList<String>();
+        StringBuilder arg = new StringBuilder();
+        boolean quoted = false;
+        boolean inArg = false;
+        for (char c : stageOptions.toCharArray()) {
+            if (c == '"') {
+                quoted = !quoted;
+                inArg = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (inArg) {
+                    args.add(arg.toString());
+                    arg.setLength(0);
+                    inArg = false;
+                }
+            } else {
+                arg.append(c);
+                inArg = true;
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unbalanced double quote in stage: " + stageOptions);
+        }
+        if (inArg) {
+            args.add(arg.toString());
+        }
+        return args;
+    }
+
+    /**
+     * example: INPUT=testdata/bam/6383_8.sam OUTPUT=testdata/6383_8_pipeline.bam
+     * STAGE="BamIndexDecoder BARCODE_FILE=testdata/decode/6383_8.tag METRICS_FILE=testdata/6383_8.metrics BARCODE_TAG_NAME=RT"
+     * STAGE=BamAdapterFinder STAGE=BamTagStripper STAGE=BamQualityQuantisation
+     * VALIDATION_STRINGENCY=SILENT
+     *
+     * @param args
+     */
+    public static void main(final String[] args) {
+        System.exit(new BamPipeline().instanceMain(args));
+    }
+}
@@ -20,18 +20,30 @@
 package uk.ac.sanger.npg.picard;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import net.sf.picard.cmdline.Option;
 import net.sf.picard.cmdline.StandardOptionDefinitions;
 import net.sf.picard.cmdline.Usage;
 import net.sf.picard.io.IoUtil;
 import net.sf.picard.util.Log;
 import net.sf.samtools.*;
+import net.sf.samtools.util.BlockCompressedOutputStream;
+import net.sf.samtools.util.RuntimeIOException;
+import uk.ac.sanger.npg.bam.util.BgzfOutputStream;
+import uk.ac.sanger.npg.bam.util.QualityBinning;
+import uk.ac.sanger.npg.bam.util.RecordBatchPipeline;
 
 /**
  *
  * @author gq1@sanger.ac.uk
  */
-public class BamQualityQuantisation extends PicardCommandLine {
+public class BamQualityQuantisation extends PicardCommandLine implements RecordStage {
     
     private final Log log = Log.getInstance(BamQualityQuantisation.class);
     
@@ -39,6 +51,8 @@ public class BamQualityQuantisation extends PicardCommandLine {
     
     private final String programDS = "Quantise the original Illumina canned qualities into reduced resolution scores"
             + " using bins 1->9=6,10->19=15,20->24=22,25->29=27,30->34=33,35->39=37,40->59=41";
+
+    private QualityBinning binning = new QualityBinning(QualityBinning.SANGER_BINS);
     
     @Usage(programVersion=version)
     public final String USAGE = this.getStandardUsagePreamble() + this.programDS + ". "; 
@@ -52,7 +66,7 @@ public class BamQualityQuantisation extends PicardCommandLine {
     /**
      * output sam or bam file
      */
-    @Option(shortName=StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc="The ouput SAM or BAM file. ")
+    @Option(shortName=StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc="The ouput SAM or BAM file, not given for a dry run. ", optional=true)
     public File OUTPUT;
     
     /**
@@ -61,40 +75,75 @@ public class BamQualityQuantisation extends PicardCommandLine {
     @Option(shortName= "OQ", doc="Use original quality scores from OQ tag. ")
     public Boolean USE_OLD_QUALITY = false;
 
+    /**
+     * named quality binning scheme
+     */
+    @Option(shortName= "SCHEME", doc="The quality binning scheme to use. ")
+    public QualityBinning.Scheme BINNING_SCHEME = QualityBinning.Scheme.SANGER;
+
+    /**
+     * file with quality bins to use instead of the named scheme
+     */
+    @Option(shortName= "BINS", doc="A file with the quality bins to use instead of BINNING_SCHEME, "
+            + "a list of ranges like 1->9=6,10->19=15 separated by commas or new lines. Scores not in any range are invalid. ", optional=true)
+    public File QUALITY_BINS_FILE;
+
+    /**
+     * number of threads to quantise records
+     */
+    @Option(shortName= "T", doc="Number of threads to quantise records, in batches written out in input order. ", optional=true)
+    public int NUM_THREADS = 1;
+
+    /**
+     * number of records to sample in dry run
+     */
+    @Option(shortName= "DRY_RUN", doc="Dry run, quantise the given number of records with each named scheme and the bins file if given, "
+            + "and write the estimated BGZF compressed size of the records for each of them to DRY_RUN_REPORT "
+            + "instead of writing a quantised file. The records are the first ones of the input, not a sample spread across it. ", optional=true)
+    public Integer DRY_RUN_RECORDS;
+
+    /**
+     * report of dry run
+     */
+    @Option(shortName= "REPORT", doc="The tab separated report of a dry run. ", optional=true)
+    public File DRY_RUN_REPORT;
+
 
     @Override
     protected int doWork() {
         
         this.log.info("Checking input and output file");
         IoUtil.assertFileIsReadable(INPUT);
-        IoUtil.assertFileIsWritable(OUTPUT); 
+        IoUtil.assertFileIsWritable(this.DRY_RUN_RECORDS != null ? DRY_RUN_REPORT : OUTPUT); 
          
         log.info("Open input file: " + INPUT.getName());
         final SAMFileReader in  = new SAMFileReader(INPUT);
+
+        if(this.DRY_RUN_RECORDS != null){
+            this.setUpBinning();
+            this.reportCompressedSizes(in);
+            in.close();
+            return 0;
+        }
         
         final SAMFileHeader header = in.getFileHeader();
         final SAMFileHeader outputHeader = header.clone();
-        this.addProgramRecordToHead(outputHeader, this.getThisProgramRecord(programName, programDS));
+        this.startStage(outputHeader);
         
         log.info("Open output file with header: " + OUTPUT.getName());
-        final SAMFileWriter out = new SAMFileWriterFactory().makeSAMOrBAMWriter(outputHeader, true, OUTPUT);
+        // records are encoded and compressed in a separate thread
+        final SAMFileWriterFactory factory = new SAMFileWriterFactory();
+        factory.setUseAsyncIo(true);
+        final SAMFileWriter out = factory.makeSAMOrBAMWriter(outputHeader, true, OUTPUT);
         
-        log.info("Quantising records");
-        for (SAMRecord record : in) {
-            
-            if(!this.USE_OLD_QUALITY){
-               byte [] quals = record.getBaseQualities();
-               record.setBaseQualities(this.quantiseQualities(quals));
-            } else {
-               Object oq = record.getAttribute("OQ");
-               if(oq == null){
-                    throw new RuntimeException("No OQ tag available for record " + record.getReadName());
-               }else{
-                  record.setBaseQualities(this.quantiseQualities( oq.toString() ));
-               }
+        log.info("Quantising records with " + this.NUM_THREADS + " threads");
+        RecordBatchPipeline pipeline = new RecordBatchPipeline(this.NUM_THREADS, new RecordBatchPipeline.RecordProcessor() {
+            @Override
+            public void processRecord(SAMRecord record) {
+                quantiseRecord(record);
             }
-            out.addAlignment(record);
-        }
+        });
+        pipeline.processRecords(in.iterator(), out);
 
         in.close();
         out.close();
@@ -103,72 +152,222 @@ public class BamQualityQuantisation extends PicardCommandLine {
        
         return 0;    
     }
-    
+
     /**
+     * Set up the quality binning from the bins file or the named scheme
      * 
-     * @param quals quality scores in string
-     * @return quantised scores
+     * @return program description with the bins used
      */
-    public byte[] quantiseQualities(String quals){
-        byte [] qualsInByte = SAMUtils.fastqToPhred(quals);
-        byte [] newQualsInByte = this.quantiseQualities(qualsInByte);
- 
-        return newQualsInByte;        
+    private String setUpBinning() {
+        String description = this.programDS;
+        if(this.QUALITY_BINS_FILE != null){
+            this.binning = QualityBinning.fromFile(this.QUALITY_BINS_FILE);
+            description = "Quantise quality scores into reduced resolution scores using bins " + this.binning;
+        }else if(this.BINNING_SCHEME != QualityBinning.Scheme.SANGER){
+            this.binning = this.BINNING_SCHEME.getBinning();
+            description = "Quantise quality scores into reduced resolution scores using "
+                    + this.BINNING_SCHEME + " bins " + this.binning;
+        }
+        return description;
+    }
+
+    @Override
+    public void startStage(SAMFileHeader outputHeader) {
+        if(this.DRY_RUN_RECORDS != null){
+            throw new RuntimeException("Dry run is not available as a stage of a pipeline");
+        }
+        String description = this.setUpBinning();
+        this.addProgramRecordToHead(outputHeader, this.getThisProgramRecord(programName, description));
+    }
+
+    @Override
+    public boolean needsReadPairs() {
+        return false;
+    }
+
+    @Override
+    public void processRecords(SAMRecord [] records) {
+        for (SAMRecord record : records) {
+            this.quantiseRecord(record);
+        }
+    }
+
+    @Override
+    public void finishStage() {
+    }
+
+    private void quantiseRecord(SAMRecord record) {
+
+        // quality array of the record changed in place where possible
+        byte [] quals = record.getBaseQualities();
+        if(!this.USE_OLD_QUALITY){
+           this.binning.quantise(quals);
+        } else {
+           String oq = record.getStringAttribute("OQ");
+           if(oq == null){
+                throw new RuntimeException("No OQ tag available for record " + record.getReadName());
+           }
+           if(oq.length() != quals.length){
+                quals = new byte[oq.length()];
+           }
+           this.binning.quantise(oq, quals);
+        }
+        record.setBaseQualities(quals);
     }
     
     /**
+     * Quantise a sample of records with each binning scheme and report the compressed size of the records
      * 
-     * @param quals quality scores to quantise
-     * @return quantised scores
+     * @param in
      */
-    public byte [] quantiseQualities(byte [] quals){
+    private void reportCompressedSizes(SAMFileReader in) {
+
+        log.info("Dry run, sampling " + this.DRY_RUN_RECORDS + " records");
+        List<SAMRecord> records = new ArrayList<SAMRecord>();
+        List<byte []> originalQuals = new ArrayList<byte []>();
+        List<byte []> scoresToQuantise = new ArrayList<byte []>();
+        for (SAMRecord record : in) {
+            if(records.size() >= this.DRY_RUN_RECORDS){
+                break;
+            }
+            byte [] quals = record.getBaseQualities();
+            originalQuals.add(quals);
+            if(this.USE_OLD_QUALITY){
+               String oq = record.getStringAttribute("OQ");
+               if(oq == null){
+                    throw new RuntimeException("No OQ tag available for record " + record.getReadName());
+               }
+               quals = SAMUtils.fastqToPhred(oq);
+            }
+            scoresToQuantise.add(quals);
+            records.add(record);
+        }
+
+        Map<String, QualityBinning> schemes = new LinkedHashMap<String, QualityBinning>();
+        for (QualityBinning.Scheme scheme : QualityBinning.Scheme.values()) {
+            schemes.put(scheme.toString(), scheme.getBinning());
+        }
+        if(this.QUALITY_BINS_FILE != null){
+            schemes.put(this.QUALITY_BINS_FILE.getName(), this.binning);
+        }
 
-        for(int i=0; i<quals.length; i++){
-            quals[i] = this.getQuantisedScore(quals[i]);
+        final PrintWriter report = new PrintWriter(IoUtil.openFileForBufferedWriting(DRY_RUN_REPORT));
+        report.println("scheme\tbins\tcompressed_bytes\tratio_to_original");
+
+        long originalSize = this.getCompressedSize(in.getFileHeader(), records, originalQuals);
+        report.println("ORIGINAL\t\t" + originalSize + "\t" + String.format("%.4f", 1.0));
+        log.info("Original qualities: " + originalSize + " bytes");
+
+        for (Map.Entry<String, QualityBinning> scheme : schemes.entrySet()) {
+            List<byte []> quantisedQuals = new ArrayList<byte []>();
+            for (byte [] quals : scoresToQuantise) {
+                quantisedQuals.add(scheme.getValue().quantise(quals.clone()));
+            }
+            long size = this.getCompressedSize(in.getFileHeader(), records, quantisedQuals);
+            double ratio = originalSize == 0 ? 0 : (double) size / originalSize;
+            report.println(scheme.getKey() + "\t" + scheme.getValue() + "\t" + size + "\t" + String.format("%.4f", ratio));
+            log.info(scheme.getKey() + " bins: " + size + " bytes, " + String.format("%.4f", ratio) + " of original size");
+        }
+        report.close();
+        log.info("Dry run finished, report: " + this.DRY_RUN_REPORT);
+    }
+
+    /**
+     * 
+     * @param header
+     * @param records
+     * @param quals qualities to use for each record
+     * @return BGZF compressed size of the records in BAM format
+     */
+    private long getCompressedSize(SAMFileHeader header, List<SAMRecord> records, List<byte []> quals) {
+
+        CountingOutputStream counter = new CountingOutputStream();
+        BgzfOutputStream bgzf = new BgzfOutputStream(counter, BlockCompressedOutputStream.getDefaultCompressionLevel(), true);
+        BAMRecordCodec codec = new BAMRecordCodec(header);
+        codec.setOutputStream(bgzf);
+        for (int i = 0; i < records.size(); i++) {
+            SAMRecord record = records.get(i);
+            record.setBaseQualities(quals.get(i));
+            codec.encode(record);
+        }
+        try {
+            bgzf.close();
+        } catch (IOException ex) {
+            throw new RuntimeIOException(ex);
         }
-        return quals;
+        return counter.count;
+    }
+
+    /**
+     * Count bytes written without keeping them
+     */
+    private static class CountingOutputStream extends OutputStream {
+
+        private long count = 0;
+
+        @Override
+        public void write(int b) {
+            this.count++;
+        }
+
+        @Override
+        public void write(byte [] b, int off, int len) {
+            this.count += len;
+        }
+    }
+
+    /**
+     * 
+     * @param quals quality scores in string
+     * @return quantised scores
+     */
+    public byte[] quantiseQualities(String quals){
+        return this.binning.quantise(quals, new byte[quals.length()]);
     }
     
     /**
      * 
-     * @param score
-     * @return new score
+     * @param quals quality scores to quantise, changed in place
+     * @return quantised scores
      */
-    private byte getQuantisedScore(byte score){
-        
-        byte newScore;
-        switch (score) {
-            case 0: 
-                newScore = score;
-                break;
-            case 1: case 2: case 3: case 4: case 5: case 6: case 7: case 8: case 9:
-                newScore = 6;
-                break;
-            case 10: case 11: case 12: case 13: case 14: case 15: case 16: case 17: case 18: case 19:
-                newScore = 15;
-                break;
-            case 20: case 21: case 22: case 23: case 24:
-                newScore = 22;
-                break;
-            case 25: case 26: case 27: case 28: case 29:
-                newScore = 27;
-                break;
-            case 30: case 31: case 32: case 33: case 34:
-                newScore = 33;
-                break;
-            case 35: case 36: case 37: case 38: case 39:
-                newScore = 37;
-                break;
-            default:
-                if(score > 39 && score < 60){
-                    newScore = 41;
-                }else {
-                    throw new IllegalArgumentException("Invalid quality score: " + score);
-                }
-        }
-        return newScore;
+    public byte [] quantiseQualities(byte [] quals){
+        return this.binning.quantise(quals);
     }
     
+    @Override
+    protected String[] customCommandLineValidation() {
+
+        final ArrayList<String> messages = new ArrayList<String>();
+
+        if(this.DRY_RUN_RECORDS == null){
+            if(this.OUTPUT == null){
+                messages.add("OUTPUT must be given unless DRY_RUN_RECORDS is given");
+            }
+            if(this.DRY_RUN_REPORT != null){
+                messages.add("DRY_RUN_REPORT can only be given with DRY_RUN_RECORDS");
+            }
+        }else{
+            if(this.DRY_RUN_REPORT == null){
+                messages.add("DRY_RUN_REPORT must be given with DRY_RUN_RECORDS");
+            }
+            if(this.OUTPUT != null){
+                messages.add("OUTPUT is not written in a dry run, give DRY_RUN_REPORT only");
+            }
+            if(this.DRY_RUN_RECORDS < 1){
+                messages.add("DRY_RUN_RECORDS must be at least 1");
+            }
+        }
+
+        if(this.NUM_THREADS < 1){
+            messages.add("NUM_THREADS must be at least 1");
+        }
+
+        if(messages.isEmpty()){
+            return null;
+        }
+        return messages.toArray(new String[messages.size()]);
+    }
+
     /**
      * 
      * @param argv 
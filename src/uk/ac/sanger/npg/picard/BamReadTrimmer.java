@@ -20,19 +20,25 @@ package uk.ac.sanger.npg.picard;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import net.sf.picard.cmdline.Option;
 import net.sf.picard.cmdline.StandardOptionDefinitions;
 import net.sf.picard.cmdline.Usage;
 import net.sf.picard.io.IoUtil;
 import net.sf.picard.util.Log;
 import net.sf.samtools.*;
-import uk.ac.sanger.npg.bam.util.BamUtils;
+import net.sf.samtools.util.SequenceUtil;
+import uk.ac.sanger.npg.bam.util.RecordBatchPipeline;
 
 
 /**
  * The class to strip part of a read (fixed position) - typically a prefix of the forward read,
  * and optionally place this and its quality in BAM tags.
+ * Several windows can be stripped from each read end in one pass, each saved in its own tags.
  * 
  * @author gq1@sanger.ac.uk
  */
@@ -57,11 +63,18 @@ public class BamReadTrimmer extends PicardCommandLine {
     @Option(shortName="FORWARD", doc="Just trim the forward read if true.")
     public Boolean ONLY_FORWARD_READ = true;
     
-    @Option(shortName="POS", doc="First position to be trimmed.")
+    @Option(shortName="POS", doc="First position to be trimmed.", optional=true)
     public Integer FIRST_POSITION_TO_TRIM;
     
-    @Option(shortName="LEN", doc="The lenght to be trimmed.")
+    @Option(shortName="LEN", doc="The lenght to be trimmed.", optional=true)
     public Integer TRIM_LENGTH;
+
+    @Option(shortName="WINDOW", doc="A window to be trimmed as READ:POS:LEN or READ:POS:LEN:BASE_TAG:QUALITY_TAG, "
+            + "READ being 1 for an unpaired or first read and 2 for a second read, POS and LEN given in the original read. "
+            + "Trimmed bases and qualities are saved in the given tags. "
+            + "Windows of a read must not overlap. This option may be used multiple times instead of "
+            + "FIRST_POSITION_TO_TRIM and TRIM_LENGTH, ONLY_FORWARD_READ and the SAVE_TRIM tags are not used with it.", optional=true)
+    public final List<String> TRIM_WINDOW = new ArrayList<String>();
     
     @Option(shortName="SAVE", doc="Timmed bases to be saved?", optional=true)
     public Boolean SAVE_TRIM = true;
@@ -75,6 +88,60 @@ public class BamReadTrimmer extends PicardCommandLine {
     @Option(shortName="TAG", doc= "A list of tags to keep.")
     public final List<String> TAG_TO_KEEP = new ArrayList<String>();
 
+    @Option(shortName="T", doc="Number of threads to trim records, in batches written out in input order.", optional=true)
+    public int NUM_THREADS = 1;
+
+    private static final int PAIRING_FLAGS = 0x1 | 0x40 | 0x80;
+
+    private static final int UNMAPPED_FLAGS = 0x4 | 0x8;
+
+    // values of the tags to keep for the current record of each thread
+    private final ThreadLocal<Object[]> tagValues = new ThreadLocal<Object[]>() {
+        @Override
+        protected Object[] initialValue() {
+            return new Object[0];
+        }
+    };
+
+    /**
+     * A window to be trimmed from a read, in the original orientation of the read
+     */
+    public static class TrimWindow {
+
+        private final int firstPos;
+        private final int length;
+        private final String baseTag;
+        private final String qualityTag;
+
+        /**
+         * 
+         * @param firstPos first position to be trimmed, starting from 1
+         * @param length
+         * @param baseTag tag for trimmed bases, null if not saved
+         * @param qualityTag tag for trimmed qualities, null if not saved
+         */
+        public TrimWindow(int firstPos, int length, String baseTag, String qualityTag) {
+            if( firstPos < 1 || length < 0 ){
+                throw new IllegalArgumentException("Invalid trim window: " + firstPos + ":" + length);
+            }
+            this.firstPos = firstPos;
+            this.length = length;
+            this.baseTag = baseTag;
+            this.qualityTag = qualityTag;
+        }
+    }
+
+    private static final Comparator<TrimWindow> WINDOW_ORDER = new Comparator<TrimWindow>() {
+        @Override
+        public int compare(TrimWindow w1, TrimWindow w2) {
+            return w1.firstPos - w2.firstPos;
+        }
+    };
+
+    // trim windows for unpaired or first reads and for second reads
+    private final List<TrimWindow> firstReadWindows = new ArrayList<TrimWindow>();
+    private final List<TrimWindow> secondReadWindows = new ArrayList<TrimWindow>();
+
 
     @Override
     protected int doWork() {
@@ -82,6 +149,8 @@ public class BamReadTrimmer extends PicardCommandLine {
         this.log.info("Checking input and output file");
         IoUtil.assertFileIsReadable(INPUT);
         IoUtil.assertFileIsWritable(OUTPUT);
+
+        this.setTrimWindows();
         
         log.info("Open input file: " + INPUT.getName());
         final SAMFileReader in  = new SAMFileReader(INPUT);
@@ -93,22 +162,28 @@ public class BamReadTrimmer extends PicardCommandLine {
         this.addProgramRecordToHead(outputHeader, this.getThisProgramRecord(programName, programDS));
         
         log.info("Open output file with header: " + OUTPUT.getName());
-        final SAMFileWriter out = new SAMFileWriterFactory().makeSAMOrBAMWriter(outputHeader,  true, OUTPUT);
+        // records are encoded and compressed in a separate thread
+        final SAMFileWriterFactory factory = new SAMFileWriterFactory();
+        factory.setUseAsyncIo(true);
+        final SAMFileWriter out = factory.makeSAMOrBAMWriter(outputHeader,  true, OUTPUT);
         
         this.TAG_TO_KEEP.add("RG");
         
-        log.info("Trimming records");
-        for (SAMRecord record : in) {
-  
-            if ( this.ONLY_FORWARD_READ && record.getReadPairedFlag() && record.getSecondOfPairFlag() ){
-                out.addAlignment( this.removeAlignment(record, outputHeader) );         
-            }else{
-                SAMRecord newRecord = this.removeAlignment(record, outputHeader);
-                SAMRecord trimmedRecord = this.trimSAMRecord(newRecord, this.FIRST_POSITION_TO_TRIM, this.TRIM_LENGTH, this.SAVE_TRIM);
-                out.addAlignment(trimmedRecord);
+        log.info("Trimming records with " + this.NUM_THREADS + " threads");
+        RecordBatchPipeline pipeline = new RecordBatchPipeline(this.NUM_THREADS, new RecordBatchPipeline.RecordProcessor() {
+            @Override
+            public void processRecord(SAMRecord record) {
+                removeAlignment(record, outputHeader);
+                if ( record.getReadPairedFlag() && record.getSecondOfPairFlag() ){
+                    trimSAMRecord(record, secondReadWindows);
+                }else{
+                    trimSAMRecord(record, firstReadWindows);
+                }
             }
-        }
+        });
+        pipeline.processRecords(in.iterator(), out);
         
+        in.close();
         out.close();
         log.info("Trimming finished, trimmied file: " + this.OUTPUT);
         
@@ -116,10 +191,72 @@ public class BamReadTrimmer extends PicardCommandLine {
     }
     
     /**
+     * Set trim windows for both read ends from the command line options
+     */
+    private void setTrimWindows() {
+
+        if( this.TRIM_WINDOW.isEmpty() ){
+            if( this.FIRST_POSITION_TO_TRIM == null || this.TRIM_LENGTH == null ){
+                throw new RuntimeException("Either TRIM_WINDOW or both FIRST_POSITION_TO_TRIM and TRIM_LENGTH must be given");
+            }
+            TrimWindow window = new TrimWindow(this.FIRST_POSITION_TO_TRIM, this.TRIM_LENGTH,
+                    this.SAVE_TRIM ? this.TRIM_BASE_TAG : null, this.SAVE_TRIM ? this.TRIM_QUALITY_TAG : null);
+            this.firstReadWindows.add(window);
+            if( !this.ONLY_FORWARD_READ ){
+                this.secondReadWindows.add(window);
+            }
+            return;
+        }
+        if( this.FIRST_POSITION_TO_TRIM != null || this.TRIM_LENGTH != null ){
+            throw new RuntimeException("TRIM_WINDOW cannot be used with FIRST_POSITION_TO_TRIM or TRIM_LENGTH");
+        }
+
+        Set<String> firstReadTags = new HashSet<String>();
+        Set<String> secondReadTags = new HashSet<String>();
+        for (String windowString : this.TRIM_WINDOW) {
+            String [] fields = windowString.split(":");
+            if( (fields.length != 3 && fields.length != 5) || !(fields[0].equals("1") || fields[0].equals("2")) ){
+                throw new RuntimeException("Invalid trim window, expecting READ:POS:LEN or READ:POS:LEN:BASE_TAG:QUALITY_TAG: " + windowString);
+            }
+            TrimWindow window;
+            try {
+                window = new TrimWindow(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]),
+                        fields.length == 5 ? fields[3] : null, fields.length == 5 ? fields[4] : null);
+            } catch (NumberFormatException ex) {
+                throw new RuntimeException("Invalid trim window position or length: " + windowString, ex);
+            }
+            boolean firstRead = fields[0].equals("1");
+            Set<String> tags = firstRead ? firstReadTags : secondReadTags;
+            if( window.baseTag != null && (!tags.add(window.baseTag) || !tags.add(window.qualityTag)) ){
+                throw new RuntimeException("Tag used by more than one trim window of the same read: " + windowString);
+            }
+            if( firstRead ){
+                this.firstReadWindows.add(window);
+            }else{
+                this.secondReadWindows.add(window);
+            }
+        }
+        sortTrimWindows(this.firstReadWindows);
+        sortTrimWindows(this.secondReadWindows);
+    }
+
+    private static void sortTrimWindows(List<TrimWindow> windows) {
+        Collections.sort(windows, WINDOW_ORDER);
+        for (int i = 1; i < windows.size(); i++) {
+            TrimWindow previous = windows.get(i - 1);
+            if( previous.firstPos + previous.length > windows.get(i).firstPos ){
+                throw new RuntimeException("Trim windows of a read overlap at position " + windows.get(i).firstPos);
+            }
+        }
+    }
+
+    /**
+     * Change the record in place into an unaligned record in its original orientation,
+     * keeping only read name, bases, qualities, pairing flags and the tags to keep
      * 
      * @param record
-     * @param header
-     * @return
+     * @param header header of the output file
+     * @return the same record
      */
     public SAMRecord removeAlignment(SAMRecord record, SAMFileHeader header){
 
@@ -127,25 +264,36 @@ public class BamReadTrimmer extends PicardCommandLine {
              SAMRecordUtil.reverseComplement(record);
         }
 
-        SAMRecord newRecord = new SAMRecord(header);
-        
-        newRecord.setReadName(record.getReadName());
-        newRecord.setBaseQualities(record.getBaseQualities());
-        newRecord.setReadBases(record.getReadBases());
-        newRecord.setFirstOfPairFlag(record.getFirstOfPairFlag());
-        newRecord.setReadPairedFlag(record.getReadPairedFlag());
-        newRecord.setSecondOfPairFlag(record.getSecondOfPairFlag());
-        newRecord.setReadUnmappedFlag(true);
-        newRecord.setMateUnmappedFlag(true);
-        
-        for(String tag: this.TAG_TO_KEEP){
-            newRecord.setAttribute(tag, record.getAttribute(tag));
+        Object[] values = this.tagValues.get();
+        if (values.length < this.TAG_TO_KEEP.size()) {
+            values = new Object[this.TAG_TO_KEEP.size()];
+            this.tagValues.set(values);
+        }
+        for(int i = 0; i < this.TAG_TO_KEEP.size(); i++){
+            values[i] = record.getAttribute(this.TAG_TO_KEEP.get(i));
+        }
+        record.clearAttributes();
+        for(int i = 0; i < this.TAG_TO_KEEP.size(); i++){
+            record.setAttribute(this.TAG_TO_KEEP.get(i), values[i]);
+            values[i] = null;
         }
+
+        record.setFlags( (record.getFlags() & PAIRING_FLAGS) | UNMAPPED_FLAGS );
+        record.setReferenceIndex(SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX);
+        record.setAlignmentStart(SAMRecord.NO_ALIGNMENT_START);
+        record.setMappingQuality(SAMRecord.NO_MAPPING_QUALITY);
+        record.setCigarString(SAMRecord.NO_ALIGNMENT_CIGAR);
+        record.setMateReferenceIndex(SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX);
+        record.setMateAlignmentStart(SAMRecord.NO_ALIGNMENT_START);
+        record.setInferredInsertSize(0);
+        record.setHeader(header);
         
-        return newRecord;
+        return record;
     }
     
     /**
+     * Trim the record, the trim position is given in the original orientation of the read,
+     * so the end of the stored bases is trimmed for a reverse strand record without reverse complementing it
      * 
      * @param record
      * @param firstPos
@@ -154,11 +302,22 @@ public class BamReadTrimmer extends PicardCommandLine {
      * @return
      */
     public SAMRecord trimSAMRecord(SAMRecord record, int firstPos, int trimLength, boolean saveTrim){
+        TrimWindow window = new TrimWindow(firstPos, trimLength,
+                saveTrim ? this.TRIM_BASE_TAG : null, saveTrim ? this.TRIM_QUALITY_TAG : null);
+        return trimSAMRecord(record, Collections.singletonList(window));
+    }
 
-        boolean reversed = false;
-        if (record.getReadNegativeStrandFlag()) {
-             SAMRecordUtil.reverseComplement(record);
-             reversed = true;
+    /**
+     * Trim several windows from the record in one pass, see trimSAMRecord
+     * 
+     * @param record
+     * @param windows not overlapping windows sorted by position
+     * @return
+     */
+    public static SAMRecord trimSAMRecord(SAMRecord record, List<TrimWindow> windows){
+
+        if( windows.isEmpty() ){
+            return record;
         }
 
         byte[] bases = record.getReadBases();
@@ -169,40 +328,54 @@ public class BamReadTrimmer extends PicardCommandLine {
             throw new RuntimeException("Read bases and qualities are not the same in lenght");
         }
 
-        final int newReadLength = readLength - trimLength;
-        
-        byte[] basesTrimmed = new byte[trimLength];
-        byte[] qualitiesTrimmed = new byte[trimLength];
-        
+        int totalTrimLength = 0;
+        for (TrimWindow window : windows) {
+            if(window.firstPos - 1 + window.length > readLength){
+                throw new RuntimeException("Trimming " + window.length + " bases from position " + window.firstPos
+                        + " is beyond the end of read " + record.getReadName());
+            }
+            totalTrimLength += window.length;
+        }
+
+        final boolean reversed = record.getReadNegativeStrandFlag();
+        final int newReadLength = readLength - totalTrimLength;
         byte[] newBases = new byte[newReadLength];
         byte[] newQualities= new byte[newReadLength];
-        
-        
-        int j = 0;
-        int k = 0;
-        
-        for(int i = 0; i<readLength; i++){
-            
-            if((i+1) >= firstPos &&  k < trimLength) {                
-                basesTrimmed[k] = bases[i];
-                qualitiesTrimmed[k] = qualities[i];
-                k++;
-            }else{
-                newBases[j] = bases[i];
-                newQualities[j] = qualities[i];
-                j++;
+
+        // copy the bases between trimmed windows, in stored order
+        int kept = 0;
+        int copyFrom = 0;
+        for (int w = 0; w < windows.size(); w++) {
+            TrimWindow window = windows.get(reversed ? windows.size() - 1 - w : w);
+            final int trimStart = reversed ? readLength - (window.firstPos - 1) - window.length : window.firstPos - 1;
+            final int trimEnd = trimStart + window.length;
+            System.arraycopy(bases, copyFrom, newBases, kept, trimStart - copyFrom);
+            System.arraycopy(qualities, copyFrom, newQualities, kept, trimStart - copyFrom);
+            kept += trimStart - copyFrom;
+            copyFrom = trimEnd;
+
+            if(window.baseTag != null){
+                // trimmed bases and qualities saved in the original orientation of the read
+                char[] basesTrimmed = new char[window.length];
+                char[] qualitiesTrimmed = new char[window.length];
+                for(int k = 0; k < window.length; k++){
+                    if(reversed){
+                        basesTrimmed[k] = (char) SequenceUtil.complement(bases[trimEnd - 1 - k]);
+                        qualitiesTrimmed[k] = (char) (qualities[trimEnd - 1 - k] + 33);
+                    }else{
+                        basesTrimmed[k] = (char) bases[trimStart + k];
+                        qualitiesTrimmed[k] = (char) (qualities[trimStart + k] + 33);
+                    }
+                }
+                record.setAttribute(window.baseTag, new String(basesTrimmed));
+                record.setAttribute(window.qualityTag, new String(qualitiesTrimmed));
             }
         }
+        System.arraycopy(bases, copyFrom, newBases, kept, readLength - copyFrom);
+        System.arraycopy(qualities, copyFrom, newQualities, kept, readLength - copyFrom);
+
         record.setReadBases(newBases);
         record.setBaseQualities(newQualities);
-        if(saveTrim){
-            record.setAttribute(this.TRIM_BASE_TAG,   BamUtils.convertByteArrayToString( basesTrimmed));
-            record.setAttribute(this.TRIM_QUALITY_TAG, BamUtils.convertPhredQualByteArrayToFastqString(qualitiesTrimmed));
-        }
-
-        if(reversed){
-           SAMRecordUtil.reverseComplement(record);
-        }
         
         return record;
     }
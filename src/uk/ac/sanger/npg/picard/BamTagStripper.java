@@ -20,23 +20,27 @@ package uk.ac.sanger.npg.picard;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.regex.Pattern;
 import net.sf.picard.cmdline.Option;
 import net.sf.picard.cmdline.StandardOptionDefinitions;
 import net.sf.picard.cmdline.Usage;
 import net.sf.picard.io.IoUtil;
 import net.sf.picard.util.Log;
 import net.sf.samtools.*;
-import net.sf.samtools.SAMRecord.SAMTagAndValue;
+import uk.ac.sanger.npg.bam.util.RawBamReader;
+import uk.ac.sanger.npg.bam.util.RawBamRecord;
+import uk.ac.sanger.npg.bam.util.RawBamWriter;
 
 /**
+ * Strip tags from each record, looking up whether to strip a tag in a table
+ * indexed by its two characters worked out before reading any record.
+ *
+ * BAM records are copied to a BAM output without decoding them,
+ * only their tag block is rewritten.
  *
  * @author gq1@sanger.ac.uk
  */
-public class BamTagStripper extends PicardCommandLine {
+public class BamTagStripper extends PicardCommandLine implements RecordStage {
     
     private final Log log = Log.getInstance(BamTagStripper.class);
     
@@ -62,6 +66,11 @@ public class BamTagStripper extends PicardCommandLine {
     @Option(shortName="STRIP", doc= "A list of tag only containing uppercase letters to strip.")
     public final List<String> TAG_TO_STRIP = new ArrayList<String>();
 
+    private static final int TAG_TABLE_SIZE = 1 << 16;
+
+    private boolean [] tagsToStrip;
+    private boolean [] strippedTags;
+
     @Override
     protected int doWork() {
 
@@ -74,46 +83,99 @@ public class BamTagStripper extends PicardCommandLine {
         
         final SAMFileHeader header = in.getFileHeader();
         final SAMFileHeader outputHeader = header.clone();
-        this.addProgramRecordToHead(outputHeader, this.getThisProgramRecord(programName, programDS));
-        
-        log.info("Open output file with header: " + OUTPUT.getName());
-        final SAMFileWriter out = new SAMFileWriterFactory().makeSAMOrBAMWriter(outputHeader,  true, OUTPUT);
+        this.startStage(outputHeader);
 
-        final HashMap<String, Boolean> tagToKeepHash = new HashMap<String,Boolean>();
-        for(final String tag : this.TAG_TO_KEEP){
-            tagToKeepHash.put(tag, true);
-        }
-        
-        final HashMap<String,Boolean> tagToRemoveHash = new HashMap<String,Boolean>();
-        for(final String tag : this.TAG_TO_STRIP){
-            tagToRemoveHash.put(tag, true);
-        }
+        // bam records are stripped without decoding them unless an index is required
+        final boolean rawStripping = in.isBinary() && !this.CREATE_INDEX && OUTPUT.getName().endsWith(".bam");
 
-        final Pattern upperCasePattern = Pattern.compile("^[A-Z][A-z0-9]$");
-        
-        final HashSet<String> strippedTagList = new HashSet<String>();
-        
+        log.info("Open output file with header: " + OUTPUT.getName());
         log.info("Start to strip tags");
-        for (final SAMRecord record : in) {
-                List<SAMTagAndValue> tagList = record.getAttributes();
-                for(final SAMTagAndValue tagAndValue : tagList){
-                    String tag = tagAndValue.tag;
-                    if( ( !upperCasePattern.matcher(tag).find() && tagToKeepHash.get(tag) == null )
-                       || tagToRemoveHash.get(tag) != null
-                      ){
-                        record.setAttribute(tag, null);
-                        strippedTagList.add(tag);
-                    }
-                }
+        if(rawStripping){
+            in.close();
+            final RawBamWriter out = new RawBamWriter(OUTPUT, outputHeader, this.CREATE_MD5_FILE, true);
+            final RawBamReader reader = new RawBamReader(INPUT);
+            final RawBamRecord record = new RawBamRecord();
+            while(reader.next(record)){
+                record.removeAttributes(this.tagsToStrip, this.strippedTags);
+                out.write(record);
+            }
+            reader.close();
+            out.close();
+        }else{
+            // records are encoded and compressed in a separate thread
+            final SAMFileWriterFactory factory = new SAMFileWriterFactory();
+            factory.setUseAsyncIo(true);
+            final SAMFileWriter out = factory.makeSAMOrBAMWriter(outputHeader,  true, OUTPUT);
+            for (final SAMRecord record : in) {
+                SAMRecordAttributeUtil.removeAttributes(record, this.tagsToStrip, this.strippedTags);
                 out.addAlignment(record);
+            }
+            out.close();
         }
-        
-        out.close();
-        log.info("Stripped tag list: " + strippedTagList.toString());
+
+        this.finishStage();
         log.info("Stripping finished, stripped file: " + this.OUTPUT);
         
         return 0;
     }
+
+    @Override
+    public void startStage(SAMFileHeader outputHeader) {
+        this.addProgramRecordToHead(outputHeader, this.getThisProgramRecord(programName, programDS));
+        this.tagsToStrip = this.getTagsToStrip();
+        this.strippedTags = new boolean[TAG_TABLE_SIZE];
+    }
+
+    @Override
+    public boolean needsReadPairs() {
+        return false;
+    }
+
+    @Override
+    public void processRecords(SAMRecord [] records) {
+        for (final SAMRecord record : records) {
+            SAMRecordAttributeUtil.removeAttributes(record, this.tagsToStrip, this.strippedTags);
+        }
+    }
+
+    /**
+     * log the tags stripped
+     */
+    @Override
+    public void finishStage() {
+        final List<String> strippedTagList = new ArrayList<String>();
+        for(int index = 0; index < TAG_TABLE_SIZE; index++){
+            if(this.strippedTags[index]){
+                strippedTagList.add(SAMTagUtil.getSingleton().makeStringTag((short) index));
+            }
+        }
+        log.info("Stripped tag list: " + strippedTagList.toString());
+    }
+
+    /**
+     * Work out whether to strip each possible tag. Tags containing lowercase letters
+     * are stripped unless in the list to keep, tags in the list to strip are always stripped.
+     *
+     * @return table indexed by binary tag as given by SAMTagUtil.makeBinaryTag, masked to 16 bits
+     */
+    boolean [] getTagsToStrip() {
+
+        final boolean [] tagsToStrip = new boolean[TAG_TABLE_SIZE];
+        for(int index = 0; index < TAG_TABLE_SIZE; index++){
+            final char first = (char) (index & 0xFF);
+            final char second = (char) (index >> 8);
+            final boolean upperCase = first >= 'A' && first <= 'Z'
+                    && ( (second >= 'A' && second <= 'z') || (second >= '0' && second <= '9') );
+            tagsToStrip[index] = !upperCase;
+        }
+        for(final String tag : this.TAG_TO_KEEP){
+            tagsToStrip[SAMTagUtil.getSingleton().makeBinaryTag(tag) & 0xFFFF] = false;
+        }
+        for(final String tag : this.TAG_TO_STRIP){
+            tagsToStrip[SAMTagUtil.getSingleton().makeBinaryTag(tag) & 0xFFFF] = true;
+        }
+        return tagsToStrip;
+    }
     
     /**
      * 
@@ -29,12 +29,17 @@ import net.sf.picard.cmdline.Usage;
 import net.sf.picard.io.IoUtil;
 import net.sf.picard.util.Log;
 import net.sf.samtools.*;
+import uk.ac.sanger.npg.bam.util.BamHeaderRewriter;
 
 /**
+ * Change the header of a SAM or BAM file.
+ *
+ * The records of a BAM input written to a BAM output are copied
+ * in their compressed BGZF blocks, only the header is written again.
  *
  * @author gq1@sanger.ac.uk
  */
-public class ChangeBamHeader extends PicardCommandLine {
+public class ChangeBamHeader extends PicardCommandLine implements RecordStage {
     
     private final Log log = Log.getInstance(ChangeBamHeader.class);
     
@@ -78,13 +83,45 @@ public class ChangeBamHeader extends PicardCommandLine {
         
         final SAMFileHeader header = in.getFileHeader();
         final SAMFileHeader outputHeader = header.clone();
-        List<SAMProgramRecord> pgList = header.getProgramRecords();
+        this.startStage(outputHeader);
+        
+        if(in.isBinary() && !this.CREATE_INDEX && OUTPUT.getName().endsWith(".bam")){
+            in.close();
+            log.info("Writing new header and copying compressed records: " + OUTPUT.getName());
+            long copied = BamHeaderRewriter.rewriteHeader(INPUT, OUTPUT, outputHeader, this.CREATE_MD5_FILE);
+            log.info(copied + " compressed bytes copied");
+            log.info("Changing header finished: " + this.OUTPUT);
+            return 0;
+        }
+
+        log.info("Open output file with header: " + OUTPUT.getName());
+        final SAMFileWriter out = new SAMFileWriterFactory().makeSAMOrBAMWriter(outputHeader,  true, OUTPUT);
+        
+        log.info("Writing out all records");
+        for (SAMRecord record : in) {
+                out.addAlignment(record);
+        }
+        
+        out.close();
+        in.close();
+        log.info("Changing header finished: " + this.OUTPUT);
+        
+        return 0;
+    }
+    
+    /**
+     * Add the extra program records, change the read group and add this program record
+     * 
+     * @param outputHeader changed in place
+     */
+    @Override
+    public void startStage(SAMFileHeader outputHeader) {
 
         if (this.PG.size() > 0) {
             log.info("Add extra PG into output header");
             for (String pg_fields : this.PG) {
                 SAMProgramRecord pg = this.getProgramRecordFromString(pg_fields);
-                pg = this.makeUniqueProgramId(pgList, pg);
+                pg = this.makeUniqueProgramId(outputHeader.getProgramRecords(), pg);
                 this.addProgramRecordToHead(outputHeader, pg);
             }
         }
@@ -110,20 +147,20 @@ public class ChangeBamHeader extends PicardCommandLine {
         }
         
         this.addProgramRecordToHead(outputHeader, this.getThisProgramRecord(programName, programDS));
-        
-        log.info("Open output file with header: " + OUTPUT.getName());
-        final SAMFileWriter out = new SAMFileWriterFactory().makeSAMOrBAMWriter(outputHeader,  true, OUTPUT);
-        
-        log.info("Writing out all records");
-        for (SAMRecord record : in) {
-                out.addAlignment(record);
-        }
-        
-        out.close();
-        in.close();
-        log.info("Changing header finished: " + this.OUTPUT);
-        
-        return 0;
+    }
+
+    @Override
+    public boolean needsReadPairs() {
+        return false;
+    }
+
+    @Override
+    public void processRecords(SAMRecord [] records) {
+        // only the header is changed
+    }
+
+    @Override
+    public void finishStage() {
     }
     
     /**
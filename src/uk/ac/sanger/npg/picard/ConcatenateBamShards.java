@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package uk.ac.sanger.npg.picard;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import net.sf.picard.cmdline.Option;
+import net.sf.picard.cmdline.StandardOptionDefinitions;
+import net.sf.picard.cmdline.Usage;
+import net.sf.picard.io.IoUtil;
+import net.sf.picard.util.Log;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.util.BlockCompressedInputStream;
+import net.sf.samtools.util.RuntimeIOException;
+import uk.ac.sanger.npg.bam.util.BamSegmentConcatenator;
+import uk.ac.sanger.npg.illumina.Illumina2bam;
+
+/**
+ * Join the headerless BGZF shards of a lane written by Illumina2bam with SHARD=true
+ * behind the lane header.
+ *
+ * The lane header is written as it is, so the output is the same as converting the lane in one go.
+ * For a BAM output the compressed blocks of the shards are copied without decompressing any record,
+ * only the header is compressed.
+ *
+ * @author agent@local
+ */
+public class ConcatenateBamShards extends PicardCommandLine {
+
+    private final Log log = Log.getInstance(ConcatenateBamShards.class);
+
+    private final String programDS = "Join the headerless BAM shards of a lane behind the lane header";
+
+    private static final byte [] BAM_MAGIC = {'B', 'A', 'M', 1};
+
+    @Usage(programVersion= version)
+    public final String USAGE = this.getStandardUsagePreamble() + this.programDS + ". ";
+
+    @Option(shortName=StandardOptionDefinitions.INPUT_SHORT_NAME, doc="The shards to join, in the order given.")
+    public final List<File> INPUT = new ArrayList<File>();
+
+    @Option(shortName="H", doc="SAM or BAM file with the lane header, "
+            + "the header file written by Illumina2bam with the first shard if not given.", optional=true)
+    public File HEADER;
+
+    @Option(shortName=StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc="The output SAM or BAM file.")
+    public File OUTPUT;
+
+    @Override
+    protected int doWork() {
+
+        this.log.info("Checking input and output file");
+        for (File shard : INPUT) {
+            IoUtil.assertFileIsReadable(shard);
+        }
+        if (HEADER == null) {
+            HEADER = Illumina2bam.getShardHeaderFile(INPUT.get(0));
+            log.info("Header file not given, using " + HEADER);
+        }
+        IoUtil.assertFileIsReadable(HEADER);
+        IoUtil.assertFileIsWritable(OUTPUT);
+
+        log.info("Reading header from: " + HEADER);
+        final SAMFileReader headerReader = new SAMFileReader(HEADER);
+        final SAMFileHeader header = headerReader.getFileHeader();
+        headerReader.close();
+
+        final BamSegmentConcatenator out = new BamSegmentConcatenator(OUTPUT, header, this.CREATE_MD5_FILE);
+        for (File shard : INPUT) {
+            if (hasBamHeader(shard)) {
+                throw new RuntimeException("Input " + shard + " is a BAM file with header, not a shard");
+            }
+            log.info("Appending shard: " + shard);
+            out.appendSegment(shard, 0);
+        }
+        out.close();
+
+        log.info(INPUT.size() + " shards joined: " + OUTPUT);
+
+        return 0;
+    }
+
+    /**
+     * @param shard
+     * @return true if the file starts with a BAM header, which a shard does not have
+     */
+    static boolean hasBamHeader(File shard) {
+
+        if (shard.length() == 0) {
+            return false;
+        }
+        try {
+            BlockCompressedInputStream in = new BlockCompressedInputStream(shard);
+            try {
+                byte [] magic = new byte[BAM_MAGIC.length];
+                int count = 0;
+                int n;
+                while (count < magic.length && (n = in.read(magic, count, magic.length - count)) > 0) {
+                    count += n;
+                }
+                return count == magic.length && Arrays.equals(magic, BAM_MAGIC);
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            throw new RuntimeIOException("Cannot read shard " + shard, ex);
+        }
+    }
+
+    /**
+     *
+     * @param argv
+     */
+    public static void main(final String[] argv) {
+        System.exit(new ConcatenateBamShards().instanceMain(argv));
+    }
+}
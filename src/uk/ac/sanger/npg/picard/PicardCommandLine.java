@@ -76,6 +76,16 @@ public abstract class PicardCommandLine extends CommandLineProgram {
         return newProgramRecord;
     }
     
+    /**
+     * Parse and validate the options of this program when it is run as a stage of another program
+     * 
+     * @param args
+     * @return false if the options are not valid, the errors and usage are printed out
+     */
+    public boolean parseStageArgs(String[] args){
+        return this.parseArgs(args);
+    }
+    
     public SAMProgramRecord makeUniqueProgramId(List<SAMProgramRecord> programList,  SAMProgramRecord programRecord){
         
         HashMap<String, Integer> programIdList = new HashMap<String, Integer>();
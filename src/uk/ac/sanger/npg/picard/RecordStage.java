@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package uk.ac.sanger.npg.picard;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+
+/**
+ * The per record logic of a command line program, so that several programs
+ * can be chained by BamPipeline reading and writing the records only once.
+ *
+ * The options of the program are parsed and validated before the stage starts.
+ *
+ * @author agent@local
+ */
+public interface RecordStage {
+
+    /**
+     * Prepare the stage before any record, and change the output header
+     * the same way as the program does, including its own program record
+     *
+     * @param header output header, changed in place
+     */
+    public void startStage(SAMFileHeader header);
+
+    /**
+     * @return true if the records of a read pair must be processed together,
+     *         false if each record can be processed on its own
+     */
+    public boolean needsReadPairs();
+
+    /**
+     * Process the records of one read or read pair, changing them in place
+     *
+     * @param records one record, or both records of a read pair with read 1 first
+     *                if the stage needs read pairs
+     */
+    public void processRecords(SAMRecord [] records);
+
+    /**
+     * Called after the last record, write out metrics or report
+     */
+    public void finishStage();
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package uk.ac.sanger.npg.picard;
+
+import java.io.File;
+import java.util.Map;
+import net.sf.picard.cmdline.Option;
+import net.sf.picard.cmdline.StandardOptionDefinitions;
+import net.sf.picard.cmdline.Usage;
+import net.sf.picard.io.IoUtil;
+import net.sf.picard.util.Log;
+import net.sf.samtools.*;
+import uk.ac.sanger.npg.illumina.CompactReadName;
+
+/**
+ * Restore the full Illumina read names of a file written by Illumina2bam with COMPACT_READ_NAME=true,
+ * from the read name prefix of the read group and the cluster coordinates tag of each record.
+ *
+ * Files of several lanes or runs merged together are restored read group by read group.
+ * The coordinates tag and the read name prefix tag of the read groups are removed.
+ *
+ * @author agent@local
+ */
+public class RestoreReadNames extends PicardCommandLine {
+
+    private final Log log = Log.getInstance(RestoreReadNames.class);
+
+    private final String programName = "RestoreReadNames";
+
+    private final String programDS = "Restore full Illumina read names from compact read names "
+            + "and the cluster coordinates tag " + CompactReadName.COORDINATES_TAG;
+
+    @Usage(programVersion= version)
+    public final String USAGE = this.getStandardUsagePreamble() + this.programDS + ". ";
+
+    @Option(shortName= StandardOptionDefinitions.INPUT_SHORT_NAME, doc="The input SAM or BAM file with compact read names.")
+    public File INPUT;
+
+    @Option(shortName=StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc="The output SAM or BAM file with full read names.")
+    public File OUTPUT;
+
+    @Override
+    protected int doWork() {
+
+        log.info("Checking input and output files");
+        IoUtil.assertFileIsReadable(this.INPUT);
+        IoUtil.assertFileIsWritable(this.OUTPUT);
+
+        log.info("Open input file: " + INPUT.getName());
+        final SAMFileReader in = new SAMFileReader(INPUT);
+        final SAMFileHeader header = in.getFileHeader();
+
+        final Map<String, String> prefixes = CompactReadName.getPrefixes(header);
+        if (prefixes.isEmpty()) {
+            in.close();
+            throw new RuntimeException("No read name prefix in the header of " + INPUT
+                    + ", not written with compact read names");
+        }
+        log.info("Read name prefixes by read group: " + prefixes);
+
+        final SAMFileHeader outputHeader = header.clone();
+        for (final SAMReadGroupRecord readGroup : outputHeader.getReadGroups()) {
+            readGroup.setAttribute(CompactReadName.READ_GROUP_PREFIX_TAG, null);
+        }
+        this.addProgramRecordToHead(outputHeader, this.getThisProgramRecord(programName, programDS));
+
+        log.info("Open output file with header: " + OUTPUT.getName());
+        final SAMFileWriter out = new SAMFileWriterFactory().makeSAMOrBAMWriter(outputHeader, true, OUTPUT);
+
+        long count = 0;
+        for (final SAMRecord record : in) {
+            final String prefix = prefixes.get(record.getStringAttribute("RG"));
+            if (prefix == null) {
+                throw new RuntimeException("No read name prefix for the read group of record " + record.getReadName());
+            }
+            if (!CompactReadName.restoreFullName(record, prefix)) {
+                throw new RuntimeException("No cluster coordinates tag " + CompactReadName.COORDINATES_TAG
+                        + " in record " + record.getReadName());
+            }
+            out.addAlignment(record);
+            count++;
+        }
+
+        in.close();
+        out.close();
+
+        log.info(count + " read names restored: " + this.OUTPUT);
+
+        return 0;
+    }
+
+    /**
+     *
+     * @param argv
+     */
+    public static void main(final String[] argv) {
+        System.exit(new RestoreReadNames().instanceMain(argv));
+    }
+}
@@ -23,12 +23,16 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.ArrayList;
+import java.util.List;
 import net.sf.picard.cmdline.Option;
 import net.sf.picard.cmdline.StandardOptionDefinitions;
 import net.sf.picard.cmdline.Usage;
 import net.sf.picard.io.IoUtil;
 import net.sf.picard.util.Log;
 import net.sf.samtools.*;
+import uk.ac.sanger.npg.bam.util.RawBamReader;
+import uk.ac.sanger.npg.bam.util.RawBamRecord;
+import uk.ac.sanger.npg.bam.util.RawBamWriter;
 
 /**
  * @author ib5@sanger.ac.uk
@@ -70,7 +74,7 @@ public class SplitBamByChromosomes extends PicardCommandLine {
     @Option(shortName="T", doc="Output SAM/BAM path for target sequences.")
         public String TARGET_PATH;
 
-    @Option(shortName="X", doc="Output SAM/BAM path for excluded sequences.")
+    @Option(shortName="X", doc="Output SAM/BAM path for excluded sequences. May only be omitted with USE_INDEX, to extract the target sequences alone.", optional=true)
         public String EXCLUDED_PATH;
 
     @Option(shortName="U", doc="Exclude read groups in which all reads are unaligned. (Groups with at least one read aligned to the target, and others unaligned, will be written to the target file.)", optional=true)
@@ -79,12 +83,24 @@ public class SplitBamByChromosomes extends PicardCommandLine {
     @Option(shortName="V", doc="Treat the S option as a list to EXCLUDE rather than TARGET, so that chimeric/unmapped read pairs remain excluded.  If S option is not provided, this option is set back to false to allow the default to continue to work)", optional=true)
         public boolean INVERT_TARGET = false;
     
+    @Option(doc="Read a coordinate sorted and indexed BAM file reference by reference using its index, "+
+            "then read the unmapped reads. The destination of each read is decided from its own and its mate's "+
+            "alignment, so mate information must be set (eg. by FixMateInformation). "+
+            "Input with secondary or supplementary alignments is rejected and no output is kept, as the other "+
+            "alignments of a template are not seen together; use the default split for such input. "+
+            "Unmapped reads which cannot go to the target output are not read if EXCLUDED_PATH is not given.", optional=true)
+        public boolean USE_INDEX = false;
+
     @Usage(programVersion= version)
         public final String USAGE = getStandardUsagePreamble()+programDS + " "; 
 
     private final int EXCLUDED_INDEX = 0;
     private final int TARGET_INDEX = 1;
 
+    // unmapped flag and whether the reference is in SUBSET for each read of the current group
+    private boolean[] groupUnmapped = new boolean[4];
+    private boolean[] groupInSubset = new boolean[4];
+
     @Override protected int doWork() {
         /*
          * 'Main' method inherited from net.sf.picard.cmdline.CommandLineProgram
@@ -102,8 +118,43 @@ public class SplitBamByChromosomes extends PicardCommandLine {
         final SAMFileReader in = new SAMFileReader(INPUT);
         final SAMFileHeader header = in.getFileHeader();
         checkSequenceDictionary(header.getSequenceDictionary());
+        if (USE_INDEX) {
+            if (header.getSortOrder() != SAMFileHeader.SortOrder.coordinate || !in.hasIndex()) {
+                throw new RuntimeException("USE_INDEX requires a coordinate sorted BAM file with index: " + INPUT);
+            }
+        } else if (EXCLUDED_PATH == null) {
+            throw new RuntimeException("EXCLUDED_PATH must be given unless USE_INDEX is true");
+        }
         log.info("Opening output files");
-        final HashMap<Integer, SAMFileWriter> writers = getWriters(header);
+        if (USE_INDEX) {
+            // records are read in coordinate order, no need to sort them again
+            final HashMap<Integer, SAMFileWriter> writers = getWriters(header, true);
+            log.info("Writing output split by @SQ subset, reading by reference");
+            boolean split = readWriteIndexedRecords(in, writers);
+            in.close();
+            for (SAMFileWriter writer : writers.values()) {
+                writer.close();
+            }
+            if (!split) {
+                deleteOutputs();
+                return 1;
+            }
+            return 0;
+        }
+        if (in.isBinary() && !CREATE_INDEX
+                && TARGET_PATH.endsWith(".bam")
+                && EXCLUDED_PATH.endsWith(".bam")) {
+            // bam to bam, copy binary records without decoding them
+            in.close();
+            final HashMap<Integer, RawBamWriter> writers = getRawWriters(header);
+            log.info("Writing output split by @SQ subset");
+            readWriteRawRecords(header, writers);
+            for (RawBamWriter writer : writers.values()) {
+                writer.close();
+            }
+            return 0;
+        }
+        final HashMap<Integer, SAMFileWriter> writers = getWriters(header, false);
         log.info("Writing output split by @SQ subset");
         readWriteRecords(in, writers);
         for (SAMFileWriter writer : writers.values()) {
@@ -140,7 +191,25 @@ public class SplitBamByChromosomes extends PicardCommandLine {
         }
     }
 
-    private HashMap<Integer, SAMFileWriter> getWriters(SAMFileHeader header) {
+    private SAMFileHeader getOutputHeader(SAMFileHeader header, int index) {
+        /*
+         * Updated SAM/BAM header for output of the given subset index
+         */
+        SAMFileHeader newHeader = header.clone();
+        SAMProgramRecord rec = getThisProgramRecord(programName, programDS);
+        String outputType;
+        if (index == TARGET_INDEX) {
+            outputType = "TARGET";
+        } else {
+            outputType = "EXCLUDED";
+        }
+        rec.setAttribute("OT", outputType);
+        newHeader.addProgramRecord(rec);
+        return newHeader;
+    }
+
+    private HashMap<Integer, SAMFileWriter> getWriters(SAMFileHeader header,
+                                                       boolean presorted) {
         /* 
          * Get map from subset indices to SAMFileWriter objects, for output
          * Updates SAM/BAM headers
@@ -152,27 +221,39 @@ public class SplitBamByChromosomes extends PicardCommandLine {
         String[] paths = {EXCLUDED_PATH, TARGET_PATH};
         int[] indices = {EXCLUDED_INDEX, TARGET_INDEX};
         for (int i=0; i<2; i++) {
+            if (paths[i] == null) {
+                continue;
+            }
             // generate updated SAM/BAM header
-            SAMFileHeader newHeader = header.clone();
-            SAMProgramRecord rec = getThisProgramRecord(programName, programDS);
-            String outputType;
-            if (indices[i] == TARGET_INDEX) {
-                outputType = "TARGET";
-            } else {
-                outputType = "EXCLUDED";
-            }
-            rec.setAttribute("OT", outputType);
-            newHeader.addProgramRecord(rec);
+            SAMFileHeader newHeader = getOutputHeader(header, indices[i]);
             // create output writer with new header and appropriate path
             File outputFile = new File(paths[i]);
             IoUtil.assertFileIsWritable(outputFile);
             SAMFileWriter out = 
-                factory.makeSAMOrBAMWriter(newHeader, false, outputFile);
+                factory.makeSAMOrBAMWriter(newHeader, presorted, outputFile);
             writers.put(indices[i], out);
         }
         return writers;
     }
 
+    private HashMap<Integer, RawBamWriter> getRawWriters(SAMFileHeader header) {
+        /*
+         * Same as getWriters, but writing binary BAM records
+         */
+        HashMap<Integer, RawBamWriter> writers =
+            new HashMap<Integer, RawBamWriter>();
+        String[] paths = {EXCLUDED_PATH, TARGET_PATH};
+        int[] indices = {EXCLUDED_INDEX, TARGET_INDEX};
+        for (int i=0; i<2; i++) {
+            SAMFileHeader newHeader = getOutputHeader(header, indices[i]);
+            File outputFile = new File(paths[i]);
+            IoUtil.assertFileIsWritable(outputFile);
+            writers.put(indices[i],
+                new RawBamWriter(outputFile, newHeader, CREATE_MD5_FILE, false));
+        }
+        return writers;
+    }
+
     private void readWriteRecords(SAMFileReader in, 
                                   HashMap<Integer, SAMFileWriter> writers) {
         /* iterate over records from input, write to appropriate output
@@ -193,6 +274,154 @@ public class SplitBamByChromosomes extends PicardCommandLine {
         writeGroup(groupOfReads, writers); // write final read group
     }
 
+    private boolean readWriteIndexedRecords(SAMFileReader in,
+                                            HashMap<Integer, SAMFileWriter> writers) {
+        /* query input reference by reference, then the unmapped reads
+           each read goes with its mate using the mate fields of the record,
+           as mates are not adjacent in coordinate sorted input
+           references outside the target are read even without excluded
+           output, to find secondary or supplementary alignments there
+           returns false if the input cannot be split this way
+         */
+        boolean allRecords = writers.containsKey(EXCLUDED_INDEX);
+        for (SAMSequenceRecord sequence :
+                 in.getFileHeader().getSequenceDictionary().getSequences()) {
+            String name = sequence.getSequenceName();
+            log.info("Reading reference " + name);
+            SAMRecordIterator iterator = in.query(name, 0, 0, false);
+            boolean split = writeIndexedRecords(iterator, writers);
+            iterator.close();
+            if (!split) {
+                return false;
+            }
+        }
+        if (allRecords || !EXCLUDE_UNALIGNED) {
+            log.info("Reading unmapped reads");
+            SAMRecordIterator iterator = in.queryUnmapped();
+            boolean split = writeIndexedRecords(iterator, writers);
+            iterator.close();
+            return split;
+        }
+        return true;
+    }
+
+    private boolean writeIndexedRecords(SAMRecordIterator iterator,
+                                        HashMap<Integer, SAMFileWriter> writers) {
+        /*
+         * Write each read to the destination of the group made of the
+         * read and its mate, see writeGroup
+         * Reads for the excluded output are dropped if it is not given
+         * A template with other alignments could go to excluded because
+         * of an alignment not seen here, so such input is rejected
+         */
+        while (iterator.hasNext()) {
+            SAMRecord rec = iterator.next();
+            if (rec.isSecondaryOrSupplementary()
+                    || rec.getAttribute("SA") != null) {
+                log.error("USE_INDEX can not split input with secondary or supplementary alignments, found for read "
+                        + rec.getReadName() + ", split without USE_INDEX");
+                return false;
+            }
+            groupUnmapped[0] = rec.getReadUnmappedFlag();
+            groupInSubset[0] = SUBSET.contains(rec.getReferenceName());
+            int groupSize = 1;
+            if (rec.getReadPairedFlag()) {
+                groupUnmapped[1] = rec.getMateUnmappedFlag();
+                groupInSubset[1] = SUBSET.contains(rec.getMateReferenceName());
+                groupSize = 2;
+            }
+            SAMFileWriter writer = writers.get(getDestination(groupSize));
+            if (writer != null) {
+                writer.addAlignment(rec);
+            }
+        }
+        return true;
+    }
+
+    private void deleteOutputs() {
+        /*
+         * Remove the outputs of an indexed split which could not finish,
+         * with their md5 and index files
+         */
+        for (String path : new String[]{EXCLUDED_PATH, TARGET_PATH}) {
+            if (path == null) {
+                continue;
+            }
+            File outputFile = new File(path);
+            outputFile.delete();
+            new File(path + ".md5").delete();
+            new File(path.replaceFirst("\\.bam$", "") + ".bai").delete();
+        }
+    }
+
+    private void readWriteRawRecords(SAMFileHeader header,
+                                     HashMap<Integer, RawBamWriter> writers) {
+        /* same as readWriteRecords, reading binary BAM records
+           only flag, reference index and read name are decoded
+         */
+        List<SAMSequenceRecord> sequences =
+            header.getSequenceDictionary().getSequences();
+        boolean[] referenceInSubset = new boolean[sequences.size()];
+        for (SAMSequenceRecord sequence : sequences) {
+            referenceInSubset[sequence.getSequenceIndex()] =
+                SUBSET.contains(sequence.getSequenceName());
+        }
+
+        RawBamReader reader = new RawBamReader(INPUT);
+        // records of the current group, kept for reuse
+        ArrayList<RawBamRecord> groupOfReads = new ArrayList<RawBamRecord>();
+        groupOfReads.add(new RawBamRecord());
+        int groupSize = 0;
+        while (reader.next(groupOfReads.get(groupSize))) {
+            RawBamRecord rec = groupOfReads.get(groupSize);
+            if (groupSize > 0 && !rec.readNameEquals(groupOfReads.get(0))) {
+                // start of new read group; write previous group to file
+                writeRawGroup(groupOfReads, groupSize, referenceInSubset, writers);
+                // move current record to the start of the group
+                groupOfReads.set(groupSize, groupOfReads.get(0));
+                groupOfReads.set(0, rec);
+                groupSize = 0;
+            }
+            groupSize++;
+            if (groupSize == groupOfReads.size()) {
+                groupOfReads.add(new RawBamRecord());
+            }
+        }
+        if (groupSize > 0) {
+            writeRawGroup(groupOfReads, groupSize, referenceInSubset, writers); // write final read group
+        }
+        reader.close();
+    }
+
+    private void writeRawGroup(ArrayList<RawBamRecord> groupOfReads,
+                               int groupSize,
+                               boolean[] referenceInSubset,
+                               HashMap<Integer, RawBamWriter> writers) {
+        /*
+         * Write a group of binary BAM records, see writeGroup
+         */
+        ensureGroupCapacity(groupSize);
+        for (int i=0; i<groupSize; i++) {
+            RawBamRecord rec = groupOfReads.get(i);
+            int referenceIndex = rec.getReferenceIndex();
+            groupUnmapped[i] = rec.getReadUnmappedFlag();
+            groupInSubset[i] = referenceIndex >= 0
+                && referenceIndex < referenceInSubset.length
+                && referenceInSubset[referenceIndex];
+        }
+        RawBamWriter writer = writers.get(getDestination(groupSize));
+        for (int i=0; i<groupSize; i++) {
+            writer.write(groupOfReads.get(i));
+        }
+    }
+
+    private void ensureGroupCapacity(int groupSize) {
+        if (groupUnmapped.length < groupSize) {
+            groupUnmapped = new boolean[groupSize * 2];
+            groupInSubset = new boolean[groupSize * 2];
+        }
+    }
+
     private void writeGroup(ArrayList<SAMRecord> groupOfReads,
                             HashMap<Integer, SAMFileWriter> writers) {
         /*
@@ -207,14 +436,34 @@ public class SplitBamByChromosomes extends PicardCommandLine {
          * 1. Paired reads go to the same file, AND
          * 2. Reads which align to "unconsented" references go to excluded file
          */
+        int groupSize = groupOfReads.size();
+        ensureGroupCapacity(groupSize);
+        for (int i=0; i<groupSize; i++) {
+            SAMRecord rec = groupOfReads.get(i);
+            groupUnmapped[i] = rec.getReadUnmappedFlag();
+            groupInSubset[i] = SUBSET.contains(rec.getReferenceName());
+        }
+        int destination = getDestination(groupSize);
+        
+        for (SAMRecord rec: groupOfReads) {
+            // second pass -- write all reads to appropriate file
+            writers.get(destination).addAlignment(rec);
+        }
+    }
+
+    private int getDestination(int groupSize) {
+        /*
+         * Destination of a group of reads, using the unmapped flag and
+         * whether the reference is in SUBSET of each read in the group
+         */
         int destination = TARGET_INDEX;
                 
         boolean unaligned = true; // are all reads unaligned?
-        for (SAMRecord rec: groupOfReads) {
+        for (int i=0; i<groupSize; i++) {
             // first pass -- check for reads not in SUBSET
-            if  (!(rec.getReadUnmappedFlag())) {
+            if  (!(groupUnmapped[i])) {
                 if (( INVERT_TARGET) ^
-                    (!(SUBSET.contains(rec.getReferenceName()))))
+                    (!(groupInSubset[i])))
                 {
                     destination = EXCLUDED_INDEX;
                     break;
@@ -231,11 +480,7 @@ public class SplitBamByChromosomes extends PicardCommandLine {
         if (unaligned && EXCLUDE_UNALIGNED && destination==TARGET_INDEX) {
             destination = EXCLUDED_INDEX;
         }
-        
-        for (SAMRecord rec: groupOfReads) {
-            // second pass -- write all reads to appropriate file
-            writers.get(destination).addAlignment(rec);
-        }
+        return destination;
     }
     
     public static void main(final String[] args) {        
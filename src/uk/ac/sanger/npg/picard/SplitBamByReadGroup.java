@@ -28,6 +28,9 @@ import net.sf.picard.cmdline.Usage;
 import net.sf.picard.io.IoUtil;
 import net.sf.picard.util.Log;
 import net.sf.samtools.*;
+import uk.ac.sanger.npg.bam.util.RawBamReader;
+import uk.ac.sanger.npg.bam.util.RawBamRecord;
+import uk.ac.sanger.npg.bam.util.RawBamWriter;
 
 /**
  *
@@ -73,8 +76,15 @@ public class SplitBamByReadGroup extends PicardCommandLine {
         }
 
         
+        // bam records are routed without decoding them unless an index is required
+        final boolean rawRouting = in.isBinary() && !this.CREATE_INDEX;
+
         log.info("Open a list of output file based on the read groups in the input header");        
-        HashMap<String, SAMFileWriter> outputFileList = new HashMap<String, SAMFileWriter>();
+        HashMap<String, ReadGroupOutput> outputFileList = new HashMap<String, ReadGroupOutput>();
+
+        // each output file is compressed and written by its own thread fed by a bounded queue
+        final SAMFileWriterFactory writerFactory = new SAMFileWriterFactory();
+        writerFactory.setUseAsyncIo(true);
     
         for(SAMReadGroupRecord rg: readGroupList){
             
@@ -104,13 +114,42 @@ public class SplitBamByReadGroup extends PicardCommandLine {
 
             this.addProgramRecordToHead(newHeader, this.getThisProgramRecord(programName, programDS));
             
-            final SAMFileWriter out = new SAMFileWriterFactory().makeSAMOrBAMWriter(newHeader,  true, outputFile);
-            
-            outputFileList.put(id, out);
+            if(rawRouting){
+                outputFileList.put(id, new ReadGroupOutput(outputFile, new RawBamWriter(outputFile, newHeader, this.CREATE_MD5_FILE, true)));
+            }else{
+                final SAMFileWriter out = writerFactory.makeSAMOrBAMWriter(newHeader,  true, outputFile);
+                outputFileList.put(id, new ReadGroupOutput(outputFile, out));
+            }
         }
         
         
         log.info("Spliting the input file now");
+        if(rawRouting){
+            in.close();
+            this.splitRawRecords(outputFileList);
+        }else{
+            this.splitRecords(in, outputFileList);
+        }
+        
+        
+        log.info("Close the output files");
+        for(ReadGroupOutput out : outputFileList.values()){
+            out.close();
+        }
+
+        for(SAMReadGroupRecord rg: readGroupList){
+            ReadGroupOutput out = outputFileList.get(rg.getId());
+            log.info("Read group " + rg.getId() + ": " + out.recordCount + " records, "
+                    + out.file.length() + " bytes written to " + out.file.getName());
+        }
+        
+        log.info("Splitting finished");
+        
+        return 0;
+    }
+    
+    private void splitRecords(SAMFileReader in, HashMap<String, ReadGroupOutput> outputFileList){
+
         for(SAMRecord rec: in){
             String rgId = (String) rec.getAttribute("RG");
             
@@ -118,22 +157,71 @@ public class SplitBamByReadGroup extends PicardCommandLine {
                 throw new RuntimeException("Record without read group id: " + rec.getReadName());
             }
             
-            SAMFileWriter out = outputFileList.get(rgId);
+            ReadGroupOutput out = outputFileList.get(rgId);
             if( out == null ){
                 throw new RuntimeException("Read group id does not exist in the header: " + rgId +  " in record " + rec.getReadName());
             }
-            outputFileList.get(rgId).addAlignment(rec);
+            out.writer.addAlignment(rec);
+            out.recordCount++;
         }
-        
-        
-        log.info("Close the output files");
-        for(SAMFileWriter out : outputFileList.values()){
-            out.close();
+    }
+    
+    /**
+     * Copy the binary bam records to the output of their read group,
+     * only the read group tag is decoded
+     * 
+     * @param outputFileList 
+     */
+    private void splitRawRecords(HashMap<String, ReadGroupOutput> outputFileList){
+
+        final RawBamReader reader = new RawBamReader(INPUT);
+        final RawBamRecord rec = new RawBamRecord();
+        while(reader.next(rec)){
+            String rgId = rec.getStringAttribute("RG");
+            
+            if( rgId == null ){
+                throw new RuntimeException("Record without read group id: " + rec.getReadName());
+            }
+            
+            ReadGroupOutput out = outputFileList.get(rgId);
+            if( out == null ){
+                throw new RuntimeException("Read group id does not exist in the header: " + rgId +  " in record " + rec.getReadName());
+            }
+            out.rawWriter.write(rec);
+            out.recordCount++;
+        }
+        reader.close();
+    }
+    
+    /**
+     * output file, writer and number of records written for one read group
+     */
+    private static class ReadGroupOutput {
+
+        private final File file;
+        private final SAMFileWriter writer;
+        private final RawBamWriter rawWriter;
+        private long recordCount = 0;
+
+        ReadGroupOutput(File file, SAMFileWriter writer){
+            this.file = file;
+            this.writer = writer;
+            this.rawWriter = null;
+        }
+
+        ReadGroupOutput(File file, RawBamWriter rawWriter){
+            this.file = file;
+            this.writer = null;
+            this.rawWriter = rawWriter;
+        }
+
+        void close(){
+            if( this.writer != null ){
+                this.writer.close();
+            }else{
+                this.rawWriter.close();
+            }
         }
-        
-        log.info("Splitting finished");
-        
-        return 0;
     }
     
     public static void main(final String[] args) {
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package net.sf.samtools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import net.sf.samtools.SAMRecord.SAMTagAndValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+import org.junit.Test;
+
+/**
+ * This is the test class for SAMRecordAttributeUtil
+ *
+ * @author agent@local
+ */
+public class SAMRecordAttributeUtilTest {
+
+    private static final SAMFileHeader header = new SAMFileHeader();
+
+    public SAMRecordAttributeUtilTest() {
+        SAMFileReader.setDefaultValidationStringency(SAMFileReader.ValidationStringency.SILENT);
+    }
+
+    private static SAMRecord newRecord(){
+        SAMRecord record = new SAMRecord(header);
+        record.setReadName("IL33_6284:8:112:1234:5678");
+        record.setReadString("ACGTACGTAC");
+        record.setBaseQualityString("ABCDEFGHIJ");
+        record.setReadUnmappedFlag(true);
+        return record;
+    }
+
+    /**
+     * alignment with 5 tags, unmapped record with 12 tags, 3 of them in both records
+     */
+    static SAMRecord[] newRecordPair(){
+
+        SAMRecord alignment = newRecord();
+        alignment.setAttribute("NM", 1);
+        alignment.setAttribute("MD", "10");
+        alignment.setAttribute("AS", 35);
+        alignment.setAttribute("XS", 0);
+        alignment.setAttribute("RG", "1#2");
+
+        SAMRecord record = newRecord();
+        record.setAttribute("RG", "1");
+        record.setAttribute("BC", "ACAACGCA");
+        record.setAttribute("QT", "CCCFFFFF");
+        record.setAttribute("ci", 123);
+        record.setAttribute("ZQ", "qc");
+        record.setAttribute("ZZ", 'c');
+        record.setAttribute("E2", "ACGTACGTAC");
+        record.setAttribute("OQ", "ABCDEFGHIJ");
+        record.setAttribute("XS", 8);
+        record.setAttribute("MD", "4A5");
+        record.setAttribute("tr", 1.5F);
+        record.setUnsignedArrayAttribute("za", new byte[]{1, 2, 3});
+
+        return new SAMRecord[]{alignment, record};
+    }
+
+    static void mergeOneByOne(SAMRecord alignment, SAMRecord record){
+        for(SAMTagAndValue attribute : record.getAttributes()){
+            if( alignment.getAttribute(attribute.tag) == null && attribute.value != null ){
+                alignment.setAttribute(attribute.tag, attribute.value);
+            }
+        }
+    }
+
+    static void assertSameAttributes(SAMRecord expected, SAMRecord actual){
+        List<SAMTagAndValue> expectedList = expected.getAttributes();
+        List<SAMTagAndValue> actualList = actual.getAttributes();
+        assertEquals(expectedList.size(), actualList.size());
+        for(int i = 0; i < expectedList.size(); i++){
+            assertEquals(expectedList.get(i).tag, actualList.get(i).tag);
+            Object expectedValue = expectedList.get(i).value;
+            if( expectedValue instanceof byte [] ){
+                assertArrayEquals((byte []) expectedValue, (byte []) actualList.get(i).value);
+            }else{
+                assertEquals(expectedValue, actualList.get(i).value);
+            }
+        }
+    }
+
+    /**
+     * Test of mergeMissingAttributes method, same result as adding tag one by one.
+     */
+    @Test
+    public void testMergeMissingAttributes() {
+
+        System.out.println("mergeMissingAttributes");
+
+        SAMRecord[] pair = newRecordPair();
+        SAMRecord[] expected = newRecordPair();
+        mergeOneByOne(expected[0], expected[1]);
+
+        assertEquals(9, SAMRecordAttributeUtil.mergeMissingAttributes(pair[0], pair[1]));
+        assertSameAttributes(expected[0], pair[0]);
+        assertEquals("1#2", pair[0].getAttribute("RG"));
+        assertEquals(0, pair[0].getAttribute("XS"));
+        assertEquals(true, pair[0].isUnsignedArrayAttribute("za"));
+        assertEquals(12, pair[1].getAttributes().size());
+
+        assertEquals(0, SAMRecordAttributeUtil.mergeMissingAttributes(pair[0], pair[1]));
+        assertEquals(0, SAMRecordAttributeUtil.mergeMissingAttributes(pair[0], newRecord()));
+
+        SAMRecord noAttributes = newRecord();
+        assertEquals(12, SAMRecordAttributeUtil.mergeMissingAttributes(noAttributes, pair[1]));
+        assertSameAttributes(pair[1], noAttributes);
+    }
+
+    /**
+     * Test of mergeMissingAttributes method with records read from a bam file
+     */
+    @Test
+    public void testMergeMissingAttributesBAMRecord() throws IOException {
+
+        System.out.println("mergeMissingAttributes BAMRecord");
+
+        File bamFile = File.createTempFile("merge_attributes", ".bam", new File("testdata"));
+        bamFile.deleteOnExit();
+        File mergedBamFile = File.createTempFile("merge_attributes_merged", ".bam", new File("testdata"));
+        mergedBamFile.deleteOnExit();
+
+        SAMRecord[] pair = newRecordPair();
+        SAMFileWriter writer = new SAMFileWriterFactory().makeBAMWriter(header, true, bamFile);
+        writer.addAlignment(pair[0]);
+        writer.addAlignment(pair[1]);
+        writer.close();
+
+        SAMFileReader reader = new SAMFileReader(bamFile);
+        SAMRecordIterator iterator = reader.iterator();
+        SAMRecord alignment = iterator.next();
+        SAMRecord record = iterator.next();
+        reader.close();
+        assertEquals(true, alignment instanceof BAMRecord);
+
+        SAMRecordAttributeUtil.mergeMissingAttributes(alignment, record);
+        writer = new SAMFileWriterFactory().makeBAMWriter(header, true, mergedBamFile);
+        writer.addAlignment(alignment);
+        writer.close();
+
+        reader = new SAMFileReader(mergedBamFile);
+        SAMRecord merged = reader.iterator().next();
+        reader.close();
+
+        SAMRecord[] expected = newRecordPair();
+        mergeOneByOne(expected[0], expected[1]);
+        assertSameAttributes(expected[0], merged);
+    }
+
+    /**
+     * Test of removeAttributes method, same result as removing tag one by one.
+     */
+    @Test
+    public void testRemoveAttributes() {
+
+        System.out.println("removeAttributes");
+
+        SAMRecord record = newRecordPair()[1];
+        SAMRecord expected = newRecordPair()[1];
+        String[] tags = {"ci", "OQ", "tr", "za"};
+        boolean[] tagsToRemove = new boolean[1 << 16];
+        for(String tag : tags){
+            tagsToRemove[SAMTagUtil.getSingleton().makeBinaryTag(tag) & 0xFFFF] = true;
+            expected.setAttribute(tag, null);
+        }
+        tagsToRemove[SAMTagUtil.getSingleton().makeBinaryTag("NM") & 0xFFFF] = true;
+
+        boolean[] removedTags = new boolean[1 << 16];
+        assertEquals(4, SAMRecordAttributeUtil.removeAttributes(record, tagsToRemove, removedTags));
+        assertSameAttributes(expected, record);
+        assertEquals(true, removedTags[SAMTagUtil.getSingleton().makeBinaryTag("za") & 0xFFFF]);
+        assertEquals(false, removedTags[SAMTagUtil.getSingleton().makeBinaryTag("NM") & 0xFFFF]);
+
+        assertEquals(0, SAMRecordAttributeUtil.removeAttributes(record, tagsToRemove, null));
+        assertEquals(0, SAMRecordAttributeUtil.removeAttributes(newRecord(), tagsToRemove, null));
+
+        SAMRecord alignment = newRecordPair()[0];
+        Arrays.fill(tagsToRemove, true);
+        assertEquals(5, SAMRecordAttributeUtil.removeAttributes(alignment, tagsToRemove, null));
+        assertEquals(0, alignment.getAttributes().size());
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package uk.ac.sanger.npg.bam.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMRecord;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import org.junit.Test;
+import uk.ac.sanger.npg.bam.util.AlignmentGroupIterator.AlignmentGroup;
+
+/**
+ * This is the test class for AlignmentGroupIterator
+ *
+ * @author agent@local
+ */
+public class AlignmentGroupIteratorTest {
+
+    /**
+     * Test of grouping primary and supplementary alignments
+     */
+    @Test
+    public void testGroups() {
+
+        System.out.println("AlignmentGroupIterator");
+
+        SAMFileReader reader = new SAMFileReader(new File("testdata/bam/6210_8_aligned_supp.sam"));
+        reader.setValidationStringency(SAMFileReader.ValidationStringency.SILENT);
+        AlignmentGroupIterator groups = new AlignmentGroupIterator(reader.iterator());
+
+        int [] expectedPrimaryFlags = {99, 147, 99, 147, 83, 163};
+        int [][] expectedSecondaryFlags = {{371, 2163}, {}, {}, {}, {}, {}};
+
+        for(int i = 0; i < expectedPrimaryFlags.length; i++){
+            AlignmentGroup group = groups.next();
+            assertEquals(expectedPrimaryFlags[i], group.getPrimary().getFlags());
+            assertEquals(expectedSecondaryFlags[i].length, group.getSecondaryAlignments().size());
+            for(int j = 0; j < expectedSecondaryFlags[i].length; j++){
+                assertEquals(expectedSecondaryFlags[i][j], group.getSecondaryAlignments().get(j).getFlags());
+            }
+        }
+        assertFalse(groups.hasNext());
+        reader.close();
+    }
+
+    /**
+     * Test of a supplementary alignment without primary
+     */
+    @Test(expected=RuntimeException.class)
+    public void testNoPrimary() {
+
+        System.out.println("AlignmentGroupIterator no primary");
+
+        SAMFileHeader header = new SAMFileHeader();
+        List<SAMRecord> records = new ArrayList<SAMRecord>();
+
+        SAMRecord supplementary = new SAMRecord(header);
+        supplementary.setReadName("read1");
+        supplementary.setSupplementaryAlignmentFlag(true);
+        records.add(supplementary);
+
+        SAMRecord primary = new SAMRecord(header);
+        primary.setReadName("read2");
+        records.add(primary);
+
+        new AlignmentGroupIterator(records.iterator()).next();
+    }
+}
@@ -21,6 +21,8 @@
 package uk.ac.sanger.npg.bam.util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
 /**
@@ -52,4 +54,22 @@ public class BamUtilsTest {
         String result = BamUtils.convertByteArrayToString(array);
        assertEquals(expResult, result);
     }
+
+    /**
+     * Test of isCramFile and isCramFormat methods, of class BamUtils.
+     */
+    @Test
+    public void testIsCram() {
+        System.out.println("isCram");
+        assertTrue(BamUtils.isCramFile("6383_8.cram"));
+        assertTrue(BamUtils.isCramFile("6383_8.CRAM"));
+        assertFalse(BamUtils.isCramFile("6383_8.bam"));
+        assertFalse(BamUtils.isCramFile("scram"));
+        assertFalse(BamUtils.isCramFile("6383_8.nocram"));
+        assertFalse(BamUtils.isCramFile(null));
+        assertTrue(BamUtils.isCramFormat("cram"));
+        assertTrue(BamUtils.isCramFormat("CRAM"));
+        assertFalse(BamUtils.isCramFormat("scram"));
+        assertFalse(BamUtils.isCramFormat(null));
+    }
 }
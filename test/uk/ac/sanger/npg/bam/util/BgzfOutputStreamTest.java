@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package uk.ac.sanger.npg.bam.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import net.sf.samtools.util.BlockCompressedInputStream;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * This is the test class for BgzfOutputStream
+ *
+ * @author agent@local
+ */
+public class BgzfOutputStreamTest {
+
+    private static byte [] readAll(File file, int length) throws IOException {
+        BlockCompressedInputStream in = new BlockCompressedInputStream(file);
+        byte [] bytes = new byte[length];
+        int count = 0;
+        int n;
+        while (count < length && (n = in.read(bytes, count, length - count)) > 0) {
+            count += n;
+        }
+        assertEquals(length, count);
+        assertEquals("no more bytes", -1, in.read());
+        in.close();
+        return bytes;
+    }
+
+    /**
+     * Test of writing several blocks of random bytes, stored when not compressible
+     */
+    @Test
+    public void testWrite() throws IOException {
+        System.out.println("write");
+
+        byte [] bytes = new byte[200000];
+        new Random(7).nextBytes(bytes);
+
+        File terminated = new File("testdata/test_bgzf_terminated.gz");
+        terminated.deleteOnExit();
+        BgzfOutputStream out = new BgzfOutputStream(new FileOutputStream(terminated), 9, true);
+        out.write(bytes, 0, 1000);
+        out.write(bytes[1000]);
+        out.write(bytes, 1001, bytes.length - 1001);
+        out.close();
+        assertArrayEquals(bytes, readAll(terminated, bytes.length));
+        assertEquals(BlockCompressedInputStream.FileTermination.HAS_TERMINATOR_BLOCK,
+                BlockCompressedInputStream.checkTermination(terminated));
+
+        // finished without end of file marker block, the file stream left open
+        File segment = new File("testdata/test_bgzf_segment.gz");
+        segment.deleteOnExit();
+        FileOutputStream fileStream = new FileOutputStream(segment);
+        out = new BgzfOutputStream(fileStream, 0, false);
+        out.write(bytes);
+        out.finish();
+        out.finish();
+        fileStream.close();
+        assertEquals(BlockCompressedInputStream.FileTermination.HAS_HEALTHY_LAST_BLOCK,
+                BlockCompressedInputStream.checkTermination(segment));
+        assertArrayEquals(bytes, readAll(segment, bytes.length));
+    }
+}
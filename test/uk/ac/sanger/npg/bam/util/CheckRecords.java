@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package uk.ac.sanger.npg.bam.util;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Iterator;
+import net.sf.samtools.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compare the content of SAM/BAM files in tests
+ *
+ * @author agent@local
+ */
+public class CheckRecords {
+
+    /**
+     * write a SAM file into a BAM file
+     *
+     * @param samFile
+     * @param bamFile
+     */
+    public static void convertToBam(File samFile, File bamFile) {
+
+        final SAMFileReader in = new SAMFileReader(samFile);
+        final SAMFileWriter out = new SAMFileWriterFactory().makeBAMWriter(in.getFileHeader(), true, bamFile);
+        for (final SAMRecord record : in) {
+            out.addAlignment(record);
+        }
+        out.close();
+        in.close();
+    }
+
+    /**
+     * Check both files have the same header and the same records in the same order,
+     * ignoring the command lines in the header and the order of the tags in each record
+     *
+     * @param expectedFile
+     * @param actualFile
+     */
+    public static void assertSameRecords(File expectedFile, File actualFile) {
+
+        final SAMFileReader expected = new SAMFileReader(expectedFile);
+        final SAMFileReader actual = new SAMFileReader(actualFile);
+
+        assertEquals(getHeaderWithoutCommandLine(expected.getFileHeader()), getHeaderWithoutCommandLine(actual.getFileHeader()));
+
+        Iterator<SAMRecord> expectedIterator = expected.iterator();
+        Iterator<SAMRecord> actualIterator = actual.iterator();
+        while (expectedIterator.hasNext()) {
+            assertTrue(actualIterator.hasNext());
+            assertEquals(getSortedSAMString(expectedIterator.next()), getSortedSAMString(actualIterator.next()));
+        }
+        assertFalse(actualIterator.hasNext());
+
+        expected.close();
+        actual.close();
+    }
+
+    private static String getHeaderWithoutCommandLine(SAMFileHeader header) {
+        for (SAMProgramRecord programRecord : header.getProgramRecords()) {
+            programRecord.setCommandLine(null);
+        }
+        StringWriter headerText = new StringWriter();
+        new SAMTextHeaderCodec().encode(headerText, header);
+        return headerText.toString();
+    }
+
+    private static String getSortedSAMString(SAMRecord record) {
+        String [] fields = record.getSAMString().trim().split("\t");
+        Arrays.sort(fields, 11, fields.length);
+        return Arrays.toString(fields);
+    }
+}
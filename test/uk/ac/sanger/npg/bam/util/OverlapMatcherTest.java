@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package uk.ac.sanger.npg.bam.util;
+
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * This is the test class for OverlapMatcher
+ *
+ * @author agent@local
+ */
+public class OverlapMatcherTest {
+
+    private final OverlapMatcher matcher = new OverlapMatcher();
+
+    /**
+     * Test of the example overlap in BamAdapterFinder
+     */
+    @Test
+    public void testFindOverlap() {
+        System.out.println("OverlapMatcher findOverlap");
+        byte [] bases1 = "TTAATGTCTTATGATGTTGTGTGCCTGCTGGCATTTGTTAAACAAAATCATTGATTAACAATCATAGATCGGAAG".getBytes();
+        byte [] bases2 = "CTTCCGATCTTTAATGTCTTATGATGTTGTGTGCCTGCTGGCATTTGTTAAACAAAATCATTGATTAACAATCAT".getBytes();
+        assertEquals(10, matcher.findOverlap(bases1, bases2, bases1.length, 32, 10.0));
+        assertEquals(OverlapMatcher.NONE_FOUND, matcher.findOverlap(bases1, bases2, bases1.length, 70, 10.0));
+    }
+
+    /**
+     * Test the same offsets are found as comparing base by base, for random sequences of many lengths
+     */
+    @Test
+    public void testSameAsBaseByBase() {
+        System.out.println("OverlapMatcher same as base by base");
+        Random random = new Random(6210);
+        byte [] alphabet = "ACGTN".getBytes();
+        for (int n = 0; n < 2000; n++) {
+            int length = 1 + random.nextInt(200);
+            byte [] bases1 = new byte[length];
+            byte [] bases2 = new byte[length + random.nextInt(3)];
+            for (int i = 0; i < bases1.length; i++) {
+                bases1[i] = alphabet[random.nextInt(alphabet.length)];
+            }
+            for (int i = 0; i < bases2.length; i++) {
+                bases2[i] = alphabet[random.nextInt(alphabet.length)];
+            }
+            // plant an overlap with some errors
+            int offset = 1 + random.nextInt(length);
+            for (int i = 0; i + offset < length; i++) {
+                bases2[offset + i] = random.nextInt(20) == 0 ? alphabet[random.nextInt(4)] : bases1[i];
+            }
+            int minOverlap = random.nextInt(40);
+            double pctMismatches = random.nextInt(20);
+            assertEquals(findOverlapBaseByBase(bases1, bases2, length, minOverlap, pctMismatches),
+                    matcher.findOverlap(bases1, bases2, length, minOverlap, pctMismatches));
+        }
+    }
+
+    private static int findOverlapBaseByBase(byte [] bases1, byte [] bases2, int length, int minOverlap, double pctMismatches) {
+        for (int offset = 1; offset <= length - minOverlap; offset++) {
+            int overlapSize = length - offset;
+            int allowedMismatches = (int)((double)overlapSize*pctMismatches/100.0);
+            int mismatches = 0;
+            for (int i = 0; i < overlapSize; i++) {
+                if (bases1[i] != bases2[offset + i]) {
+                    mismatches++;
+                }
+            }
+            if (mismatches <= allowedMismatches) {
+                return offset;
+            }
+        }
+        return OverlapMatcher.NONE_FOUND;
+    }
+}
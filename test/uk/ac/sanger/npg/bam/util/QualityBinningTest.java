@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package uk.ac.sanger.npg.bam.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * This is the test class for QualityBinning
+ *
+ * @author agent@local
+ */
+public class QualityBinningTest {
+
+    /**
+     * Test of parsing bins given on several lines
+     */
+    @Test
+    public void testParseBins() {
+        System.out.println("QualityBinning parse");
+        QualityBinning binning = new QualityBinning("# four levels\n0->1=0, 2->14=12\n15->29=23,30->63=37\n");
+        assertEquals("0->1=0,2->14=12,15->29=23,30->63=37", binning.toString());
+
+        byte [] quals = {0, 1, 2, 14, 15, 29, 30, 41, 63};
+        byte [] expected = {0, 0, 12, 12, 23, 23, 37, 37, 37};
+        assertArrayEquals(expected, binning.quantise(quals));
+    }
+
+    /**
+     * Test of quantising a fastq quality string
+     */
+    @Test
+    public void testQuantiseString() {
+        System.out.println("QualityBinning quantise string");
+        QualityBinning binning = new QualityBinning(QualityBinning.SANGER_BINS);
+        byte [] expected = {0, 6, 15, 37, 41};
+        assertArrayEquals(expected, binning.quantise("!%/GJ", new byte[5]));
+    }
+
+    /**
+     * Test of a score not in any bin
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidScore() {
+        System.out.println("QualityBinning invalid score");
+        new QualityBinning(QualityBinning.SANGER_BINS).getQuantisedScore((byte) 60);
+    }
+
+    /**
+     * Test of a badly formatted bin
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidBin() {
+        System.out.println("QualityBinning invalid bin");
+        new QualityBinning("1-9=6");
+    }
+}
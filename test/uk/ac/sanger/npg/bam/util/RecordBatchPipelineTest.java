@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package uk.ac.sanger.npg.bam.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMRecord;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author agent@local
+ */
+public class RecordBatchPipelineTest {
+
+    private static List<SAMRecord> createRecords(int count) {
+        SAMFileHeader header = new SAMFileHeader();
+        List<SAMRecord> records = new ArrayList<SAMRecord>(count);
+        for (int i = 0; i < count; i++) {
+            SAMRecord record = new SAMRecord(header);
+            record.setReadName("read" + i);
+            records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     * keep the records written in a list
+     */
+    private static class ListWriter implements SAMFileWriter {
+
+        private final List<SAMRecord> records = new ArrayList<SAMRecord>();
+
+        @Override
+        public void addAlignment(SAMRecord record) {
+            records.add(record);
+        }
+
+        @Override
+        public SAMFileHeader getFileHeader() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testProcessRecordsInOrder() {
+        System.out.println("Process records in batches with several threads");
+
+        final Set<String> threadNames = Collections.synchronizedSet(new HashSet<String>());
+        RecordBatchPipeline pipeline = new RecordBatchPipeline(3, new RecordBatchPipeline.RecordProcessor() {
+            @Override
+            public void processRecord(SAMRecord record) {
+                threadNames.add(Thread.currentThread().getName());
+                record.setAttribute("xt", record.getReadName());
+            }
+        });
+
+        List<SAMRecord> records = createRecords(10500);
+        ListWriter out = new ListWriter();
+        assertEquals(10500, pipeline.processRecords(records.iterator(), out));
+
+        assertEquals(records.size(), out.records.size());
+        for (int i = 0; i < records.size(); i++) {
+            SAMRecord record = out.records.get(i);
+            assertSame(records.get(i), record);
+            assertEquals("read" + i, record.getAttribute("xt"));
+        }
+        assertFalse("records processed by the pool", threadNames.contains(Thread.currentThread().getName()));
+    }
+
+    @Test
+    public void testProcessRecordsWithoutPool() {
+        System.out.println("Process records in batches in the calling thread");
+
+        final Set<String> threadNames = new HashSet<String>();
+        RecordBatchPipeline pipeline = new RecordBatchPipeline(1, new RecordBatchPipeline.RecordProcessor() {
+            @Override
+            public void processRecord(SAMRecord record) {
+                threadNames.add(Thread.currentThread().getName());
+            }
+        });
+
+        ListWriter out = new ListWriter();
+        assertEquals(2500, pipeline.processRecords(createRecords(2500).iterator(), out));
+        assertEquals(2500, out.records.size());
+        assertEquals(Collections.singleton(Thread.currentThread().getName()), threadNames);
+    }
+
+    @Test
+    public void testProcessRecordsError() {
+        System.out.println("Stop processing records on an error in a thread");
+
+        RecordBatchPipeline pipeline = new RecordBatchPipeline(2, new RecordBatchPipeline.RecordProcessor() {
+            @Override
+            public void processRecord(SAMRecord record) {
+                if (record.getReadName().equals("read1500")) {
+                    throw new IllegalArgumentException("Invalid record " + record.getReadName());
+                }
+            }
+        });
+
+        ListWriter out = new ListWriter();
+        try {
+            pipeline.processRecords(createRecords(5000).iterator(), out);
+            fail("Exception expected for read1500");
+        } catch (IllegalArgumentException ex) {
+            assertEquals("Invalid record read1500", ex.getMessage());
+        }
+        assertEquals("first batch written only", 1000, out.records.size());
+    }
+}
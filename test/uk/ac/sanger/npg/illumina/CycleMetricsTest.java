@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package uk.ac.sanger.npg.illumina;
+
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * This is the test class for CycleMetrics
+ *
+ * @author agent@local
+ */
+public class CycleMetricsTest {
+
+    /**
+     * Test of counting reads by cycle and merging tiles
+     */
+    @Test
+    public void testAddReadAndMerge() {
+
+        System.out.println("addRead");
+
+        CycleMetrics tile1 = new CycleMetrics(5);
+        tile1.addRead(1, "ACG".getBytes(), new byte [] {30, 20, 2});
+        tile1.addRead(1, "ANT".getBytes(), new byte [] {40, 0, 30});
+
+        CycleMetrics tile2 = new CycleMetrics(5);
+        // second read from cycle 4, cycles not read are not reported
+        tile2.addRead(4, "GG".getBytes(), new byte [] {10, 35});
+
+        List<CycleMetrics.CycleMetric> metrics = tile1.getMetrics(3, 1101);
+        assertEquals(3, metrics.size());
+        CycleMetrics.CycleMetric first = metrics.get(0);
+        assertEquals(3, first.LANE);
+        assertEquals(Integer.valueOf(1101), first.TILE);
+        assertEquals(1, first.CYCLE);
+        assertEquals(2, first.BASES);
+        assertEquals(2, first.A);
+        assertEquals(35.0, first.MEAN_QUALITY, 0.0001);
+        assertEquals(30, first.MEDIAN_QUALITY);
+        assertEquals(100.0, first.PCT_Q30, 0.0001);
+        CycleMetrics.CycleMetric second = metrics.get(1);
+        assertEquals(1, second.C);
+        assertEquals(1, second.N);
+        assertEquals(50.0, second.PCT_N, 0.0001);
+        assertEquals(0.0, second.PCT_Q30, 0.0001);
+
+        CycleMetrics lane = new CycleMetrics(5);
+        lane.merge(tile1);
+        lane.merge(tile2);
+        metrics = lane.getMetrics(3, null);
+        assertEquals(5, metrics.size());
+        assertNull(metrics.get(0).TILE);
+        assertEquals(1, metrics.get(2).G);
+        assertEquals(1, metrics.get(2).T);
+        assertEquals(5, metrics.get(4).CYCLE);
+        assertEquals(1, metrics.get(4).G);
+        assertEquals(35.0, metrics.get(4).MEAN_QUALITY, 0.0001);
+
+        // quality histogram of each cycle merged
+        assertEquals(1, lane.getQualityCount(1, 30));
+        assertEquals(1, lane.getQualityCount(1, 40));
+        assertEquals(1, lane.getQualityCount(3, 2));
+        assertEquals(0, lane.getQualityCount(3, 20));
+        assertEquals(1, lane.getQualityCount(4, 10));
+        assertEquals(1, lane.getQualityCount(3, 30));
+    }
+
+    /**
+     * Test of mean, median and Q30 percentage from the quality histogram of a cycle
+     */
+    @Test
+    public void testQualityHistogram() {
+
+        System.out.println("quality histogram");
+
+        CycleMetrics tile = new CycleMetrics(2);
+        byte [][] quals = {{2, 38}, {30, 38}, {29, 38}, {60, 38}, {29, 12}};
+        for (byte [] qual : quals) {
+            tile.addRead(1, "AC".getBytes(), qual);
+        }
+        assertEquals(2, tile.getQualityCount(1, 29));
+        assertEquals(4, tile.getQualityCount(2, 38));
+        assertEquals(0, tile.getQualityCount(2, 37));
+
+        List<CycleMetrics.CycleMetric> metrics = tile.getMetrics(1, 1101);
+        CycleMetrics.CycleMetric first = metrics.get(0);
+        assertEquals(5, first.BASES);
+        assertEquals(30.0, first.MEAN_QUALITY, 0.0001);
+        assertEquals(29, first.MEDIAN_QUALITY);
+        assertEquals(40.0, first.PCT_Q30, 0.0001);
+        CycleMetrics.CycleMetric second = metrics.get(1);
+        assertEquals(32.8, second.MEAN_QUALITY, 0.0001);
+        assertEquals(38, second.MEDIAN_QUALITY);
+        assertEquals(80.0, second.PCT_Q30, 0.0001);
+
+        // even number of bases, the lower median
+        tile.addRead(1, "A".getBytes(), new byte [] {60});
+        assertEquals(29, tile.getMetrics(1, 1101).get(0).MEDIAN_QUALITY);
+    }
+
+    /**
+     * Test of merging metrics of a different number of cycles
+     */
+    @Test(expected=RuntimeException.class)
+    public void testMergeDifferentCycles() {
+
+        System.out.println("merge");
+
+        new CycleMetrics(5).merge(new CycleMetrics(4));
+    }
+}
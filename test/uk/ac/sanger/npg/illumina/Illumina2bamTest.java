@@ -19,19 +19,32 @@
  */
 package uk.ac.sanger.npg.illumina;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.TimeZone;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
+import net.sf.picard.metrics.MetricsFile;
 import net.sf.samtools.SAMProgramRecord;
 import net.sf.samtools.SAMReadGroupRecord;
 import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMRecord;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import uk.ac.sanger.npg.bam.util.CheckMd5;
+import uk.ac.sanger.npg.bam.util.CheckRecords;
 
 /**
  *
@@ -94,9 +107,9 @@ public class Illumina2bamTest {
                 + " SAMPLE_ALIAS=Test Sample LIBRARY_NAME=Test library"
                 + " STUDY_NAME=testStudy RUN_START_DATE=2011-03-23T00:00:00+0000 FIRST_TILE=1101 TILE_LIMIT=1"
                 + " TMP_DIR=[testdata] VALIDATION_STRINGENCY=STRICT COMPRESSION_LEVEL=1"
-                + " CREATE_MD5_FILE=true    GENERATE_SECONDARY_BASE_CALLS=false PF_FILTER=true READ_GROUP_ID=1"
-                + " SEQUENCING_CENTER=SC PLATFORM=ILLUMINA BARCODE_SEQUENCE_TAG_NAME=BC BARCODE_QUALITY_TAG_NAME=QT"
-                + " ADD_CLUSTER_INDEX_TAG=false VERBOSITY=INFO QUIET=false MAX_RECORDS_IN_RAM=500000 CREATE_INDEX=false",
+                + " CREATE_MD5_FILE=true    OUTPUT_FORMAT=bam SPLIT_FASTQ=false NUM_THREADS=1 INCREMENTAL=false POLL_INTERVAL=60 MAX_WAIT=120 GENERATE_SECONDARY_BASE_CALLS=false PF_FILTER=true READ_GROUP_ID=1"
+                + " SEQUENCING_CENTER=SC PLATFORM=ILLUMINA SHARD=false BARCODE_SEQUENCE_TAG_NAME=BC BARCODE_QUALITY_TAG_NAME=QT"
+                + " ADD_CLUSTER_INDEX_TAG=false COMPACT_READ_NAME=false VERBOSITY=INFO QUIET=false MAX_RECORDS_IN_RAM=500000 CREATE_INDEX=false",
                 testData.illumina2bam.getCommandLine()
                );
     
@@ -142,9 +155,9 @@ public class Illumina2bamTest {
                 + " READ_GROUP_ID=6000_1 SAMPLE_ALIAS=Test Sample LIBRARY_NAME=Test library"
                 + " STUDY_NAME=testStudy RUN_START_DATE=2011-03-23T00:00:00+0000 FIRST_TILE=1101 TILE_LIMIT=1"
                 + " TMP_DIR=[testdata] VALIDATION_STRINGENCY=STRICT COMPRESSION_LEVEL=1"
-                + " CREATE_MD5_FILE=true    GENERATE_SECONDARY_BASE_CALLS=false PF_FILTER=true"
-                + " SEQUENCING_CENTER=SC PLATFORM=ILLUMINA BARCODE_SEQUENCE_TAG_NAME=BC BARCODE_QUALITY_TAG_NAME=QT"
-                + " ADD_CLUSTER_INDEX_TAG=false VERBOSITY=INFO QUIET=false MAX_RECORDS_IN_RAM=500000 CREATE_INDEX=false",
+                + " CREATE_MD5_FILE=true    OUTPUT_FORMAT=bam SPLIT_FASTQ=false NUM_THREADS=1 INCREMENTAL=false POLL_INTERVAL=60 MAX_WAIT=120 GENERATE_SECONDARY_BASE_CALLS=false PF_FILTER=true"
+                + " SEQUENCING_CENTER=SC PLATFORM=ILLUMINA SHARD=false BARCODE_SEQUENCE_TAG_NAME=BC BARCODE_QUALITY_TAG_NAME=QT"
+                + " ADD_CLUSTER_INDEX_TAG=false COMPACT_READ_NAME=false VERBOSITY=INFO QUIET=false MAX_RECORDS_IN_RAM=500000 CREATE_INDEX=false",
                 testData.illumina2bam.getCommandLine()
                );
     
@@ -188,9 +201,9 @@ public class Illumina2bamTest {
                 + " SAMPLE_ALIAS=Test Sample LIBRARY_NAME=Test library"
                 + " STUDY_NAME=testStudy RUN_START_DATE=2011-03-23T00:00:00+0000 TILE_LIMIT=1"
                 + " TMP_DIR=[testdata] VALIDATION_STRINGENCY=STRICT COMPRESSION_LEVEL=1"
-                + " CREATE_MD5_FILE=true    GENERATE_SECONDARY_BASE_CALLS=false PF_FILTER=true READ_GROUP_ID=1"
-                + " SEQUENCING_CENTER=SC PLATFORM=ILLUMINA BARCODE_SEQUENCE_TAG_NAME=BC BARCODE_QUALITY_TAG_NAME=QT"
-                + " ADD_CLUSTER_INDEX_TAG=false VERBOSITY=INFO QUIET=false MAX_RECORDS_IN_RAM=500000 CREATE_INDEX=false",
+                + " CREATE_MD5_FILE=true    OUTPUT_FORMAT=bam SPLIT_FASTQ=false NUM_THREADS=1 INCREMENTAL=false POLL_INTERVAL=60 MAX_WAIT=120 GENERATE_SECONDARY_BASE_CALLS=false PF_FILTER=true READ_GROUP_ID=1"
+                + " SEQUENCING_CENTER=SC PLATFORM=ILLUMINA SHARD=false BARCODE_SEQUENCE_TAG_NAME=BC BARCODE_QUALITY_TAG_NAME=QT"
+                + " ADD_CLUSTER_INDEX_TAG=false COMPACT_READ_NAME=false VERBOSITY=INFO QUIET=false MAX_RECORDS_IN_RAM=500000 CREATE_INDEX=false",
                 testData.illumina2bam.getCommandLine()
                );
         
@@ -230,9 +243,9 @@ public class Illumina2bamTest {
                 + " STUDY_NAME=TestStudy RUN_START_DATE=2011-03-23T00:00:00+0000 FIRST_TILE=1101 TILE_LIMIT=1"
                 + " FIRST_CYCLE=[50] FINAL_CYCLE=[51]"
                 + " TMP_DIR=[testdata] VALIDATION_STRINGENCY=STRICT COMPRESSION_LEVEL=1"
-                + " CREATE_MD5_FILE=true    GENERATE_SECONDARY_BASE_CALLS=false PF_FILTER=true READ_GROUP_ID=1"
-                + " SEQUENCING_CENTER=SC PLATFORM=ILLUMINA BARCODE_SEQUENCE_TAG_NAME=BC BARCODE_QUALITY_TAG_NAME=QT"
-                + " ADD_CLUSTER_INDEX_TAG=false VERBOSITY=INFO QUIET=false MAX_RECORDS_IN_RAM=500000 CREATE_INDEX=false",
+                + " CREATE_MD5_FILE=true    OUTPUT_FORMAT=bam SPLIT_FASTQ=false NUM_THREADS=1 INCREMENTAL=false POLL_INTERVAL=60 MAX_WAIT=120 GENERATE_SECONDARY_BASE_CALLS=false PF_FILTER=true READ_GROUP_ID=1"
+                + " SEQUENCING_CENTER=SC PLATFORM=ILLUMINA SHARD=false BARCODE_SEQUENCE_TAG_NAME=BC BARCODE_QUALITY_TAG_NAME=QT"
+                + " ADD_CLUSTER_INDEX_TAG=false COMPACT_READ_NAME=false VERBOSITY=INFO QUIET=false MAX_RECORDS_IN_RAM=500000 CREATE_INDEX=false",
                 testData.illumina2bam.getCommandLine()
                );
 
@@ -277,9 +290,9 @@ public class Illumina2bamTest {
                 + " STUDY_NAME=TestStudy RUN_START_DATE=2011-03-23T00:00:00+0000 FIRST_TILE=1101 TILE_LIMIT=1 BC_READ=2"
                 + " FIRST_CYCLE=[1, 52] FINAL_CYCLE=[2, 53] FIRST_INDEX_CYCLE=[50] FINAL_INDEX_CYCLE=[51]"
                 + " TMP_DIR=[testdata] VALIDATION_STRINGENCY=STRICT COMPRESSION_LEVEL=1"
-                + " CREATE_MD5_FILE=true    GENERATE_SECONDARY_BASE_CALLS=false PF_FILTER=true READ_GROUP_ID=1"
-                + " SEQUENCING_CENTER=SC PLATFORM=ILLUMINA BARCODE_SEQUENCE_TAG_NAME=BC BARCODE_QUALITY_TAG_NAME=QT"
-                + " ADD_CLUSTER_INDEX_TAG=false VERBOSITY=INFO QUIET=false MAX_RECORDS_IN_RAM=500000 CREATE_INDEX=false",
+                + " CREATE_MD5_FILE=true    OUTPUT_FORMAT=bam SPLIT_FASTQ=false NUM_THREADS=1 INCREMENTAL=false POLL_INTERVAL=60 MAX_WAIT=120 GENERATE_SECONDARY_BASE_CALLS=false PF_FILTER=true READ_GROUP_ID=1"
+                + " SEQUENCING_CENTER=SC PLATFORM=ILLUMINA SHARD=false BARCODE_SEQUENCE_TAG_NAME=BC BARCODE_QUALITY_TAG_NAME=QT"
+                + " ADD_CLUSTER_INDEX_TAG=false COMPACT_READ_NAME=false VERBOSITY=INFO QUIET=false MAX_RECORDS_IN_RAM=500000 CREATE_INDEX=false",
                 testData.illumina2bam.getCommandLine()
                );
 
@@ -338,4 +351,295 @@ public class Illumina2bamTest {
         testData.commonAsserts(args);        
         assertEquals("534d7d7183ccdeead103a669b7105cb2",CheckMd5.getBamMd5AfterRemovePGVersion(testData.tempBamFile, "Illumina2bam"));
     }
+
+    /**
+     * Test LANES with a shared thread pool, both bam and sam outputs
+     * should have the same records as converting the lane on its own.
+     */
+    @Test
+    public void lanesTest() throws IOException {
+        System.out.println("processing lanes with a thread pool");
+        Data testData = new Data("testdata/test_lanes_13349.sam");
+        String[] commonArgs = {"INTENSITY_DIR=testdata/140624_MS6_13349_A_MS2639979-300V2/Data/Intensities",
+                "SAMPLE_ALIAS=TestSample",
+                "LIBRARY_NAME=TestLibrary",
+                "RUN_START_DATE=2011-03-23T00:00:00+0000",
+                "FIRST_TILE=1101",
+                "TILE_LIMIT=1",
+                "TMP_DIR=testdata/",
+                "VALIDATION_STRINGENCY=STRICT",
+                "PF_FILTER=false"
+               };
+        String[] args = concat(commonArgs, "LANE=1", "OUTPUT=" + testData.tempBamFile.getPath());
+        assertEquals(0, testData.illumina2bam.instanceMain(args));
+
+        for (String format : new String[]{"bam", "sam"}) {
+            File laneFile = new File("testdata/test_lanes_13349_1." + format);
+            laneFile.deleteOnExit();
+            File laneMd5File = new File(laneFile.getPath() + ".md5");
+            laneMd5File.deleteOnExit();
+
+            String[] lanesArgs = concat(commonArgs, "LANES=1", "OUTPUT_DIR=testdata", "OUTPUT_PREFIX=test_lanes_13349",
+                    "OUTPUT_FORMAT=" + format, "NUM_THREADS=2", "CREATE_MD5_FILE=true");
+            assertEquals(0, new Illumina2bam().instanceMain(lanesArgs));
+            CheckRecords.assertSameRecords(testData.tempBamFile, laneFile);
+            BufferedReader md5 = new BufferedReader(new FileReader(laneMd5File));
+            assertEquals(CheckMd5.getFileMd5(laneFile), md5.readLine());
+            md5.close();
+        }
+
+        File incrementalFile = new File("testdata/test_incremental_13349_1.bam");
+        incrementalFile.deleteOnExit();
+        String[] incrementalArgs = concat(commonArgs, "LANES=1", "OUTPUT_DIR=testdata", "OUTPUT_PREFIX=test_incremental_13349",
+                "INCREMENTAL=true", "POLL_INTERVAL=1", "MAX_WAIT=1");
+        assertEquals(0, new Illumina2bam().instanceMain(incrementalArgs));
+        CheckRecords.assertSameRecords(testData.tempBamFile, incrementalFile);
+
+        String[] duplicatedArgs = concat(commonArgs, "LANES=1", "LANES=1", "OUTPUT_DIR=testdata");
+        assertEquals(1, new Illumina2bam().instanceMain(duplicatedArgs));
+    }
+
+    /**
+     * Test LANES with more than one lane, on a copy of the run with lane 1 copied as lane 2,
+     * each lane output under OUTPUT_DIR should have the same records as converting the lane on its own.
+     */
+    @Test
+    public void multipleLanesTest() throws IOException {
+        System.out.println("processing two lanes with a thread pool");
+        File runFolder = new File("testdata/test_two_lanes_13349");
+        try {
+            copyRunWithSecondLane(new File("testdata/140624_MS6_13349_A_MS2639979-300V2"), runFolder);
+            String[] commonArgs = {"INTENSITY_DIR=" + runFolder.getPath() + "/Data/Intensities",
+                    "SAMPLE_ALIAS=TestSample",
+                    "LIBRARY_NAME=TestLibrary",
+                    "RUN_START_DATE=2011-03-23T00:00:00+0000",
+                    "TILES=1101",
+                    "TMP_DIR=testdata/",
+                    "VALIDATION_STRINGENCY=STRICT",
+                    "PF_FILTER=false",
+                    "CREATE_MD5_FILE=true"
+                   };
+            File outputDir = new File(runFolder, "lanes");
+            outputDir.mkdir();
+            assertEquals(0, new Illumina2bam().instanceMain(concat(commonArgs, "LANES=2", "LANES=1",
+                    "OUTPUT_DIR=" + outputDir.getPath(), "OUTPUT_PREFIX=test", "NUM_THREADS=3")));
+
+            for (int lane = 1; lane <= 2; lane++) {
+                File singleLaneFile = new File(runFolder, "single_" + lane + ".bam");
+                assertEquals(0, new Illumina2bam().instanceMain(concat(commonArgs, "LANE=" + lane,
+                        "OUTPUT=" + singleLaneFile.getPath())));
+
+                File laneFile = new File(outputDir, "test_" + lane + ".bam");
+                CheckRecords.assertSameRecords(singleLaneFile, laneFile);
+                BufferedReader md5 = new BufferedReader(new FileReader(laneFile.getPath() + ".md5"));
+                assertEquals(CheckMd5.getFileMd5(laneFile), md5.readLine());
+                md5.close();
+
+                SAMFileReader reader = new SAMFileReader(laneFile);
+                assertEquals("MS6_13349:" + lane, reader.iterator().next().getReadName().substring(0, 11));
+                reader.close();
+            }
+            // a bam and an md5 file for each lane
+            assertEquals(4, outputDir.list().length);
+
+            // a tile not in the run is an error, not a stack trace
+            File missingTileFile = new File(runFolder, "missing_tile.bam");
+            assertEquals(1, new Illumina2bam().instanceMain(concat(commonArgs, "TILES=9999", "LANE=2",
+                    "OUTPUT=" + missingTileFile.getPath())));
+            assertFalse(missingTileFile.exists());
+        } finally {
+            deleteTree(runFolder);
+        }
+    }
+
+    @Test
+    public void fastqTest() throws IOException {
+        System.out.println("processing a lane to FASTQ");
+        Data testData = new Data("testdata/test_fastq_13349.sam");
+        String[] commonArgs = {"INTENSITY_DIR=testdata/140624_MS6_13349_A_MS2639979-300V2/Data/Intensities",
+                "LANE=1",
+                "SAMPLE_ALIAS=TestSample",
+                "LIBRARY_NAME=TestLibrary",
+                "RUN_START_DATE=2011-03-23T00:00:00+0000",
+                "FIRST_TILE=1101",
+                "TILE_LIMIT=1",
+                "TMP_DIR=testdata/"
+               };
+        assertEquals(0, testData.illumina2bam.instanceMain(concat(commonArgs, "OUTPUT=" + testData.tempBamFile.getPath())));
+
+        // expected interleaved FASTQ from the bam records
+        List<String> expected = new ArrayList<String>();
+        SAMFileReader reader = new SAMFileReader(testData.tempBamFile);
+        for (SAMRecord record : reader) {
+            StringBuilder header = new StringBuilder("@" + record.getReadName());
+            if (record.getReadPairedFlag()) {
+                header.append(record.getFirstOfPairFlag() ? "/1" : "/2");
+            }
+            String separator = "\t";
+            for (SAMRecord.SAMTagAndValue tag : record.getAttributes()) {
+                if (!tag.tag.equals("RG")) {
+                    header.append(separator).append(tag.tag).append(":Z:").append(tag.value);
+                }
+            }
+            expected.add(header.toString());
+            expected.add(record.getReadString());
+            expected.add("+");
+            expected.add(record.getBaseQualityString());
+        }
+        reader.close();
+        assertEquals(20 * 4, expected.size());
+
+        File fastq = new File("testdata/test_fastq_13349.fastq");
+        fastq.deleteOnExit();
+        assertEquals(0, new Illumina2bam().instanceMain(concat(commonArgs, "OUTPUT=" + fastq.getPath())));
+        assertEquals(expected, readLines(new FileInputStream(fastq)));
+
+        File fastqGz = new File("testdata/test_fastq_13349.fq.gz");
+        File[] readFiles = {new File("testdata/test_fastq_13349_1.fq.gz"), new File("testdata/test_fastq_13349_2.fq.gz")};
+        for (File readFile : readFiles) {
+            readFile.deleteOnExit();
+            new File(readFile.getPath() + ".md5").deleteOnExit();
+        }
+        assertEquals(0, new Illumina2bam().instanceMain(concat(commonArgs, "OUTPUT=" + fastqGz.getPath(),
+                "SPLIT_FASTQ=true", "NUM_THREADS=2", "CREATE_MD5_FILE=true")));
+        List<String> read1 = readLines(new GZIPInputStream(new FileInputStream(readFiles[0])));
+        List<String> read2 = readLines(new GZIPInputStream(new FileInputStream(readFiles[1])));
+        for (int i = 0; i < expected.size(); i += 8) {
+            assertEquals(expected.subList(i, i + 4), read1.subList(i / 2, i / 2 + 4));
+            assertEquals(expected.subList(i + 4, i + 8), read2.subList(i / 2, i / 2 + 4));
+        }
+        BufferedReader md5 = new BufferedReader(new FileReader(readFiles[0].getPath() + ".md5"));
+        assertEquals(CheckMd5.getFileMd5(readFiles[0]), md5.readLine());
+        md5.close();
+
+        assertEquals(1, new Illumina2bam().instanceMain(concat(commonArgs, "OUTPUT=" + testData.tempBamFile.getPath(), "SPLIT_FASTQ=true")));
+
+        // no filter flag, cluster index or secondary calls in FASTQ records
+        assertEquals(1, new Illumina2bam().instanceMain(concat(commonArgs, "OUTPUT=" + fastq.getPath(), "PF_FILTER=false")));
+        assertEquals(1, new Illumina2bam().instanceMain(concat(commonArgs, "OUTPUT=" + fastq.getPath(), "ADD_CLUSTER_INDEX_TAG=true")));
+        assertEquals(1, new Illumina2bam().instanceMain(concat(commonArgs, "OUTPUT=" + fastq.getPath(),
+                "GENERATE_SECONDARY_BASE_CALLS=true")));
+    }
+
+    @Test
+    public void cycleMetricsTest() throws IOException {
+        System.out.println("processing a lane with cycle metrics");
+        Data testData = new Data("testdata/test_cycle_metrics_13349.sam");
+        String[] commonArgs = {"INTENSITY_DIR=testdata/140624_MS6_13349_A_MS2639979-300V2/Data/Intensities",
+                "LANE=1",
+                "SAMPLE_ALIAS=TestSample",
+                "LIBRARY_NAME=TestLibrary",
+                "RUN_START_DATE=2011-03-23T00:00:00+0000",
+                "FIRST_TILE=1101",
+                "TILE_LIMIT=1",
+                "TMP_DIR=testdata/",
+                "PF_FILTER=false"
+               };
+        File metricsFile = new File("testdata/test_cycle_metrics_13349.metrics");
+        metricsFile.deleteOnExit();
+        assertEquals(0, testData.illumina2bam.instanceMain(concat(commonArgs, "OUTPUT=" + testData.tempBamFile.getPath(),
+                "CYCLE_METRICS_FILE=" + metricsFile.getPath())));
+        List<CycleMetrics.CycleMetric> metrics = readCycleMetrics(metricsFile);
+
+        // first base of read 1 is cycle 1
+        long [] firstBaseCounts = new long[4];
+        SAMFileReader reader = new SAMFileReader(testData.tempBamFile);
+        for (SAMRecord record : reader) {
+            if (record.getFirstOfPairFlag()) {
+                firstBaseCounts["ACGT".indexOf(record.getReadString().charAt(0))]++;
+            }
+        }
+        reader.close();
+
+        int tileRows = 0;
+        CycleMetrics.CycleMetric laneFirstCycle = null;
+        for (CycleMetrics.CycleMetric metric : metrics) {
+            assertEquals(1, metric.LANE);
+            if (metric.TILE != null) {
+                assertEquals(Integer.valueOf(1101), metric.TILE);
+                tileRows++;
+            } else if (metric.CYCLE == 1) {
+                laneFirstCycle = metric;
+            }
+        }
+        assertEquals(metrics.size(), tileRows * 2);
+        assertEquals(10, laneFirstCycle.BASES);
+        assertEquals(firstBaseCounts[0], laneFirstCycle.A);
+        assertEquals(firstBaseCounts[1], laneFirstCycle.C);
+        assertEquals(firstBaseCounts[2], laneFirstCycle.G);
+        assertEquals(firstBaseCounts[3], laneFirstCycle.T);
+
+        // same metrics counted by the tile scheduler
+        File bamFile = new File("testdata/test_cycle_metrics_13349_threads.bam");
+        bamFile.deleteOnExit();
+        assertEquals(0, new Illumina2bam().instanceMain(concat(commonArgs, "OUTPUT=" + bamFile.getPath(),
+                "NUM_THREADS=2", "CYCLE_METRICS_FILE=" + metricsFile.getPath())));
+        assertEquals(metrics, readCycleMetrics(metricsFile));
+    }
+
+    private static List<CycleMetrics.CycleMetric> readCycleMetrics(File metricsFile) throws IOException {
+        MetricsFile<CycleMetrics.CycleMetric, Comparable<?>> metrics = new MetricsFile<CycleMetrics.CycleMetric, Comparable<?>>();
+        FileReader reader = new FileReader(metricsFile);
+        metrics.read(reader);
+        reader.close();
+        return metrics.getMetrics();
+    }
+
+    /**
+     * copy a run folder, with the base calls and locations of lane 1 copied again as lane 2
+     */
+    private static void copyRunWithSecondLane(File from, File to) throws IOException {
+        copyTree(from, to, null, null);
+        for (String laneDir : new String[]{"Data/Intensities/L001", "Data/Intensities/BaseCalls/L001"}) {
+            copyTree(new File(from, laneDir), new File(to, laneDir.replace("L001", "L002")), "s_1_", "s_2_");
+        }
+        for (String config : new String[]{"Data/Intensities/config.xml", "Data/Intensities/BaseCalls/config.xml"}) {
+            File configFile = new File(to, config);
+            String xml = new String(Files.readAllBytes(configFile.toPath()), "UTF-8");
+            String lane1 = xml.substring(xml.indexOf("<Lane Index=\"1\">"), xml.indexOf("</Lane>") + "</Lane>".length());
+            xml = xml.replace(lane1, lane1 + "\n" + lane1.replace("<Lane Index=\"1\">", "<Lane Index=\"2\">"));
+            Files.write(configFile.toPath(), xml.getBytes("UTF-8"));
+        }
+    }
+
+    private static void copyTree(File from, File to, String namePrefix, String newNamePrefix) throws IOException {
+        if (from.isDirectory()) {
+            to.mkdirs();
+            for (String name : from.list()) {
+                String newName = namePrefix != null && name.startsWith(namePrefix)
+                        ? newNamePrefix + name.substring(namePrefix.length()) : name;
+                copyTree(new File(from, name), new File(to, newName), namePrefix, newNamePrefix);
+            }
+        } else {
+            Files.copy(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static List<String> readLines(InputStream in) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "US-ASCII"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        reader.close();
+        return lines;
+    }
+
+    private static String[] concat(String[] args, String... moreArgs) {
+        String[] allArgs = new String[args.length + moreArgs.length];
+        System.arraycopy(args, 0, allArgs, 0, args.length);
+        System.arraycopy(moreArgs, 0, allArgs, args.length, moreArgs.length);
+        return allArgs;
+    }
 }
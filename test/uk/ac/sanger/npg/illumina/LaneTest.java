@@ -570,4 +570,54 @@ public class LaneTest {
 
     }
 
+    /**
+     * the base call files of the second tile are opened while the first tile is processed,
+     * the second tile is missing so processing fails after the first tile is written
+     */
+    @Test
+    public void processTilesPrefetchNextTile() throws Exception {
+        System.out.println("processTiles opening next tile in background");
+        String intensityDir = "testdata/140624_MS6_13349_A_MS2639979-300V2/Data/Intensities";
+        String baseCallDir = intensityDir + "/BaseCalls";
+        String runfolderDir = "testdata/140624_MS6_13349_A_MS2639979-300V2/";
+        File prefetchOutput = new File("testdata/test_prefetch_13349.sam");
+        prefetchOutput.deleteOnExit();
+
+        Lane lane = new Lane(intensityDir, baseCallDir, runfolderDir, 1, false, false, false, prefetchOutput, "BC", "QT", "B2", "Q2");
+        lane.setIllumina2bamProgram(new SAMProgramRecord("illumina2bam"));
+        SAMReadGroupRecord readGroup = new SAMReadGroupRecord("1");
+        readGroup.setSample("TestSample");
+        lane.setReadGroup(readGroup);
+        lane.reduceTileList(1101, 2);
+
+        SAMFileWriter outputSam = lane.generateOutputSamStream();
+        try {
+            lane.processTiles(outputSam);
+            fail("Base call files of the second tile not available");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("s_1_" + lane.getTileList()[1] + ".bcl"));
+        }
+        outputSam.close();
+
+        int count = 0;
+        SAMFileReader reader = new SAMFileReader(prefetchOutput);
+        for (SAMRecord record : reader) {
+            count++;
+        }
+        reader.close();
+        assertEquals(20, count);
+    }
+
+    @Test
+    public void processTilesOpenNextTileWhileDecoding() throws Exception {
+        System.out.println("processTiles opening next tile while the current tile is decoded");
+        File prefetchOutput = new File("testdata/test_prefetch_decoding_13349.sam");
+        prefetchOutput.deleteOnExit();
+
+        TileSchedulerTest.PrefetchLane lane = new TileSchedulerTest.PrefetchLane(prefetchOutput, 2);
+        SAMFileWriter outputSam = lane.generateOutputSamStream();
+        assertTrue(lane.processTiles(outputSam));
+        outputSam.close();
+        assertTrue("second tile opened while the first one is decoded", lane.isOpenedAhead());
+    }
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package uk.ac.sanger.npg.illumina;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMReadGroupRecord;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author agent@local
+ */
+public class TileCheckpointTest {
+
+    @Test
+    public void testManifest() throws IOException {
+        System.out.println("Read completed tiles from the manifest");
+
+        File checkpointDir = new File("testdata/test_checkpoint_manifest");
+        File output = new File("testdata/test_manifest.bam");
+        SAMFileHeader header = new SAMFileHeader();
+        header.addReadGroup(new SAMReadGroupRecord("1"));
+
+        TileCheckpoint checkpoint = new TileCheckpoint(checkpointDir, output, header);
+        assertFalse(checkpoint.isDone(1101));
+        writeSegment(checkpoint.getSegmentFile(1101), 10);
+        checkpoint.tileDone(1101, 3);
+        writeSegment(checkpoint.getSegmentFile(1102), 20);
+        checkpoint.tileDone(1102, 5);
+        // segment being written again when the conversion stopped
+        writeSegment(checkpoint.getSegmentFile(1102), 7);
+        assertTrue(checkpoint.isDone(1101));
+
+        TileCheckpoint reopened = new TileCheckpoint(checkpointDir, output, header);
+        assertTrue(reopened.isDone(1101));
+        assertEquals(3, reopened.getRecordCount(1101));
+        assertFalse("segment size changed", reopened.isDone(1102));
+
+        SAMFileHeader changedHeader = new SAMFileHeader();
+        changedHeader.addReadGroup(new SAMReadGroupRecord("2"));
+        TileCheckpoint changed = new TileCheckpoint(checkpointDir, output, changedHeader);
+        assertFalse("header changed", changed.isDone(1101));
+
+        reopened.delete();
+        changed.delete();
+        assertFalse(checkpoint.getDirectory().exists());
+        checkpointDir.delete();
+    }
+
+    @Test
+    public void testDirectoryName() throws IOException {
+        System.out.println("Name the checkpoint of a lane by the output path");
+
+        File output = new File("testdata/test_manifest.bam");
+        String name = TileCheckpoint.getDirectoryName(output);
+        assertTrue(name.startsWith("test_manifest.bam."));
+        assertTrue(name.endsWith(".tiles"));
+        assertEquals("same output by another path", name,
+                TileCheckpoint.getDirectoryName(new File("testdata/../testdata/test_manifest.bam").getAbsoluteFile()));
+        assertFalse("same name in another directory",
+                name.equals(TileCheckpoint.getDirectoryName(new File("testdata/bam/test_manifest.bam"))));
+    }
+
+    private static void writeSegment(File segmentFile, int length) throws IOException {
+        FileWriter writer = new FileWriter(segmentFile);
+        for (int i = 0; i < length; i++) {
+            writer.write('x');
+        }
+        writer.close();
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package uk.ac.sanger.npg.illumina;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMProgramRecord;
+import net.sf.samtools.SAMReadGroupRecord;
+import net.sf.samtools.SAMRecordIterator;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import uk.ac.sanger.npg.bam.util.BamSegmentWriter;
+
+/**
+ *
+ * @author agent@local
+ */
+public class TileSchedulerTest {
+
+    private static final String runfolderDir = "testdata/140624_MS6_13349_A_MS2639979-300V2";
+    private static final String intensityDir = runfolderDir + "/Data/Intensities";
+
+    private static Lane createLane(File output) {
+        return createLane(output, 1);
+    }
+
+    private static Lane createLane(File output, int tileLimit) {
+        Lane lane = new Lane(intensityDir, intensityDir + File.separator + "BaseCalls", runfolderDir, 1,
+                false, false, false, output, "BC", "QT", "B2", "Q2");
+        lane.setIllumina2bamProgram(new SAMProgramRecord("illumina2bam"));
+        SAMReadGroupRecord readGroup = new SAMReadGroupRecord("1");
+        readGroup.setSample("TestSample");
+        lane.setReadGroup(readGroup);
+        lane.reduceTileList(1101, tileLimit);
+        return lane;
+    }
+
+    private static int countRecords(File bam) {
+        SAMFileReader reader = new SAMFileReader(bam);
+        int count = 0;
+        SAMRecordIterator iterator = reader.iterator();
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        reader.close();
+        return count;
+    }
+
+    @Test
+    public void testCheckpoint() {
+        System.out.println("Convert tiles with a checkpoint directory");
+
+        File checkpointDir = new File("testdata/test_checkpoint");
+        File output = new File("testdata/test_checkpoint_13349_1.bam");
+        output.deleteOnExit();
+
+        Lane lane = createLane(output);
+        TileScheduler scheduler = new TileScheduler(2, false);
+        scheduler.setCheckpointDir(checkpointDir);
+        scheduler.processLanes(Arrays.asList(lane));
+
+        assertEquals(20, countRecords(output));
+        assertFalse("checkpoint removed when the lane is complete",
+                new File(checkpointDir, TileCheckpoint.getDirectoryName(output)).exists());
+        checkpointDir.delete();
+    }
+
+    @Test
+    public void testResume() {
+        System.out.println("Resume a conversion from a checkpoint directory");
+
+        File checkpointDir = new File("testdata/test_checkpoint_resume");
+        File output = new File("testdata/test_checkpoint_resume_13349_1.bam");
+        output.deleteOnExit();
+
+        // a previous run converted the tile, leaving an empty segment in its checkpoint
+        Lane lane = createLane(output);
+        SAMFileHeader header = lane.generateHeader();
+        // sort order attribute set as in the header written to the output
+        header.setSortOrder(header.getSortOrder());
+        TileCheckpoint checkpoint = new TileCheckpoint(checkpointDir, output, header);
+        BamSegmentWriter segmentWriter = new BamSegmentWriter(checkpoint.getSegmentFile(1101), header);
+        segmentWriter.close();
+        checkpoint.tileDone(1101, 0);
+
+        TileScheduler scheduler = new TileScheduler(1, false);
+        scheduler.setCheckpointDir(checkpointDir);
+        scheduler.processLanes(Arrays.asList(createLane(output)));
+
+        assertEquals("tile not converted again", 0, countRecords(output));
+        assertFalse(checkpoint.getDirectory().exists());
+        checkpointDir.delete();
+    }
+
+    @Test
+    public void testFailedTileDeletesOutput() {
+        System.out.println("Delete the partial output when a tile fails");
+
+        File output = new File("testdata/test_failed_tile_13349_1.bam");
+        output.deleteOnExit();
+
+        // tile 1102 has no base call files
+        Lane lane = createLane(output, 2);
+        TileScheduler scheduler = new TileScheduler(2, false);
+        try {
+            scheduler.processLanes(Arrays.asList(lane));
+            fail("Exception expected for tile 1102");
+        } catch (Exception ex) {
+            assertFalse("partial output deleted", output.exists());
+        }
+    }
+
+    @Test
+    public void testPrefetchNextTile() {
+        System.out.println("Open the next tile while a thread decodes a tile");
+
+        File output = new File("testdata/test_prefetch_tile_13349_1.bam");
+        output.deleteOnExit();
+
+        PrefetchLane lane = new PrefetchLane(output, 2);
+        new TileScheduler(1, false).processLanes(Arrays.asList((Lane) lane));
+        assertTrue("second tile opened while the first one is decoded", lane.isOpenedAhead());
+
+        // each thread opens the first tile not started yet, the third one is opened by the thread of the second one
+        lane = new PrefetchLane(output, 3);
+        new TileScheduler(2, false).processLanes(Arrays.asList((Lane) lane));
+        assertTrue("third tile opened while the first two are decoded", lane.isOpenedAhead());
+    }
+
+    /**
+     * A lane with tiles not reading any base call file, the decoding of each tile but
+     * the last one only ends when the base call files of the last tile are opened
+     */
+    static class PrefetchLane extends Lane {
+
+        private final CountDownLatch lastTileOpened = new CountDownLatch(1);
+        private volatile boolean openedAhead = true;
+
+        PrefetchLane(File output, int tileLimit) {
+            super(intensityDir, intensityDir + File.separator + "BaseCalls", runfolderDir, 1,
+                    false, false, false, output, "BC", "QT", "B2", "Q2");
+            this.setIllumina2bamProgram(new SAMProgramRecord("illumina2bam"));
+            SAMReadGroupRecord readGroup = new SAMReadGroupRecord("1");
+            readGroup.setSample("TestSample");
+            this.setReadGroup(readGroup);
+            this.reduceTileList(1101, tileLimit);
+        }
+
+        @Override
+        public Tile createTile(int tileNumber) {
+            final boolean lastTile = tileNumber == this.getTileList()[this.getTileList().length - 1];
+            return new Tile(intensityDir, intensityDir + File.separator + "BaseCalls", "test", 1, tileNumber,
+                    this.getCycleRangeByRead(), false, false, false, "BC", "QT") {
+
+                @Override
+                public void openBaseCallFiles() {
+                    if (lastTile) {
+                        lastTileOpened.countDown();
+                    }
+                }
+
+                @Override
+                public void processTile(SAMFileWriter outputSam) throws Exception {
+                    if (!lastTile && !lastTileOpened.await(10, TimeUnit.SECONDS)) {
+                        openedAhead = false;
+                    }
+                }
+
+                @Override
+                public void closeBaseCallFiles() {
+                }
+            };
+        }
+
+        boolean isOpenedAhead() {
+            return this.openedAhead;
+        }
+    }
+}
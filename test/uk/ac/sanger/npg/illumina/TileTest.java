@@ -27,12 +27,14 @@ import java.util.HashMap;
 import net.sf.samtools.SAMFileHeader;
 import net.sf.samtools.SAMFileWriter;
 import net.sf.samtools.SAMFileWriterFactory;
+import net.sf.samtools.SAMReadGroupRecord;
 import net.sf.samtools.SAMRecord;
 import org.junit.AfterClass;
 import static org.junit.Assert.*;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
+import uk.ac.sanger.npg.bam.util.CheckRecords;
 
 /**
  *
@@ -283,4 +285,45 @@ public class TileTest {
         assertEquals("2d432d23ac62bd201fae5b79c61fa8e7", md5);       
         
     }
+
+    @Test
+    public void spillCompleteReadsTest() throws Exception {
+        System.out.println("Spill complete reads of a tile");
+
+        String intensityDirMS = "testdata/140624_MS6_13349_A_MS2639979-300V2/Data/Intensities";
+        String baseCallDirMS = intensityDirMS + File.separator + "BaseCalls";
+
+        HashMap<String, int[]> cycleRangeByRead = new HashMap<String, int[]>(3);
+        cycleRangeByRead.put("read1", new int[]{1, 75});
+        cycleRangeByRead.put("readIndex", new int[]{76, 83});
+        cycleRangeByRead.put("read2", new int[]{96, 100});
+
+        File [] outputs = {new File("testdata/test_not_spilled.sam"), new File("testdata/test_spilled.sam")};
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i].deleteOnExit();
+
+            Tile tileMS = new Tile(intensityDirMS, baseCallDirMS, "M02069_133", 1, 1101, cycleRangeByRead, false, false, true, barcodeSeqTagName, barcodeQualTagName);
+            assertTrue(tileMS.isComplete());
+            assertTrue(tileMS.isReadComplete("read1"));
+            assertEquals(75 + 8 + 5, tileMS.countCompleteCycles());
+            if (i == 1) {
+                // read 2 has the last cycle, never spilled
+                assertEquals(2, tileMS.spillCompleteReads());
+                assertEquals(0, tileMS.spillCompleteReads());
+            }
+
+            SAMFileHeader header = new SAMFileHeader();
+            SAMReadGroupRecord readGroup = new SAMReadGroupRecord("1");
+            readGroup.setSample("test");
+            header.addReadGroup(readGroup);
+            SAMFileWriter outputSam = new SAMFileWriterFactory().makeSAMOrBAMWriter(header, true, outputs[i]);
+            tileMS.openBaseCallFiles();
+            tileMS.processTile(outputSam);
+            tileMS.closeBaseCallFiles();
+            tileMS.deleteSpillFiles();
+            outputSam.close();
+        }
+
+        CheckRecords.assertSameRecords(outputs[0], outputs[1]);
+    }
 }
@@ -18,6 +18,12 @@
  */
 package uk.ac.sanger.npg.illumina.file.reader;
 
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import org.junit.AfterClass;
 import static org.junit.Assert.*;
 import org.junit.BeforeClass;
@@ -105,4 +111,76 @@ public class BCLFileReaderTest {
         assertEquals(totalCluster, 0);
         bclFileReaderCorrupt.close();
     }
+
+    @Test
+    public void checkIsComplete() throws Exception {
+        System.out.println("Check bcl files written completely");
+
+        assertTrue(BCLFileReader.isComplete(testBCLFile));
+        assertTrue(BCLFileReader.isComplete("testdata/110405_HS17_06067_A_B035CABXX/Data/Intensities/BaseCalls/L003/C58.1/s_3_1101.bcl"));
+        assertTrue(BCLFileReader.isComplete(testBCLFile + ".gz"));
+        assertFalse(BCLFileReader.isComplete("testdata/110323_HS13_06000_B_B039WABXX/Data/Intensities/BaseCalls/L001/C1.1/s_1_9999.bcl"));
+
+        File truncated = File.createTempFile("truncated", ".bcl");
+        truncated.deleteOnExit();
+        GZIPInputStream in = new GZIPInputStream(new FileInputStream(testBCLFile + ".gz"));
+        FileOutputStream out = new FileOutputStream(truncated);
+        byte [] data = new byte[1000];
+        int count = in.read(data);
+        out.write(data, 0, count);
+        out.close();
+        in.close();
+        assertFalse(BCLFileReader.isComplete(truncated.getPath()));
+    }
+
+    @Test
+    public void checkIsCompleteMultiMemberGzip() throws Exception {
+        System.out.println("Check multi-member gzip bcl files written completely");
+
+        DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(testBCLFile + ".gz")));
+        byte [] header = new byte[4];
+        in.readFully(header);
+        byte [] clusters = new byte[2609912];
+        in.readFully(clusters);
+        in.close();
+
+        // header and each half of the clusters in its own gzip member, as in a BGZF file
+        File multiMember = File.createTempFile("multi_member", ".bcl.gz");
+        multiMember.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(multiMember);
+        writeGzipMember(out, header, 0, 4);
+        writeGzipMember(out, clusters, 0, clusters.length / 2);
+        writeGzipMember(out, clusters, clusters.length / 2, clusters.length - clusters.length / 2);
+        out.close();
+        assertTrue(BCLFileReader.isComplete(multiMember.getPath()));
+
+        BCLFileReader multiMemberReader = new BCLFileReader(multiMember.getPath());
+        int count = 0;
+        while (multiMemberReader.hasNext()) {
+            assertNotNull(multiMemberReader.next());
+            count++;
+        }
+        multiMemberReader.close();
+        assertEquals(2609912, count);
+
+        File partial = File.createTempFile("partial", ".bcl.gz");
+        partial.deleteOnExit();
+        out = new FileOutputStream(partial);
+        writeGzipMember(out, header, 0, 4);
+        writeGzipMember(out, clusters, 0, clusters.length / 2);
+        out.close();
+        assertFalse(BCLFileReader.isComplete(partial.getPath()));
+
+        // the last member landing later completes the file
+        out = new FileOutputStream(partial, true);
+        writeGzipMember(out, clusters, clusters.length / 2, clusters.length - clusters.length / 2);
+        out.close();
+        assertTrue(BCLFileReader.isComplete(partial.getPath()));
+    }
+
+    private void writeGzipMember(FileOutputStream out, byte [] data, int offset, int length) throws Exception {
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(data, offset, length);
+        gzip.finish();
+    }
 }
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package uk.ac.sanger.npg.picard;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TimeZone;
+import net.sf.picard.metrics.MetricsFile;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMFileWriterFactory;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.util.SequenceUtil;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import uk.ac.sanger.npg.bam.util.CheckRecords;
+
+/**
+ * This is the test class for BamAdapterFinder
+ *
+ * @author agent@local
+ */
+public class BamAdapterFinderTest {
+
+    private static final String ADAPTER_1 = "AGATCGGAAGAGCACACGTCTGAACTCCAGTCACAGATCGGAAGAGCACACGTCTGAACTCCAGTCACAGATCGGAAGAGCACACGTCTGAACTCCAGTC";
+    private static final String ADAPTER_2 = "AGATCGGAAGAGCGTCGTGTAGGGAAAGAGTGTAGATCGGAAGAGCGTCGTGTAGGGAAAGAGTGTAGATCGGAAGAGCGTCGTGTAGGGAAAGAGTGTAG";
+    private static final int READ_LENGTH = 100;
+
+    public BamAdapterFinderTest() {
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT"));
+        SAMFileReader.setDefaultValidationStringency(SAMFileReader.ValidationStringency.SILENT);
+    }
+
+    /**
+     * Test of overlap and adapter found for a short insert
+     */
+    @Test
+    public void testMatchSAMRecords() {
+        System.out.println("matchSAMRecords");
+
+        SAMFileHeader header = new SAMFileHeader();
+        String insert = "TTAATGTCTTATGATGTTGTGTGCCTGCTGGCATTTGTTAAACAAAATCATTGATTAACAATCAT";
+        SAMRecord[] pair = makePair(header, "read1", insert, true);
+
+        BamAdapterFinder finder = new BamAdapterFinder();
+        int offset = finder.matchSAMRecords(pair[0], pair[1]);
+        assertEquals(READ_LENGTH - insert.length(), offset);
+        assertTrue(finder.checkAdapter(pair[0], pair[1], offset));
+    }
+
+    /**
+     * Test of no overlap for a read 2 shorter than read 1, the pair is not rejected
+     */
+    @Test
+    public void testMatchShorterRead2() {
+        System.out.println("matchSAMRecords with a shorter read 2");
+
+        SAMFileHeader header = new SAMFileHeader();
+        String insert = "TTAATGTCTTATGATGTTGTGTGCCTGCTGGCATTTGTTAAACAAAATCATTGATTAACAATCAT";
+        SAMRecord[] pair = makePair(header, "read1", insert, false);
+        String read2 = pair[1].getReadString().substring(0, READ_LENGTH - 10);
+        pair[1].setReadString(read2);
+        pair[1].setBaseQualityString(read2.replaceAll(".", "I"));
+
+        BamAdapterFinder finder = new BamAdapterFinder();
+        assertEquals(-1, finder.matchSAMRecords(pair[0], pair[1]));
+        assertFalse(finder.checkAdapter(pair[0], pair[1], READ_LENGTH - insert.length()));
+    }
+
+    /**
+     * Test of the same output with several threads as with one thread
+     */
+    @Test
+    public void testMainWithThreads() throws IOException {
+        System.out.println("instanceMain - threads");
+
+        File input = new File("testdata/adapter_finder_input.sam");
+        input.deleteOnExit();
+        SAMFileHeader header = new SAMFileHeader();
+        header.setSortOrder(SAMFileHeader.SortOrder.unsorted);
+        SAMFileWriter writer = new SAMFileWriterFactory().makeSAMWriter(header, true, input);
+        Random random = new Random(6210);
+        for (int i = 0; i < 2500; i++) {
+            StringBuilder insert = new StringBuilder();
+            int insertLength = 40 + random.nextInt(120);
+            for (int j = 0; j < insertLength; j++) {
+                insert.append("ACGT".charAt(random.nextInt(4)));
+            }
+            for (SAMRecord record : makePair(header, "read" + i, insert.toString(), random.nextBoolean())) {
+                writer.addAlignment(record);
+            }
+        }
+        writer.close();
+
+        String[] outputs = {"testdata/adapter_finder_one_thread.sam", "testdata/adapter_finder_threads.sam"};
+        String[] threads = {"1", "4"};
+        for (int i = 0; i < 2; i++) {
+            String[] args = {
+                "I=" + input.getPath(),
+                "O=" + outputs[i],
+                "NUM_THREADS=" + threads[i],
+                "VALIDATION_STRINGENCY=SILENT"
+            };
+            assertEquals(0, new BamAdapterFinder().instanceMain(args));
+            new File(outputs[i]).deleteOnExit();
+        }
+        CheckRecords.assertSameRecords(new File(outputs[0]), new File(outputs[1]));
+
+        int found = 0;
+        SAMFileReader reader = new SAMFileReader(new File(outputs[1]));
+        for (SAMRecord record : reader) {
+            if (record.getAttribute("xs") != null) {
+                found++;
+                assertEquals(1, record.getAttribute("xm"));
+            }
+        }
+        reader.close();
+        assertTrue(found > 1000);
+    }
+
+    /**
+     * Test of clipping the adapters and writing the metrics file
+     */
+    @Test
+    public void testMainClipAdapter() throws IOException {
+        System.out.println("instanceMain - clip adapter");
+
+        String insert = "TTAATGTCTTATGATGTTGTGTGCCTGCTGGCATTTGTTAAACAAAATCATTGATTAACAATCAT";
+        StringBuilder longInsert = new StringBuilder();
+        Random random = new Random(6210);
+        while (longInsert.length() < 2 * READ_LENGTH) {
+            longInsert.append("ACGT".charAt(random.nextInt(4)));
+        }
+
+        File input = new File("testdata/adapter_finder_clip_input.sam");
+        input.deleteOnExit();
+        SAMFileHeader header = new SAMFileHeader();
+        header.setSortOrder(SAMFileHeader.SortOrder.unsorted);
+        SAMFileWriter writer = new SAMFileWriterFactory().makeSAMWriter(header, true, input);
+        for (SAMRecord record : makePair(header, "forward", insert, false)) {
+            writer.addAlignment(record);
+        }
+        for (SAMRecord record : makePair(header, "reversed", insert, true)) {
+            writer.addAlignment(record);
+        }
+        for (SAMRecord record : makePair(header, "long", longInsert.toString(), false)) {
+            writer.addAlignment(record);
+        }
+        writer.close();
+
+        File output = new File("testdata/adapter_finder_clipped.sam");
+        output.deleteOnExit();
+        File metricsFile = new File("testdata/adapter_finder_clipped.metrics");
+        metricsFile.deleteOnExit();
+        String[] args = {
+            "I=" + input.getPath(),
+            "O=" + output.getPath(),
+            "CLIP_ADAPTER=true",
+            "METRICS_FILE=" + metricsFile.getPath(),
+            "VALIDATION_STRINGENCY=SILENT"
+        };
+        assertEquals(0, new BamAdapterFinder().instanceMain(args));
+
+        int adapterLength = READ_LENGTH - insert.length();
+        SAMFileReader reader = new SAMFileReader(output);
+        Iterator<SAMRecord> records = reader.iterator();
+        for (int i = 0; i < 2; i++) {
+            SAMRecord record1 = records.next();
+            assertEquals(insert, record1.getReadString());
+            assertEquals(adapterLength, record1.getAttribute("xs"));
+            assertEquals(ADAPTER_1.substring(0, adapterLength), record1.getAttribute("ar"));
+            assertEquals(ADAPTER_1.substring(0, adapterLength).replaceAll(".", "I"), record1.getAttribute("aq"));
+
+            SAMRecord record2 = records.next();
+            String read2 = record2.getReadString();
+            if (record2.getReadNegativeStrandFlag()) {
+                read2 = SequenceUtil.reverseComplement(read2);
+            }
+            assertEquals(SequenceUtil.reverseComplement(insert), read2);
+            assertEquals(insert.length(), record2.getBaseQualities().length);
+            assertEquals(ADAPTER_2.substring(0, adapterLength), record2.getAttribute("ar"));
+        }
+        SAMRecord record = records.next();
+        assertEquals(READ_LENGTH, record.getReadLength());
+        assertEquals(null, record.getAttribute("ar"));
+        reader.close();
+
+        MetricsFile<BamAdapterFinder.AdapterMetric, Integer> metrics = new MetricsFile<BamAdapterFinder.AdapterMetric, Integer>();
+        metrics.read(new FileReader(metricsFile));
+        BamAdapterFinder.AdapterMetric metric = metrics.getMetrics().get(0);
+        assertEquals(3, metric.READ_PAIRS);
+        assertEquals(2, metric.OVERLAPS);
+        assertEquals(2, metric.ADAPTERS);
+        assertEquals(2, metric.CLIPPED_PAIRS);
+        assertEquals(2.0, metrics.getHistogram().get(adapterLength).getValue(), 0.0);
+    }
+
+    /**
+     * Test of clipping the adapters of a read 2 longer than read 1
+     */
+    @Test
+    public void testMainClipLongerRead2() throws IOException {
+        System.out.println("instanceMain - clip adapter with a longer read 2");
+
+        String insert = "TTAATGTCTTATGATGTTGTGTGCCTGCTGGCATTTGTTAAACAAAATCA";
+        int length2 = READ_LENGTH + 10;
+
+        File input = new File("testdata/adapter_finder_clip_long_read2_input.sam");
+        input.deleteOnExit();
+        SAMFileHeader header = new SAMFileHeader();
+        header.setSortOrder(SAMFileHeader.SortOrder.unsorted);
+        SAMFileWriter writer = new SAMFileWriterFactory().makeSAMWriter(header, true, input);
+        for (SAMRecord record : makePair(header, "forward", insert, false, READ_LENGTH, length2)) {
+            writer.addAlignment(record);
+        }
+        for (SAMRecord record : makePair(header, "reversed", insert, true, READ_LENGTH, length2)) {
+            writer.addAlignment(record);
+        }
+        writer.close();
+
+        File output = new File("testdata/adapter_finder_clipped_long_read2.sam");
+        output.deleteOnExit();
+        String[] args = {
+            "I=" + input.getPath(),
+            "O=" + output.getPath(),
+            "CLIP_ADAPTER=true",
+            "VALIDATION_STRINGENCY=SILENT"
+        };
+        assertEquals(0, new BamAdapterFinder().instanceMain(args));
+
+        SAMFileReader reader = new SAMFileReader(output);
+        Iterator<SAMRecord> records = reader.iterator();
+        for (int i = 0; i < 2; i++) {
+            SAMRecord record1 = records.next();
+            assertEquals(insert, record1.getReadString());
+            assertEquals(length2 - insert.length(), record1.getAttribute("xs"));
+            assertEquals(1, record1.getAttribute("xm"));
+            assertEquals(ADAPTER_1.substring(0, READ_LENGTH - insert.length()), record1.getAttribute("ar"));
+
+            SAMRecord record2 = records.next();
+            String read2 = record2.getReadString();
+            if (record2.getReadNegativeStrandFlag()) {
+                read2 = SequenceUtil.reverseComplement(read2);
+            }
+            assertEquals(SequenceUtil.reverseComplement(insert), read2);
+            assertEquals(ADAPTER_2.substring(0, length2 - insert.length()), record2.getAttribute("ar"));
+        }
+        assertFalse(records.hasNext());
+        reader.close();
+    }
+
+    /**
+     * a read pair from a short insert, read 2 stored reverse-complemented if reversed
+     */
+    private static SAMRecord[] makePair(SAMFileHeader header, String name, String insert, boolean reversed) {
+        return makePair(header, name, insert, reversed, READ_LENGTH, READ_LENGTH);
+    }
+
+    private static SAMRecord[] makePair(SAMFileHeader header, String name, String insert, boolean reversed,
+            int length1, int length2) {
+
+        String read1 = (insert + ADAPTER_1).substring(0, length1);
+        String read2 = (SequenceUtil.reverseComplement(insert) + ADAPTER_2).substring(0, length2);
+
+        SAMRecord record1 = new SAMRecord(header);
+        record1.setReadName(name);
+        record1.setFlags(0x1 | 0x4 | 0x8 | 0x40);
+        record1.setReadString(read1);
+        record1.setBaseQualityString(read1.replaceAll(".", "I"));
+
+        SAMRecord record2 = new SAMRecord(header);
+        record2.setReadName(name);
+        record2.setFlags(0x1 | 0x4 | 0x8 | 0x80);
+        if (reversed) {
+            record2.setReadNegativeStrandFlag(true);
+            read2 = SequenceUtil.reverseComplement(read2);
+        }
+        record2.setReadString(read2);
+        record2.setBaseQualityString(read2.replaceAll(".", "I"));
+
+        return new SAMRecord[]{record1, record2};
+    }
+}
@@ -30,6 +30,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import org.junit.Test;
 import uk.ac.sanger.npg.bam.util.CheckMd5;
+import uk.ac.sanger.npg.bam.util.CheckRecords;
 import net.sf.samtools.*;
 
 /**
@@ -273,4 +274,71 @@ public class BamIndexDecoderTest {
         }
         
         outputDir.deleteOnExit();
-    }}
+    }
+
+    /**
+     * Test of decoding a bam file into bam files, records changed without decoding
+     */
+    @Test
+    public void testMainWithBamInput() throws IOException {
+
+        System.out.println("instanceMain - bam input");
+
+        File inputBam = new File("testdata/6383_8_input.bam");
+        inputBam.deleteOnExit();
+        CheckRecords.convertToBam(new File("testdata/bam/6383_8.sam"), inputBam);
+
+        String [] inputs = {inputBam.getPath(), "testdata/bam/6383_8.sam"};
+        String [] outputNames = {"testdata/6383_8_bam_split", "testdata/6383_8_sam_split"};
+        for (int i=0;i<2;i++){
+            new File(outputNames[i]).mkdir();
+            String[] args = {
+                "I=" + inputs[i],
+                "OUTPUT_DIR=" + outputNames[i],
+                "OUTPUT_PREFIX=6383_8",
+                "OUTPUT_FORMAT=bam",
+                "BARCODE_FILE=testdata/decode/6383_8.tag",
+                "METRICS_FILE=" + outputNames[i] + "/6383_8.metrics",
+                "TMP_DIR=testdata/",
+                "VALIDATION_STRINGENCY=SILENT",
+                "BARCODE_TAG_NAME=RT",
+                "BARCODE_QUALITY_TAG_NAME=QT",
+                "CHANGE_READ_NAME=true",
+                "CONVERT_LOW_QUALITY_TO_NO_CALL=true"
+            };
+            new BamIndexDecoder().instanceMain(args);
+            new File(outputNames[i] + "/6383_8.metrics").deleteOnExit();
+        }
+
+        for (int i=0;i<3;i++){
+            File outputFile = new File(outputNames[0] + "/6383_8#" + i + ".bam");
+            outputFile.deleteOnExit();
+            File expectedFile = new File(outputNames[1] + "/6383_8#" + i + ".bam");
+            expectedFile.deleteOnExit();
+            CheckRecords.assertSameRecords(expectedFile, outputFile);
+        }
+
+        new File(outputNames[0]).deleteOnExit();
+        new File(outputNames[1]).deleteOnExit();
+    }
+
+    /**
+     * CRAM output not supported, not written as SAM under a CRAM name
+     */
+    @Test
+    public void testMainWithOutputCram() {
+
+        System.out.println("instanceMain - cram output");
+
+        String[] args = {
+            "I=testdata/bam/6383_8.sam",
+            "O=testdata/6383_8_decoded.cram",
+            "BARCODE_FILE=testdata/decode/6383_8.tag",
+            "METRICS_FILE=testdata/6383_8_decoded.metrics",
+            "VALIDATION_STRINGENCY=SILENT"
+        };
+
+        assertEquals(1, new BamIndexDecoder().instanceMain(args));
+        assertFalse(new File("testdata/6383_8_decoded.cram").exists());
+    }
+}
@@ -19,12 +19,25 @@
  */
 package uk.ac.sanger.npg.picard;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.TimeZone;
+import net.sf.samtools.SAMFileHeader;
 import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMRecord;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.Test;
 import uk.ac.sanger.npg.bam.util.CheckMd5;
 
@@ -160,4 +173,68 @@ public class BamMergerTest {
         
         assertEquals("06423e35c7f42b3301c0dd087a6872a5", CheckMd5.getBamMd5AfterRemovePGVersion(mergedBamFile, "BamMerger"));
     }
+
+    /**
+     * Test of extra unmapped reads at the end while an alignment is left,
+     * the last unmapped read without alignment is written once before failing
+     */
+    @Test
+    public void testExtraReadsAtEndWithAlignmentLeft() throws IOException {
+
+        System.out.println("merge extra reads at end with an alignment left, keep extra reads");
+
+        // aligned bam with an alignment of a read not in the unmapped bam at the end
+        File alignedFile = File.createTempFile("6210_8_aligned_extra_alignment", ".sam");
+        alignedFile.deleteOnExit();
+        BufferedReader reader = new BufferedReader(new FileReader("testdata/bam/6210_8_aligned.sam"));
+        PrintWriter writer = new PrintWriter(new FileWriter(alignedFile));
+        String lastLine = null;
+        String line;
+        while( (line = reader.readLine()) != null ){
+            writer.println(line);
+            lastLine = line;
+        }
+        writer.println(lastLine.replaceFirst("^[^\\t]+", "HS20_6216:8:1101:9999:9999"));
+        writer.close();
+        reader.close();
+
+        SAMFileReader alignments = new SAMFileReader(alignedFile);
+        SAMFileReader in = new SAMFileReader(new File("testdata/bam/6210_8_extra_reads.sam"));
+        final List<SAMRecord> records = new ArrayList<SAMRecord>();
+        SAMFileWriter out = new SAMFileWriter() {
+            @Override
+            public void addAlignment(SAMRecord record) {
+                records.add(record);
+            }
+
+            @Override
+            public SAMFileHeader getFileHeader() {
+                return null;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        BamMerger keepMerger = new BamMerger();
+        keepMerger.KEEP_EXTRA_UNMAPPED_READS = true;
+        try {
+            keepMerger.mergealign_pairedsupp(in.iterator(), alignments.iterator(), out);
+            fail("Exception expected for the alignment left");
+        } catch (RuntimeException ex) {
+            assertTrue(ex.getMessage().startsWith("The mapped bam file has more reads than the unmapped"));
+        }
+        in.close();
+        alignments.close();
+
+        assertEquals(9, records.size());
+        Set<String> written = new HashSet<String>();
+        for (SAMRecord record : records) {
+            assertTrue("written once: " + record.getReadName(), written.add(record.getReadName() + " " + record.getFlags()));
+        }
+        SAMRecord last = records.get(records.size() - 1);
+        assertEquals("HS20_6216:8:1101:1233:2068", last.getReadName());
+        assertTrue(last.getReadUnmappedFlag());
+    }
 }
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package uk.ac.sanger.npg.picard;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+import net.sf.picard.metrics.MetricsFile;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMFileWriterFactory;
+import net.sf.samtools.SAMRecord;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import uk.ac.sanger.npg.bam.util.CheckRecords;
+
+/**
+ * This is the test class for BamPipeline
+ *
+ * @author agent@local
+ */
+public class BamPipelineTest {
+
+    public BamPipelineTest() {
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT"));
+        SAMFileReader.setDefaultValidationStringency(SAMFileReader.ValidationStringency.SILENT);
+    }
+
+    /**
+     * Test of splitting stage options
+     */
+    @Test
+    public void testSplitStageOptions() {
+        System.out.println("splitStageOptions");
+
+        assertEquals(Arrays.asList("BamTagStripper", "KEEP=ci", "STRIP=OQ"),
+                BamPipeline.splitStageOptions(" BamTagStripper  KEEP=ci STRIP=OQ "));
+        assertEquals(Arrays.asList("ChangeBamHeader", "PG=ID:samtools;CL:samtools sort", "SM=x"),
+                BamPipeline.splitStageOptions("ChangeBamHeader PG=\"ID:samtools;CL:samtools sort\" SM=x"));
+        assertEquals(Arrays.asList("ChangeBamHeader", "DS="),
+                BamPipeline.splitStageOptions("ChangeBamHeader DS=\"\""));
+    }
+
+    /**
+     * Test of unknown stage and invalid stage options
+     */
+    @Test
+    public void testInvalidStages() {
+        System.out.println("instanceMain - invalid stages");
+
+        String[] unknown = {
+            "I=testdata/bam/6383_8.sam",
+            "O=testdata/6383_8_pipeline_invalid.sam",
+            "STAGE=BamMerger"
+        };
+        assertEquals(1, new BamPipeline().instanceMain(unknown));
+
+        String[] invalid = {
+            "I=testdata/bam/6383_8.sam",
+            "O=testdata/6383_8_pipeline_invalid.sam",
+            "STAGE=BamTagStripper NOT_AN_OPTION=1"
+        };
+        assertEquals(1, new BamPipeline().instanceMain(invalid));
+    }
+
+    /**
+     * Test of the same output from the pipeline as from running each program in turn
+     */
+    @Test
+    public void testMain() throws IOException {
+        System.out.println("instanceMain");
+
+        String[][] stages = {
+            {"BamIndexDecoder", "BARCODE_FILE=testdata/decode/6383_8.tag", "BARCODE_TAG_NAME=RT", "CHANGE_READ_NAME=true"},
+            {"BamAdapterFinder", "MIN_OVERLAP=20"},
+            {"BamTagStripper", "KEEP=ci", "STRIP=QT"},
+            {"BamQualityQuantisation", "SCHEME=ILLUMINA_4_LEVEL"},
+            {"ChangeBamHeader", "PG=ID:samtools_sorting;PN:samtools;VN:0.1.12a (r862);CL:samtools sort"}
+        };
+
+        // each program in turn
+        File stepMetricsFile = new File("testdata/6383_8_pipeline_step.metrics");
+        stepMetricsFile.deleteOnExit();
+        String input = "testdata/bam/6383_8.sam";
+        for (int i = 0; i < stages.length; i++) {
+            String output = "testdata/6383_8_pipeline_step" + i + ".sam";
+            List<String> args = new ArrayList<String>();
+            args.add("I=" + input);
+            args.add("O=" + output);
+            args.add("VALIDATION_STRINGENCY=SILENT");
+            args.addAll(Arrays.asList(stages[i]).subList(1, stages[i].length));
+            if (i == 0) {
+                args.add("METRICS_FILE=" + stepMetricsFile.getPath());
+            }
+            assertEquals(0, newProgram(stages[i][0]).instanceMain(args.toArray(new String[args.size()])));
+            new File(output).deleteOnExit();
+            input = output;
+        }
+
+        // all in one pipeline
+        File metricsFile = new File("testdata/6383_8_pipeline.metrics");
+        metricsFile.deleteOnExit();
+        File output = new File("testdata/6383_8_pipeline.sam");
+        output.deleteOnExit();
+        List<String> args = new ArrayList<String>();
+        args.add("I=testdata/bam/6383_8.sam");
+        args.add("O=" + output.getPath());
+        args.add("VALIDATION_STRINGENCY=SILENT");
+        for (int i = 0; i < stages.length; i++) {
+            StringBuilder stage = new StringBuilder();
+            for (String option : stages[i]) {
+                stage.append('"').append(option).append("\" ");
+            }
+            if (i == 0) {
+                stage.append("METRICS_FILE=").append(metricsFile.getPath());
+            }
+            args.add("STAGE=" + stage);
+        }
+        assertEquals(0, new BamPipeline().instanceMain(args.toArray(new String[args.size()])));
+
+        CheckRecords.assertSameRecords(new File(input), output);
+
+        MetricsFile<IndexDecoder.BarcodeMetric, Integer> expectedMetrics = new MetricsFile<IndexDecoder.BarcodeMetric, Integer>();
+        expectedMetrics.read(new FileReader(stepMetricsFile));
+        MetricsFile<IndexDecoder.BarcodeMetric, Integer> metrics = new MetricsFile<IndexDecoder.BarcodeMetric, Integer>();
+        metrics.read(new FileReader(metricsFile));
+        assertEquals(expectedMetrics.getMetrics(), metrics.getMetrics());
+    }
+
+    /**
+     * Test of a coordinate sorted input with the mates of read pairs apart
+     */
+    @Test
+    public void testCoordinateSorted() {
+        System.out.println("instanceMain - coordinate sorted");
+
+        File sorted = new File("testdata/986_1_human_pipeline_sorted.sam");
+        sorted.deleteOnExit();
+        SAMFileReader reader = new SAMFileReader(new File("testdata/bam/986_1_human.sam"));
+        SAMFileHeader header = reader.getFileHeader().clone();
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+        SAMFileWriter writer = new SAMFileWriterFactory().makeSAMWriter(header, false, sorted);
+        for (SAMRecord record : reader) {
+            writer.addAlignment(record);
+        }
+        writer.close();
+        reader.close();
+
+        // records of each stage processed one by one
+        File stepOutput = new File("testdata/986_1_human_pipeline_step.sam");
+        stepOutput.deleteOnExit();
+        String[] stripperArgs = {"I=" + sorted.getPath(), "O=" + stepOutput.getPath(), "KEEP=ci"};
+        assertEquals(0, new BamTagStripper().instanceMain(stripperArgs));
+        File output = new File("testdata/986_1_human_pipeline.sam");
+        output.deleteOnExit();
+        String[] args = {
+            "I=" + sorted.getPath(),
+            "O=" + output.getPath(),
+            "STAGE=BamTagStripper KEEP=ci"
+        };
+        assertEquals(0, new BamPipeline().instanceMain(args));
+        CheckRecords.assertSameRecords(stepOutput, output);
+
+        // a stage working on read pairs still needs the mates together
+        String[] pairArgs = {
+            "I=" + sorted.getPath(),
+            "O=" + output.getPath(),
+            "STAGE=BamTagStripper KEEP=ci",
+            "STAGE=BamAdapterFinder"
+        };
+        try {
+            new BamPipeline().instanceMain(pairArgs);
+            fail("RuntimeException expected");
+        } catch (RuntimeException ex) {
+            assertTrue(ex.getMessage().startsWith("The paired reads are not together"));
+        }
+    }
+
+    private static PicardCommandLine newProgram(String name) {
+        if (name.equals("BamIndexDecoder")) {
+            return new BamIndexDecoder();
+        } else if (name.equals("BamAdapterFinder")) {
+            return new BamAdapterFinder();
+        } else if (name.equals("BamTagStripper")) {
+            return new BamTagStripper();
+        } else if (name.equals("BamQualityQuantisation")) {
+            return new BamQualityQuantisation();
+        }
+        return new ChangeBamHeader();
+    }
+}
@@ -21,14 +21,19 @@ package uk.ac.sanger.npg.picard;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.util.TimeZone;
 import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMRecord;
 import net.sf.samtools.SAMUtils;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 import uk.ac.sanger.npg.bam.util.CheckMd5;
+import uk.ac.sanger.npg.bam.util.CheckRecords;
 /**
  * This is the test class for BamQualityQuantisation
  * 
@@ -77,7 +82,7 @@ public class BamQualityQuantisationTest {
         };
 
         qualObj.instanceMain(args);   
-        assertEquals(qualObj.getCommandLine(), "uk.ac.sanger.npg.picard.BamQualityQuantisation INPUT=testdata/bam/6210_8.sam OUTPUT=testdata/6210_8_squashed.bam TMP_DIR=[testdata] VALIDATION_STRINGENCY=SILENT CREATE_MD5_FILE=true    USE_OLD_QUALITY=false VERBOSITY=INFO QUIET=false COMPRESSION_LEVEL=5 MAX_RECORDS_IN_RAM=500000 CREATE_INDEX=false");
+        assertEquals(qualObj.getCommandLine(), "uk.ac.sanger.npg.picard.BamQualityQuantisation INPUT=testdata/bam/6210_8.sam OUTPUT=testdata/6210_8_squashed.bam TMP_DIR=[testdata] VALIDATION_STRINGENCY=SILENT CREATE_MD5_FILE=true    USE_OLD_QUALITY=false BINNING_SCHEME=SANGER NUM_THREADS=1 VERBOSITY=INFO QUIET=false COMPRESSION_LEVEL=5 MAX_RECORDS_IN_RAM=500000 CREATE_INDEX=false");
         
         System.out.println("checking output bam md5");
         
@@ -89,5 +94,122 @@ public class BamQualityQuantisationTest {
         
         assertEquals("323371b5c873f5eb08e6e1484178b30c", CheckMd5.getBamMd5AfterRemovePGVersion(squashedBamFile, "BamQualityQuantisation"));
     }
- 
+
+    /**
+     * Test of quantising with several threads, same output as with one
+     */
+    @Test
+    public void testMainWithThreads() throws IOException {
+
+        System.out.println("instanceMain with threads");
+
+        File oneThreadBamFile = new File("testdata/6210_8_squashed_one_thread.bam");
+        oneThreadBamFile.deleteOnExit();
+        File threadsBamFile = new File("testdata/6210_8_squashed_threads.bam");
+        threadsBamFile.deleteOnExit();
+
+        for (File output : new File[] {oneThreadBamFile, threadsBamFile}) {
+            String[] args = {
+                "I=testdata/bam/6210_8.sam",
+                "O=" + output.getPath(),
+                "NUM_THREADS=" + (output == oneThreadBamFile ? 1 : 3),
+                "TMP_DIR=testdata/",
+                "VALIDATION_STRINGENCY=SILENT"
+            };
+            assertEquals(0, new BamQualityQuantisation().instanceMain(args));
+        }
+
+        CheckRecords.assertSameRecords(oneThreadBamFile, threadsBamFile);
+    }
+
+    /**
+     * Test of quantising with bins from a file
+     */
+    @Test
+    public void testMainWithBinsFile() throws IOException {
+
+        System.out.println("instanceMain - bins file");
+
+        File binsFile = File.createTempFile("quality_bins", ".txt");
+        binsFile.deleteOnExit();
+        FileWriter binsWriter = new FileWriter(binsFile);
+        binsWriter.write("0->1=0\n2->14=12\n15->29=23\n30->63=37\n");
+        binsWriter.close();
+
+        String[] args = {
+            "I=testdata/bam/6210_8.sam",
+            "O=testdata/6210_8_four_levels.bam",
+            "BINS=" + binsFile.getPath(),
+            "TMP_DIR=testdata/",
+            "VALIDATION_STRINGENCY=SILENT"
+        };
+        assertEquals(0, new BamQualityQuantisation().instanceMain(args));
+
+        File outputFile = new File("testdata/6210_8_four_levels.bam");
+        outputFile.deleteOnExit();
+
+        SAMFileReader input = new SAMFileReader(new File("testdata/bam/6210_8.sam"));
+        SAMFileReader output = new SAMFileReader(outputFile);
+        assertEquals("Quantise quality scores into reduced resolution scores using bins 0->1=0,2->14=12,15->29=23,30->63=37",
+                output.getFileHeader().getProgramRecord("BamQualityQuantisation").getAttribute("DS"));
+        byte [] levels = {0, 12, 23, 37};
+        java.util.Iterator<SAMRecord> outputIterator = output.iterator();
+        for (SAMRecord record : input) {
+            byte [] quals = record.getBaseQualities();
+            byte [] newQuals = outputIterator.next().getBaseQualities();
+            assertEquals(quals.length, newQuals.length);
+            for (int i = 0; i < quals.length; i++) {
+                int bin = quals[i] < 2 ? 0 : quals[i] < 15 ? 1 : quals[i] < 30 ? 2 : 3;
+                assertEquals(levels[bin], newQuals[i]);
+            }
+        }
+        input.close();
+        output.close();
+    }
+
+    /**
+     * Test of dry run reporting compressed size for each scheme
+     */
+    @Test
+    public void testDryRun() throws IOException {
+
+        System.out.println("instanceMain - dry run");
+
+        String[] args = {
+            "I=testdata/bam/6210_8.sam",
+            "REPORT=testdata/6210_8_quantisation_report.txt",
+            "DRY_RUN=100",
+            "TMP_DIR=testdata/",
+            "VALIDATION_STRINGENCY=SILENT"
+        };
+        assertEquals(0, new BamQualityQuantisation().instanceMain(args));
+
+        File reportFile = new File("testdata/6210_8_quantisation_report.txt");
+        reportFile.deleteOnExit();
+        java.io.BufferedReader report = new java.io.BufferedReader(new java.io.FileReader(reportFile));
+        assertEquals("scheme\tbins\tcompressed_bytes\tratio_to_original", report.readLine());
+        String [] schemes = {"ORIGINAL", "SANGER", "ILLUMINA_8_LEVEL", "ILLUMINA_4_LEVEL"};
+        long originalSize = 0;
+        for (String scheme : schemes) {
+            String [] fields = report.readLine().split("\t");
+            assertEquals(scheme, fields[0]);
+            long size = Long.parseLong(fields[2]);
+            if (originalSize == 0) {
+                originalSize = size;
+            }
+            assertTrue(size > 0 && size <= originalSize);
+        }
+        assertEquals(null, report.readLine());
+        report.close();
+
+        // the report is not written to OUTPUT
+        String[] outputArgs = {
+            "I=testdata/bam/6210_8.sam",
+            "O=testdata/6210_8_quantisation_report.bam",
+            "DRY_RUN=100"
+        };
+        assertEquals(1, new BamQualityQuantisation().instanceMain(outputArgs));
+        assertFalse(new File("testdata/6210_8_quantisation_report.bam").exists());
+    }
+
 }
@@ -21,13 +21,19 @@ package uk.ac.sanger.npg.picard;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.TimeZone;
 import net.sf.samtools.SAMFileHeader;
 import net.sf.samtools.SAMFileReader;
 import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import org.junit.Test;
 import uk.ac.sanger.npg.bam.util.CheckMd5;
+import uk.ac.sanger.npg.bam.util.CheckRecords;
 
 /**
  * This is the test class for BamReadTrimmer
@@ -71,7 +77,7 @@ public class BamReadTrimmerTest {
                 + "FIRST_POSITION_TO_TRIM=1 TRIM_LENGTH=3 "
                 + "TMP_DIR=[testdata] VALIDATION_STRINGENCY=SILENT "
                 + "CREATE_MD5_FILE=true    ONLY_FORWARD_READ=true "
-                + "SAVE_TRIM=true TRIM_BASE_TAG=rs TRIM_QUALITY_TAG=qs "
+                + "SAVE_TRIM=true TRIM_BASE_TAG=rs TRIM_QUALITY_TAG=qs NUM_THREADS=1 "
                 + "VERBOSITY=INFO QUIET=false COMPRESSION_LEVEL=5 "
                 + "MAX_RECORDS_IN_RAM=500000 CREATE_INDEX=false"
               );
@@ -86,6 +92,37 @@ public class BamReadTrimmerTest {
         assertEquals("ad8b8cbc6f08d1091464678271147222", CheckMd5.getBamMd5AfterRemovePGVersion(trimmedBamFile, "BamReadTrimmer"));
 
     }
+    /**
+     * Test of trimming with several threads, same output as with one
+     */
+    @Test
+    public void testMainWithThreads() {
+
+        System.out.println("instanceMain with threads");
+
+        File oneThreadBamFile = new File("testdata/6210_8_trimmed_one_thread.bam");
+        oneThreadBamFile.deleteOnExit();
+        File threadsBamFile = new File("testdata/6210_8_trimmed_threads.bam");
+        threadsBamFile.deleteOnExit();
+
+        for (File output : new File[] {oneThreadBamFile, threadsBamFile}) {
+            String[] args = {
+                "I=testdata/bam/6210_8.sam",
+                "O=" + output.getPath(),
+                "WINDOW=1:1:3:br:bq",
+                "WINDOW=2:5:2",
+                "TAG=RG",
+                "TAG=BC",
+                "NUM_THREADS=" + (output == oneThreadBamFile ? 1 : 3),
+                "TMP_DIR=testdata/",
+                "VALIDATION_STRINGENCY=SILENT"
+            };
+            assertEquals(0, new BamReadTrimmer().instanceMain(args));
+        }
+
+        CheckRecords.assertSameRecords(oneThreadBamFile, threadsBamFile);
+    }
+
     /**
      * Test trimming sam record methods
      */
@@ -136,4 +173,71 @@ public class BamReadTrimmerTest {
         
     }
 
+    /**
+     * Test removing alignment of a reverse strand record in place
+     */
+    @Test
+    public void testRemoveAlignment(){
+        System.out.println("Testing removing alignment");
+
+        SAMFileHeader header = new SAMFileHeader();
+        header.addSequence(new SAMSequenceRecord("chr1", 1000));
+        SAMRecord record = new SAMRecord(header);
+        record.setReadName("read1");
+        record.setReadString("CCCTCCTACT");
+        record.setBaseQualityString("!998997<99");
+        record.setReferenceIndex(0);
+        record.setAlignmentStart(100);
+        record.setCigarString("10M");
+        record.setMappingQuality(37);
+        record.setFlags(0x1 | 0x2 | 0x10 | 0x80 | 0x400);
+        record.setAttribute("RG", "1");
+        record.setAttribute("NM", 0);
+
+        SAMFileHeader outputHeader = new SAMFileHeader();
+        trimmer.TAG_TO_KEEP.clear();
+        trimmer.TAG_TO_KEEP.add("RG");
+        SAMRecord newRecord = trimmer.removeAlignment(record, outputHeader);
+
+        assertSame(record, newRecord);
+        assertEquals(0x1 | 0x4 | 0x8 | 0x80, newRecord.getFlags());
+        assertEquals("AGTAGGAGGG", newRecord.getReadString());
+        assertEquals("99<799899!", newRecord.getBaseQualityString());
+        assertEquals("*", newRecord.getReferenceName());
+        assertEquals(0, newRecord.getAlignmentStart());
+        assertEquals("*", newRecord.getCigarString());
+        assertEquals(0, newRecord.getMappingQuality());
+        assertEquals("1", newRecord.getAttribute("RG"));
+        assertNull(newRecord.getAttribute("NM"));
+    }
+
+    /**
+     * Test trimming several windows from a reversed read in one pass
+     */
+    @Test
+    public void testTrimmingWindows(){
+        System.out.println("Testing trimming several windows");
+
+        String bases     = "CCCTCCTACTACCACCAAAATTT";
+        String qualities = "!998997<99DDDDD<>>><<><";
+
+        SAMFileHeader header = new SAMFileHeader();
+        SAMRecord record = new SAMRecord(header);
+        record.setReadString(bases);
+        record.setBaseQualityString(qualities);
+        record.setReadNegativeStrandFlag(true);
+
+        List<BamReadTrimmer.TrimWindow> windows = new ArrayList<BamReadTrimmer.TrimWindow>();
+        windows.add(new BamReadTrimmer.TrimWindow(1, 3, "br", "bq"));
+        windows.add(new BamReadTrimmer.TrimWindow(6, 4, "xr", "xq"));
+        BamReadTrimmer.trimSAMRecord(record, windows);
+
+        assertEquals("CCCTCCTACTACCAAA", record.getReadString());
+        assertEquals("!998997<99DDDD><", record.getBaseQualityString());
+        assertEquals("AAA", record.getAttribute("br"));
+        assertEquals("<><", record.getAttribute("bq"));
+        assertEquals("TTGG", record.getAttribute("xr"));
+        assertEquals(">><D", record.getAttribute("xq"));
+    }
+
 }
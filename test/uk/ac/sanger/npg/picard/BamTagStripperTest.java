@@ -22,9 +22,11 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.TimeZone;
+import net.sf.samtools.SAMTagUtil;
 import static org.junit.Assert.assertEquals;
 import org.junit.Test;
 import uk.ac.sanger.npg.bam.util.CheckMd5;
+import uk.ac.sanger.npg.bam.util.CheckRecords;
 
 /**
  * This is the test class for BamReadTrimmer
@@ -95,5 +97,54 @@ public class BamTagStripperTest {
         strippedBamFile.delete();
     }    
 
+    /**
+     * Test of stripping the binary records of a bam file, same records as stripping the sam file
+     */
+    @Test
+    public void testMainBamInput() throws IOException {
+
+        System.out.println("instanceMain - bam input");
+
+        File bamInput = new File("testdata/7351_8#8_strip_input.bam");
+        bamInput.deleteOnExit();
+        CheckRecords.convertToBam(new File("testdata/bam/7351_8#8.sam"), bamInput);
+
+        String[] outputs = {"testdata/7351_8#8_stripped_from_sam.bam", "testdata/7351_8#8_stripped_from_bam.bam"};
+        String[] inputs = {"testdata/bam/7351_8#8.sam", bamInput.getPath()};
+        for (int i = 0; i < 2; i++) {
+            String[] args = {
+                "I=" + inputs[i],
+                "O=" + outputs[i],
+                "KEEP=ci",
+                "STRIP=OQ",
+                "VALIDATION_STRINGENCY=SILENT"
+            };
+            assertEquals(0, new BamTagStripper().instanceMain(args));
+            new File(outputs[i]).deleteOnExit();
+        }
+        CheckRecords.assertSameRecords(new File(outputs[0]), new File(outputs[1]));
+    }
 
+    /**
+     * Test of the table of tags to strip
+     */
+    @Test
+    public void testGetTagsToStrip() {
+
+        System.out.println("getTagsToStrip");
+
+        BamTagStripper tagStripper = new BamTagStripper();
+        tagStripper.TAG_TO_KEEP.add("ci");
+        tagStripper.TAG_TO_STRIP.add("OQ");
+        boolean[] tagsToStrip = tagStripper.getTagsToStrip();
+
+        SAMTagUtil tagUtil = SAMTagUtil.getSingleton();
+        assertEquals(false, tagsToStrip[tagUtil.makeBinaryTag("RG") & 0xFFFF]);
+        assertEquals(false, tagsToStrip[tagUtil.makeBinaryTag("E2") & 0xFFFF]);
+        assertEquals(false, tagsToStrip[tagUtil.makeBinaryTag("Xa") & 0xFFFF]);
+        assertEquals(false, tagsToStrip[tagUtil.makeBinaryTag("ci") & 0xFFFF]);
+        assertEquals(true, tagsToStrip[tagUtil.makeBinaryTag("OQ") & 0xFFFF]);
+        assertEquals(true, tagsToStrip[tagUtil.makeBinaryTag("xs") & 0xFFFF]);
+        assertEquals(true, tagsToStrip[tagUtil.makeBinaryTag("a1") & 0xFFFF]);
+    }
 }
@@ -21,11 +21,17 @@ package uk.ac.sanger.npg.picard;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.TimeZone;
+import java.io.BufferedReader;
+import java.io.FileReader;
 import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMRecord;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import org.junit.Test;
 import uk.ac.sanger.npg.bam.util.CheckMd5;
+import uk.ac.sanger.npg.bam.util.CheckRecords;
 
 /**
  * This is the test class for ChangeBamHeader
@@ -97,4 +103,56 @@ public class ChangeBamHeaderTest {
 
         assertEquals("11ca0b39d43d6d716964fb36383a7e92", CheckMd5.getBamMd5AfterRemovePGVersion(newBamFile, "ChangeBamHeader"));
     }
+
+    /**
+     * Test of copying the compressed records of a bam input, same records as from the sam input,
+     * with records in the first block after the header and in many blocks
+     */
+    @Test
+    public void testMainBamInput() throws IOException {
+
+        System.out.println("instanceMain - bam input");
+
+        checkBamInput("6210_8");
+        checkBamInput("chimeric");
+    }
+
+    private void checkBamInput(String name) throws IOException {
+
+        File bamInput = new File("testdata/" + name + "_header_input.bam");
+        bamInput.deleteOnExit();
+        CheckRecords.convertToBam(new File("testdata/bam/" + name + ".sam"), bamInput);
+
+        String[] inputs = {"testdata/bam/" + name + ".sam", bamInput.getPath(), "testdata/" + name + "_header_from_bam.bam"};
+        String[] outputs = {"testdata/" + name + "_header_from_sam.bam", "testdata/" + name + "_header_from_bam.bam", "testdata/" + name + "_header_twice.bam"};
+        for (int i = 0; i < 3; i++) {
+            String[] args = {
+                "I=" + inputs[i],
+                "O=" + outputs[i],
+                "PG=ID:samtools_sorting;PN:samtools;VN:0.1.12a (r862);CL:samtools sort",
+                "CREATE_MD5_FILE=true",
+                "VALIDATION_STRINGENCY=SILENT"
+            };
+            assertEquals(0, new ChangeBamHeader().instanceMain(args));
+            new File(outputs[i]).deleteOnExit();
+            new File(outputs[i] + ".md5").deleteOnExit();
+        }
+        CheckRecords.assertSameRecords(new File(outputs[0]), new File(outputs[1]));
+
+        File twice = new File(outputs[2]);
+        SAMFileReader input = new SAMFileReader(bamInput);
+        SAMFileReader reader = new SAMFileReader(twice);
+        assertEquals(input.getFileHeader().getProgramRecords().size() + 4, reader.getFileHeader().getProgramRecords().size());
+        Iterator<SAMRecord> expected = input.iterator();
+        for (SAMRecord record : reader) {
+            assertEquals(expected.next().getSAMString(), record.getSAMString());
+        }
+        assertFalse(expected.hasNext());
+        reader.close();
+        input.close();
+
+        BufferedReader md5 = new BufferedReader(new FileReader(outputs[2] + ".md5"));
+        assertEquals(CheckMd5.getFileMd5(twice), md5.readLine());
+        md5.close();
+    }
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package uk.ac.sanger.npg.picard;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.TimeZone;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMRecord;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import uk.ac.sanger.npg.bam.util.CheckMd5;
+import uk.ac.sanger.npg.bam.util.CheckRecords;
+import uk.ac.sanger.npg.illumina.Illumina2bam;
+
+/**
+ * This is the test class for ConcatenateBamShards
+ *
+ * @author agent@local
+ */
+public class ConcatenateBamShardsTest {
+
+    private static final String [] illumina2bamArgs = {
+        "INTENSITY_DIR=testdata/140624_MS6_13349_A_MS2639979-300V2/Data/Intensities",
+        "LANE=1",
+        "SAMPLE_ALIAS=TestSample",
+        "LIBRARY_NAME=TestLibrary",
+        "RUN_START_DATE=2011-03-23T00:00:00+0000",
+        "TMP_DIR=testdata/",
+        "VALIDATION_STRINGENCY=STRICT",
+        "PF_FILTER=false"
+    };
+
+    public ConcatenateBamShardsTest() {
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT"));
+    }
+
+    /**
+     * Test of joining shards of a lane behind the lane header, same records as converting the lane in one go
+     */
+    @Test
+    public void testMain() throws IOException {
+
+        System.out.println("instanceMain");
+
+        File bamFile = new File("testdata/test_shards_13349_1.bam");
+        bamFile.deleteOnExit();
+        assertEquals(0, new Illumina2bam().instanceMain(concat(illumina2bamArgs, "OUTPUT=" + bamFile, "TILES=1101")));
+
+        File shard = new File("testdata/test_shards_13349_1101.bam.part");
+        shard.deleteOnExit();
+        File shardHeader = Illumina2bam.getShardHeaderFile(shard);
+        shardHeader.deleteOnExit();
+        assertEquals(0, new Illumina2bam().instanceMain(concat(illumina2bamArgs, "OUTPUT=" + shard, "TILES=1101", "SHARD=true")));
+        assertTrue(shardHeader.exists());
+        assertFalse(ConcatenateBamShards.hasBamHeader(shard));
+        assertTrue(ConcatenateBamShards.hasBamHeader(bamFile));
+
+        File joined = new File("testdata/test_shards_13349_joined.bam");
+        joined.deleteOnExit();
+        File joinedMd5 = new File(joined.getPath() + ".md5");
+        joinedMd5.deleteOnExit();
+        String [] args = {
+            "I=" + shard,
+            "O=" + joined,
+            "CREATE_MD5_FILE=true",
+            "VALIDATION_STRINGENCY=STRICT"
+        };
+        assertEquals(0, new ConcatenateBamShards().instanceMain(args));
+        CheckRecords.assertSameRecords(bamFile, joined);
+        BufferedReader md5 = new BufferedReader(new FileReader(joinedMd5));
+        assertEquals(CheckMd5.getFileMd5(joined), md5.readLine());
+        md5.close();
+
+        // the same shard twice as a sam output, records decoded
+        File joinedSam = new File("testdata/test_shards_13349_joined.sam");
+        joinedSam.deleteOnExit();
+        String [] samArgs = {
+            "I=" + shard,
+            "I=" + shard,
+            "H=" + bamFile,
+            "O=" + joinedSam
+        };
+        assertEquals(0, new ConcatenateBamShards().instanceMain(samArgs));
+        int count = 0;
+        SAMFileReader samReader = new SAMFileReader(joinedSam);
+        for (SAMRecord record : samReader) {
+            count++;
+        }
+        samReader.close();
+        assertEquals(40, count);
+    }
+
+    private static String [] concat(String [] args, String... moreArgs) {
+        String [] allArgs = new String[args.length + moreArgs.length];
+        System.arraycopy(args, 0, allArgs, 0, args.length);
+        System.arraycopy(moreArgs, 0, allArgs, args.length, moreArgs.length);
+        return allArgs;
+    }
+}
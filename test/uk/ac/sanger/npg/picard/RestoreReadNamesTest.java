@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2026 GRL
+ *
+ * This library is free software. You can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package uk.ac.sanger.npg.picard;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.TimeZone;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMFileWriterFactory;
+import net.sf.samtools.SAMReadGroupRecord;
+import net.sf.samtools.SAMRecord;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import uk.ac.sanger.npg.illumina.CompactReadName;
+import uk.ac.sanger.npg.illumina.Illumina2bam;
+
+/**
+ * This is the test class for RestoreReadNames
+ *
+ * @author agent@local
+ */
+public class RestoreReadNamesTest {
+
+    private static final String [] illumina2bamArgs = {
+        "INTENSITY_DIR=testdata/140624_MS6_13349_A_MS2639979-300V2/Data/Intensities",
+        "LANE=1",
+        "SAMPLE_ALIAS=TestSample",
+        "LIBRARY_NAME=TestLibrary",
+        "RUN_START_DATE=2011-03-23T00:00:00+0000",
+        "TMP_DIR=testdata/",
+        "VALIDATION_STRINGENCY=STRICT",
+        "PF_FILTER=false",
+        "TILES=1101"
+    };
+
+    public RestoreReadNamesTest() {
+        TimeZone.setDefault(TimeZone.getTimeZone("GMT"));
+    }
+
+    /**
+     * Test of restoring full read names, same records as converting the lane with full read names
+     */
+    @Test
+    public void testMain() {
+
+        System.out.println("instanceMain");
+
+        File bamFile = new File("testdata/test_full_names_13349_1.bam");
+        bamFile.deleteOnExit();
+        assertEquals(0, new Illumina2bam().instanceMain(concat(illumina2bamArgs, "OUTPUT=" + bamFile)));
+
+        File compactFile = new File("testdata/test_compact_names_13349_1.bam");
+        compactFile.deleteOnExit();
+        assertEquals(0, new Illumina2bam().instanceMain(concat(illumina2bamArgs, "OUTPUT=" + compactFile, "COMPACT_READ_NAME=true")));
+
+        SAMFileReader fullNameReader = new SAMFileReader(bamFile);
+        String firstName = fullNameReader.iterator().next().getReadName();
+        fullNameReader.close();
+        SAMFileReader compactReader = new SAMFileReader(compactFile);
+        assertEquals(Collections.singletonMap("1", "MS6_13349:1"), CompactReadName.getPrefixes(compactReader.getFileHeader()));
+        SAMRecord first = compactReader.iterator().next();
+        assertEquals("1:1101:1", first.getReadName());
+        assertEquals(firstName, CompactReadName.getFullName("MS6_13349:1", 1101, CompactReadName.getCoordinates(first)));
+        compactReader.close();
+
+        // bytes of the read names and tags in the records, before compression
+        long fullNameSize = getNameAndTagSize(bamFile);
+        long compactNameSize = getNameAndTagSize(compactFile);
+        System.out.println("Read name and tag bytes, full names: " + fullNameSize + ", compact names: " + compactNameSize);
+        assertEquals(1140, fullNameSize);
+        assertEquals(1002, compactNameSize);
+
+        File restoredFile = new File("testdata/test_restored_names_13349_1.bam");
+        restoredFile.deleteOnExit();
+        String [] args = {
+            "I=" + compactFile,
+            "O=" + restoredFile,
+            "VALIDATION_STRINGENCY=STRICT"
+        };
+        assertEquals(0, new RestoreReadNames().instanceMain(args));
+
+        SAMFileReader expected = new SAMFileReader(bamFile);
+        SAMFileReader actual = new SAMFileReader(restoredFile);
+        assertTrue(CompactReadName.getPrefixes(actual.getFileHeader()).isEmpty());
+        Iterator<SAMRecord> actualIterator = actual.iterator();
+        int count = 0;
+        for (SAMRecord record : expected) {
+            assertTrue(actualIterator.hasNext());
+            assertEquals(record.getSAMString(), actualIterator.next().getSAMString());
+            count++;
+        }
+        assertFalse(actualIterator.hasNext());
+        assertEquals(20, count);
+        expected.close();
+        actual.close();
+
+        // not written with compact read names
+        String [] fullNameArgs = {
+            "I=" + bamFile,
+            "O=" + new File("testdata/test_restored_names_none.bam")
+        };
+        try {
+            new RestoreReadNames().instanceMain(fullNameArgs);
+            fail("RuntimeException expected");
+        } catch (RuntimeException ex) {
+            assertTrue(ex.getMessage().startsWith("No read name prefix"));
+        }
+    }
+
+    /**
+     * Test of restoring the read names of two lanes merged into one file, by read group
+     */
+    @Test
+    public void testMergedLanes() {
+
+        System.out.println("instanceMain - merged lanes");
+
+        File compactFile = new File("testdata/test_compact_names_13349_merge.bam");
+        compactFile.deleteOnExit();
+        assertEquals(0, new Illumina2bam().instanceMain(concat(illumina2bamArgs, "OUTPUT=" + compactFile, "COMPACT_READ_NAME=true")));
+
+        // the same clusters again as a second lane in its own read group
+        File mergedFile = new File("testdata/test_compact_names_13349_merged.bam");
+        mergedFile.deleteOnExit();
+        SAMFileReader in = new SAMFileReader(compactFile);
+        SAMFileHeader header = in.getFileHeader().clone();
+        SAMReadGroupRecord lane2 = new SAMReadGroupRecord("2", header.getReadGroup("1"));
+        CompactReadName.setPrefix(lane2, "MS6_13349:2");
+        header.addReadGroup(lane2);
+        SAMFileWriter out = new SAMFileWriterFactory().makeBAMWriter(header, true, mergedFile);
+        for (SAMRecord record : in) {
+            out.addAlignment(record);
+            SAMRecord record2 = new SAMRecord(header);
+            record2.setReadName(record.getReadName().replaceFirst("^1:", "2:"));
+            record2.setFlags(record.getFlags());
+            record2.setReadBases(record.getReadBases());
+            record2.setBaseQualities(record.getBaseQualities());
+            record2.setAttribute("RG", "2");
+            CompactReadName.setCoordinates(record2, 1, 2);
+            out.addAlignment(record2);
+        }
+        out.close();
+        in.close();
+
+        File restoredFile = new File("testdata/test_restored_names_13349_merged.bam");
+        restoredFile.deleteOnExit();
+        String [] args = {
+            "I=" + mergedFile,
+            "O=" + restoredFile
+        };
+        assertEquals(0, new RestoreReadNames().instanceMain(args));
+
+        SAMFileReader restored = new SAMFileReader(restoredFile);
+        int count = 0;
+        for (SAMRecord record : restored) {
+            if (record.getStringAttribute("RG").equals("2")) {
+                assertTrue(record.getReadName().matches("MS6_13349:2:1101:1:2"));
+            } else {
+                assertTrue(record.getReadName().startsWith("MS6_13349:1:1101:"));
+            }
+            assertNull(record.getAttribute(CompactReadName.COORDINATES_TAG));
+            count++;
+        }
+        restored.close();
+        assertEquals(40, count);
+    }
+
+    private static long getNameAndTagSize(File bamFile) {
+        long size = 0;
+        SAMFileReader reader = new SAMFileReader(bamFile);
+        for (SAMRecord record : reader) {
+            // read names are stored with a terminating null
+            size += record.getReadNameLength() + 1 + record.getAttributesBinarySize();
+        }
+        reader.close();
+        return size;
+    }
+
+    private static String [] concat(String [] args, String... moreArgs) {
+        String [] allArgs = new String[args.length + moreArgs.length];
+        System.arraycopy(args, 0, allArgs, 0, args.length);
+        System.arraycopy(moreArgs, 0, allArgs, args.length, moreArgs.length);
+        return allArgs;
+    }
+}
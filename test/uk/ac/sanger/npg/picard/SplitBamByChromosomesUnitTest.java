@@ -26,12 +26,17 @@ import java.util.Collections;
 import java.util.TimeZone;
 
 import net.sf.picard.io.IoUtil;
+import net.sf.samtools.SAMFileHeader;
 import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMFileWriterFactory;
 import net.sf.samtools.SAMRecord;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import org.junit.Test;
+import uk.ac.sanger.npg.bam.util.CheckRecords;
 
 /*
   Test class for SplitBamByChromosomes
@@ -344,6 +349,184 @@ UNALIGN read1 read2 destination
     
 }
 
+    /**
+     * Test of splitting a bam file into bam files, records copied without decoding
+     */
+    @Test
+    public void testxahumanBamInput() throws IOException {
+        System.out.println("SplitBamByChromosomes instanceMain: xahuman test case, bam input");
+
+        File inputBam = new File("testdata/10503_1_fix_mate_input.bam");
+        inputBam.deleteOnExit();
+        CheckRecords.convertToBam(new File("testdata/bam/10503_1_fix_mate.sam"), inputBam);
+
+        String[] splitPaths = {
+            "testdata/10503_1_bam_split_by_chromosome_excluded.bam",
+            "testdata/10503_1_bam_split_by_chromosome_target.bam" };
+        String[] args = {
+            "I=" + inputBam.getPath(),
+            "X=" + splitPaths[0],
+            "T=" + splitPaths[1],
+            "U=false",
+            "TMP_DIR=testdata/",
+            "VALIDATION_STRINGENCY=SILENT"
+        };
+        new SplitBamByChromosomes().instanceMain(args);
+
+        String[] expectedPaths = {
+            "testdata/10503_1_sam_split_by_chromosome_excluded.sam",
+            "testdata/10503_1_sam_split_by_chromosome_target.sam" };
+        String[] samArgs = {
+            "I=testdata/bam/10503_1_fix_mate.sam",
+            "X=" + expectedPaths[0],
+            "T=" + expectedPaths[1],
+            "U=false",
+            "TMP_DIR=testdata/",
+            "VALIDATION_STRINGENCY=SILENT"
+        };
+        new SplitBamByChromosomes().instanceMain(samArgs);
+
+        for (int i=0; i<2; i++) {
+            File splitFile = new File(splitPaths[i]);
+            splitFile.deleteOnExit();
+            File expectedFile = new File(expectedPaths[i]);
+            expectedFile.deleteOnExit();
+            CheckRecords.assertSameRecords(expectedFile, splitFile);
+        }
+    }
+
+    /**
+     * Test of reading a coordinate sorted bam file by reference using its index,
+     * with and without excluded output
+     */
+    @Test
+    public void testxahumanUseIndex() throws IOException {
+        System.out.println("SplitBamByChromosomes instanceMain: xahuman test case, USE_INDEX=true");
+
+        File inputBam = new File("testdata/10503_1_fix_mate_sorted.bam");
+        inputBam.deleteOnExit();
+        new File("testdata/10503_1_fix_mate_sorted.bai").deleteOnExit();
+        SAMFileReader samReader = new SAMFileReader(new File("testdata/bam/10503_1_fix_mate.sam"));
+        SAMFileHeader sortedHeader = samReader.getFileHeader().clone();
+        sortedHeader.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+        SAMFileWriter sortedWriter = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(sortedHeader, false, inputBam);
+        for (SAMRecord rec : samReader) {
+            sortedWriter.addAlignment(rec);
+        }
+        sortedWriter.close();
+        samReader.close();
+
+        String[] splitPaths = {
+            "testdata/10503_1_indexed_split_by_chromosome_excluded.bam",
+            "testdata/10503_1_indexed_split_by_chromosome_target.bam",
+            "testdata/10503_1_indexed_split_by_chromosome_target_only.bam" };
+        String[] args = {
+            "I=" + inputBam.getPath(),
+            "X=" + splitPaths[0],
+            "T=" + splitPaths[1],
+            "USE_INDEX=true",
+            "TMP_DIR=testdata/",
+            "VALIDATION_STRINGENCY=SILENT"
+        };
+        assertEquals(0, new SplitBamByChromosomes().instanceMain(args));
+        String[] targetOnlyArgs = {
+            "I=" + inputBam.getPath(),
+            "T=" + splitPaths[2],
+            "USE_INDEX=true",
+            "TMP_DIR=testdata/",
+            "VALIDATION_STRINGENCY=SILENT"
+        };
+        assertEquals(0, new SplitBamByChromosomes().instanceMain(targetOnlyArgs));
+
+        String[] expectedReadNamesInExcluded = {
+            "first_chimeric", "other_unmapped", "second_chimeric", "twenty_twenty", "unmapped_other"
+        };
+        String[] expectedReadNamesInTarget = {
+            "MT_MT", "first_unmapped", "pair_unmapped", "second_unmapped", "y_and_y"
+        };
+        String[][] expectedReadNames = {
+            expectedReadNamesInExcluded, expectedReadNamesInTarget, expectedReadNamesInTarget
+        };
+
+        for (int i=0; i<3; i++) {
+            File splitFile = new File(splitPaths[i]);
+            splitFile.deleteOnExit();
+            assertTrue(splitFile.exists());
+            SAMFileReader check = new SAMFileReader(splitFile);
+            assertEquals(SAMFileHeader.SortOrder.coordinate, check.getFileHeader().getSortOrder());
+            ArrayList<String> readNamesInFile = new ArrayList<String>();
+            int count = 0;
+            for (SAMRecord rec : check) {
+                if (!readNamesInFile.contains(rec.getReadName())) {
+                    readNamesInFile.add(rec.getReadName());
+                }
+                count++;
+            }
+            check.close();
+            Collections.sort(readNamesInFile);
+            assertArrayEquals(expectedReadNames[i], readNamesInFile.toArray());
+            assertEquals(10, count);
+        }
+    }
+
+    /**
+     * Test of rejecting USE_INDEX for input with a supplementary alignment,
+     * which could take its template to the excluded output
+     */
+    @Test
+    public void testxahumanUseIndexSupplementary() throws IOException, CloneNotSupportedException {
+        System.out.println("SplitBamByChromosomes instanceMain: supplementary alignment, USE_INDEX=true");
+
+        File inputBam = new File("testdata/10503_1_fix_mate_supplementary.bam");
+        inputBam.deleteOnExit();
+        new File("testdata/10503_1_fix_mate_supplementary.bai").deleteOnExit();
+        SAMFileReader samReader = new SAMFileReader(new File("testdata/bam/10503_1_fix_mate.sam"));
+        SAMFileHeader sortedHeader = samReader.getFileHeader().clone();
+        sortedHeader.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+        SAMFileWriter sortedWriter = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(sortedHeader, false, inputBam);
+        for (SAMRecord rec : samReader) {
+            sortedWriter.addAlignment(rec);
+            if (rec.getReadName().equals("y_and_y") && rec.getSecondOfPairFlag()) {
+                // part of read 2 aligned to a reference outside the target
+                SAMRecord supplementary = (SAMRecord) rec.clone();
+                supplementary.setReferenceName("20");
+                supplementary.setSupplementaryAlignmentFlag(true);
+                supplementary.setAttribute("SA", "Y," + rec.getAlignmentStart() + ",+,75M,0,0;");
+                sortedWriter.addAlignment(supplementary);
+            }
+        }
+        sortedWriter.close();
+        samReader.close();
+
+        String[] splitPaths = {
+            "testdata/10503_1_supplementary_split_by_chromosome_excluded.bam",
+            "testdata/10503_1_supplementary_split_by_chromosome_target.bam" };
+        for (String path : splitPaths) {
+            new File(path).deleteOnExit();
+        }
+        String[] args = {
+            "I=" + inputBam.getPath(),
+            "X=" + splitPaths[0],
+            "T=" + splitPaths[1],
+            "USE_INDEX=true",
+            "TMP_DIR=testdata/",
+            "VALIDATION_STRINGENCY=SILENT"
+        };
+        assertEquals(1, new SplitBamByChromosomes().instanceMain(args));
+        assertFalse(new File(splitPaths[0]).exists());
+        assertFalse(new File(splitPaths[1]).exists());
+
+        String[] targetOnlyArgs = {
+            "I=" + inputBam.getPath(),
+            "T=" + splitPaths[1],
+            "USE_INDEX=true",
+            "TMP_DIR=testdata/",
+            "VALIDATION_STRINGENCY=SILENT"
+        };
+        assertEquals(1, new SplitBamByChromosomes().instanceMain(targetOnlyArgs));
+        assertFalse(new File(splitPaths[1]).exists());
+    }
+
     public static void main(String[] args) throws IOException {
         SplitBamByChromosomesUnitTest test = new SplitBamByChromosomesUnitTest();
         
@@ -7,12 +7,18 @@ package uk.ac.sanger.npg.picard;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.TimeZone;
 import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMReadGroupRecord;
+import net.sf.samtools.SAMRecord;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 import uk.ac.sanger.npg.bam.util.CheckMd5;
+import uk.ac.sanger.npg.bam.util.CheckRecords;
 
 /**
  *
@@ -66,4 +72,92 @@ public class SplitBamByReadGroupTest {
 
     
     }
+
+    /**
+     * Test of splitting a bam file, records copied without decoding
+     */
+    @Test
+    public void testMainBamInput() throws IOException {
+        System.out.println("instanceMain - bam input");
+
+        File inputBam = new File("testdata/6551_8_input.bam");
+        inputBam.deleteOnExit();
+        CheckRecords.convertToBam(new File("testdata/decode/6551_8.sam"), inputBam);
+
+        String[] args = {
+            "I=" + inputBam.getPath(),
+            "O=testdata/6551_8_bam_split",
+            "TRIM=1",
+            "TMP_DIR=testdata/",
+            "VALIDATION_STRINGENCY=SILENT"
+        };
+        new SplitBamByReadGroup().instanceMain(args);
+
+        String[] samArgs = {
+            "I=testdata/decode/6551_8.sam",
+            "O=testdata/6551_8_sam_split",
+            "TRIM=1",
+            "TMP_DIR=testdata/",
+            "VALIDATION_STRINGENCY=SILENT"
+        };
+        new SplitBamByReadGroup().instanceMain(samArgs);
+
+        for (String rg : new String[]{"#1", "#9"}) {
+            File splitFile = new File("testdata/6551_8_bam_split" + rg + ".bam");
+            splitFile.deleteOnExit();
+            assertTrue(splitFile.exists());
+            File expectedFile = new File("testdata/6551_8_sam_split" + rg + ".sam");
+            expectedFile.deleteOnExit();
+            CheckRecords.assertSameRecords(expectedFile, splitFile);
+        }
+    }
+
+    /**
+     * Test of the asynchronous writers, each output has all the records of its read group in input order
+     */
+    @Test
+    public void testMainRecordsByReadGroup() throws IOException {
+        System.out.println("instanceMain - records by read group");
+
+        File inputFile = new File("testdata/decode/6551_8.sam");
+        String[] args = {
+            "I=" + inputFile.getPath(),
+            "O=testdata/6551_8_rg_split",
+            "TRIM=1",
+            "TMP_DIR=testdata/",
+            "VALIDATION_STRINGENCY=SILENT"
+        };
+        assertEquals(0, new SplitBamByReadGroup().instanceMain(args));
+
+        HashMap<String, List<String>> expectedRecords = new HashMap<String, List<String>>();
+        SAMFileReader in = new SAMFileReader(inputFile);
+        for (SAMReadGroupRecord rg : in.getFileHeader().getReadGroups()) {
+            expectedRecords.put(rg.getId(), new ArrayList<String>());
+        }
+        for (SAMRecord rec : in) {
+            expectedRecords.get((String) rec.getAttribute("RG")).add(rec.getSAMString());
+        }
+        in.close();
+        assertEquals(2, expectedRecords.size());
+
+        int count = 0;
+        for (String rgId : expectedRecords.keySet()) {
+            File splitFile = new File("testdata/6551_8_rg_split" + rgId.substring(1) + ".sam");
+            splitFile.deleteOnExit();
+            assertTrue(splitFile.exists());
+
+            SAMFileReader split = new SAMFileReader(splitFile);
+            List<SAMReadGroupRecord> readGroups = split.getFileHeader().getReadGroups();
+            assertEquals(1, readGroups.size());
+            assertEquals(rgId, readGroups.get(0).getId());
+            List<String> records = new ArrayList<String>();
+            for (SAMRecord rec : split) {
+                records.add(rec.getSAMString());
+            }
+            split.close();
+            assertEquals(expectedRecords.get(rgId), records);
+            count += records.size();
+        }
+        assertEquals(3, count);
+    }
 }